@@ -30,16 +30,37 @@ import java.security.MessageDigest
  * appending SMS data to it, and retrieving existing SMS IDs for deduplication.
  * All network operations are performed asynchronously using Kotlin coroutines.
  *
- * @property context The application context, used for accessing resources and initializing Google services.
- * @property account The [GoogleSignInAccount] of the authenticated user, used for authorizing API calls.
+ * @property context The application context, used for accessing resources and checking the network.
+ * @property driveService Client for Google Drive API interactions.
+ * @property sheetsService Client for Google Sheets API interactions.
+ * @property cache Persistent spreadsheet ID and ID-set bookkeeping.
  */
-class GoogleSheetsService(
+class GoogleSheetsService internal constructor(
     private val context: Context,
-    private val account: GoogleSignInAccount
-) {
-    private var driveService: Drive? = null // Service for Google Drive API interactions
-    private var sheetsService: Sheets? = null // Service for Google Sheets API interactions
-    private var spreadsheetId: String? = null // Cached ID of the target spreadsheet
+    private val driveService: Drive,
+    private val sheetsService: Sheets,
+    private val cache: SheetCache
+) : SheetsBatchUploader.Transport {
+
+    /**
+     * Creates the service with Drive and Sheets clients authorized as [account].
+     *
+     * @param context The application context, used for accessing resources and initializing Google services.
+     * @param account The [GoogleSignInAccount] of the authenticated user, used for authorizing API calls.
+     */
+    constructor(context: Context, account: GoogleSignInAccount) : this(context, credential(context, account))
+
+    /** Builds both clients on one [credential], so they share its OAuth2 token. */
+    private constructor(context: Context, credential: GoogleAccountCredential) : this(
+        context,
+        Drive.Builder(AndroidHttp.newCompatibleTransport(), GsonFactory.getDefaultInstance(), credential)
+            .setApplicationName(context.getString(R.string.app_name)) // Set application name for API requests
+            .build(),
+        Sheets.Builder(AndroidHttp.newCompatibleTransport(), GsonFactory.getDefaultInstance(), credential)
+            .setApplicationName(context.getString(R.string.app_name)) // Set application name for API requests
+            .build(),
+        SheetCache.get(context)
+    )
 
     companion object {
         private const val TAG = "GoogleSheetsService" // Logcat tag
@@ -51,33 +72,16 @@ class GoogleSheetsService(
         const val SMS_ID_COLUMN_INDEX = 0
         /** Default header row values for a newly created spreadsheet. */
         val DEFAULT_COLUMNS = listOf("SMS ID", "Timestamp", "Sender", "Message Body")
-    }
-
-    /**
-     * Initializes the [driveService] and [sheetsService] using the provided user credentials
-     * and application context.
-     */
-    init {
-        // Obtain Google Account credentials with necessary OAuth2 scopes for Drive and Sheets.
-        val credential = GoogleAccountCredential.usingOAuth2(
-            context,
-            listOf(DriveScopes.DRIVE_FILE, SheetsScopes.SPREADSHEETS) // Scopes required by the app
-        )
-        credential.selectedAccount = account.account // Set the authenticated account
-
-        // Initialize HTTP transport and JSON factory
-        val transport = AndroidHttp.newCompatibleTransport()
-        val jsonFactory = GsonFactory.getDefaultInstance()
-
-        // Build Google Drive service client
-        driveService = Drive.Builder(transport, jsonFactory, credential)
-            .setApplicationName(context.getString(R.string.app_name)) // Set application name for API requests
-            .build()
 
-        // Build Google Sheets service client
-        sheetsService = Sheets.Builder(transport, jsonFactory, credential)
-            .setApplicationName(context.getString(R.string.app_name)) // Set application name for API requests
-            .build()
+        /** Returns Google Account credentials for [account] with the OAuth2 scopes the app needs. */
+        private fun credential(context: Context, account: GoogleSignInAccount): GoogleAccountCredential {
+            val credential = GoogleAccountCredential.usingOAuth2(
+                context,
+                listOf(DriveScopes.DRIVE_FILE, SheetsScopes.SPREADSHEETS) // Scopes required by the app
+            )
+            credential.selectedAccount = account.account // Set the authenticated account
+            return credential
+        }
     }
 
     /**
@@ -99,7 +103,9 @@ class GoogleSheetsService(
     /**
      * Finds an existing spreadsheet named [SHEET_NAME] in the user's Google Drive
      * or creates a new one if it doesn't exist.
-     * The ID of the found or created spreadsheet is cached in [spreadsheetId] for subsequent calls.
+     * The ID of the found or created spreadsheet is kept in the persistent [SheetCache], so later
+     * calls, including from other processes, skip Drive until [SheetCache.SPREADSHEET_ID_TTL_MILLIS]
+     * has passed or a 404 from the sheet has invalidated it.
      * This function operates on the IO dispatcher due to network operations.
      *
      * @return The ID of the spreadsheet if found or created successfully, or null if an error occurs.
@@ -107,7 +113,7 @@ class GoogleSheetsService(
      */
     suspend fun findOrCreateSpreadsheet(): String? = withContext(Dispatchers.IO) {
         // Return cached spreadsheet ID if already available
-        if (spreadsheetId != null) return@withContext spreadsheetId
+        cache.spreadsheetId(System.currentTimeMillis())?.let { return@withContext it }
 
         // Check for network connectivity before making API calls
         if (!NetworkUtils.isNetworkAvailable(context)) {
@@ -119,13 +125,14 @@ class GoogleSheetsService(
             // Search for the spreadsheet by name, mimeType, and owner
             Log.d(TAG, "Searching for spreadsheet: $SHEET_NAME")
             val query = "name = '$SHEET_NAME' and mimeType = 'application/vnd.google-apps.spreadsheet' and 'me' in owners and trashed = false"
-            val files = driveService?.files()?.list()?.setQ(query)?.setSpaces("drive")?.execute()
+            val files = driveService.files()?.list()?.setQ(query)?.setSpaces("drive")?.execute()
 
             // If spreadsheet found, cache its ID and return it
             if (files != null && files.files.isNotEmpty()) {
-                spreadsheetId = files.files[0].id
-                Log.d(TAG, "Found existing spreadsheet. ID: $spreadsheetId")
-                return@withContext spreadsheetId
+                val foundId = files.files[0].id
+                cache.putSpreadsheetId(foundId, System.currentTimeMillis())
+                Log.d(TAG, "Found existing spreadsheet. ID: $foundId")
+                return@withContext foundId
             }
 
             // Spreadsheet not found, create a new one
@@ -145,10 +152,11 @@ class GoogleSheetsService(
                 .setSheets(listOf(sheetTab)) // Add the defined sheet tab
 
             // Create the spreadsheet using the Sheets API
-            val createdSpreadsheet = sheetsService?.spreadsheets()?.create(spreadsheetToCreate)?.execute()
-            spreadsheetId = createdSpreadsheet?.spreadsheetId // Cache the new spreadsheet ID
-            Log.d(TAG, "Created new spreadsheet. ID: $spreadsheetId")
-            return@withContext spreadsheetId
+            val createdSpreadsheet = sheetsService.spreadsheets()?.create(spreadsheetToCreate)?.execute()
+            val createdId = createdSpreadsheet?.spreadsheetId
+            if (createdId != null) cache.putSpreadsheetId(createdId, System.currentTimeMillis()) // Cache the new spreadsheet ID
+            Log.d(TAG, "Created new spreadsheet. ID: $createdId")
+            return@withContext createdId
 
         } catch (e: GoogleJsonResponseException) {
             // Handle errors from Google API calls (e.g., permission issues, quota exceeded)
@@ -177,14 +185,12 @@ class GoogleSheetsService(
      * @throws IOException if [findOrCreateSpreadsheet] fails due to network or critical API errors.
      */
     suspend fun appendSmsToSheet(smsData: SmsData): Boolean = withContext(Dispatchers.IO) {
-        // Ensure spreadsheetId is initialized. This might throw IOException if findOrCreateSpreadsheet fails.
+        // Ensure the spreadsheet ID is known. This might throw IOException if findOrCreateSpreadsheet fails.
+        val spreadsheetId = findOrCreateSpreadsheet() // This will throw if it fails critically
         if (spreadsheetId == null) {
-            findOrCreateSpreadsheet() // This will throw if it fails critically
-            if (spreadsheetId == null) {
-                // If findOrCreateSpreadsheet completed but didn't set an ID (should ideally not happen if no exception)
-                Log.e(TAG, "Spreadsheet ID is null even after attempting to find/create. Cannot append.")
-                return@withContext false // Critical failure to obtain spreadsheet ID
-            }
+            // If findOrCreateSpreadsheet completed but didn't return an ID (should ideally not happen if no exception)
+            Log.e(TAG, "Spreadsheet ID is null even after attempting to find/create. Cannot append.")
+            return@withContext false // Critical failure to obtain spreadsheet ID
         }
 
         // Double-check network availability before attempting to append data.
@@ -200,20 +206,13 @@ class GoogleSheetsService(
             // Generate the unique ID for this SMS (for the first column)
             val generatedId = generateSmsId(smsData)
             // Prepare the row data to be appended
-            val values = listOf(
-                listOf(
-                    generatedId, // Column A: SMS ID
-                    smsData.timestamp.toString(), // Column B: Timestamp
-                    smsData.sender, // Column C: Sender
-                    smsData.body    // Column D: Message Body
-                )
-            )
+            val values = listOf(smsRowValues(generatedId, smsData))
             val valueRange = ValueRange().setValues(values)
             // Specify the sheet and range. "A1" implies appending after the last row with data in any column.
             val range = "$MESSAGES_SHEET_TAB_NAME!A1"
 
             // Execute the append operation via Google Sheets API
-            sheetsService?.spreadsheets()?.values()
+            sheetsService.spreadsheets()?.values()
                 ?.append(spreadsheetId, range, valueRange)
                 ?.setValueInputOption("USER_ENTERED") // Interpret data as if user typed it
                 ?.execute()
@@ -221,6 +220,7 @@ class GoogleSheetsService(
             return@withContext true
         } catch (e: GoogleJsonResponseException) {
             Log.e(TAG, "Google API error in appendSmsToSheet: ${e.statusCode} - ${e.details?.message}", e)
+            invalidateIfNotFound(e)
         } catch (e: IOException) {
             // Network or I/O errors during the append operation itself
             Log.e(TAG, "Network or IO error in appendSmsToSheet: ${e.message}", e)
@@ -230,6 +230,44 @@ class GoogleSheetsService(
         return@withContext false // Return false if any error occurs during append
     }
 
+    /**
+     * Builds the cell values of the sheet row for an SMS, in [DEFAULT_COLUMNS] order.
+     *
+     * @param smsId The ID from [generateSmsId] for [smsData].
+     * @param smsData The SMS to store in the row.
+     */
+    fun smsRowValues(smsId: String, smsData: SmsData): List<Any> = listOf(
+        smsId, // Column A: SMS ID
+        smsData.timestamp.toString(), // Column B: Timestamp
+        smsData.sender, // Column C: Sender
+        smsData.body    // Column D: Message Body
+    )
+
+    /**
+     * Appends several rows to the Messages tab in a single `values.append` request.
+     * Used by [SheetsBatchUploader]; unlike [appendSmsToSheet], failures are thrown so the
+     * uploader can decide whether to retry, split the batch, or give up.
+     *
+     * @param rows Row values as built by [smsRowValues].
+     * @throws IOException on network errors; [GoogleJsonResponseException] if the API rejects the request.
+     */
+    override suspend fun appendRows(rows: List<List<Any>>): Unit = withContext(Dispatchers.IO) {
+        val currentSpreadsheetId = findOrCreateSpreadsheet()
+            ?: throw IOException("Spreadsheet ID is null even after attempting to find/create.")
+        val range = "$MESSAGES_SHEET_TAB_NAME!A1"
+        try {
+            sheetsService.spreadsheets()?.values()
+                ?.append(currentSpreadsheetId, range, ValueRange().setValues(rows))
+                ?.setValueInputOption("USER_ENTERED") // Interpret data as if user typed it
+                ?.setInsertDataOption("INSERT_ROWS") // Never overwrite cells below the table
+                ?.execute()
+        } catch (e: GoogleJsonResponseException) {
+            invalidateIfNotFound(e)
+            throw e
+        }
+        Log.d(TAG, "Appended ${rows.size} rows to sheet in one request.")
+    }
+
     /**
      * Retrieves a list of all existing SMS IDs (from the first column) from the Google Sheet.
      * This is used for deduplication to avoid backing up the same SMS multiple times.
@@ -241,13 +279,11 @@ class GoogleSheetsService(
      * @throws IOException if [findOrCreateSpreadsheet] fails due to network or critical API errors.
      */
     suspend fun getExistingSmsIds(): List<String> = withContext(Dispatchers.IO) {
-        // Ensure spreadsheetId is initialized. This might throw IOException.
+        // Ensure the spreadsheet ID is known. This might throw IOException.
+        val spreadsheetId = findOrCreateSpreadsheet()
         if (spreadsheetId == null) {
-            findOrCreateSpreadsheet()
-            if (spreadsheetId == null) {
-                Log.e(TAG, "Spreadsheet ID is null even after attempting to find/create. Cannot get existing IDs.")
-                return@withContext emptyList()
-            }
+            Log.e(TAG, "Spreadsheet ID is null even after attempting to find/create. Cannot get existing IDs.")
+            return@withContext emptyList()
         }
 
         if (!NetworkUtils.isNetworkAvailable(context)) {
@@ -257,22 +293,8 @@ class GoogleSheetsService(
             return@withContext emptyList()
         }
 
-        val ids = mutableListOf<String>()
         try {
-            // Define the range to read: Column A, starting from the second row (A2:A) to skip header.
-            val range = "$MESSAGES_SHEET_TAB_NAME!A2:A"
-            val response = sheetsService?.spreadsheets()?.values()?.get(spreadsheetId, range)?.execute()
-            val values = response?.getValues() // List of rows, where each row is a list of cell values
-
-            if (values != null) {
-                for (row in values) {
-                    // Add the ID from the first cell of the row, if it exists and is not null.
-                    if (row.isNotEmpty() && row[0] != null) {
-                        ids.add(row[0].toString())
-                    }
-                }
-            }
-            Log.d(TAG, "Fetched ${ids.size} existing SMS IDs from the sheet.")
+            return@withContext getSmsIdsAfterRow(spreadsheetId, 0).filter { it.isNotEmpty() }
         } catch (e: GoogleJsonResponseException) {
             Log.e(TAG, "Google API error in getExistingSmsIds: ${e.statusCode} - ${e.details?.message}", e)
             // On error, return empty list; caller should handle this gracefully.
@@ -282,9 +304,51 @@ class GoogleSheetsService(
         } catch (e: Exception) {
             Log.e(TAG, "Unexpected error in getExistingSmsIds: ${e.message}", e)
         }
+        return@withContext emptyList()
+    }
+
+    /**
+     * Reads the SMS IDs in the ID column below its first [rowCount] data rows, so a caller that
+     * already has those rows only downloads the new ones. Used by [SheetDedup.refresh]; unlike
+     * [getExistingSmsIds], failures are thrown so a failed read is never mistaken for an empty one.
+     *
+     * @param spreadsheetId The spreadsheet to read, as returned by [findOrCreateSpreadsheet].
+     * @param rowCount Number of data rows (header excluded) to skip.
+     * @return The IDs in row order; its size is the number of rows read, so blank cells count as
+     *         read rows and are returned as empty strings.
+     * @throws IOException on network errors; [GoogleJsonResponseException] if the API rejects the
+     *         request, after invalidating the [SheetCache] if the spreadsheet no longer exists.
+     */
+    suspend fun getSmsIdsAfterRow(spreadsheetId: String, rowCount: Int): List<String> = withContext(Dispatchers.IO) {
+        // Column A from the first unread row; row 1 is the header, so data row n is sheet row n + 1.
+        val range = "$MESSAGES_SHEET_TAB_NAME!A${rowCount + 2}:A"
+        val response = try {
+            sheetsService.spreadsheets()?.values()?.get(spreadsheetId, range)?.execute()
+        } catch (e: GoogleJsonResponseException) {
+            invalidateIfNotFound(e)
+            throw e
+        }
+        // List of rows, where each row is a list of cell values; trailing empty rows are omitted.
+        val values = response?.getValues() ?: return@withContext emptyList()
+        val ids = ArrayList<String>(values.size)
+        for (row in values) {
+            ids.add(if (row.isNotEmpty() && row[0] != null) row[0].toString() else "")
+        }
+        Log.d(TAG, "Fetched ${ids.size} SMS IDs past row $rowCount from the sheet.")
         return@withContext ids
     }
 
+    /**
+     * Drops the cached spreadsheet if the API says it no longer exists, so the next
+     * [findOrCreateSpreadsheet] looks it up (or recreates it) and the dedup index is rebuilt.
+     */
+    private fun invalidateIfNotFound(e: GoogleJsonResponseException) {
+        if (e.statusCode == 404) {
+            Log.w(TAG, "Spreadsheet not found (HTTP 404); invalidating the sheet cache.")
+            cache.invalidate()
+        }
+    }
+
     /**
      * Converts an [Exception] into a user-friendly error message string.
      * This is useful for displaying errors to the user in the UI.
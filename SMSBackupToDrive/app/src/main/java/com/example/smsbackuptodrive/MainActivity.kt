@@ -380,10 +380,11 @@ class MainActivity : AppCompatActivity() {
      * @return A [SyncResult] object containing the outcome of the synchronization.
      */
     private suspend fun performSmsSync(googleSignInAccount: GoogleSignInAccount): SyncResult {
-        var newMessagesBackedUpCount = 0
         var messagesProcessedCount = 0
         var errorMessage: String? = null
         var smsListWasEmpty = false // Flag to indicate if the device has any SMS messages
+        // Kept outside the try so rows uploaded before a failing batch are still counted.
+        var batchUploader: SheetsBatchUploader? = null
         // Initialize GoogleSheetsService for interacting with Google Sheets API
         val sheetService = GoogleSheetsService(applicationContext, googleSignInAccount)
 
@@ -410,9 +411,20 @@ class MainActivity : AppCompatActivity() {
                 }
                 Log.d(TAG, "performSmsSync: Using spreadsheet ID: $currentSpreadsheetId")
 
-                // Get IDs of SMS messages already present in the Google Sheet to avoid duplicates.
-                val existingSmsIds = withContext(Dispatchers.IO) { sheetService.getExistingSmsIds() }
-                Log.d(TAG, "performSmsSync: Found ${existingSmsIds.size} existing SMS IDs in sheet.")
+                // Duplicates are checked against the local index; the sheet is only read for rows it
+                // hasn't seen, and not at all while the cached ID set is fresh.
+                val dedupIndex = withContext(Dispatchers.IO) {
+                    SheetDedup.get(applicationContext).also {
+                        SheetDedup.refresh(it, sheetService, SheetCache.get(applicationContext), currentSpreadsheetId)
+                    }
+                }
+                Log.d(TAG, "performSmsSync: Dedup index holds ${dedupIndex.size()} SMS IDs.")
+
+                // New messages go out in batches; an ID enters the index once its batch has landed.
+                val uploader = SheetsBatchUploader(sheetService) { uploadedIds ->
+                    withContext(Dispatchers.IO) { uploadedIds.forEach { dedupIndex.addHexId(it) } }
+                }
+                batchUploader = uploader
 
                 var currentIterationProcessed = 0 // Counter for UI progress updates
                 for (sms in smsList) {
@@ -427,22 +439,20 @@ class MainActivity : AppCompatActivity() {
                     // Generate a unique ID for the current SMS to check for duplicates and for storage.
                     val currentSmsId = withContext(Dispatchers.IO) { sheetService.generateSmsId(sms) }
 
-                    // If the SMS is not already in the sheet, append it.
-                    if (!existingSmsIds.contains(currentSmsId)) {
-                        val success = withContext(Dispatchers.IO) { sheetService.appendSmsToSheet(sms) }
-                        if (success) {
-                            newMessagesBackedUpCount++
-                            Log.d(TAG, "performSmsSync: Backed up new SMS - ID: $currentSmsId")
-                        } else {
-                            // Log if a specific SMS fails to append, but continue with others.
-                            // A more robust error handling might collect these individual failures.
-                            Log.e(TAG, "performSmsSync: Failed to backup SMS - ID: $currentSmsId, Sender: ${sms.sender}")
-                        }
+                    // If the SMS is not already in the sheet, queue it for the next batch.
+                    if (!dedupIndex.containsHexId(currentSmsId)) {
+                        uploader.add(currentSmsId, sheetService.smsRowValues(currentSmsId, sms))
                     } else {
                         // This SMS is a duplicate, already exists in the sheet.
                         Log.d(TAG, "performSmsSync: SMS already exists (duplicate) - ID: $currentSmsId")
                     }
                 }
+                uploader.flush()
+                // Rows the API rejected individually are logged but don't fail the whole sync.
+                for (rejectedId in uploader.rejectedSmsIds) {
+                    Log.e(TAG, "performSmsSync: Failed to backup SMS - ID: $rejectedId")
+                }
+                withContext(Dispatchers.IO) { dedupIndex.flush() }
             }
         } catch (e: Exception) {
             // Catch any exception during the sync process (e.g., network, API errors).
@@ -450,6 +460,7 @@ class MainActivity : AppCompatActivity() {
             // Convert the exception to a user-friendly error message.
             errorMessage = sheetService.getErrorMessageForException(e)
         }
+        val newMessagesBackedUpCount = batchUploader?.uploadedCount ?: 0
         // Return the populated SyncResult.
         return SyncResult(newMessagesBackedUpCount, messagesProcessedCount, errorMessage, smsListWasEmpty)
     }
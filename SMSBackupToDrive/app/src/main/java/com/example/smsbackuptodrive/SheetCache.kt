@@ -0,0 +1,97 @@
+package com.example.smsbackuptodrive
+
+import android.content.Context
+import android.content.SharedPreferences
+
+/**
+ * Persistent cache of what the app knows about the backup spreadsheet, so a fresh process (every
+ * [SmsSyncWorker] run, for instance) doesn't have to ask Drive for the spreadsheet again or
+ * re-read the sheet's whole ID column.
+ *
+ * It remembers the spreadsheet ID, and for the [SheetDedup] index the spreadsheet its IDs came
+ * from and how many data rows of the ID column have been read into it. Each part has a TTL: an
+ * expired spreadsheet ID is checked against Drive again, and an expired ID set is topped up by
+ * reading only the rows past the known row count. [invalidate] drops everything, e.g. when the
+ * sheet API answers 404 because the spreadsheet was deleted.
+ *
+ * Backed by [SharedPreferences]; safe to use from any thread.
+ */
+class SheetCache(private val prefs: SharedPreferences) {
+
+    companion object {
+        /** Name of the preferences file holding the cache. */
+        private const val PREFS_NAME = "sheet_cache"
+        private const val KEY_SPREADSHEET_ID = "spreadsheet_id"
+        private const val KEY_SPREADSHEET_VERIFIED_AT = "spreadsheet_verified_at"
+        private const val KEY_IDS_SPREADSHEET_ID = "ids_spreadsheet_id"
+        private const val KEY_IDS_ROW_COUNT = "ids_row_count"
+        private const val KEY_IDS_REFRESHED_AT = "ids_refreshed_at"
+
+        /** How long a spreadsheet ID is used before Drive is asked again whether it still exists. */
+        const val SPREADSHEET_ID_TTL_MILLIS = 7 * 24 * 60 * 60 * 1000L
+        /** How long the ID set is trusted before rows appended by other writers are read in. */
+        const val ID_SET_TTL_MILLIS = 60 * 60 * 1000L
+
+        /** Returns the cache stored in [context]'s private preferences. */
+        fun get(context: Context): SheetCache =
+            SheetCache(context.applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE))
+    }
+
+    /**
+     * Returns the cached spreadsheet ID, or null if there is none or it is older than
+     * [SPREADSHEET_ID_TTL_MILLIS] as of [nowMillis].
+     */
+    fun spreadsheetId(nowMillis: Long): String? {
+        val id = prefs.getString(KEY_SPREADSHEET_ID, null) ?: return null
+        val verifiedAt = prefs.getLong(KEY_SPREADSHEET_VERIFIED_AT, 0L)
+        // A clock that went backwards counts as expired.
+        if (nowMillis < verifiedAt || nowMillis - verifiedAt >= SPREADSHEET_ID_TTL_MILLIS) return null
+        return id
+    }
+
+    /** Records [spreadsheetId] as found on Drive (or just created) at [nowMillis]. */
+    fun putSpreadsheetId(spreadsheetId: String, nowMillis: Long) {
+        prefs.edit()
+            .putString(KEY_SPREADSHEET_ID, spreadsheetId)
+            .putLong(KEY_SPREADSHEET_VERIFIED_AT, nowMillis)
+            .apply()
+    }
+
+    /** The spreadsheet whose IDs are in the dedup index, or null if it holds none yet. */
+    val idsSpreadsheetId: String?
+        get() = prefs.getString(KEY_IDS_SPREADSHEET_ID, null)
+
+    /** Number of data rows (header excluded) of the ID column already read into the dedup index. */
+    val idsRowCount: Int
+        get() = prefs.getInt(KEY_IDS_ROW_COUNT, 0)
+
+    /**
+     * True if the dedup index was filled from [spreadsheetId] and last refreshed less than
+     * [ID_SET_TTL_MILLIS] before [nowMillis].
+     */
+    fun isIdSetFresh(spreadsheetId: String, nowMillis: Long): Boolean {
+        if (idsSpreadsheetId != spreadsheetId) return false
+        val refreshedAt = prefs.getLong(KEY_IDS_REFRESHED_AT, 0L)
+        return nowMillis >= refreshedAt && nowMillis - refreshedAt < ID_SET_TTL_MILLIS
+    }
+
+    /**
+     * Records that the dedup index holds the first [rowCount] data rows of [spreadsheetId]'s ID
+     * column as of [nowMillis]. Call only after the index has been flushed.
+     */
+    fun putIdSet(spreadsheetId: String, rowCount: Int, nowMillis: Long) {
+        prefs.edit()
+            .putString(KEY_IDS_SPREADSHEET_ID, spreadsheetId)
+            .putInt(KEY_IDS_ROW_COUNT, rowCount)
+            .putLong(KEY_IDS_REFRESHED_AT, nowMillis)
+            .commit()
+    }
+
+    /**
+     * Forgets the spreadsheet and the ID set. The next lookup asks Drive again, and the next
+     * [SheetDedup.refresh] empties the index and reads the ID column from the top.
+     */
+    fun invalidate() {
+        prefs.edit().clear().commit()
+    }
+}
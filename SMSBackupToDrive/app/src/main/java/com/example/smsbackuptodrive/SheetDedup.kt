@@ -0,0 +1,78 @@
+package com.example.smsbackuptodrive
+
+import android.content.Context
+import android.util.Log
+import com.example.smsbackup.core.DedupIndex
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
+
+/**
+ * Process-wide access to the local [DedupIndex] of SMS IDs already in the backup sheet.
+ *
+ * Both the manual sync in [MainActivity] and [SmsSyncWorker] check this index instead of
+ * downloading the sheet's whole ID column for every message. Every successful append adds to it,
+ * and [refresh] reads in rows added by other writers, guided by the row count in [SheetCache].
+ */
+object SheetDedup {
+    private const val TAG = "SheetDedup" // Logcat tag
+    /** File name of the index inside the app's private files directory. */
+    private const val INDEX_FILE_NAME = "sheet_dedup.idx"
+
+    @Volatile
+    private var index: DedupIndex? = null
+
+    /**
+     * Returns the shared index, opening it on first use. It stays open for the life of the process.
+     *
+     * @param context Any context; only its application files directory is used.
+     */
+    fun get(context: Context): DedupIndex {
+        index?.let { return it }
+        synchronized(this) {
+            return index ?: DedupIndex.open(File(context.applicationContext.filesDir, INDEX_FILE_NAME))
+                .also { index = it }
+        }
+    }
+
+    /** Serializes refreshes, so the manual sync and the worker don't read the same rows twice. */
+    private val refreshLock = Mutex()
+
+    /**
+     * Brings [dedupIndex] up to date with the sheet [spreadsheetId], which must be the ID returned
+     * by [GoogleSheetsService.findOrCreateSpreadsheet]. Does nothing while the [SheetCache] says the
+     * ID set is fresh. Otherwise reads only the ID-column rows past the cached row count; if the
+     * index was built from another spreadsheet, or the cache was invalidated, the index is emptied
+     * and the whole column is read once.
+     *
+     * @throws java.io.IOException if the sheet can't be read; the cache is left as it was.
+     */
+    suspend fun refresh(dedupIndex: DedupIndex, sheetService: GoogleSheetsService, cache: SheetCache,
+                        spreadsheetId: String) = refreshLock.withLock {
+        val now = System.currentTimeMillis()
+        if (cache.isIdSetFresh(spreadsheetId, now)) return@withLock
+        var knownRows = cache.idsRowCount
+        if (cache.idsSpreadsheetId != spreadsheetId || (knownRows > 0 && dedupIndex.size() == 0)) {
+            // IDs from another sheet, or an index file that was lost: start over from the top.
+            withContext(Dispatchers.IO) { dedupIndex.clear() }
+            knownRows = 0
+        }
+        val ids = sheetService.getSmsIdsAfterRow(spreadsheetId, knownRows)
+        withContext(Dispatchers.IO) {
+            for (id in ids) {
+                if (id.isEmpty()) continue
+                try {
+                    dedupIndex.addHexId(id)
+                } catch (e: IllegalArgumentException) {
+                    // A hand-edited cell; it can't match any generated ID anyway.
+                    Log.w(TAG, "Skipping malformed SMS ID in sheet: $id")
+                }
+            }
+            dedupIndex.flush()
+            cache.putIdSet(spreadsheetId, knownRows + ids.size, now)
+        }
+        Log.d(TAG, "Read ${ids.size} SMS IDs past row $knownRows; dedup index holds ${dedupIndex.size()} IDs.")
+    }
+}
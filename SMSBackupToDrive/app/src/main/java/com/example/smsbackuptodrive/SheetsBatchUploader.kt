@@ -0,0 +1,168 @@
+package com.example.smsbackuptodrive
+
+import android.util.Log
+import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAuthIOException
+import com.google.api.client.googleapis.json.GoogleJsonResponseException
+import kotlinx.coroutines.delay
+import java.io.IOException
+
+/**
+ * Collects new SMS rows and appends them to the sheet in batches, one API request per batch.
+ *
+ * A batch is sent once [maxBatchRows] rows are pending, or when a row is added more than
+ * [maxBatchDelayMillis] after the oldest pending row; [flush] sends whatever is left. Transient
+ * failures (network errors, HTTP 408/429/5xx) are retried with exponential backoff. A batch the API
+ * rejects as malformed (HTTP 400/413) is split in half and retried, so one bad row doesn't block
+ * the rest; a single rejected row is dropped and listed in [rejectedSmsIds].
+ *
+ * An append is not idempotent: if a request succeeds but its response is lost, the retry adds the
+ * rows a second time. That is the same trade-off the one-row-at-a-time path made.
+ *
+ * Not thread-safe; use an instance from a single coroutine.
+ *
+ * @property transport Sends one batch of rows as a single append request.
+ * @property onRowsUploaded Called with the SMS IDs of every batch that reached the sheet, in order.
+ */
+class SheetsBatchUploader(
+    private val transport: Transport,
+    private val maxBatchRows: Int = DEFAULT_MAX_BATCH_ROWS,
+    private val maxBatchDelayMillis: Long = DEFAULT_MAX_BATCH_DELAY_MILLIS,
+    private val maxAttempts: Int = DEFAULT_MAX_ATTEMPTS,
+    private val initialBackoffMillis: Long = DEFAULT_INITIAL_BACKOFF_MILLIS,
+    private val onRowsUploaded: suspend (List<String>) -> Unit = {}
+) {
+
+    /** Appends rows to the sheet. Implementations throw an [IOException] if the request fails. */
+    interface Transport {
+        /**
+         * Appends [rows] after the last row of the sheet in one request.
+         * @throws IOException if the request fails; nothing may be assumed about which rows landed.
+         */
+        suspend fun appendRows(rows: List<List<Any>>)
+    }
+
+    /** A row waiting to be sent, together with the SMS ID stored in its first column. */
+    private class PendingRow(val smsId: String, val values: List<Any>)
+
+    companion object {
+        private const val TAG = "SheetsBatchUploader" // Logcat tag
+        /** Default number of rows sent per append request. */
+        const val DEFAULT_MAX_BATCH_ROWS = 500
+        /** Default age of the oldest pending row after which the next [add] sends the batch. */
+        const val DEFAULT_MAX_BATCH_DELAY_MILLIS = 5_000L
+        /** Default number of attempts per batch before a transient failure is given up on. */
+        const val DEFAULT_MAX_ATTEMPTS = 5
+        /** Default delay before the first retry; it doubles after each further failure. */
+        const val DEFAULT_INITIAL_BACKOFF_MILLIS = 1_000L
+    }
+
+    private val pending = ArrayDeque<PendingRow>()
+    private var oldestPendingAtNanos = 0L
+
+    /** Number of rows that have reached the sheet. */
+    var uploadedCount = 0
+        private set
+
+    /** IDs of rows the API rejected on their own; they are not retried. */
+    val rejectedSmsIds = mutableListOf<String>()
+
+    init {
+        require(maxBatchRows > 0) { "maxBatchRows must be positive: $maxBatchRows" }
+        require(maxAttempts > 0) { "maxAttempts must be positive: $maxAttempts" }
+    }
+
+    /**
+     * Queues one row and sends the pending batch if it is full or old enough.
+     *
+     * @param smsId The SMS ID stored in the row, reported back through [onRowsUploaded].
+     * @param values The cell values of the row.
+     * @throws IOException if a batch could not be sent after all retries. The unsent rows stay
+     *         pending and go out with the next [flush].
+     */
+    suspend fun add(smsId: String, values: List<Any>) {
+        if (pending.isEmpty()) {
+            oldestPendingAtNanos = System.nanoTime()
+        }
+        pending.addLast(PendingRow(smsId, values))
+        val ageMillis = (System.nanoTime() - oldestPendingAtNanos) / 1_000_000
+        if (pending.size >= maxBatchRows || ageMillis >= maxBatchDelayMillis) {
+            sendPending()
+        }
+    }
+
+    /**
+     * Sends every pending row.
+     * @throws IOException as for [add]; rows that were not sent stay pending.
+     */
+    suspend fun flush() {
+        sendPending()
+    }
+
+    /** Number of rows queued but not yet sent. */
+    val pendingCount: Int
+        get() = pending.size
+
+    private suspend fun sendPending() {
+        while (pending.isNotEmpty()) {
+            send(pending.take(maxBatchRows))
+        }
+        oldestPendingAtNanos = System.nanoTime()
+    }
+
+    /**
+     * Sends [batch], which is always a prefix of [pending], and removes it from [pending] once
+     * every row in it has either landed or been rejected.
+     */
+    private suspend fun send(batch: List<PendingRow>) {
+        var backoffMillis = initialBackoffMillis
+        var attempt = 1
+        while (true) {
+            try {
+                transport.appendRows(batch.map { it.values })
+            } catch (e: IOException) {
+                when {
+                    isMalformedRequest(e) && batch.size > 1 -> {
+                        // Halve until the offending row is isolated; each half leaves pending on its own.
+                        val half = batch.size / 2
+                        Log.w(TAG, "Batch of ${batch.size} rows rejected (${describe(e)}); splitting.")
+                        send(batch.subList(0, half))
+                        send(batch.subList(half, batch.size))
+                        return
+                    }
+                    isMalformedRequest(e) -> {
+                        Log.e(TAG, "Row with SMS ID ${batch[0].smsId} rejected (${describe(e)}); skipping it.")
+                        rejectedSmsIds.add(batch[0].smsId)
+                        pending.removeFirst()
+                        return
+                    }
+                    !isTransient(e) || attempt >= maxAttempts -> throw e
+                }
+                Log.w(TAG, "Append of ${batch.size} rows failed on attempt $attempt (${describe(e)}); " +
+                        "retrying in $backoffMillis ms.")
+                delay(backoffMillis)
+                backoffMillis *= 2
+                attempt++
+                continue
+            }
+            repeat(batch.size) { pending.removeFirst() }
+            uploadedCount += batch.size
+            Log.d(TAG, "Appended ${batch.size} rows to the sheet.")
+            onRowsUploaded(batch.map { it.smsId })
+            return
+        }
+    }
+
+    /** True for errors a later attempt may not hit again. Authentication failures need the user. */
+    private fun isTransient(e: IOException): Boolean = when (e) {
+        is GoogleAuthIOException -> false
+        is GoogleJsonResponseException -> e.statusCode == 408 || e.statusCode == 429 || e.statusCode >= 500
+        else -> true
+    }
+
+    /** True if the API refused the request because of what was in it, rather than who sent it. */
+    private fun isMalformedRequest(e: IOException): Boolean =
+        e is GoogleJsonResponseException && (e.statusCode == 400 || e.statusCode == 413)
+
+    private fun describe(e: IOException): String =
+        if (e is GoogleJsonResponseException) "HTTP ${e.statusCode}" else e.toString()
+}
@@ -0,0 +1,185 @@
+package com.example.smsbackuptodrive
+
+import android.content.Context
+import android.util.Log
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.zip.CRC32
+
+/**
+ * Append-only local journal of received SMS messages waiting to be uploaded.
+ *
+ * [SmsReceiver] appends every message here and schedules a single unique [SmsSyncWorker], which
+ * drains whatever has accumulated in one batched upload. Draining is two-phase: [beginDrain]
+ * renames the journal aside and returns its messages, and [finishDrain] deletes the renamed file
+ * once the upload has succeeded. A run that fails leaves the file in place, so the next run uploads
+ * it again; messages received in the meantime go to a fresh journal.
+ *
+ * Each record is length-prefixed and ends with a CRC32, so a record torn by a crash mid-write is
+ * detected; the reader stops there. [append] first cuts such a tail off the journal, so records
+ * written after a crash are never stranded behind it. Appends are not fsynced; a message lost
+ * that way is still in the system SMS store and is picked up by the next manual sync.
+ *
+ * @param directory The directory holding the journal files, normally the app's files directory.
+ */
+class SmsJournal(directory: File) {
+
+    companion object {
+        private const val TAG = "SmsJournal" // Logcat tag
+        /** File name of the journal that new messages are appended to. */
+        private const val JOURNAL_FILE_NAME = "incoming_sms.journal"
+        /** File name the journal is renamed to while a worker uploads it. */
+        private const val DRAINING_FILE_NAME = "incoming_sms.journal.draining"
+        /** Guards both files across all instances; the receiver and the worker share a process. */
+        private val LOCK = Any()
+
+        /** Returns the journal stored in [context]'s private files directory. */
+        fun get(context: Context): SmsJournal = SmsJournal(context.applicationContext.filesDir)
+    }
+
+    private val journalFile = File(directory, JOURNAL_FILE_NAME)
+    private val drainingFile = File(directory, DRAINING_FILE_NAME)
+
+    /**
+     * Appends [messages] to the journal.
+     * @throws IOException if the journal can't be written.
+     */
+    fun append(messages: List<SmsData>) {
+        if (messages.isEmpty()) return
+        val buffer = ByteArrayOutputStream()
+        val record = DataOutputStream(buffer)
+        val crc = CRC32()
+        val out = ByteArrayOutputStream()
+        val data = DataOutputStream(out)
+        for (sms in messages) {
+            buffer.reset()
+            record.writeLong(sms.timestamp)
+            writeString(record, sms.sender)
+            writeString(record, sms.body)
+            crc.reset()
+            crc.update(buffer.toByteArray())
+            data.writeInt(buffer.size())
+            buffer.writeTo(data)
+            data.writeInt(crc.value.toInt())
+        }
+        synchronized(LOCK) {
+            truncateTornTail(journalFile)
+            FileOutputStream(journalFile, true).use { it.write(out.toByteArray()) }
+        }
+    }
+
+    /**
+     * Moves the pending messages aside for upload and returns them, oldest first. If an earlier
+     * drain never finished, its messages are returned again and the live journal is left alone.
+     * Returns an empty list if nothing is pending.
+     *
+     * @throws IOException if the journal can't be moved or read.
+     */
+    fun beginDrain(): List<SmsData> = synchronized(LOCK) {
+        if (!drainingFile.exists()) {
+            if (!journalFile.exists()) return emptyList()
+            if (!journalFile.renameTo(drainingFile)) {
+                throw IOException("Could not move $journalFile aside for upload")
+            }
+        }
+        read(drainingFile)
+    }
+
+    /**
+     * Discards the messages returned by the last [beginDrain] once they have been uploaded.
+     *
+     * @throws IOException if they can't be discarded. [beginDrain] would keep returning them, so
+     * a caller draining until it gets an empty list would never stop; it has to give up instead
+     * and leave them to a later run, which finds them already uploaded.
+     */
+    fun finishDrain() {
+        synchronized(LOCK) {
+            if (drainingFile.exists() && !drainingFile.delete()) {
+                throw IOException("Could not delete $drainingFile after uploading it")
+            }
+        }
+    }
+
+    /**
+     * Cuts [file] back to its last intact record. The journal is drained after every burst, so it
+     * holds a handful of records and checking them on each append is cheap.
+     */
+    private fun truncateTornTail(file: File) {
+        if (!file.exists()) return
+        val validLength = scan(file) { }
+        if (validLength < file.length()) {
+            Log.w(TAG, "Dropping ${file.length() - validLength} bytes of a torn record at the end of $file.")
+            RandomAccessFile(file, "rw").use { it.setLength(validLength) }
+        }
+    }
+
+    private fun read(file: File): List<SmsData> {
+        val messages = mutableListOf<SmsData>()
+        scan(file) { payload ->
+            val record = DataInputStream(payload.inputStream())
+            val timestamp = record.readLong()
+            val sender = readString(record)
+            val body = readString(record)
+            messages.add(SmsData(sender = sender, body = body, timestamp = timestamp))
+        }
+        return messages
+    }
+
+    /**
+     * Passes the payload of every intact record of [file] to [onRecord], in order, and returns the
+     * length of the intact prefix; anything after it is a torn or corrupt record.
+     */
+    private inline fun scan(file: File, onRecord: (ByteArray) -> Unit): Long {
+        var validLength = 0L
+        DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+            val crc = CRC32()
+            while (true) {
+                val payload: ByteArray
+                val storedCrc: Int
+                try {
+                    val length = input.readInt()
+                    if (length < 0 || length > file.length()) {
+                        Log.w(TAG, "Corrupt record length $length in $file; dropping the rest.")
+                        break
+                    }
+                    payload = ByteArray(length)
+                    input.readFully(payload)
+                    storedCrc = input.readInt()
+                } catch (e: EOFException) {
+                    // Either the clean end of the file or a record torn by a crash.
+                    break
+                }
+                crc.reset()
+                crc.update(payload)
+                if (crc.value.toInt() != storedCrc) {
+                    Log.w(TAG, "Checksum mismatch in $file; dropping the rest.")
+                    break
+                }
+                onRecord(payload)
+                validLength += 4 + payload.size + 4
+            }
+        }
+        return validLength
+    }
+
+    // DataOutputStream.writeUTF caps strings at 64 KB and uses modified UTF-8, so lengths are explicit.
+    private fun writeString(out: DataOutputStream, value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        out.writeInt(bytes.size)
+        out.write(bytes)
+    }
+
+    private fun readString(input: DataInputStream): String {
+        val bytes = ByteArray(input.readInt())
+        input.readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+}
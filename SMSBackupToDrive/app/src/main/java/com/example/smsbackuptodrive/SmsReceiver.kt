@@ -5,14 +5,13 @@ import android.content.Context
 import android.content.Intent
 import android.provider.Telephony
 import android.util.Log
-import androidx.work.Data
-import androidx.work.OneTimeWorkRequestBuilder
-import androidx.work.WorkManager
+import java.io.IOException
 
 /**
  * A [BroadcastReceiver] that listens for incoming SMS messages.
- * When an SMS is received, it extracts the sender, body, and timestamp,
- * and then enqueues a [SmsSyncWorker] to process and back up the SMS message.
+ * When an SMS is received, it extracts the sender, body, and timestamp, appends the message to
+ * the [SmsJournal], and schedules the unique [SmsSyncWorker] that drains the journal. A burst of
+ * messages therefore ends up in one batched upload rather than one worker per message.
  */
 class SmsReceiver : BroadcastReceiver() {
 
@@ -22,8 +21,8 @@ class SmsReceiver : BroadcastReceiver() {
 
     /**
      * This method is called when the BroadcastReceiver is receiving an Intent broadcast.
-     * It checks if the received intent is for an SMS message. If so, it extracts
-     * SMS details and schedules a background task using WorkManager to sync the SMS.
+     * It checks if the received intent is for an SMS message. If so, it journals the
+     * SMS details and schedules a background task using WorkManager to sync them.
      *
      * @param context The Context in which the receiver is running.
      * @param intent The Intent being received.
@@ -34,6 +33,7 @@ class SmsReceiver : BroadcastReceiver() {
             // Retrieve an array of SmsMessage objects from the intent.
             // An intent can contain multiple messages if it's a multi-part SMS.
             val messages = Telephony.Sms.Intents.getMessagesFromIntent(intent)
+            val received = mutableListOf<SmsData>()
             for (smsMessage in messages) {
                 // Extract relevant information from each SMS message.
                 val sender = smsMessage.originatingAddress // Sender's phone number
@@ -45,25 +45,26 @@ class SmsReceiver : BroadcastReceiver() {
                 Log.d(TAG, "  Body: $messageBody")
                 Log.d(TAG, "  Timestamp: $timestamp")
 
-                // Prepare input data for the SmsSyncWorker.
-                // This data will be passed to the worker to identify the SMS to be synced.
-                val workData = Data.Builder()
-                    .putString(SmsSyncWorker.INPUT_DATA_SENDER, sender)
-                    .putString(SmsSyncWorker.INPUT_DATA_BODY, messageBody)
-                    .putLong(SmsSyncWorker.INPUT_DATA_TIMESTAMP, timestamp)
-                    .build()
-
-                // Create a one-time work request for the SmsSyncWorker.
-                // This tells WorkManager to execute the SmsSyncWorker once with the provided input data.
-                val smsSyncWorkRequest = OneTimeWorkRequestBuilder<SmsSyncWorker>()
-                    .setInputData(workData) // Pass the SMS data to the worker
-                    .build()
+                if (sender == null || messageBody == null || timestamp == 0L) {
+                    Log.e(TAG, "Invalid SMS data received (sender, body, or timestamp is null/zero). Skipping.")
+                    continue
+                }
+                received.add(SmsData(sender = sender, body = messageBody, timestamp = timestamp))
+            }
+            if (received.isEmpty()) return
 
-                // Enqueue the work request with WorkManager.
-                // WorkManager will handle the execution of the worker, including retries and constraints.
-                WorkManager.getInstance(context).enqueue(smsSyncWorkRequest)
-                Log.d(TAG, "Enqueued SMS from $sender to SmsSyncWorker for processing.")
+            try {
+                // The journal write is a single small append, cheap enough for the main thread.
+                SmsJournal.get(context).append(received)
+            } catch (e: IOException) {
+                // The messages are still in the system SMS store; a manual sync will back them up.
+                Log.e(TAG, "Could not journal ${received.size} received SMS.", e)
+                return
             }
+
+            // Schedule the drain. Further messages arriving before it runs coalesce into it.
+            SmsSyncWorker.enqueueDrain(context)
+            Log.d(TAG, "Journaled ${received.size} SMS and scheduled the SmsSyncWorker drain.")
         }
     }
 }
@@ -2,14 +2,23 @@ package com.example.smsbackuptodrive
 
 import android.content.Context
 import android.util.Log
+import androidx.work.Constraints
 import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
 import androidx.work.WorkerParameters
 import com.google.android.gms.auth.api.signin.GoogleSignIn
 import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAuthIOException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import java.io.IOException
 
 /**
- * A [CoroutineWorker] responsible for synchronizing a single SMS message to Google Sheets.
+ * A [CoroutineWorker] that uploads every SMS waiting in the [SmsJournal] to Google Sheets.
+ * [SmsReceiver] schedules it as unique work, so a burst of messages is drained by one run doing a
+ * single spreadsheet lookup and batched appends instead of one worker per message.
  * It handles network checks, Google Sign-In validation, and interacts with [GoogleSheetsService]
  * to perform the actual sheet operations. The worker supports retry mechanisms for transient errors.
  *
@@ -22,114 +31,145 @@ class SmsSyncWorker(appContext: Context, workerParams: WorkerParameters) :
     companion object {
         private const val TAG = "SmsSyncWorker" // Logcat tag
 
-        /** Key for accessing the sender's phone number from the input data. */
+        /** Name of the unique work that drains the journal; at most one run is queued or running. */
+        const val UNIQUE_WORK_NAME = "sms_journal_drain"
+
+        /**
+         * Key for accessing the sender's phone number from the input data. Only work requests
+         * enqueued by older versions of the app, which carried one SMS each, still use these keys.
+         */
         const val INPUT_DATA_SENDER = "INPUT_DATA_SENDER"
         /** Key for accessing the SMS message body from the input data. */
         const val INPUT_DATA_BODY = "INPUT_DATA_BODY"
         /** Key for accessing the SMS timestamp from the input data. */
         const val INPUT_DATA_TIMESTAMP = "INPUT_DATA_TIMESTAMP"
+
+        /**
+         * Schedules a drain of the journal unless one is already queued or running
+         * ([ExistingWorkPolicy.KEEP]), so a burst of messages costs one work request. A running
+         * drain reads the journal again after every batch and only stops once it comes back empty,
+         * which picks up messages journaled while it was uploading. Only a message journaled in the
+         * instant between that last empty read and the run ending waits for the next drain.
+         *
+         * @param context Any context; used to reach [WorkManager].
+         */
+        fun enqueueDrain(context: Context) {
+            val request = OneTimeWorkRequestBuilder<SmsSyncWorker>()
+                .setConstraints(Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                .build()
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.KEEP, request)
+        }
     }
 
     /**
      * The main entry point for the worker's execution.
      * This function performs the following steps:
-     * 1. Checks for network availability. If not available, requests a retry.
-     * 2. Validates input SMS data (sender, body, timestamp). If invalid, returns failure.
-     * 3. Checks if a Google user is signed in. If not, returns failure.
-     * 4. Calls [attemptSmsSheetSync] to perform the core synchronization logic with Google Sheets.
-     * 5. Based on the [WorkerSyncOutcome] from [attemptSmsSheetSync], returns [Result.success],
+     * 1. Moves a single SMS passed as input data (work enqueued by an older version) into the journal.
+     * 2. Checks for network availability. If not available, requests a retry.
+     * 3. Checks if a Google user is signed in. If not, returns failure; the journal is kept.
+     * 4. Calls [drainJournal] to upload everything in the journal.
+     * 5. Based on the [WorkerSyncOutcome] from [drainJournal], returns [Result.success],
      *    [Result.retry], or [Result.failure].
      *
      * @return The result of the work, indicating success, failure, or retry.
      */
     override suspend fun doWork(): Result {
         Log.d(TAG, "doWork started.")
+        val journal = SmsJournal.get(applicationContext)
 
-        // 1. Network Check
-        if (!NetworkUtils.isNetworkAvailable(applicationContext)) {
-            Log.w(TAG, "No network connection. Retrying work.")
-            return Result.retry() // Request a retry if network is unavailable
-        }
-
-        // 2. Input Data Validation
+        // 1. Legacy input data
         val sender = inputData.getString(INPUT_DATA_SENDER)
         val body = inputData.getString(INPUT_DATA_BODY)
         val timestamp = inputData.getLong(INPUT_DATA_TIMESTAMP, 0L)
+        if (sender != null && body != null && timestamp != 0L) {
+            try {
+                withContext(Dispatchers.IO) { journal.append(listOf(SmsData(sender, body, timestamp))) }
+            } catch (e: IOException) {
+                Log.e(TAG, "Could not journal SMS from $sender passed as input data. Retrying work.", e)
+                return Result.retry()
+            }
+        }
 
-        if (sender == null || body == null || timestamp == 0L) {
-            Log.e(TAG, "Invalid SMS data received (sender, body, or timestamp is null/zero). Failing work.")
-            return Result.failure() // Permanent failure for invalid input
+        // 2. Network Check
+        if (!NetworkUtils.isNetworkAvailable(applicationContext)) {
+            Log.w(TAG, "No network connection. Retrying work.")
+            return Result.retry() // Request a retry if network is unavailable
         }
 
         // 3. Google Sign-In Check
         val googleSignInAccount = GoogleSignIn.getLastSignedInAccount(applicationContext)
         if (googleSignInAccount == null) {
             Log.e(TAG, "No signed-in Google account found. Cannot sync SMS. Failing work.")
-            // This is treated as a permanent failure for this work instance.
-            // User needs to sign in for future syncs to succeed.
+            // This is treated as a permanent failure for this work instance. The journal is kept,
+            // so once the user signs in the next received SMS uploads the backlog too.
             return Result.failure()
         }
 
-        Log.d(TAG, "User '${googleSignInAccount.email}' signed in. Proceeding with SMS sync for sender: $sender.")
+        Log.d(TAG, "User '${googleSignInAccount.email}' signed in. Draining the SMS journal.")
 
-        // Initialize GoogleSheetsService and prepare SmsData object
+        // Initialize GoogleSheetsService
         val sheetService = GoogleSheetsService(applicationContext, googleSignInAccount)
-        val smsData = SmsData(sender = sender, body = body, timestamp = timestamp)
 
-        // 4. Attempt the actual SMS synchronization with Google Sheets
-        val outcome = attemptSmsSheetSync(smsData, googleSignInAccount, sheetService)
+        // 4. Upload everything in the journal
+        val outcome = drainJournal(journal, sheetService)
 
         // 5. Determine the Result based on the outcome of the sync attempt
         return when {
             outcome.success -> {
-                Log.i(TAG, "SMS from $sender: Sync process completed successfully (either new backup or duplicate).")
+                Log.i(TAG, "Journal drained: ${outcome.uploadedCount} new SMS backed up.")
                 Result.success()
             }
             outcome.shouldRetry -> {
-                Log.w(TAG, "SMS from $sender: Sync process failed, will retry. Error: ${outcome.detailedError}")
+                Log.w(TAG, "Journal drain failed, will retry. Error: ${outcome.detailedError}")
                 Result.retry()
             }
             else -> { // Not successful and not retryable
-                Log.e(TAG, "SMS from $sender: Sync process failed permanently. Error: ${outcome.detailedError}")
+                Log.e(TAG, "Journal drain failed permanently. Error: ${outcome.detailedError}")
                 Result.failure()
             }
         }.also {
             // Log the final result of doWork for this attempt
-            Log.d(TAG, "doWork finished for SMS from $sender with result: $it")
+            Log.d(TAG, "doWork finished with result: $it")
         }
     }
 
     /**
-     * Data class to represent the outcome of the core SMS synchronization attempt with Google Sheets.
-     * @property success True if the SMS was successfully processed (either backed up or confirmed as a duplicate).
+     * Data class to represent the outcome of draining the journal to Google Sheets.
+     * @property success True if every journaled SMS was processed (either backed up or confirmed as a duplicate).
      *                   False if an error occurred during the sheet operation.
      * @property shouldRetry True if a retryable error (like a network IOException) occurred, suggesting
      *                       the operation might succeed on a subsequent attempt.
      * @property detailedError A string containing details about the error, primarily for logging.
+     * @property uploadedCount Number of SMS appended to the sheet by this run.
      */
     private data class WorkerSyncOutcome(
         val success: Boolean,
         val shouldRetry: Boolean = false,
-        val detailedError: String? = null
+        val detailedError: String? = null,
+        val uploadedCount: Int = 0
     )
 
     /**
-     * Attempts to synchronize a single SMS message with Google Sheets.
-     * This function handles the logic for finding/creating the spreadsheet, generating an SMS ID,
-     * checking for duplicates, and appending the new SMS if it's not a duplicate.
+     * Uploads every SMS in the journal, including a batch left behind by a failed earlier run.
+     * This function finds/creates the spreadsheet once (usually from the [SheetCache]), skips messages already in the
+     * [SheetDedup] index, and sends the rest through a [SheetsBatchUploader]. A journal batch is
+     * discarded only after all of its rows have been sent; on failure it stays for the next run.
      * It catches exceptions related to sheet operations and translates them into a [WorkerSyncOutcome].
      *
-     * @param smsData The [SmsData] object representing the SMS to be synced.
-     * @param googleSignInAccount The [GoogleSignInAccount] of the current user. (Currently unused here but passed for context).
+     * @param journal The journal to drain.
      * @param sheetService An instance of [GoogleSheetsService] to interact with Google Sheets.
      * @return A [WorkerSyncOutcome] indicating the result of the synchronization attempt.
      */
-    private suspend fun attemptSmsSheetSync(
-        smsData: SmsData,
-        googleSignInAccount: GoogleSignInAccount,
-        sheetService: GoogleSheetsService
-    ): WorkerSyncOutcome {
+    private suspend fun drainJournal(journal: SmsJournal, sheetService: GoogleSheetsService): WorkerSyncOutcome {
+        var uploader: SheetsBatchUploader? = null
         try {
+            var pending = withContext(Dispatchers.IO) { journal.beginDrain() }
+            if (pending.isEmpty()) {
+                Log.d(TAG, "drainJournal: Journal is empty; nothing to upload.")
+                return WorkerSyncOutcome(success = true)
+            }
+
             // Step 1: Find or create the spreadsheet.
             // This can throw IOException if network issues occur during API calls.
             val currentSpreadsheetId = sheetService.findOrCreateSpreadsheet()
@@ -137,54 +177,65 @@ class SmsSyncWorker(appContext: Context, workerParams: WorkerParameters) :
                 // This indicates an unexpected issue if findOrCreateSpreadsheet returns null without an exception.
                 return WorkerSyncOutcome(success = false, detailedError = "Failed to find or create spreadsheet (unexpected null response).")
             }
-            Log.d(TAG, "attemptSmsSheetSync: Using spreadsheet ID '$currentSpreadsheetId' for SMS from ${smsData.sender}")
-
-            // Step 2: Generate a unique ID for the SMS.
-            val smsIdToUpload = sheetService.generateSmsId(smsData)
-            Log.d(TAG, "attemptSmsSheetSync: Generated SMS ID '$smsIdToUpload' for current message.")
-
-            // Step 3: Get existing SMS IDs from the sheet to check for duplicates.
-            // This can also throw exceptions (e.g., IOException).
-            val existingSmsIds = sheetService.getExistingSmsIds()
-            Log.d(TAG, "attemptSmsSheetSync: Found ${existingSmsIds.size} existing SMS IDs in sheet.")
-
-            // Step 4: Check if the current SMS is a duplicate.
-            if (!existingSmsIds.contains(smsIdToUpload)) {
-                // SMS is new, attempt to append it to the sheet.
-                Log.d(TAG, "attemptSmsSheetSync: SMS with ID '$smsIdToUpload' is new. Appending to sheet.")
-                val appendSuccess = sheetService.appendSmsToSheet(smsData)
-                return if (appendSuccess) {
-                    // Successfully appended new SMS.
-                    WorkerSyncOutcome(success = true)
-                } else {
-                    // appendSmsToSheet returned false, indicating an issue not thrown as an exception
-                    // (e.g., API call succeeded but indicated no rows appended).
-                    // This is treated as a non-retryable failure for this specific SMS.
-                    WorkerSyncOutcome(success = false, detailedError = "GoogleSheetsService.appendSmsToSheet returned false, indicating append failure.")
+            Log.d(TAG, "drainJournal: Using spreadsheet ID '$currentSpreadsheetId'")
+
+            // Step 2: Open the local dedup index. Only ID-column rows it hasn't seen are read, and
+            // only once the cached ID set has expired. Refreshing can throw exceptions (e.g., IOException).
+            val dedupIndex = withContext(Dispatchers.IO) { SheetDedup.get(applicationContext) }
+            SheetDedup.refresh(dedupIndex, sheetService, SheetCache.get(applicationContext), currentSpreadsheetId)
+            val batchUploader = SheetsBatchUploader(sheetService) { uploadedIds ->
+                withContext(Dispatchers.IO) { uploadedIds.forEach { dedupIndex.addHexId(it) } }
+            }
+            uploader = batchUploader
+
+            // Step 3: Queue each new SMS, then send the batch and discard it from the journal.
+            // Messages journaled during the upload are picked up by the next pass of the loop; with
+            // KEEP their receiver's enqueueDrain was a no-op, so this re-check is what uploads them.
+            // finishDrain throws if a sent batch can't be discarded, ending the loop with a retry
+            // rather than getting the same batch back from beginDrain forever.
+            while (pending.isNotEmpty()) {
+                Log.d(TAG, "drainJournal: Uploading ${pending.size} journaled SMS.")
+                for (smsData in pending) {
+                    val smsId = sheetService.generateSmsId(smsData)
+                    if (dedupIndex.containsHexId(smsId)) {
+                        // A duplicate is considered a successful processing of the SMS.
+                        Log.i(TAG, "drainJournal: SMS with ID '$smsId' is a duplicate. Not adding to sheet.")
+                    } else {
+                        batchUploader.add(smsId, sheetService.smsRowValues(smsId, smsData))
+                    }
                 }
-            } else {
-                // SMS is a duplicate. This is considered a successful processing of the SMS.
-                Log.i(TAG, "attemptSmsSheetSync: SMS with ID '$smsIdToUpload' is a duplicate. Not adding to sheet.")
-                return WorkerSyncOutcome(success = true) // Duplicate found, considered a success for this sync operation.
+                batchUploader.flush()
+                withContext(Dispatchers.IO) {
+                    dedupIndex.flush()
+                    journal.finishDrain()
+                }
+                pending = withContext(Dispatchers.IO) { journal.beginDrain() }
+            }
+            for (rejectedId in batchUploader.rejectedSmsIds) {
+                Log.e(TAG, "drainJournal: Sheet rejected SMS with ID '$rejectedId'; it was dropped.")
             }
+            return WorkerSyncOutcome(success = true, uploadedCount = batchUploader.uploadedCount)
         } catch (e: GoogleAuthIOException) {
             // Handle specific authentication errors (e.g., token expired, revoked).
             // These are typically not retryable without user interaction.
             val errorMsg = sheetService.getErrorMessageForException(e)
-            Log.e(TAG, "attemptSmsSheetSync: Authentication error during SMS sync: $errorMsg", e)
-            return WorkerSyncOutcome(success = false, shouldRetry = false, detailedError = "GoogleAuthIOException: $errorMsg")
+            Log.e(TAG, "drainJournal: Authentication error during SMS sync: $errorMsg", e)
+            return WorkerSyncOutcome(success = false, shouldRetry = false, detailedError = "GoogleAuthIOException: $errorMsg",
+                uploadedCount = uploader?.uploadedCount ?: 0)
         } catch (e: IOException) {
             // Handle network errors or other I/O problems.
             // These are generally considered retryable.
             val errorMsg = sheetService.getErrorMessageForException(e)
-            Log.w(TAG, "attemptSmsSheetSync: Network or I/O error during SMS sync, will request retry: $errorMsg", e)
-            return WorkerSyncOutcome(success = false, shouldRetry = true, detailedError = "IOException: $errorMsg")
+            Log.w(TAG, "drainJournal: Network or I/O error during SMS sync, will request retry: $errorMsg", e)
+            return WorkerSyncOutcome(success = false, shouldRetry = true, detailedError = "IOException: $errorMsg",
+                uploadedCount = uploader?.uploadedCount ?: 0)
         } catch (e: Exception) {
             // Handle any other unexpected errors.
             // These are treated as non-retryable by default unless specific exceptions are known to be retryable.
             val errorMsg = sheetService.getErrorMessageForException(e)
-            Log.e(TAG, "attemptSmsSheetSync: Unexpected error during SMS sync: $errorMsg", e)
-            return WorkerSyncOutcome(success = false, shouldRetry = false, detailedError = "Unexpected Exception: $errorMsg")
+            Log.e(TAG, "drainJournal: Unexpected error during SMS sync: $errorMsg", e)
+            return WorkerSyncOutcome(success = false, shouldRetry = false, detailedError = "Unexpected Exception: $errorMsg",
+                uploadedCount = uploader?.uploadedCount ?: 0)
         }
     }
 }
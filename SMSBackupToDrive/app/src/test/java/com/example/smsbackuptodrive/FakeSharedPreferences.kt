@@ -0,0 +1,88 @@
+package com.example.smsbackuptodrive
+
+import android.content.SharedPreferences
+
+/** In-memory [SharedPreferences] for JVM tests; edits apply when committed, like the real one. */
+class FakeSharedPreferences : SharedPreferences {
+
+    private val values = HashMap<String, Any?>()
+
+    override fun getAll(): Map<String, *> = synchronized(values) { HashMap(values) }
+
+    override fun getString(key: String, defValue: String?): String? = get(key, defValue)
+
+    override fun getStringSet(key: String, defValues: Set<String>?): Set<String>? = get(key, defValues)
+
+    override fun getInt(key: String, defValue: Int): Int = get(key, defValue)
+
+    override fun getLong(key: String, defValue: Long): Long = get(key, defValue)
+
+    override fun getFloat(key: String, defValue: Float): Float = get(key, defValue)
+
+    override fun getBoolean(key: String, defValue: Boolean): Boolean = get(key, defValue)
+
+    override fun contains(key: String): Boolean = synchronized(values) { values.containsKey(key) }
+
+    override fun edit(): SharedPreferences.Editor = FakeEditor()
+
+    override fun registerOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+        throw UnsupportedOperationException()
+    }
+
+    override fun unregisterOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+        throw UnsupportedOperationException()
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> get(key: String, defValue: T): T = synchronized(values) {
+        if (values.containsKey(key)) values[key] as T else defValue
+    }
+
+    private inner class FakeEditor : SharedPreferences.Editor {
+
+        private val changes = HashMap<String, Any?>()
+        private val removals = HashSet<String>()
+        private var clear = false
+
+        override fun putString(key: String, value: String?) = put(key, value)
+
+        override fun putStringSet(key: String, values: Set<String>?) = put(key, values?.toSet())
+
+        override fun putInt(key: String, value: Int) = put(key, value)
+
+        override fun putLong(key: String, value: Long) = put(key, value)
+
+        override fun putFloat(key: String, value: Float) = put(key, value)
+
+        override fun putBoolean(key: String, value: Boolean) = put(key, value)
+
+        override fun remove(key: String): SharedPreferences.Editor {
+            removals.add(key)
+            return this
+        }
+
+        override fun clear(): SharedPreferences.Editor {
+            clear = true
+            return this
+        }
+
+        override fun commit(): Boolean {
+            // As in the real implementation, clear() runs first, whatever order the calls came in.
+            synchronized(values) {
+                if (clear) values.clear()
+                removals.forEach { values.remove(it) }
+                changes.forEach { (key, value) -> if (value == null) values.remove(key) else values[key] = value }
+            }
+            return true
+        }
+
+        override fun apply() {
+            commit()
+        }
+
+        private fun put(key: String, value: Any?): SharedPreferences.Editor {
+            changes[key] = value
+            return this
+        }
+    }
+}
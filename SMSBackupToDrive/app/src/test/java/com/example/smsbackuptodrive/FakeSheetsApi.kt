@@ -0,0 +1,59 @@
+package com.example.smsbackuptodrive
+
+import android.content.ContextWrapper
+import com.google.api.client.http.LowLevelHttpRequest
+import com.google.api.client.http.LowLevelHttpResponse
+import com.google.api.client.json.Json
+import com.google.api.client.json.gson.GsonFactory
+import com.google.api.client.testing.http.MockHttpTransport
+import com.google.api.client.testing.http.MockLowLevelHttpRequest
+import com.google.api.client.testing.http.MockLowLevelHttpResponse
+import com.google.api.services.drive.Drive
+import com.google.api.services.sheets.v4.Sheets
+import java.net.URLDecoder
+
+/**
+ * The Google APIs behind a [MockHttpTransport]: the real Drive and Sheets clients of a
+ * [GoogleSheetsService] send their requests here, where they are recorded and answered by
+ * [respond] with a status code and a JSON body.
+ */
+class FakeSheetsApi(private val respond: (Request) -> Pair<Int, String>) {
+
+    /** One HTTP request as the client sent it, with its URL decoded and its body unzipped. */
+    data class Request(val method: String, val url: String, val body: String)
+
+    /** Every request so far, in the order they were sent. */
+    val requests: List<Request>
+        get() = synchronized(sent) { sent.toList() }
+
+    private val sent = mutableListOf<Request>()
+
+    private val transport = object : MockHttpTransport() {
+        override fun buildRequest(method: String, url: String): LowLevelHttpRequest =
+            object : MockLowLevelHttpRequest(url) {
+                override fun execute(): LowLevelHttpResponse {
+                    val request = Request(method, URLDecoder.decode(url, "UTF-8"), contentAsString)
+                    synchronized(sent) { sent.add(request) }
+                    val (status, json) = respond(request)
+                    return MockLowLevelHttpResponse()
+                        .setStatusCode(status)
+                        .setContentType(Json.MEDIA_TYPE)
+                        .setContent(json)
+                }
+            }
+    }
+
+    /** Returns a service talking to this API, keeping its spreadsheet bookkeeping in [cache]. */
+    fun service(cache: SheetCache): GoogleSheetsService = GoogleSheetsService(
+        // Only read for error messages and the network check, which a cached spreadsheet ID skips.
+        ContextWrapper(null),
+        Drive.Builder(transport, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build(),
+        Sheets.Builder(transport, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build(),
+        cache
+    )
+
+    companion object {
+        /** The JSON error body the Google APIs send with [code]. */
+        fun error(code: Int, message: String = "scripted") = code to """{"error":{"code":$code,"message":"$message"}}"""
+    }
+}
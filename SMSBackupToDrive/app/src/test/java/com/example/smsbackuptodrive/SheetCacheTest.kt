@@ -0,0 +1,67 @@
+package com.example.smsbackuptodrive
+
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SheetCacheTest {
+
+    private val t0 = 1_700_000_000_000L
+
+    @Test
+    fun spreadsheetIdIsTrustedForAWeek() {
+        val cache = SheetCache(FakeSharedPreferences())
+        assertNull(cache.spreadsheetId(t0))
+
+        cache.putSpreadsheetId("sheet-1", t0)
+
+        assertEquals("sheet-1", cache.spreadsheetId(t0))
+        assertEquals("sheet-1", cache.spreadsheetId(t0 + SheetCache.SPREADSHEET_ID_TTL_MILLIS - 1))
+        assertNull(cache.spreadsheetId(t0 + SheetCache.SPREADSHEET_ID_TTL_MILLIS))
+        assertNull("a clock that went backwards", cache.spreadsheetId(t0 - 1))
+    }
+
+    @Test
+    fun idSetIsFreshForAnHourAndOnlyForItsSpreadsheet() {
+        val cache = SheetCache(FakeSharedPreferences())
+        assertFalse(cache.isIdSetFresh("sheet-1", t0))
+        assertNull(cache.idsSpreadsheetId)
+        assertEquals(0, cache.idsRowCount)
+
+        cache.putIdSet("sheet-1", 42, t0)
+
+        assertEquals("sheet-1", cache.idsSpreadsheetId)
+        assertEquals(42, cache.idsRowCount)
+        assertTrue(cache.isIdSetFresh("sheet-1", t0 + SheetCache.ID_SET_TTL_MILLIS - 1))
+        assertFalse(cache.isIdSetFresh("sheet-1", t0 + SheetCache.ID_SET_TTL_MILLIS))
+        assertFalse(cache.isIdSetFresh("sheet-1", t0 - 1))
+        assertFalse(cache.isIdSetFresh("sheet-2", t0))
+    }
+
+    @Test
+    fun invalidateForgetsTheSpreadsheetAndTheIdSet() {
+        val cache = SheetCache(FakeSharedPreferences())
+        cache.putSpreadsheetId("sheet-1", t0)
+        cache.putIdSet("sheet-1", 42, t0)
+
+        cache.invalidate()
+
+        assertNull(cache.spreadsheetId(t0))
+        assertNull(cache.idsSpreadsheetId)
+        assertEquals(0, cache.idsRowCount)
+        assertFalse(cache.isIdSetFresh("sheet-1", t0))
+    }
+
+    @Test
+    fun cachedSpreadsheetIdSkipsDrive() = runTest {
+        val api = FakeSheetsApi { FakeSheetsApi.error(500) }
+        val cache = SheetCache(FakeSharedPreferences())
+        cache.putSpreadsheetId("sheet-1", System.currentTimeMillis())
+
+        assertEquals("sheet-1", api.service(cache).findOrCreateSpreadsheet())
+        assertTrue(api.requests.isEmpty())
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.smsbackuptodrive
+
+import com.example.smsbackup.core.DedupIndex
+import com.google.api.client.googleapis.json.GoogleJsonResponseException
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class SheetDedupTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var index: DedupIndex
+    private val cache = SheetCache(FakeSharedPreferences())
+
+    @Before
+    fun openIndex() {
+        index = DedupIndex.open(File(folder.root, "dedup.idx"))
+    }
+
+    @After
+    fun closeIndex() {
+        index.close()
+    }
+
+    private fun hexId(i: Int) = "%064x".format(i)
+
+    /** Answers every ID-column read with [ids], one per row. */
+    private fun idColumn(vararg ids: String) = FakeSheetsApi {
+        200 to """{"range":"Messages!A2:A","majorDimension":"ROWS","values":[${ids.joinToString(",") { "[\"$it\"]" }}]}"""
+    }
+
+    private fun hourAgo() = System.currentTimeMillis() - SheetCache.ID_SET_TTL_MILLIS - 1
+
+    @Test
+    fun readsOnlyTheRowsPastTheCachedRowCount() = runTest {
+        index.addHexId(hexId(1))
+        index.addHexId(hexId(2))
+        cache.putIdSet("sheet-1", 2, hourAgo())
+        val api = idColumn(hexId(3), "", hexId(4))
+
+        SheetDedup.refresh(index, api.service(cache), cache, "sheet-1")
+
+        assertEquals(1, api.requests.size)
+        // Header in row 1 and two known data rows: reading starts at sheet row 4.
+        assertTrue(api.requests[0].url, api.requests[0].url.contains("/values/Messages!A4:A"))
+        assertEquals(4, index.size())
+        assertTrue(index.containsHexId(hexId(1)))
+        assertTrue(index.containsHexId(hexId(4)))
+        // The blank cell still counts as a read row.
+        assertEquals(5, cache.idsRowCount)
+        assertTrue(cache.isIdSetFresh("sheet-1", System.currentTimeMillis()))
+    }
+
+    @Test
+    fun freshIdSetReadsNothing() = runTest {
+        cache.putIdSet("sheet-1", 2, System.currentTimeMillis())
+        val api = idColumn(hexId(3))
+
+        SheetDedup.refresh(index, api.service(cache), cache, "sheet-1")
+
+        assertTrue(api.requests.isEmpty())
+        assertEquals(0, index.size())
+    }
+
+    @Test
+    fun anotherSpreadsheetClearsTheIndexAndRereadsTheWholeColumn() = runTest {
+        index.addHexId(hexId(1))
+        cache.putIdSet("sheet-1", 1, System.currentTimeMillis())
+        val api = idColumn(hexId(7), hexId(8))
+
+        SheetDedup.refresh(index, api.service(cache), cache, "sheet-2")
+
+        assertTrue(api.requests[0].url, api.requests[0].url.contains("/spreadsheets/sheet-2/values/Messages!A2:A"))
+        assertFalse(index.containsHexId(hexId(1)))
+        assertTrue(index.containsHexId(hexId(7)))
+        assertEquals(2, index.size())
+        assertEquals("sheet-2", cache.idsSpreadsheetId)
+        assertEquals(2, cache.idsRowCount)
+    }
+
+    @Test
+    fun lostIndexFileIsRebuiltFromTheTop() = runTest {
+        cache.putIdSet("sheet-1", 2, hourAgo())
+        val api = idColumn(hexId(1), hexId(2), hexId(3))
+
+        SheetDedup.refresh(index, api.service(cache), cache, "sheet-1")
+
+        assertTrue(api.requests[0].url, api.requests[0].url.contains("/values/Messages!A2:A"))
+        assertEquals(3, index.size())
+        assertEquals(3, cache.idsRowCount)
+    }
+
+    @Test
+    fun notFoundInvalidatesTheCache() = runTest {
+        index.addHexId(hexId(1))
+        cache.putSpreadsheetId("sheet-1", System.currentTimeMillis())
+        cache.putIdSet("sheet-1", 1, hourAgo())
+        val api = FakeSheetsApi { FakeSheetsApi.error(404, "Requested entity was not found.") }
+
+        try {
+            SheetDedup.refresh(index, api.service(cache), cache, "sheet-1")
+            fail()
+        } catch (e: GoogleJsonResponseException) {
+            assertEquals(404, e.statusCode)
+        }
+
+        assertNull(cache.spreadsheetId(System.currentTimeMillis()))
+        assertNull(cache.idsSpreadsheetId)
+        assertEquals(0, cache.idsRowCount)
+    }
+}
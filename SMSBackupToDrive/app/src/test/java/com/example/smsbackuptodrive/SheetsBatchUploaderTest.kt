@@ -0,0 +1,239 @@
+package com.example.smsbackuptodrive
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException
+import com.google.api.client.json.gson.GsonFactory
+import com.google.api.services.sheets.v4.model.ValueRange
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.IOException
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class SheetsBatchUploaderTest {
+
+    /**
+     * The real [GoogleSheetsService.appendRows] against a [FakeSheetsApi] that answers each append
+     * with the next scripted status, so the requests are the ones the Sheets client builds and
+     * failures reach the uploader as the client raises them.
+     */
+    private class ScriptedSheet(
+        private val scope: TestScope,
+        private val status: (attempt: Int, batch: List<String>) -> Int
+    ) {
+        /** SMS IDs of every append, answered or not, with the virtual time it was made at. */
+        val requests = mutableListOf<Pair<Long, List<String>>>()
+
+        val api = FakeSheetsApi { request ->
+            assertEquals("POST", request.method)
+            // A1 of the Messages tab: append after the table, whatever its length.
+            assertTrue(request.url, request.url.startsWith(
+                "https://sheets.googleapis.com/v4/spreadsheets/$SPREADSHEET_ID/values/Messages!A1:append?"))
+            assertTrue(request.url, request.url.contains("valueInputOption=USER_ENTERED"))
+            assertTrue(request.url, request.url.contains("insertDataOption=INSERT_ROWS"))
+            val body = GsonFactory.getDefaultInstance().fromString(request.body, ValueRange::class.java)
+            val ids = body.getValues().map { row ->
+                // One list of cells per row, in smsRowValues order.
+                assertEquals(listOf(row[0], "+15550000000", "body ${row[0]}"), row)
+                row[0] as String
+            }
+            requests.add(scope.currentTime to ids)
+            val code = status(requests.size, ids)
+            if (code == 200) 200 to """{"spreadsheetId":"$SPREADSHEET_ID"}""" else FakeSheetsApi.error(code)
+        }
+
+        /** The service under test, with the spreadsheet already known so only appends are sent. */
+        val service = api.service(SheetCache(FakeSharedPreferences()).also {
+            it.putSpreadsheetId(SPREADSHEET_ID, System.currentTimeMillis())
+        })
+    }
+
+    private companion object {
+        const val SPREADSHEET_ID = "sheet-1"
+    }
+
+    private fun rows(vararg ids: String) = ids.map { it to listOf<Any>(it, "+15550000000", "body $it") }
+
+    @Test
+    fun sendsFullBatchesAndTheRestOnFlush() = runTest {
+        val sheet = ScriptedSheet(this) { _, _ -> 200 }
+        val uploaded = mutableListOf<List<String>>()
+        val uploader = SheetsBatchUploader(sheet.service, maxBatchRows = 3, maxBatchDelayMillis = Long.MAX_VALUE,
+            onRowsUploaded = { uploaded.add(it) })
+
+        for ((id, values) in rows("a", "b", "c", "d", "e", "f", "g")) {
+            uploader.add(id, values)
+        }
+        assertEquals(1, uploader.pendingCount)
+        uploader.flush()
+
+        val expected = listOf(listOf("a", "b", "c"), listOf("d", "e", "f"), listOf("g"))
+        assertEquals(expected, sheet.requests.map { it.second })
+        assertEquals(expected, uploaded)
+        assertEquals(7, uploader.uploadedCount)
+        assertEquals(0, uploader.pendingCount)
+    }
+
+    @Test
+    fun retriesTransientFailuresWithDoublingBackoff() = runTest {
+        val script = listOf(429, 503, 500, 408, 200)
+        val sheet = ScriptedSheet(this) { attempt, _ -> script[attempt - 1] }
+        val uploader = SheetsBatchUploader(sheet.service, maxBatchRows = 10, maxBatchDelayMillis = Long.MAX_VALUE,
+            maxAttempts = 5, initialBackoffMillis = 1_000L)
+
+        for ((id, values) in rows("a", "b")) {
+            uploader.add(id, values)
+        }
+        uploader.flush()
+
+        assertEquals(listOf(0L, 1_000L, 3_000L, 7_000L, 15_000L), sheet.requests.map { it.first })
+        sheet.requests.forEach { assertEquals(listOf("a", "b"), it.second) }
+        assertEquals(2, uploader.uploadedCount)
+    }
+
+    @Test
+    fun givesUpAfterMaxAttemptsAndKeepsTheRowsPending() = runTest {
+        var down = true
+        val sheet = ScriptedSheet(this) { _, _ -> if (down) 503 else 200 }
+        val uploader = SheetsBatchUploader(sheet.service, maxBatchRows = 10, maxBatchDelayMillis = Long.MAX_VALUE,
+            maxAttempts = 3, initialBackoffMillis = 500L)
+        for ((id, values) in rows("a", "b", "c")) {
+            uploader.add(id, values)
+        }
+
+        try {
+            uploader.flush()
+            fail()
+        } catch (e: GoogleJsonResponseException) {
+            assertEquals(503, e.statusCode)
+        }
+        assertEquals(listOf(0L, 500L, 1_500L), sheet.requests.map { it.first })
+        assertEquals(3, uploader.pendingCount)
+
+        down = false
+        uploader.flush()
+        assertEquals(listOf("a", "b", "c"), sheet.requests.last().second)
+        assertEquals(3, uploader.uploadedCount)
+    }
+
+    @Test
+    fun doesNotRetryPermissionErrors() = runTest {
+        val sheet = ScriptedSheet(this) { _, _ -> 403 }
+        val uploader = SheetsBatchUploader(sheet.service, maxBatchRows = 10, maxBatchDelayMillis = Long.MAX_VALUE)
+        for ((id, values) in rows("a")) {
+            uploader.add(id, values)
+        }
+
+        try {
+            uploader.flush()
+            fail()
+        } catch (e: GoogleJsonResponseException) {
+            assertEquals(403, e.statusCode)
+        }
+        assertEquals(1, sheet.requests.size)
+        assertEquals(1, uploader.pendingCount)
+    }
+
+    @Test
+    fun splitsRejectedBatchesAndResendsTheHalvesInOrder() = runTest {
+        // Any request carrying "d" is refused as too large; one carrying "g" fails once first.
+        var gFailed = false
+        val sheet = ScriptedSheet(this) { _, batch ->
+            when {
+                "d" in batch -> 413
+                "g" in batch && !gFailed -> { gFailed = true; 500 }
+                else -> 200
+            }
+        }
+        val uploaded = mutableListOf<List<String>>()
+        val uploader = SheetsBatchUploader(sheet.service, maxBatchRows = 8, maxBatchDelayMillis = Long.MAX_VALUE,
+            initialBackoffMillis = 100L, onRowsUploaded = { uploaded.add(it) })
+        for ((id, values) in rows("a", "b", "c", "d", "e", "f", "g", "h")) {
+            uploader.add(id, values)
+        }
+        uploader.flush()
+
+        assertEquals(
+            listOf(
+                listOf("a", "b", "c", "d", "e", "f", "g", "h"),
+                listOf("a", "b", "c", "d"),
+                listOf("a", "b"),
+                listOf("c", "d"),
+                listOf("c"),
+                listOf("d"),
+                listOf("e", "f", "g", "h"),
+                listOf("e", "f", "g", "h")
+            ),
+            sheet.requests.map { it.second }
+        )
+        assertEquals(listOf(listOf("a", "b"), listOf("c"), listOf("e", "f", "g", "h")), uploaded)
+        assertEquals(listOf("d"), uploader.rejectedSmsIds)
+        assertEquals(7, uploader.uploadedCount)
+        assertEquals(0, uploader.pendingCount)
+        assertEquals(100L, sheet.requests.last().first - sheet.requests[sheet.requests.size - 2].first)
+    }
+
+    @Test
+    fun badRequestsAreSplitLikeOversizedOnes() = runTest {
+        val sheet = ScriptedSheet(this) { _, batch -> if ("b" in batch) 400 else 200 }
+        val uploader = SheetsBatchUploader(sheet.service, maxBatchRows = 10, maxBatchDelayMillis = Long.MAX_VALUE)
+        for ((id, values) in rows("a", "b", "c")) {
+            uploader.add(id, values)
+        }
+        uploader.flush()
+
+        assertEquals(
+            listOf(listOf("a", "b", "c"), listOf("a"), listOf("b", "c"), listOf("b"), listOf("c")),
+            sheet.requests.map { it.second }
+        )
+        assertEquals(listOf("b"), uploader.rejectedSmsIds)
+        assertEquals(2, uploader.uploadedCount)
+    }
+
+    @Test
+    fun networkErrorsAreRetried() = runTest {
+        var failures = 2
+        val api = FakeSheetsApi {
+            if (failures-- > 0) {
+                throw IOException("connection reset")
+            }
+            200 to """{"spreadsheetId":"$SPREADSHEET_ID"}"""
+        }
+        val service = api.service(SheetCache(FakeSharedPreferences()).also {
+            it.putSpreadsheetId(SPREADSHEET_ID, System.currentTimeMillis())
+        })
+        val uploader = SheetsBatchUploader(service, maxBatchRows = 10, maxBatchDelayMillis = Long.MAX_VALUE)
+        for ((id, values) in rows("a")) {
+            uploader.add(id, values)
+        }
+        uploader.flush()
+
+        assertEquals(3, api.requests.size)
+        assertEquals(1, uploader.uploadedCount)
+        assertTrue(uploader.rejectedSmsIds.isEmpty())
+    }
+
+    @Test
+    fun notFoundInvalidatesTheCachedSpreadsheet() = runTest {
+        val cache = SheetCache(FakeSharedPreferences())
+        cache.putSpreadsheetId(SPREADSHEET_ID, System.currentTimeMillis())
+        val api = FakeSheetsApi { FakeSheetsApi.error(404) }
+        val uploader = SheetsBatchUploader(api.service(cache), maxBatchRows = 10, maxBatchDelayMillis = Long.MAX_VALUE)
+        for ((id, values) in rows("a")) {
+            uploader.add(id, values)
+        }
+
+        try {
+            uploader.flush()
+            fail()
+        } catch (e: GoogleJsonResponseException) {
+            assertEquals(404, e.statusCode)
+        }
+        assertEquals(1, api.requests.size)
+        assertEquals(null, cache.spreadsheetId(System.currentTimeMillis()))
+    }
+}
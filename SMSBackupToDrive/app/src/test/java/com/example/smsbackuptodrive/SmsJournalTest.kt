@@ -0,0 +1,97 @@
+package com.example.smsbackuptodrive
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+
+class SmsJournalTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun sms(i: Int) = SmsData(sender = "+1555000000$i", body = "message $i é😀", timestamp = 1_600_000_000_000L + i)
+
+    private fun journalFile() = File(folder.root, "incoming_sms.journal")
+
+    @Test
+    fun drainsWhatWasAppendedAndKeepsLaterMessagesForTheNextDrain() {
+        val journal = SmsJournal(folder.root)
+        journal.append(listOf(sms(1), sms(2)))
+
+        assertEquals(listOf(sms(1), sms(2)), journal.beginDrain())
+        journal.append(listOf(sms(3)))
+        // An unfinished drain is returned again; the new message waits in the live journal.
+        assertEquals(listOf(sms(1), sms(2)), journal.beginDrain())
+        journal.finishDrain()
+
+        assertEquals(listOf(sms(3)), journal.beginDrain())
+        journal.finishDrain()
+        assertTrue(journal.beginDrain().isEmpty())
+    }
+
+    @Test
+    fun finishDrainThrowsIfTheDrainedMessagesCanNotBeDiscarded() {
+        val journal = SmsJournal(folder.root)
+        // A non-empty directory in place of the draining file can't be deleted, as a file held
+        // open or on a read-only mount can't be.
+        val draining = File(folder.root, "incoming_sms.journal.draining")
+        assertTrue(draining.mkdir())
+        assertTrue(File(draining, "stuck").createNewFile())
+
+        try {
+            journal.finishDrain()
+            fail()
+        } catch (expected: IOException) {
+            // Otherwise beginDrain would return the same batch forever.
+        }
+        assertTrue(draining.exists())
+    }
+
+    @Test
+    fun appendAfterATornRecordKeepsTheLaterMessages() {
+        val journal = SmsJournal(folder.root)
+        journal.append(listOf(sms(1), sms(2)))
+        val intactLength = journalFile().length()
+        // A crash mid-write: a length prefix promising more bytes than were written.
+        FileOutputStream(journalFile(), true).use { it.write(byteArrayOf(0, 0, 0, 40, 1, 2, 3)) }
+
+        journal.append(listOf(sms(3)))
+        SmsJournal(folder.root).append(listOf(sms(4)))
+
+        assertEquals(listOf(sms(1), sms(2), sms(3), sms(4)), journal.beginDrain())
+        assertTrue(File(folder.root, "incoming_sms.journal.draining").length() > intactLength)
+    }
+
+    @Test
+    fun appendAfterACorruptChecksumKeepsTheLaterMessages() {
+        val journal = SmsJournal(folder.root)
+        journal.append(listOf(sms(1), sms(2)))
+        // Flip the last byte of the second record's CRC.
+        RandomAccessFile(journalFile(), "rw").use { file ->
+            file.seek(file.length() - 1)
+            val last = file.read()
+            file.seek(file.length() - 1)
+            file.write(last xor 0xFF)
+        }
+
+        journal.append(listOf(sms(3)))
+
+        assertEquals(listOf(sms(1), sms(3)), journal.beginDrain())
+    }
+
+    @Test
+    fun readerStopsAtATornTail() {
+        val journal = SmsJournal(folder.root)
+        journal.append(listOf(sms(1)))
+        FileOutputStream(journalFile(), true).use { it.write(byteArrayOf(0, 0)) }
+
+        assertEquals(listOf(sms(1)), journal.beginDrain())
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.smsbackup;
+
+import android.database.Cursor;
+
+import com.example.smsbackup.core.RowCursor;
+
+/** Exposes an Android {@link Cursor} to the core decoder. Does not own the cursor. */
+final class AndroidRowCursor implements RowCursor {
+
+    private final Cursor cursor;
+
+    AndroidRowCursor(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        return cursor.getColumnIndexOrThrow(columnName);
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return cursor.isNull(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return cursor.getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return cursor.getInt(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return cursor.getString(columnIndex);
+    }
+}
@@ -5,40 +5,130 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import android.Manifest;
+import android.app.RoleManager;
+import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.provider.Settings;
 import android.provider.Telephony;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.RadioGroup;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.smsbackup.core.BackupFileNames;
+import com.example.smsbackup.core.OutputCompression;
+
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity
+        implements SmsExportEngine.Listener, SmsRestoreEngine.Listener {
 
     private static final int SMS_PERMISSION_REQUEST_CODE = 101;
     private static final int STORAGE_PERMISSION_REQUEST_CODE = 102;
+    private static final int RESTORE_STORAGE_PERMISSION_REQUEST_CODE = 103;
+    private static final int SMS_ROLE_REQUEST_CODE = 104;
+    private static final String STATE_PENDING_RESTORE = "pendingRestore";
+    private static final String STATE_PREVIOUS_SMS_PACKAGE = "previousSmsPackage";
+
+    private SmsExportEngine exportEngine;
+    private SmsRestoreEngine restoreEngine;
+    private Button backupButton;
+    private Button restoreButton;
+    private Button cancelButton;
+    private TextView progressText;
+    private CheckBox incrementalCheckBox;
+    private RadioGroup compressionGroup;
+    private CheckBox columnarCheckBox;
+    /** The backup to restore once this app has become the default SMS app. */
+    private File pendingRestore;
+    /** The default SMS app before a restore took the role, to hand it back to afterwards. */
+    private String previousSmsPackage;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        Button backupButton = findViewById(R.id.backupButton);
+        exportEngine = SmsExportEngine.getInstance(this);
+        restoreEngine = SmsRestoreEngine.getInstance(this);
+        if (savedInstanceState != null) {
+            String pending = savedInstanceState.getString(STATE_PENDING_RESTORE);
+            pendingRestore = pending != null ? new File(pending) : null;
+            previousSmsPackage = savedInstanceState.getString(STATE_PREVIOUS_SMS_PACKAGE);
+        }
+        progressText = findViewById(R.id.progressText);
+        compressionGroup = findViewById(R.id.compressionGroup);
+        incrementalCheckBox = findViewById(R.id.incrementalCheckBox);
+        columnarCheckBox = findViewById(R.id.columnarCheckBox);
+        View.OnClickListener updateControls = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                updateExportControls();
+            }
+        };
+        incrementalCheckBox.setOnClickListener(updateControls);
+        columnarCheckBox.setOnClickListener(updateControls);
+        backupButton = findViewById(R.id.backupButton);
         backupButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 requestSmsPermission();
             }
         });
+        cancelButton = findViewById(R.id.cancelButton);
+        cancelButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (restoreEngine.isRunning()) {
+                    restoreEngine.cancel();
+                } else {
+                    exportEngine.cancel();
+                }
+                cancelButton.setEnabled(false);
+            }
+        });
+        restoreButton = findViewById(R.id.restoreButton);
+        restoreButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                requestRestoreStoragePermission();
+            }
+        });
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (pendingRestore != null) {
+            outState.putString(STATE_PENDING_RESTORE, pendingRestore.getPath());
+        }
+        outState.putString(STATE_PREVIOUS_SMS_PACKAGE, previousSmsPackage);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // The engine keeps running across configuration changes; re-attach to pick up its state.
+        exportEngine.setListener(this);
+        restoreEngine.setListener(this);
+        updateExportControls();
+        if (!restoreEngine.isRunning() && pendingRestore == null) {
+            // A restore that ended while the activity was stopped still has to give the role back.
+            handBackSmsRole();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        exportEngine.setListener(null);
+        restoreEngine.setListener(null);
+        super.onStop();
     }
 
     private void requestSmsPermission() {
@@ -72,82 +162,237 @@ public class MainActivity extends AppCompatActivity {
             } else {
                 Toast.makeText(this, "Storage permission denied", Toast.LENGTH_SHORT).show();
             }
+        } else if (requestCode == RESTORE_STORAGE_PERMISSION_REQUEST_CODE) {
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                restoreLatestBackup();
+            } else {
+                Toast.makeText(this, "Storage permission denied", Toast.LENGTH_SHORT).show();
+            }
         }
     }
 
-    private void backupSms() {
-        File csvFile = createCsvFile();
-        if (csvFile == null) {
-            Toast.makeText(this, "Error creating CSV file", Toast.LENGTH_SHORT).show();
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != SMS_ROLE_REQUEST_CODE) {
             return;
         }
+        File backup = pendingRestore;
+        pendingRestore = null;
+        if (backup != null && isDefaultSmsApp()) {
+            startRestore(backup);
+        } else {
+            previousSmsPackage = null;
+            Toast.makeText(this, "Restoring needs this app to be the default SMS app until it finishes",
+                    Toast.LENGTH_LONG).show();
+        }
+    }
 
-        try (FileWriter fileWriter = new FileWriter(csvFile)) {
-            // Write CSV header
-            fileWriter.append("Thread ID,Address,Person,Date,Date Sent,Protocol,Read,Status,Type,Reply Path Present,Subject,Body,Service Center,Locked,Error Code,Seen\n");
-
-            Uri smsUri = Telephony.Sms.CONTENT_URI;
-            Cursor cursor = getContentResolver().query(smsUri, null, null, null, null);
-
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    String threadId = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.THREAD_ID));
-                    String address = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.ADDRESS));
-                    String person = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.PERSON));
-                    long dateMillis = cursor.getLong(cursor.getColumnIndexOrThrow(Telephony.Sms.DATE));
-                    long dateSentMillis = cursor.getLong(cursor.getColumnIndexOrThrow(Telephony.Sms.DATE_SENT));
-                    String protocol = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.PROTOCOL));
-                    String read = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.READ));
-                    String status = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.STATUS));
-                    String type = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.TYPE));
-                    String replyPathPresent = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.REPLY_PATH_PRESENT));
-                    String subject = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.SUBJECT));
-                    String body = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.BODY));
-                    String serviceCenter = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.SERVICE_CENTER));
-                    String locked = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.LOCKED));
-                    String errorCode = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.ERROR_CODE));
-                    String seen = cursor.getString(cursor.getColumnIndexOrThrow(Telephony.Sms.SEEN));
-
-                    // Format dates
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-                    String date = sdf.format(new Date(dateMillis));
-                    String dateSent = sdf.format(new Date(dateSentMillis));
-
-                    // Escape commas and newlines in body and subject
-                    body = body != null ? body.replace("\"", "\"\"").replace("\n", " ") : "";
-                    subject = subject != null ? subject.replace("\"", "\"\"").replace("\n", " ") : "";
-
-
-                    fileWriter.append("\"").append(threadId).append("\",");
-                    fileWriter.append("\"").append(address).append("\",");
-                    fileWriter.append("\"").append(person).append("\",");
-                    fileWriter.append("\"").append(date).append("\",");
-                    fileWriter.append("\"").append(dateSent).append("\",");
-                    fileWriter.append("\"").append(protocol).append("\",");
-                    fileWriter.append("\"").append(read).append("\",");
-                    fileWriter.append("\"").append(status).append("\",");
-                    fileWriter.append("\"").append(type).append("\",");
-                    fileWriter.append("\"").append(replyPathPresent).append("\",");
-                    fileWriter.append("\"").append(subject).append("\",");
-                    fileWriter.append("\"").append(body).append("\",");
-                    fileWriter.append("\"").append(serviceCenter).append("\",");
-                    fileWriter.append("\"").append(locked).append("\",");
-                    fileWriter.append("\"").append(errorCode).append("\",");
-                    fileWriter.append("\"").append(seen).append("\"\n");
-
-                } while (cursor.moveToNext());
-                cursor.close();
-                Toast.makeText(this, "SMS backup successful: " + csvFile.getAbsolutePath(), Toast.LENGTH_LONG).show();
-            } else {
-                Toast.makeText(this, "No SMS messages found", Toast.LENGTH_SHORT).show();
+    private void requestRestoreStoragePermission() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, RESTORE_STORAGE_PERMISSION_REQUEST_CODE);
+        } else {
+            restoreLatestBackup();
+        }
+    }
+
+    /**
+     * Restores the newest CSV backup. Only the default SMS app may write to the provider, so
+     * unless this app already is, the user is first asked to make it the default for the restore.
+     */
+    private void restoreLatestBackup() {
+        File backup = findLatestCsvBackup();
+        if (backup == null) {
+            Toast.makeText(this, "No CSV backup found to restore", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (isDefaultSmsApp()) {
+            startRestore(backup);
+            return;
+        }
+        Intent request;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            RoleManager roleManager = getSystemService(RoleManager.class);
+            if (roleManager == null || !roleManager.isRoleAvailable(RoleManager.ROLE_SMS)) {
+                Toast.makeText(this, "This device doesn't let apps restore SMS", Toast.LENGTH_LONG).show();
+                return;
+            }
+            request = roleManager.createRequestRoleIntent(RoleManager.ROLE_SMS);
+        } else {
+            request = new Intent(Telephony.Sms.Intents.ACTION_CHANGE_DEFAULT)
+                    .putExtra(Telephony.Sms.Intents.EXTRA_PACKAGE_NAME, getPackageName());
+        }
+        pendingRestore = backup;
+        previousSmsPackage = Telephony.Sms.getDefaultSmsPackage(this);
+        startActivityForResult(request, SMS_ROLE_REQUEST_CODE);
+    }
+
+    private void startRestore(File backup) {
+        if (restoreEngine.start(backup)) {
+            progressText.setText("Restoring " + backup.getName() + "...");
+            updateExportControls();
+        }
+    }
+
+    private boolean isDefaultSmsApp() {
+        return getPackageName().equals(Telephony.Sms.getDefaultSmsPackage(this));
+    }
+
+    /**
+     * Asks the user to make the SMS app that was the default before the restore the default
+     * again; this app doesn't download MMS or send anything. Android 10 and later only let an app
+     * request a role for itself, so there the default apps settings are opened instead.
+     */
+    private void handBackSmsRole() {
+        String previous = previousSmsPackage;
+        previousSmsPackage = null;
+        if (previous == null || !isDefaultSmsApp()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Toast.makeText(this, "Restore done; pick your usual SMS app again", Toast.LENGTH_LONG).show();
+            startActivity(new Intent(Settings.ACTION_MANAGE_DEFAULT_APPS_SETTINGS));
+        } else {
+            startActivity(new Intent(Telephony.Sms.Intents.ACTION_CHANGE_DEFAULT)
+                    .putExtra(Telephony.Sms.Intents.EXTRA_PACKAGE_NAME, previous));
+        }
+    }
+
+    /** Returns the newest {@code .csv} or {@code .csv.gz} backup where exports write them, or {@code null}. */
+    private File findLatestCsvBackup() {
+        File newest = null;
+        File[] directories = {
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
+                getExternalFilesDir(null)
+        };
+        for (File directory : directories) {
+            File[] files = directory != null ? directory.listFiles() : null;
+            if (files == null) {
+                continue;
             }
-        } catch (IOException e) {
-            Toast.makeText(this, "Error writing to CSV file: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            e.printStackTrace();
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && name.startsWith(BackupFileNames.CSV_PREFIX)
+                        && (name.endsWith(OutputCompression.NONE.getExtension())
+                        || name.endsWith(OutputCompression.GZIP.getExtension()))
+                        && (newest == null || file.lastModified() > newest.lastModified())) {
+                    newest = file;
+                }
+            }
+        }
+        return newest;
+    }
+
+    private void backupSms() {
+        boolean columnar = columnarCheckBox.isChecked() && !incrementalCheckBox.isChecked();
+        OutputCompression compression = selectedCompression();
+        File backupFile = createBackupFile(columnar
+                ? BackupFileNames.newColumnarFileName()
+                : BackupFileNames.newCsvFileName(compression));
+        if (backupFile == null) {
+            Toast.makeText(this, "Error creating backup file", Toast.LENGTH_SHORT).show();
+            return;
         }
+
+        boolean started = columnar
+                ? exportEngine.startColumnar(backupFile)
+                : exportEngine.start(backupFile, incrementalCheckBox.isChecked(), compression);
+        if (started) {
+            progressText.setText("Starting backup...");
+            updateExportControls();
+        }
+    }
+
+    private OutputCompression selectedCompression() {
+        int checkedId = compressionGroup.getCheckedRadioButtonId();
+        if (checkedId == R.id.compressionGzip) {
+            return OutputCompression.GZIP;
+        } else if (checkedId == R.id.compressionBlockGzip) {
+            return OutputCompression.BLOCK_GZIP;
+        }
+        return OutputCompression.NONE;
+    }
+
+    private void updateExportControls() {
+        boolean restoring = restoreEngine.isRunning();
+        boolean running = exportEngine.isRunning() || restoring;
+        backupButton.setEnabled(!running);
+        restoreButton.setEnabled(!running);
+        incrementalCheckBox.setEnabled(!running);
+        // The incremental store is always plain CSV, and columnar files are already compact.
+        columnarCheckBox.setEnabled(!running && !incrementalCheckBox.isChecked());
+        boolean compressionSelectable = !running && !incrementalCheckBox.isChecked() && !columnarCheckBox.isChecked();
+        for (int i = 0; i < compressionGroup.getChildCount(); i++) {
+            compressionGroup.getChildAt(i).setEnabled(compressionSelectable);
+        }
+        cancelButton.setVisibility(running ? View.VISIBLE : View.GONE);
+        // Stays disabled once a cancel is pending, until the export actually stops.
+        cancelButton.setEnabled(running
+                && !(restoring ? restoreEngine.isCancelRequested() : exportEngine.isCancelRequested()));
+        progressText.setVisibility(running ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public void onExportProgress(int rowsRead, int totalRows) {
+        progressText.setText("Backed up " + rowsRead + " of " + totalRows + " messages");
+    }
+
+    @Override
+    public void onExportComplete(File file, int rowsWritten, boolean appended) {
+        updateExportControls();
+        if (appended) {
+            Toast.makeText(this, rowsWritten == 0
+                    ? "Backup already up to date: " + file.getAbsolutePath()
+                    : "Added " + rowsWritten + " new messages to " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } else if (rowsWritten == 0) {
+            Toast.makeText(this, "No SMS messages found", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "SMS backup successful: " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    @Override
+    public void onExportCancelled() {
+        updateExportControls();
+        Toast.makeText(this, "SMS backup cancelled", Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onExportFailed(IOException error) {
+        updateExportControls();
+        Toast.makeText(this, "Error writing to CSV file: " + error.getMessage(), Toast.LENGTH_LONG).show();
+        error.printStackTrace();
+    }
+
+    @Override
+    public void onRestoreProgress(int rowsRead) {
+        progressText.setText("Read " + rowsRead + " messages from the backup");
+    }
+
+    @Override
+    public void onRestoreComplete(File file, int rowsInserted, int rowsSkipped) {
+        updateExportControls();
+        Toast.makeText(this, "Restored " + rowsInserted + " messages from " + file.getName()
+                + (rowsSkipped > 0 ? "; " + rowsSkipped + " were already on the phone" : ""), Toast.LENGTH_LONG).show();
+        handBackSmsRole();
+    }
+
+    @Override
+    public void onRestoreCancelled(int rowsInserted) {
+        updateExportControls();
+        Toast.makeText(this, "Restore cancelled after " + rowsInserted + " messages", Toast.LENGTH_SHORT).show();
+        handBackSmsRole();
+    }
+
+    @Override
+    public void onRestoreFailed(IOException error) {
+        updateExportControls();
+        Toast.makeText(this, "Error restoring SMS: " + error.getMessage(), Toast.LENGTH_LONG).show();
+        error.printStackTrace();
+        handBackSmsRole();
     }
 
-    private File createCsvFile() {
+    private File createBackupFile(String fileName) {
         File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
         if (!downloadsDir.exists()) {
             if (!downloadsDir.mkdirs()) {
@@ -161,7 +406,6 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         }
-        String fileName = "sms_backup_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date()) + ".csv";
         return new File(downloadsDir, fileName);
     }
 }
@@ -0,0 +1,21 @@
+package com.example.smsbackup;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Receives the MMS notifications the system delivers only to the default SMS app, which this app
+ * is while a restore runs. Downloading MMS is out of scope, so they are only logged; that is why
+ * the user is sent back to pick their own SMS app as soon as the restore ends.
+ */
+public final class MmsPushReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "MmsPushReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Log.w(TAG, "Not downloading an MMS while restoring");
+    }
+}
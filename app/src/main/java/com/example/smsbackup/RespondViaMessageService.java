@@ -0,0 +1,28 @@
+package com.example.smsbackup;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+import android.util.Log;
+
+/**
+ * The quick-reply service every default SMS app has to declare, used by the dialer to answer an
+ * incoming call with a text. This app only holds the role while a restore runs and sends nothing,
+ * so the request is dropped.
+ */
+public final class RespondViaMessageService extends Service {
+
+    private static final String TAG = "RespondViaMessage";
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Log.w(TAG, "Not sending a quick reply while restoring");
+        stopSelf(startId);
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
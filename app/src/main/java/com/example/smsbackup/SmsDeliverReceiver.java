@@ -0,0 +1,56 @@
+package com.example.smsbackup;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.provider.Telephony;
+import android.telephony.SmsMessage;
+import android.util.Log;
+
+/**
+ * Receives the SMS the system delivers only to the default SMS app, which this app becomes for
+ * the length of a restore since only the default SMS app may write to the provider. While it
+ * holds that role nothing else stores incoming messages, so each one is written to the inbox here
+ * rather than lost.
+ */
+public final class SmsDeliverReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "SmsDeliverReceiver";
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        if (!Telephony.Sms.Intents.SMS_DELIVER_ACTION.equals(intent.getAction())) {
+            return;
+        }
+        SmsMessage[] parts = Telephony.Sms.Intents.getMessagesFromIntent(intent);
+        if (parts == null || parts.length == 0) {
+            return;
+        }
+        StringBuilder body = new StringBuilder();
+        for (SmsMessage part : parts) {
+            body.append(part.getDisplayMessageBody());
+        }
+        final ContentValues values = new ContentValues();
+        values.put(Telephony.Sms.ADDRESS, parts[0].getDisplayOriginatingAddress());
+        values.put(Telephony.Sms.BODY, body.toString());
+        values.put(Telephony.Sms.DATE, System.currentTimeMillis());
+        values.put(Telephony.Sms.DATE_SENT, parts[0].getTimestampMillis());
+        values.put(Telephony.Sms.READ, 0);
+        values.put(Telephony.Sms.SEEN, 0);
+        // Provider writes don't belong on the main thread; keep the broadcast alive until it's stored.
+        final PendingResult result = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    context.getContentResolver().insert(Telephony.Sms.Inbox.CONTENT_URI, values);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not store an incoming SMS", e);
+                } finally {
+                    result.finish();
+                }
+            }
+        }, "sms-deliver").start();
+    }
+}
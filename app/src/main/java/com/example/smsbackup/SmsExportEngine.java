@@ -0,0 +1,919 @@
+package com.example.smsbackup;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+import android.util.Log;
+
+import com.example.smsbackup.core.BackupFileNames;
+import com.example.smsbackup.core.BackupManifest;
+import com.example.smsbackup.core.CsvWriter;
+import com.example.smsbackup.core.DedupIndex;
+import com.example.smsbackup.core.ExportCheckpoint;
+import com.example.smsbackup.core.ExportMetrics;
+import com.example.smsbackup.core.HighWaterMark;
+import com.example.smsbackup.core.MappedFileWriter;
+import com.example.smsbackup.core.MeteredWriter;
+import com.example.smsbackup.core.OutputCompression;
+import com.example.smsbackup.core.ParallelCsvExport;
+import com.example.smsbackup.core.PipelinedWriter;
+import com.example.smsbackup.core.SegmentedBackupStore;
+import com.example.smsbackup.core.SmsColumnarFormat;
+import com.example.smsbackup.core.SmsColumnarWriter;
+import com.example.smsbackup.core.SmsCsvFormat;
+import com.example.smsbackup.core.SmsRow;
+import com.example.smsbackup.core.SmsRowDecoder;
+import com.example.smsbackup.core.SmsSearchIndex;
+import com.example.smsbackup.core.TimestampFormatter;
+import com.example.smsbackup.core.Utf8Writer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs SMS exports on a background thread so the UI never blocks on the provider query or the
+ * file writer. Only one export runs at a time. Progress and the final outcome are posted to the
+ * currently attached {@link Listener} on the main thread.
+ *
+ * A full export is written to a ".part" file next to the target and only renamed into place once
+ * every row has been written, so a cancelled or failed run never leaves a truncated CSV behind.
+ * The same applies to a full export in the binary {@link SmsColumnarFormat}. On devices with
+ * more than two cores, CSV encoding is spread over a {@link ParallelCsvExport} pool. In both
+ * cases charset encoding, compression and the disk writes happen on a {@link PipelinedWriter}
+ * thread behind a bounded queue, so provider reads overlap with storage I/O.
+ *
+ * An uncompressed CSV export records an {@link ExportCheckpoint} every
+ * {@link #CHECKPOINT_INTERVAL} rows. If the process is killed mid-export, the ".part" file and
+ * its checkpoint survive, and the next uncompressed CSV export into the same directory truncates
+ * that file to the checkpoint and carries on after the last message it covers instead of starting
+ * from zero. Compressed streams can't be cut and continued at an arbitrary byte, so they always
+ * start over.
+ *
+ * An incremental export appends only the messages newer than the store's {@link HighWaterMark}
+ * to a {@link SegmentedBackupStore} next to the target. A cancelled or failed run is rolled back
+ * to the store's last commit. If the provider's table has been reset since, the old store is set
+ * aside and a fresh one receives a full export. Either way, messages already in the
+ * {@link DedupIndex} next to the store are skipped, so a refilled provider doesn't back up the
+ * same messages twice.
+ *
+ * Every finished full export gets a {@link BackupManifest} next to it, written before the file is
+ * renamed into place: its row count, {@code _id} range and a checksum per block, which a
+ * {@link com.example.smsbackup.core.BackupVerifier} checks the file against later.
+ *
+ * Every kind of export also feeds the subject and body of the messages it writes to the
+ * {@link SmsSearchIndex} in the target's directory. The index only takes messages newer than
+ * those it already holds and publishes them once the run's output is complete (or checkpointed),
+ * so it grows by one segment per run without re-reading any backup.
+ *
+ * Each run is measured in an {@link ExportMetrics}: provider query, decode, format, index, write
+ * and flush latencies, throughput and the garbage collections during the run. When the run ends
+ * the metrics go to the {@link ExportMetrics.Sink} set with {@link #setMetricsSink}, by default a
+ * one-line summary in logcat. The run, each provider page, each checkpoint and the manifest are
+ * also {@link Trace} sections, so they line up with the rest of the system in a Perfetto trace.
+ */
+public final class SmsExportEngine {
+
+    /**
+     * Callbacks for an export run. All methods are invoked on the main thread.
+     * {@link #onExportComplete} reports zero rows when there was nothing new to write; a full
+     * export of an empty inbox keeps no file.
+     */
+    public interface Listener {
+        void onExportProgress(int rowsRead, int totalRows);
+
+        /**
+         * @param file the CSV written, or the store directory when {@code appended}
+         * @param appended whether the rows were appended to the incremental backup store
+         */
+        void onExportComplete(File file, int rowsWritten, boolean appended);
+
+        void onExportCancelled();
+
+        void onExportFailed(IOException error);
+    }
+
+    /** Number of rows between two progress callbacks. */
+    private static final int PROGRESS_INTERVAL = 500;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ENCODER_THREADS = 4;
+    /** Rows between two checkpoints of a resumable export; each one waits for the writers to catch up. */
+    private static final int CHECKPOINT_INTERVAL = 10000;
+    private static final String PART_SUFFIX = BackupFileNames.PART_SUFFIX;
+    private static final String TAG = "SmsExport";
+    /** {@link Debug#getRuntimeStat} keys of the collector totals sampled before and after a run. */
+    private static final String[] GC_STATS = {
+            "art.gc.gc-count", "art.gc.gc-time", "art.gc.blocking-gc-count", "art.gc.blocking-gc-time"};
+
+    /** Logs every run's metrics as one line. */
+    private static final ExportMetrics.Sink LOGCAT_SINK = new ExportMetrics.Sink() {
+        @Override
+        public void onExportFinished(ExportMetrics metrics) {
+            Log.i(TAG, metrics.toString());
+        }
+    };
+
+    private static SmsExportEngine instance;
+
+    private final ContentResolver contentResolver;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean cancelRequested = new AtomicBoolean();
+    private volatile boolean running;
+    private volatile ExportMetrics.Sink metricsSink = LOGCAT_SINK;
+    private Listener listener;
+
+    private SmsExportEngine(Context context) {
+        contentResolver = context.getContentResolver();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "sms-export");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the process-wide engine. The engine outlives activities so that an export keeps
+     * running across configuration changes; activities attach and detach their listener instead.
+     */
+    public static synchronized SmsExportEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new SmsExportEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /** Attaches the listener that receives callbacks, or detaches it when {@code null}. Main thread only. */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sets where the metrics of each run go, replacing the logcat summary; {@code null} turns
+     * reporting off. The sink is called on the export thread and should return quickly.
+     */
+    public void setMetricsSink(ExportMetrics.Sink sink) {
+        metricsSink = sink;
+    }
+
+    /**
+     * Starts exporting into {@code target}, compressed with {@code compression}. When
+     * {@code incremental} is set, new messages are appended to the backup store in the target's
+     * directory instead, uncompressed, and {@code target} is not created. Returns {@code false}
+     * without doing anything if an export is already running. Main thread only.
+     */
+    public boolean start(final File target, final boolean incremental, final OutputCompression compression) {
+        return submit(new Runnable() {
+            @Override
+            public void run() {
+                if (incremental) {
+                    runIncremental(new File(target.getParentFile(), BackupFileNames.STORE_DIRECTORY));
+                } else {
+                    runExport(target, compression, false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a full export into {@code target} in the binary {@link SmsColumnarFormat}. Returns
+     * {@code false} without doing anything if an export is already running. Main thread only.
+     */
+    public boolean startColumnar(final File target) {
+        return submit(new Runnable() {
+            @Override
+            public void run() {
+                runExport(target, OutputCompression.NONE, true);
+            }
+        });
+    }
+
+    private boolean submit(final Runnable export) {
+        if (running) {
+            return false;
+        }
+        running = true;
+        cancelRequested.set(false);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    export.run();
+                } catch (Throwable t) {
+                    // An Error, e.g. OOM on a huge inbox, escapes the export's own handlers; still
+                    // report it, or running would stay set and no export could start again.
+                    postFailed(new IOException("Export failed", t));
+                }
+            }
+        });
+        return true;
+    }
+
+    /** Requests the running export to stop. Partial output is discarded and {@link Listener#onExportCancelled()} follows. */
+    public void cancel() {
+        cancelRequested.set(true);
+    }
+
+    /** Returns whether {@link #cancel()} was called since the current or last export started. */
+    public boolean isCancelRequested() {
+        return cancelRequested.get();
+    }
+
+    /**
+     * Returns whether the provider no longer matches {@code mark}. A missing message is fine as
+     * long as newer ids exist, since the user may simply have deleted it; a largest id below the
+     * mark, or a different date under it, means the table was wiped and ids are being reused.
+     */
+    private boolean isProviderReset(HighWaterMark mark) {
+        if (mark.lastId == 0) {
+            return false;
+        }
+        if (SmsExportQuery.queryMaxId(contentResolver) < mark.lastId) {
+            return true;
+        }
+        long date = SmsExportQuery.queryDate(contentResolver, mark.lastId);
+        return date != -1 && date != mark.lastDate;
+    }
+
+    private void runExport(File target, OutputCompression compression, boolean columnar) {
+        File partFile = new File(target.getParentFile(), target.getName() + PART_SUFFIX);
+        ExportProgress progress = new ExportProgress(columnar
+                ? "columnar" : "csv-" + compression.name().toLowerCase(Locale.US));
+        SmsSearchIndex.Indexer indexer = null;
+        Trace.beginSection("SmsExport.run");
+        try {
+            // Only an uncompressed CSV export can pick up where an interrupted one stopped; every
+            // other ".part" file left by a run that died is dead weight.
+            File interrupted = !columnar && compression == OutputCompression.NONE
+                    ? findInterruptedExport(target.getParentFile()) : null;
+            ExportCheckpoint.deleteAbandoned(target.getParentFile(), interrupted);
+            indexer = openSearchIndexer(target.getParentFile());
+            if (columnar) {
+                writeColumnar(partFile, progress, indexer);
+            } else if (compression == OutputCompression.NONE) {
+                ExportCheckpoint.Recorder recorder = null;
+                if (interrupted != null) {
+                    recorder = ExportCheckpoint.resume(interrupted);
+                    if (recorder == null || isProviderReset(recorder.getLast().toHighWaterMark(interrupted))) {
+                        // Damaged, or its ids name other messages now; start over.
+                        recorder = null;
+                        ExportCheckpoint.delete(interrupted);
+                        deleteQuietly(interrupted);
+                    } else {
+                        partFile = interrupted;
+                    }
+                }
+                if (recorder == null) {
+                    recorder = ExportCheckpoint.start(partFile);
+                }
+                writeCheckpointedCsv(partFile, recorder, progress, indexer);
+            } else {
+                writeCsv(partFile, compression, progress, indexer);
+            }
+            if (cancelRequested.get()) {
+                reportMetrics(progress, ExportMetrics.Outcome.CANCELLED, partFile.length());
+                discardPart(partFile);
+                postCancelled();
+                return;
+            }
+            if (progress.rowsWritten == 0) {
+                // Nothing to back up; don't leave a header-only file behind.
+                discardPart(partFile);
+                reportMetrics(progress, ExportMetrics.Outcome.COMPLETE, 0);
+                postComplete(target, 0, false);
+                return;
+            }
+            Trace.beginSection("SmsExport.manifest");
+            try {
+                BackupManifest.compute(partFile, progress.rowsWritten, progress.firstId, progress.lastId)
+                        .write(target);
+            } finally {
+                Trace.endSection();
+            }
+            if (!partFile.renameTo(target)) {
+                BackupManifest.delete(target);
+                throw new IOException("Could not rename " + partFile + " to " + target);
+            }
+            ExportCheckpoint.delete(partFile);
+            commitSearchIndex(indexer);
+            reportMetrics(progress, ExportMetrics.Outcome.COMPLETE, target.length());
+            postComplete(target, progress.rowsWritten, false);
+        } catch (IOException e) {
+            reportMetrics(progress, ExportMetrics.Outcome.FAILED, partFile.length());
+            discardPart(partFile);
+            postFailed(e);
+        } catch (RuntimeException e) {
+            reportMetrics(progress, ExportMetrics.Outcome.FAILED, partFile.length());
+            discardPart(partFile);
+            postFailed(new IOException(e));
+        } finally {
+            if (indexer != null) {
+                // Drops whatever a cancelled or failed run added since its last commit.
+                indexer.close();
+            }
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Opens the search index in {@code directory} for adding messages, emptying it first if the
+     * provider was reset since its newest message was indexed.
+     */
+    private SmsSearchIndex.Indexer openSearchIndexer(File directory) throws IOException {
+        SmsSearchIndex index = SmsSearchIndex.open(new File(directory, BackupFileNames.SEARCH_INDEX_DIRECTORY));
+        if (isProviderReset(index.getHighWaterMark())) {
+            index.clear();
+        }
+        return index.openIndexer();
+    }
+
+    /**
+     * Commits what {@code indexer} collected. The index only helps to search the backups, so a
+     * failed update is logged rather than failing an export whose backup is already safe; searches
+     * then miss the messages of that commit.
+     */
+    private static void commitSearchIndex(SmsSearchIndex.Indexer indexer) {
+        try {
+            indexer.commit();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not update the search index", e);
+        }
+    }
+
+    /**
+     * Returns the newest ".part" CSV in {@code directory} that has an {@link ExportCheckpoint},
+     * i.e. an uncompressed export whose process died before it finished, or {@code null}.
+     */
+    private static File findInterruptedExport(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return null;
+        }
+        File newest = null;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(BackupFileNames.CSV_PREFIX)
+                    && name.endsWith(BackupFileNames.CSV_EXTENSION + PART_SUFFIX)
+                    && ExportCheckpoint.fileFor(file).isFile()
+                    && (newest == null || file.lastModified() > newest.lastModified())) {
+                newest = file;
+            }
+        }
+        return newest;
+    }
+
+    private void runIncremental(File storeDirectory) {
+        final ExportProgress progress = new ExportProgress("incremental");
+        Trace.beginSection("SmsExport.run");
+        try {
+            ExportCheckpoint.deleteAbandoned(storeDirectory.getParentFile(), null);
+            SegmentedBackupStore store = SegmentedBackupStore.open(storeDirectory,
+                    SegmentedBackupStore.DEFAULT_SEAL_THRESHOLD_BYTES);
+            if (isProviderReset(store.getHighWaterMark())) {
+                // Appending would mix two unrelated id sequences; keep the old store aside.
+                File archived = new File(storeDirectory.getParentFile(),
+                        storeDirectory.getName() + "-" + System.currentTimeMillis());
+                if (!storeDirectory.renameTo(archived)) {
+                    throw new IOException("Could not move " + storeDirectory + " to " + archived);
+                }
+                store = SegmentedBackupStore.open(storeDirectory, SegmentedBackupStore.DEFAULT_SEAL_THRESHOLD_BYTES);
+            }
+            long storeBytesBefore = storeBytes(store);
+            TimestampFormatter timestampFormatter = new TimestampFormatter();
+            File indexFile = new File(storeDirectory.getParentFile(), BackupFileNames.DEDUP_INDEX);
+            try (final DedupIndex dedupIndex = DedupIndex.open(indexFile);
+                 final SmsSearchIndex.Indexer indexer = openSearchIndexer(storeDirectory.getParentFile());
+                 final SegmentedBackupStore.Appender appender = store.openAppender(timestampFormatter)) {
+                // Keys are only added once the rows are committed, so an aborted run leaves no trace;
+                // until then the set catches the same message arriving twice within this run.
+                final List<long[]> appendedKeys = new ArrayList<>();
+                final Set<DedupKey> keysThisRun = new HashSet<>();
+                // A run whose index commit failed left the index behind the store; read from the
+                // index's mark so this run fills the gap instead of leaving it unsearchable for good.
+                final long storeLastId = store.getHighWaterMark().lastId;
+                exportRows(Math.min(storeLastId, indexer.getLastId()), progress, new RowSink() {
+                    @Override
+                    public boolean write(SmsRow row) throws IOException {
+                        if (row.id <= storeLastId) {
+                            indexRow(indexer, row, progress);
+                            return false;
+                        }
+                        long start = progress.startIndexing();
+                        long[] key = dedupIndex.messageKey(row.address, row.date, row.body);
+                        boolean duplicate = dedupIndex.contains(key[0], key[1])
+                                || !keysThisRun.add(new DedupKey(key[0], key[1]));
+                        progress.endIndexing(start);
+                        if (duplicate) {
+                            // Already backed up, e.g. before the provider was reset and refilled. Still
+                            // move the mark past it, or every later run would read it again.
+                            appender.skip(row.id, row.date);
+                            return false;
+                        }
+                        appender.append(row);
+                        appendedKeys.add(key);
+                        indexRow(indexer, row, progress);
+                        return true;
+                    }
+                });
+                if (cancelRequested.get()) {
+                    appender.abort();
+                    reportMetrics(progress, ExportMetrics.Outcome.CANCELLED, 0);
+                    postCancelled();
+                    return;
+                }
+                appender.commit();
+                for (long[] key : appendedKeys) {
+                    dedupIndex.add(key[0], key[1]);
+                }
+                commitSearchIndex(indexer);
+            }
+            reportMetrics(progress, ExportMetrics.Outcome.COMPLETE, storeBytes(store) - storeBytesBefore);
+            postComplete(storeDirectory, progress.rowsWritten, true);
+        } catch (IOException e) {
+            reportMetrics(progress, ExportMetrics.Outcome.FAILED, 0);
+            postFailed(e);
+        } catch (RuntimeException e) {
+            reportMetrics(progress, ExportMetrics.Outcome.FAILED, 0);
+            postFailed(new IOException(e));
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /** Total size of the committed segments of {@code store}. */
+    private static long storeBytes(SegmentedBackupStore store) {
+        long bytes = 0;
+        for (SegmentedBackupStore.Segment segment : store.getSegments()) {
+            bytes += store.fileOf(segment).length();
+        }
+        return bytes;
+    }
+
+    /** A {@link DedupIndex} key, as a hash set element. */
+    private static final class DedupKey {
+        final long high;
+        final long low;
+
+        DedupKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof DedupKey)) {
+                return false;
+            }
+            DedupKey other = (DedupKey) o;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            // The keys are digest bytes, so any of their bits hash well.
+            return (int) low;
+        }
+    }
+
+    /** Receives the decoded rows of an export, in ascending {@code _id} order. */
+    private interface RowSink {
+        /** Returns {@code false} if the row was skipped instead of written. */
+        boolean write(SmsRow row) throws IOException;
+    }
+
+    /** Running totals of one export, updated on the export thread. */
+    private static final class ExportProgress {
+        int rowsRead;
+        int rowsWritten;
+        /** {@code _id}s of the first and last rows written. */
+        long firstId;
+        long lastId;
+        final ExportMetrics metrics;
+        /** The {@link #GC_STATS} when the run started. */
+        final long[] gcAtStart = readGcStats();
+        /** Whether {@link #exportRows} is timing the current row. */
+        boolean sampled;
+        /** Time the current row has spent in {@link ExportMetrics.Stage#INDEX}, if it is timed. */
+        long indexNanos;
+
+        ExportProgress(String kind) {
+            metrics = new ExportMetrics(kind);
+        }
+
+        /** Starts timing index work on the current row; hand the result to {@link #endIndexing}. */
+        long startIndexing() {
+            return sampled ? System.nanoTime() : 0;
+        }
+
+        void endIndexing(long start) {
+            if (sampled) {
+                indexNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /** Adds {@code row} to the search index, timed as part of the row's {@link ExportMetrics.Stage#INDEX}. */
+    private static void indexRow(SmsSearchIndex.Indexer indexer, SmsRow row, ExportProgress progress)
+            throws IOException {
+        long start = progress.startIndexing();
+        indexer.add(row);
+        progress.endIndexing(start);
+    }
+
+    /**
+     * Stops the clock of {@code progress} and hands its metrics to the sink. A failing sink is
+     * logged and otherwise ignored; it must not change the outcome of the export.
+     */
+    private void reportMetrics(ExportProgress progress, ExportMetrics.Outcome outcome, long bytes) {
+        ExportMetrics.Sink sink = metricsSink;
+        if (sink == null) {
+            return;
+        }
+        ExportMetrics metrics = progress.metrics;
+        metrics.finish(outcome, progress.rowsWritten, bytes);
+        long[] gc = readGcStats();
+        long[] start = progress.gcAtStart;
+        metrics.setGcActivity(gc[0] - start[0], gc[1] - start[1], gc[2] - start[2], gc[3] - start[3]);
+        try {
+            sink.onExportFinished(metrics);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Metrics sink failed", e);
+        }
+    }
+
+    /** Reads the process-wide {@link #GC_STATS}; a stat the runtime doesn't report reads as 0. */
+    private static long[] readGcStats() {
+        long[] stats = new long[GC_STATS.length];
+        for (int i = 0; i < stats.length; i++) {
+            String value = Debug.getRuntimeStat(GC_STATS[i]);
+            try {
+                stats[i] = value == null ? 0 : Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                stats[i] = 0;
+            }
+        }
+        return stats;
+    }
+
+    /** Writes every message into a new CSV at {@code file}. Stops early once a cancel is requested. */
+    private void writeCsv(File file, OutputCompression compression, final ExportProgress progress,
+                          final SmsSearchIndex.Indexer indexer) throws IOException {
+        // This thread keeps reading the provider; the remaining cores encode.
+        int encoderThreads = Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_ENCODER_THREADS);
+        if (encoderThreads >= 2) {
+            try (final ParallelCsvExport export = new ParallelCsvExport(
+                    openCsvOutput(file, compression, progress.metrics), encoderThreads)) {
+                exportRows(0, progress, new RowSink() {
+                    @Override
+                    public boolean write(SmsRow row) throws IOException {
+                        export.write(row);
+                        indexRow(indexer, row, progress);
+                        return true;
+                    }
+                });
+            }
+            return;
+        }
+        try (final CsvWriter csv = new CsvWriter(openCsvOutput(file, compression, progress.metrics))) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            final TimestampFormatter timestampFormatter = new TimestampFormatter();
+            exportRows(0, progress, new RowSink() {
+                @Override
+                public boolean write(SmsRow row) throws IOException {
+                    SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+                    indexRow(indexer, row, progress);
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes an uncompressed CSV at {@code file}, continuing after the last checkpoint of
+     * {@code recorder}, and records a new checkpoint every {@link #CHECKPOINT_INTERVAL} rows.
+     * Stops early once a cancel is requested.
+     */
+    private void writeCheckpointedCsv(File file, final ExportCheckpoint.Recorder recorder,
+                                      final ExportProgress progress, final SmsSearchIndex.Indexer indexer)
+            throws IOException {
+        ExportCheckpoint start = recorder.getLast();
+        progress.rowsRead = start.rowsWritten;
+        progress.rowsWritten = start.rowsWritten;
+        progress.firstId = start.firstId;
+        progress.lastId = start.lastId;
+        boolean writeHeader = start.byteOffset == 0;
+        final CheckpointedOutput output = CheckpointedOutput.open(file, start.byteOffset, progress.metrics);
+        Writer out = output.writer;
+        int encoderThreads = Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_ENCODER_THREADS);
+        if (encoderThreads >= 2) {
+            try (final ParallelCsvExport export = new ParallelCsvExport(out, encoderThreads,
+                    ParallelCsvExport.DEFAULT_BATCH_SIZE, writeHeader)) {
+                exportRows(start.lastId, progress, new CheckpointingSink(recorder, indexer, output, progress, export) {
+                    @Override
+                    void writeRow(SmsRow row) throws IOException {
+                        export.write(row);
+                    }
+                });
+            }
+            return;
+        }
+        try (final CsvWriter csv = new CsvWriter(out)) {
+            if (writeHeader) {
+                csv.writeHeader(SmsCsvFormat.HEADER);
+            }
+            final TimestampFormatter timestampFormatter = new TimestampFormatter();
+            exportRows(start.lastId, progress, new CheckpointingSink(recorder, indexer, output, progress, csv) {
+                @Override
+                void writeRow(SmsRow row) throws IOException {
+                    SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes and indexes every row, and records a checkpoint after every
+     * {@link #CHECKPOINT_INTERVAL} of them. The search index is committed with each checkpoint,
+     * since a resumed run won't feed it the rows before one again.
+     */
+    private abstract static class CheckpointingSink implements RowSink {
+
+        private final ExportCheckpoint.Recorder recorder;
+        private final SmsSearchIndex.Indexer indexer;
+        private final CheckpointedOutput output;
+        private final ExportProgress progress;
+        private final Flushable encoder;
+        private int rowsSinceCheckpoint;
+
+        CheckpointingSink(ExportCheckpoint.Recorder recorder, SmsSearchIndex.Indexer indexer,
+                          CheckpointedOutput output, ExportProgress progress, Flushable encoder) {
+            this.recorder = recorder;
+            this.indexer = indexer;
+            this.output = output;
+            this.progress = progress;
+            this.encoder = encoder;
+        }
+
+        abstract void writeRow(SmsRow row) throws IOException;
+
+        @Override
+        public boolean write(SmsRow row) throws IOException {
+            writeRow(row);
+            indexRow(indexer, row, progress);
+            if (++rowsSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                rowsSinceCheckpoint = 0;
+                encoder.flush();
+                // This row is counted by exportRows only after write returns.
+                long firstId = progress.rowsWritten == 0 ? row.id : progress.firstId;
+                Trace.beginSection("SmsExport.checkpoint");
+                try {
+                    recorder.checkpoint(firstId, row.id, row.date, output.sync(), progress.rowsWritten + 1);
+                    commitSearchIndex(indexer);
+                } finally {
+                    Trace.endSection();
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The pipelined UTF-8 output of a resumable export, able to tell how many bytes have reached
+     * the file. Uses a {@link MappedFileWriter} when the storage allows it, like
+     * {@link #openCsvOutput}.
+     */
+    private static final class CheckpointedOutput {
+
+        final PipelinedWriter writer;
+        private final MappedFileWriter mapped;
+        private final Utf8Writer stream;
+        private final long streamStart;
+
+        private CheckpointedOutput(MappedFileWriter mapped, Utf8Writer stream, long streamStart,
+                                   ExportMetrics metrics) {
+            this.mapped = mapped;
+            this.stream = stream;
+            this.streamStart = streamStart;
+            writer = new PipelinedWriter(new MeteredWriter(mapped != null ? mapped : stream, metrics));
+        }
+
+        /** Opens {@code file} for writing after its first {@code length} bytes, dropping anything beyond. */
+        static CheckpointedOutput open(File file, long length, ExportMetrics metrics) throws IOException {
+            try {
+                return new CheckpointedOutput(MappedFileWriter.resume(file, length), null, 0, metrics);
+            } catch (IOException e) {
+                // Some storage backends can't be mapped; the stream path works everywhere.
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+            return new CheckpointedOutput(null, new Utf8Writer(new FileOutputStream(file, true)), length, metrics);
+        }
+
+        /** Waits until everything written so far is in the file and returns the file's length in bytes. */
+        long sync() throws IOException {
+            writer.sync();
+            return mapped != null ? mapped.length() : streamStart + stream.length();
+        }
+    }
+
+    /** Writes every message into a new columnar file at {@code file}. Stops early once a cancel is requested. */
+    private void writeColumnar(File file, final ExportProgress progress, final SmsSearchIndex.Indexer indexer)
+            throws IOException {
+        try (final SmsColumnarWriter writer = new SmsColumnarWriter(
+                new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SIZE))) {
+            exportRows(0, progress, new RowSink() {
+                @Override
+                public boolean write(SmsRow row) throws IOException {
+                    writer.write(row);
+                    indexRow(indexer, row, progress);
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Opens the CSV output for {@code file}, always in UTF-8. Encoding, compression and the disk
+     * writes run on a {@link PipelinedWriter} thread, so a slow card stalls the provider reads only
+     * once its queue is full. Uncompressed output is encoded straight into a
+     * {@link MappedFileWriter} mapping when the storage allows it. The writes and flushes on that
+     * thread are timed into {@code metrics}.
+     */
+    private static Writer openCsvOutput(File file, OutputCompression compression, ExportMetrics metrics)
+            throws IOException {
+        if (compression == OutputCompression.NONE) {
+            try {
+                return new PipelinedWriter(new MeteredWriter(new MappedFileWriter(file), metrics));
+            } catch (IOException e) {
+                // Some storage backends can't be mapped; the stream path works everywhere.
+            }
+        }
+        return new PipelinedWriter(new MeteredWriter(new Utf8Writer(openOutput(file, compression)), metrics));
+    }
+
+    private static OutputStream openOutput(File file, OutputCompression compression) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            return compression.wrap(out);
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Feeds every message with an {@code _id} above {@code startAfterId} to {@code sink}. Stops
+     * early once a cancel is requested.
+     */
+    private void exportRows(long startAfterId, ExportProgress progress, RowSink sink) throws IOException {
+        SmsExportQuery query = new SmsExportQuery(contentResolver, SmsExportQuery.DEFAULT_PAGE_SIZE, startAfterId);
+        // A resumed export starts with the rows it already has.
+        int totalRows = progress.rowsRead + query.countRemaining();
+        ExportMetrics metrics = progress.metrics;
+        SmsRow row = new SmsRow();
+        Cursor cursor;
+        while ((cursor = nextPage(query, metrics)) != null) {
+            long pageStart = query.getLastId();
+            try {
+                SmsRowDecoder decoder = new SmsRowDecoder(new AndroidRowCursor(cursor));
+                while (cursor.moveToNext()) {
+                    if (cancelRequested.get()) {
+                        return;
+                    }
+                    boolean sampled = metrics.sampleRow();
+                    long start = sampled ? System.nanoTime() : 0;
+                    decoder.decode(row);
+                    if (sampled) {
+                        long decoded = System.nanoTime();
+                        metrics.record(ExportMetrics.Stage.DECODE, decoded - start);
+                        start = decoded;
+                    }
+                    progress.sampled = sampled;
+                    progress.indexNanos = 0;
+                    boolean written = sink.write(row);
+                    if (sampled) {
+                        // The sink's index work is its own stage.
+                        metrics.record(ExportMetrics.Stage.FORMAT, System.nanoTime() - start - progress.indexNanos);
+                        metrics.record(ExportMetrics.Stage.INDEX, progress.indexNanos);
+                    }
+                    if (written) {
+                        if (progress.rowsWritten++ == 0) {
+                            progress.firstId = row.id;
+                        }
+                        progress.lastId = row.id;
+                    }
+                    query.advanceTo(row.id);
+
+                    int rowsRead = ++progress.rowsRead;
+                    if (rowsRead % PROGRESS_INTERVAL == 0) {
+                        postProgress(rowsRead, Math.max(totalRows, rowsRead));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if (query.getLastId() == pageStart) {
+                // A page that doesn't move the key forward would be returned again forever.
+                throw new IOException("SMS provider returned a page without advancing past _id " + pageStart);
+            }
+        }
+        postProgress(progress.rowsRead, Math.max(totalRows, progress.rowsRead));
+    }
+
+    /** Runs the query for the next page, timed as an {@link ExportMetrics.Stage#QUERY}. */
+    private static Cursor nextPage(SmsExportQuery query, ExportMetrics metrics) {
+        long start = System.nanoTime();
+        Trace.beginSection("SmsExport.query");
+        try {
+            return query.nextPage();
+        } finally {
+            Trace.endSection();
+            metrics.record(ExportMetrics.Stage.QUERY, System.nanoTime() - start);
+        }
+    }
+
+    /** Deletes a ".part" file of an export that won't be resumed, along with its checkpoint. */
+    private static void discardPart(File partFile) {
+        ExportCheckpoint.delete(partFile);
+        deleteQuietly(partFile);
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private void postProgress(final int rowsRead, final int totalRows) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null) {
+                    listener.onExportProgress(rowsRead, totalRows);
+                }
+            }
+        });
+    }
+
+    private void postComplete(final File file, final int rowsWritten, final boolean appended) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+                if (listener != null) {
+                    listener.onExportComplete(file, rowsWritten, appended);
+                }
+            }
+        });
+    }
+
+    private void postCancelled() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+                if (listener != null) {
+                    listener.onExportCancelled();
+                }
+            }
+        });
+    }
+
+    private void postFailed(final IOException error) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+                if (listener != null) {
+                    listener.onExportFailed(error);
+                }
+            }
+        });
+    }
+}
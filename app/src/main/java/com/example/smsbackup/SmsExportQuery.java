@@ -0,0 +1,88 @@
+package com.example.smsbackup;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.Telephony;
+
+import com.example.smsbackup.core.SmsColumns;
+
+/**
+ * Pages through the SMS provider in {@code _id} order, one bounded chunk at a time.
+ *
+ * Each page asks only for the exported columns and resumes after the last {@code _id} seen
+ * ({@code _id > ?}) rather than using an offset, so every page costs the same no matter how deep
+ * into the table it is and the CursorWindow never holds more than one page of rows.
+ */
+final class SmsExportQuery {
+
+    /** Default number of rows fetched per page. */
+    static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final String SELECTION = Telephony.Sms._ID + " > ?";
+
+    private final ContentResolver contentResolver;
+    private final int pageSize;
+    private long lastId;
+
+    /** Creates a query that starts after {@code startAfterId}; pass 0 to read from the beginning. */
+    SmsExportQuery(ContentResolver contentResolver, int pageSize, long startAfterId) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        this.contentResolver = contentResolver;
+        this.pageSize = pageSize;
+        this.lastId = startAfterId;
+    }
+
+    /** Counts the rows this query will return, for progress reporting. */
+    int countRemaining() {
+        try (Cursor cursor = contentResolver.query(Telephony.Sms.CONTENT_URI,
+                new String[]{Telephony.Sms._ID}, SELECTION, new String[]{Long.toString(lastId)}, null)) {
+            return cursor != null ? cursor.getCount() : 0;
+        }
+    }
+
+    /**
+     * Returns the next page, or {@code null} once the table is exhausted. The caller must close
+     * the cursor and report the highest {@code _id} it consumed through {@link #advanceTo(long)}
+     * before asking for another page.
+     */
+    Cursor nextPage() {
+        // The SMS provider passes the sort order straight to SQLite, which is the only way to
+        // get a LIMIT through on every API level we support.
+        Cursor cursor = contentResolver.query(Telephony.Sms.CONTENT_URI, SmsColumns.EXPORT_PROJECTION, SELECTION,
+                new String[]{Long.toString(lastId)}, Telephony.Sms._ID + " ASC LIMIT " + pageSize);
+        if (cursor != null && cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+
+    /** Returns the largest {@code _id} in the provider, or 0 if it holds no messages. */
+    static long queryMaxId(ContentResolver contentResolver) {
+        try (Cursor cursor = contentResolver.query(Telephony.Sms.CONTENT_URI, new String[]{Telephony.Sms._ID},
+                null, null, Telephony.Sms._ID + " DESC LIMIT 1")) {
+            return cursor != null && cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /** Returns the {@code date} of message {@code id}, or -1 if there is no such message. */
+    static long queryDate(ContentResolver contentResolver, long id) {
+        try (Cursor cursor = contentResolver.query(Telephony.Sms.CONTENT_URI, new String[]{Telephony.Sms.DATE},
+                Telephony.Sms._ID + " = ?", new String[]{Long.toString(id)}, null)) {
+            return cursor != null && cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+    }
+
+    /** Records that every row up to and including {@code id} has been consumed. */
+    void advanceTo(long id) {
+        if (id > lastId) {
+            lastId = id;
+        }
+    }
+
+    long getLastId() {
+        return lastId;
+    }
+}
@@ -0,0 +1,356 @@
+package com.example.smsbackup;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Telephony;
+
+import com.example.smsbackup.core.BackupVerifier;
+import com.example.smsbackup.core.SmsCsvReader;
+import com.example.smsbackup.core.SmsRestoreKey;
+import com.example.smsbackup.core.SmsRow;
+import com.example.smsbackup.core.SmsRowDecoder;
+import com.example.smsbackup.core.TimestampFormatter;
+import com.example.smsbackup.core.TimestampParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Restores a CSV written by the export back into the SMS provider on a background thread.
+ *
+ * The file is streamed through an {@link SmsCsvReader}, plain or gzip-compressed, and the rows
+ * are inserted with {@link ContentResolver#bulkInsert} in batches of up to {@link #BATCH_ROWS}
+ * rows, one provider call per batch instead of one per message. Before reading the file, every
+ * message already in the provider is hashed into an {@link SmsRestoreKey} set; rows whose key is
+ * present, including repeats within the file, are skipped, so restoring the same backup twice
+ * inserts nothing the second time.
+ *
+ * The CSV holds dates to the second in the time zone of the device that wrote it; restored
+ * messages get those times in this device's zone. Thread ids and contact ids belong to the old
+ * device's tables and are left for the provider to assign.
+ *
+ * A backup that has a {@link com.example.smsbackup.core.BackupManifest} is verified against it
+ * first, and refused without inserting anything if any part of it no longer matches.
+ *
+ * Only the default SMS app may write to the provider; otherwise the first batch fails and
+ * {@link Listener#onRestoreFailed} reports it. Only one restore runs at a time. Progress and the
+ * outcome are posted to the attached {@link Listener} on the main thread.
+ */
+public final class SmsRestoreEngine {
+
+    /** Callbacks for a restore run. All methods are invoked on the main thread. */
+    public interface Listener {
+        void onRestoreProgress(int rowsRead);
+
+        /**
+         * @param rowsInserted messages added to the provider
+         * @param rowsSkipped messages already present
+         */
+        void onRestoreComplete(File file, int rowsInserted, int rowsSkipped);
+
+        /** Batches inserted before the cancel stay in the provider. */
+        void onRestoreCancelled(int rowsInserted);
+
+        void onRestoreFailed(IOException error);
+    }
+
+    /** Maximum rows per {@code bulkInsert} call. */
+    private static final int BATCH_ROWS = 500;
+    /** Body and subject chars after which a batch is sent early, to stay under the binder transaction limit. */
+    private static final int BATCH_TEXT_CHARS = 128 * 1024;
+    private static final int PROGRESS_INTERVAL = 500;
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_VERIFIER_THREADS = 4;
+
+    private static SmsRestoreEngine instance;
+
+    private final ContentResolver contentResolver;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean cancelRequested = new AtomicBoolean();
+    private volatile boolean running;
+    private Listener listener;
+
+    private SmsRestoreEngine(Context context) {
+        contentResolver = context.getContentResolver();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "sms-restore");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /** Returns the process-wide engine; like {@link SmsExportEngine}, it outlives activities. */
+    public static synchronized SmsRestoreEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new SmsRestoreEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /** Attaches the listener that receives callbacks, or detaches it when {@code null}. Main thread only. */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts restoring {@code source}, a {@code .csv} or {@code .csv.gz} backup. Returns
+     * {@code false} without doing anything if a restore is already running. Main thread only.
+     */
+    public boolean start(final File source) {
+        if (running) {
+            return false;
+        }
+        running = true;
+        cancelRequested.set(false);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runRestore(source);
+            }
+        });
+        return true;
+    }
+
+    /** Requests the running restore to stop after the current batch. */
+    public void cancel() {
+        cancelRequested.set(true);
+    }
+
+    /** Returns whether {@link #cancel()} was called since the current or last restore started. */
+    public boolean isCancelRequested() {
+        return cancelRequested.get();
+    }
+
+    private void runRestore(File source) {
+        RestoreProgress progress = new RestoreProgress();
+        try {
+            verify(source);
+            TimestampFormatter timestampFormatter = new TimestampFormatter();
+            SmsRestoreKey restoreKey = new SmsRestoreKey(timestampFormatter);
+            Set<Long> present = loadExistingKeys(restoreKey);
+            if (cancelRequested.get()) {
+                postCancelled(0);
+                return;
+            }
+            try (SmsCsvReader reader = new SmsCsvReader(new InputStreamReader(openInput(source),
+                    StandardCharsets.UTF_8), new TimestampParser())) {
+                List<ContentValues> batch = new ArrayList<>(BATCH_ROWS);
+                int batchChars = 0;
+                SmsRow row = new SmsRow();
+                while (reader.read(row)) {
+                    int rowsRead = ++progress.rowsRead;
+                    if (rowsRead % PROGRESS_INTERVAL == 0) {
+                        postProgress(rowsRead);
+                    }
+                    if (!present.add(restoreKey.of(row))) {
+                        progress.rowsSkipped++;
+                        continue;
+                    }
+                    batch.add(toContentValues(row));
+                    batchChars += length(row.body) + length(row.subject);
+                    if (batch.size() >= BATCH_ROWS || batchChars >= BATCH_TEXT_CHARS) {
+                        insert(batch, progress);
+                        batchChars = 0;
+                        if (cancelRequested.get()) {
+                            postCancelled(progress.rowsInserted);
+                            return;
+                        }
+                    }
+                }
+                insert(batch, progress);
+            }
+            postProgress(progress.rowsRead);
+            postComplete(source, progress.rowsInserted, progress.rowsSkipped);
+        } catch (IOException e) {
+            postFailed(e);
+        } catch (RuntimeException e) {
+            // SecurityException when this isn't the default SMS app, among others.
+            postFailed(new IOException(e));
+        } catch (Throwable t) {
+            // An Error, e.g. OOM on the key set of a huge inbox; still report it, or running
+            // would stay set and no restore could start again.
+            postFailed(new IOException("Restore failed", t));
+        }
+    }
+
+    /** Running totals of one restore, updated on the restore thread. */
+    private static final class RestoreProgress {
+        int rowsRead;
+        int rowsInserted;
+        int rowsSkipped;
+    }
+
+    /** Throws if {@code source} has a manifest it no longer matches. */
+    private static void verify(File source) throws IOException {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_VERIFIER_THREADS);
+        try (BackupVerifier verifier = new BackupVerifier(threads)) {
+            BackupVerifier.Report report = verifier.verify(source);
+            if (report.manifest != null && !report.isIntact()) {
+                throw new IOException(source.getName() + " is damaged at " + report.damaged);
+            }
+        }
+    }
+
+    /** Hashes every message in the provider, paging through it as the export does. */
+    private Set<Long> loadExistingKeys(SmsRestoreKey restoreKey) throws IOException {
+        SmsExportQuery query = new SmsExportQuery(contentResolver, SmsExportQuery.DEFAULT_PAGE_SIZE, 0);
+        Set<Long> keys = new HashSet<>(Math.max(16, query.countRemaining() * 2));
+        SmsRow row = new SmsRow();
+        Cursor cursor;
+        while ((cursor = query.nextPage()) != null) {
+            long pageStart = query.getLastId();
+            try {
+                SmsRowDecoder decoder = new SmsRowDecoder(new AndroidRowCursor(cursor));
+                while (cursor.moveToNext()) {
+                    if (cancelRequested.get()) {
+                        return keys;
+                    }
+                    decoder.decode(row);
+                    keys.add(restoreKey.of(row));
+                    query.advanceTo(row.id);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (query.getLastId() == pageStart) {
+                throw new IOException("SMS provider returned a page without advancing past _id " + pageStart);
+            }
+        }
+        return keys;
+    }
+
+    private void insert(List<ContentValues> batch, RestoreProgress progress) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int inserted = contentResolver.bulkInsert(Telephony.Sms.CONTENT_URI,
+                batch.toArray(new ContentValues[batch.size()]));
+        if (inserted == 0) {
+            throw new IOException("SMS provider rejected " + batch.size() + " messages; is this the default SMS app?");
+        }
+        progress.rowsInserted += inserted;
+        batch.clear();
+    }
+
+    /** Maps a row onto provider columns, leaving out NULLs and the ids that only meant something on the old device. */
+    private static ContentValues toContentValues(SmsRow row) {
+        ContentValues values = new ContentValues(14);
+        putText(values, row, SmsRow.ADDRESS, Telephony.Sms.ADDRESS, row.address);
+        putNumber(values, row, SmsRow.DATE, Telephony.Sms.DATE, row.date);
+        putNumber(values, row, SmsRow.DATE_SENT, Telephony.Sms.DATE_SENT, row.dateSent);
+        putNumber(values, row, SmsRow.PROTOCOL, Telephony.Sms.PROTOCOL, row.protocol);
+        putNumber(values, row, SmsRow.READ, Telephony.Sms.READ, row.read);
+        putNumber(values, row, SmsRow.STATUS, Telephony.Sms.STATUS, row.status);
+        putNumber(values, row, SmsRow.TYPE, Telephony.Sms.TYPE, row.type);
+        putNumber(values, row, SmsRow.REPLY_PATH_PRESENT, Telephony.Sms.REPLY_PATH_PRESENT, row.replyPathPresent);
+        putText(values, row, SmsRow.SUBJECT, Telephony.Sms.SUBJECT, row.subject);
+        putText(values, row, SmsRow.BODY, Telephony.Sms.BODY, row.body);
+        putText(values, row, SmsRow.SERVICE_CENTER, Telephony.Sms.SERVICE_CENTER, row.serviceCenter);
+        putNumber(values, row, SmsRow.LOCKED, Telephony.Sms.LOCKED, row.locked);
+        putNumber(values, row, SmsRow.ERROR_CODE, Telephony.Sms.ERROR_CODE, row.errorCode);
+        putNumber(values, row, SmsRow.SEEN, Telephony.Sms.SEEN, row.seen);
+        return values;
+    }
+
+    private static void putText(ContentValues values, SmsRow row, int column, String name, String value) {
+        if (!row.isNull(column)) {
+            values.put(name, value);
+        }
+    }
+
+    private static void putNumber(ContentValues values, SmsRow row, int column, String name, long value) {
+        if (!row.isNull(column)) {
+            values.put(name, value);
+        }
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /** Opens {@code file}, decompressing it if its name says it is gzip (single or block gzip alike). */
+    private static InputStream openInput(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (!file.getName().endsWith(".gz")) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, INPUT_BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private void postProgress(final int rowsRead) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null) {
+                    listener.onRestoreProgress(rowsRead);
+                }
+            }
+        });
+    }
+
+    private void postComplete(final File file, final int rowsInserted, final int rowsSkipped) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+                if (listener != null) {
+                    listener.onRestoreComplete(file, rowsInserted, rowsSkipped);
+                }
+            }
+        });
+    }
+
+    private void postCancelled(final int rowsInserted) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+                if (listener != null) {
+                    listener.onRestoreCancelled(rowsInserted);
+                }
+            }
+        });
+    }
+
+    private void postFailed(final IOException error) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+                if (listener != null) {
+                    listener.onRestoreFailed(error);
+                }
+            }
+        });
+    }
+}
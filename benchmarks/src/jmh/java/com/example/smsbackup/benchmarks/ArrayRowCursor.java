@@ -0,0 +1,92 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.RowCursor;
+import com.example.smsbackup.core.SmsColumns;
+import com.example.smsbackup.core.SmsRow;
+
+/**
+ * An in-memory cursor over provider-shaped rows, laid out in {@link SmsColumns#EXPORT_PROJECTION}
+ * order. Numeric columns are held as boxed values like a CursorWindow holds typed cells, and
+ * {@link #getColumnIndexOrThrow} does a linear name lookup like the framework cursor.
+ */
+final class ArrayRowCursor implements RowCursor {
+
+    private final Object[][] rows;
+    private int position = -1;
+
+    private ArrayRowCursor(Object[][] rows) {
+        this.rows = rows;
+    }
+
+    static ArrayRowCursor of(SmsRow[] source) {
+        Object[][] rows = new Object[source.length][];
+        for (int i = 0; i < source.length; i++) {
+            SmsRow row = source[i];
+            rows[i] = new Object[]{
+                    row.id,
+                    cell(row, SmsRow.THREAD_ID, row.threadId),
+                    row.address,
+                    cell(row, SmsRow.PERSON, row.person),
+                    cell(row, SmsRow.DATE, row.date),
+                    cell(row, SmsRow.DATE_SENT, row.dateSent),
+                    cell(row, SmsRow.PROTOCOL, row.protocol),
+                    cell(row, SmsRow.READ, row.read),
+                    cell(row, SmsRow.STATUS, row.status),
+                    cell(row, SmsRow.TYPE, row.type),
+                    cell(row, SmsRow.REPLY_PATH_PRESENT, row.replyPathPresent),
+                    row.subject,
+                    row.body,
+                    row.serviceCenter,
+                    cell(row, SmsRow.LOCKED, row.locked),
+                    cell(row, SmsRow.ERROR_CODE, row.errorCode),
+                    cell(row, SmsRow.SEEN, row.seen),
+            };
+        }
+        return new ArrayRowCursor(rows);
+    }
+
+    private static Long cell(SmsRow row, int column, long value) {
+        return row.isNull(column) ? null : value;
+    }
+
+    void rewind() {
+        position = -1;
+    }
+
+    boolean moveToNext() {
+        return ++position < rows.length;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        String[] names = SmsColumns.EXPORT_PROJECTION;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(columnName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return rows[position][columnIndex] == null;
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object value = rows[position][columnIndex];
+        return value == null ? 0 : ((Long) value);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = rows[position][columnIndex];
+        return value == null ? null : value.toString();
+    }
+}
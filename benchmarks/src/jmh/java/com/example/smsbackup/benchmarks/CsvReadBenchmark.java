@@ -0,0 +1,91 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.CsvWriter;
+import com.example.smsbackup.core.MappedCsvReader;
+import com.example.smsbackup.core.SmsCsvFormat;
+import com.example.smsbackup.core.SmsCsvReader;
+import com.example.smsbackup.core.SmsRow;
+import com.example.smsbackup.core.TimestampFormatter;
+import com.example.smsbackup.core.TimestampParser;
+import com.example.smsbackup.core.Utf8Writer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads back an exported CSV of the whole inbox, the way a verification pass would: every record,
+ * the date parsed and the body's length taken. Compare {@code gc.alloc.rate.norm} between the
+ * two readers as well as the score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CsvReadBenchmark {
+
+    private File source;
+
+    @Setup(Level.Trial)
+    public void writeSource(InboxState inbox) throws IOException {
+        source = File.createTempFile("sms_backup_bench", ".csv");
+        TimestampFormatter timestampFormatter = new TimestampFormatter();
+        try (CsvWriter csv = new CsvWriter(new Utf8Writer(new FileOutputStream(source)))) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            for (SmsRow row : inbox.rows) {
+                SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSource() {
+        if (!source.delete()) {
+            source.deleteOnExit();
+        }
+    }
+
+    /** Decodes the stream into chars and every text field into a String. */
+    @Benchmark
+    public void smsCsvReader(ExportRowCounter counter, Blackhole blackhole) throws IOException {
+        try (SmsCsvReader reader = new SmsCsvReader(new InputStreamReader(new FileInputStream(source),
+                StandardCharsets.UTF_8), new TimestampParser())) {
+            SmsRow row = new SmsRow();
+            while (reader.read(row)) {
+                blackhole.consume(row.date);
+                blackhole.consume(row.body == null ? 0 : row.body.length());
+                counter.rows++;
+            }
+        }
+    }
+
+    /** Parses the mapped bytes in place and decodes only the fields it looks at. */
+    @Benchmark
+    public void mappedCsvReader(ExportRowCounter counter, Blackhole blackhole) throws IOException {
+        TimestampParser timestampParser = new TimestampParser();
+        try (MappedCsvReader reader = MappedCsvReader.open(source)) {
+            reader.expectHeader(SmsCsvFormat.HEADER);
+            while (reader.next()) {
+                if (!reader.isNull(SmsRow.DATE)) {
+                    blackhole.consume(timestampParser.parse(reader.getField(SmsRow.DATE), 0));
+                }
+                blackhole.consume(reader.getField(SmsRow.BODY).length());
+                counter.rows++;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.CsvWriter;
+import com.example.smsbackup.core.OutputCompression;
+import com.example.smsbackup.core.SmsCsvFormat;
+import com.example.smsbackup.core.SmsRow;
+import com.example.smsbackup.core.TimestampFormatter;
+import com.example.smsbackup.core.Utf8Writer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the whole inbox to local disk through each {@link OutputCompression}. The score is the
+ * wall-clock time of one export. {@code bytesPerExport} is the size of the file it leaves behind;
+ * JMH sums event counters over the measurement iterations, so divide it by {@code Cnt}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportCompressionBenchmark {
+
+    /** Reports the size of the last file written next to the time score. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class OutputSize {
+
+        public long bytesPerExport;
+    }
+
+    @Param({"NONE", "GZIP", "BLOCK_GZIP"})
+    public OutputCompression compression;
+
+    private File target;
+
+    @Setup(Level.Iteration)
+    public void createTarget() throws IOException {
+        target = File.createTempFile("sms_backup_bench", compression.getExtension());
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteTarget() {
+        if (!target.delete()) {
+            target.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public void export(InboxState inbox, OutputSize size) throws IOException {
+        TimestampFormatter timestampFormatter = new TimestampFormatter();
+        try (CsvWriter csv = new CsvWriter(new Utf8Writer(compression.wrap(new FileOutputStream(target))))) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            for (SmsRow row : inbox.rows) {
+                SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+            }
+        }
+        size.bytesPerExport = target.length();
+    }
+}
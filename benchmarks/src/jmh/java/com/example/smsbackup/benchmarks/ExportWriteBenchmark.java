@@ -0,0 +1,117 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.CsvWriter;
+import com.example.smsbackup.core.MappedFileWriter;
+import com.example.smsbackup.core.ParallelCsvExport;
+import com.example.smsbackup.core.PipelinedWriter;
+import com.example.smsbackup.core.SmsCsvFormat;
+import com.example.smsbackup.core.SmsRow;
+import com.example.smsbackup.core.TimestampFormatter;
+import com.example.smsbackup.core.Utf8Writer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Encodes the whole inbox and writes it to a file on local disk, as the export does. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExportWriteBenchmark {
+
+    private File target;
+
+    @Setup(Level.Iteration)
+    public void createTarget() throws IOException {
+        target = File.createTempFile("sms_backup_bench", ".csv");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteTarget() {
+        if (!target.delete()) {
+            target.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public void legacyFileWriter(InboxState inbox, ExportRowCounter counter) throws IOException {
+        try (FileWriter fileWriter = new FileWriter(target)) {
+            fileWriter.append(LegacyCsvExport.HEADER);
+            for (SmsRow row : inbox.rows) {
+                LegacyCsvExport.writeRow(fileWriter, row);
+            }
+        }
+        counter.rows += inbox.rows.length;
+    }
+
+    @Benchmark
+    public void csvWriter(InboxState inbox, ExportRowCounter counter) throws IOException {
+        TimestampFormatter timestampFormatter = new TimestampFormatter();
+        try (CsvWriter csv = new CsvWriter(new FileWriter(target))) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            for (SmsRow row : inbox.rows) {
+                SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+            }
+        }
+        counter.rows += inbox.rows.length;
+    }
+
+    @Benchmark
+    public void utf8CsvWriter(InboxState inbox, ExportRowCounter counter) throws IOException {
+        TimestampFormatter timestampFormatter = new TimestampFormatter();
+        try (CsvWriter csv = new CsvWriter(new Utf8Writer(new FileOutputStream(target)))) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            for (SmsRow row : inbox.rows) {
+                SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+            }
+        }
+        counter.rows += inbox.rows.length;
+    }
+
+    @Benchmark
+    public void mappedCsvWriter(InboxState inbox, ExportRowCounter counter) throws IOException {
+        TimestampFormatter timestampFormatter = new TimestampFormatter();
+        try (CsvWriter csv = new CsvWriter(new MappedFileWriter(target))) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            for (SmsRow row : inbox.rows) {
+                SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+            }
+        }
+        counter.rows += inbox.rows.length;
+    }
+
+    @Benchmark
+    public void pipelinedCsvWriter(InboxState inbox, ExportRowCounter counter) throws IOException {
+        TimestampFormatter timestampFormatter = new TimestampFormatter();
+        try (CsvWriter csv = new CsvWriter(new PipelinedWriter(new Utf8Writer(new FileOutputStream(target))))) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            for (SmsRow row : inbox.rows) {
+                SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+            }
+        }
+        counter.rows += inbox.rows.length;
+    }
+
+    @Benchmark
+    public void parallelCsvWriter(InboxState inbox, ExportRowCounter counter) throws IOException {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        try (ParallelCsvExport export = new ParallelCsvExport(new Utf8Writer(new FileOutputStream(target)), threads)) {
+            for (SmsRow row : inbox.rows) {
+                export.write(row);
+            }
+        }
+        counter.rows += inbox.rows.length;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.SmsRow;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** A synthetic inbox shared by all threads of a benchmark run. */
+@State(Scope.Benchmark)
+public class InboxState {
+
+    @Param({"10000", "100000", "1000000"})
+    public int messages;
+
+    public SmsRow[] rows;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        rows = SyntheticInbox.rows(messages, 42L);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.SmsRow;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The row encoding MainActivity.backupSms() used before the export engine: a SimpleDateFormat
+ * and two Dates per row, chained String.replace escaping and 48 appends. Kept as the baseline
+ * the current pipeline is measured against.
+ */
+final class LegacyCsvExport {
+
+    static final String HEADER = "Thread ID,Address,Person,Date,Date Sent,Protocol,Read,Status,Type,Reply Path Present,Subject,Body,Service Center,Locked,Error Code,Seen\n";
+
+    private LegacyCsvExport() {
+    }
+
+    static String formatDate(long millis) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        return sdf.format(new Date(millis));
+    }
+
+    static String escape(String value) {
+        return value != null ? value.replace("\"", "\"\"").replace("\n", " ") : "";
+    }
+
+    static void writeRow(Writer fileWriter, SmsRow row) throws IOException {
+        String threadId = column(row, SmsRow.THREAD_ID, row.threadId);
+        String person = column(row, SmsRow.PERSON, row.person);
+        String protocol = column(row, SmsRow.PROTOCOL, row.protocol);
+        String read = column(row, SmsRow.READ, row.read);
+        String status = column(row, SmsRow.STATUS, row.status);
+        String type = column(row, SmsRow.TYPE, row.type);
+        String replyPathPresent = column(row, SmsRow.REPLY_PATH_PRESENT, row.replyPathPresent);
+        String locked = column(row, SmsRow.LOCKED, row.locked);
+        String errorCode = column(row, SmsRow.ERROR_CODE, row.errorCode);
+        String seen = column(row, SmsRow.SEEN, row.seen);
+
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        String date = sdf.format(new Date(row.date));
+        String dateSent = sdf.format(new Date(row.dateSent));
+
+        String body = escape(row.body);
+        String subject = escape(row.subject);
+
+        fileWriter.append("\"").append(threadId).append("\",");
+        fileWriter.append("\"").append(row.address).append("\",");
+        fileWriter.append("\"").append(person).append("\",");
+        fileWriter.append("\"").append(date).append("\",");
+        fileWriter.append("\"").append(dateSent).append("\",");
+        fileWriter.append("\"").append(protocol).append("\",");
+        fileWriter.append("\"").append(read).append("\",");
+        fileWriter.append("\"").append(status).append("\",");
+        fileWriter.append("\"").append(type).append("\",");
+        fileWriter.append("\"").append(replyPathPresent).append("\",");
+        fileWriter.append("\"").append(subject).append("\",");
+        fileWriter.append("\"").append(body).append("\",");
+        fileWriter.append("\"").append(row.serviceCenter).append("\",");
+        fileWriter.append("\"").append(locked).append("\",");
+        fileWriter.append("\"").append(errorCode).append("\",");
+        fileWriter.append("\"").append(seen).append("\"\n");
+    }
+
+    /** The provider handed every column back as a String; NULL came out as the text "null". */
+    private static String column(SmsRow row, int column, long value) {
+        return row.isNull(column) ? null : Long.toString(value);
+    }
+}
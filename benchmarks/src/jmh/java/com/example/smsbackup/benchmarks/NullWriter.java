@@ -0,0 +1,37 @@
+package com.example.smsbackup.benchmarks;
+
+import java.io.Writer;
+
+/** Discards everything, so benchmarks can measure encoding without I/O. */
+final class NullWriter extends Writer {
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+    }
+
+    @Override
+    public void write(int c) {
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+        return this;
+    }
+
+    @Override
+    public Writer append(char c) {
+        return this;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
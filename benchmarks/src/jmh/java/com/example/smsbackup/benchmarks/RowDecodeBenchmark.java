@@ -0,0 +1,55 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.SmsColumns;
+import com.example.smsbackup.core.SmsRow;
+import com.example.smsbackup.core.SmsRowDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Walks a cursor over the whole inbox and decodes every row. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RowDecodeBenchmark {
+
+    private ArrayRowCursor cursor;
+
+    @Setup(Level.Trial)
+    public void createCursor(InboxState inbox) {
+        cursor = ArrayRowCursor.of(inbox.rows);
+    }
+
+    /** The original loop: a column lookup per column per row and every column read as a String. */
+    @Benchmark
+    public void columnLookupPerRow(ExportRowCounter counter, Blackhole blackhole) {
+        cursor.rewind();
+        while (cursor.moveToNext()) {
+            for (String column : SmsColumns.EXPORT_PROJECTION) {
+                blackhole.consume(cursor.getString(cursor.getColumnIndexOrThrow(column)));
+            }
+            counter.rows++;
+        }
+    }
+
+    @Benchmark
+    public void smsRowDecoder(ExportRowCounter counter, Blackhole blackhole) {
+        cursor.rewind();
+        SmsRowDecoder decoder = new SmsRowDecoder(cursor);
+        SmsRow row = new SmsRow();
+        while (cursor.moveToNext()) {
+            decoder.decode(row);
+            blackhole.consume(row);
+            counter.rows++;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.SmsRow;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic inboxes for the export benchmarks.
+ *
+ * The body mix follows what real handsets carry: mostly OTPs and bank/merchant alerts around
+ * 60-160 chars, a share of short personal messages (some with emoji, Devanagari, quotes and line
+ * breaks), and a tail of long multipart messages. Bodies and addresses are drawn from fixed
+ * pools, so a million-message inbox costs row objects rather than a million distinct strings.
+ */
+final class SyntheticInbox {
+
+    private static final int BODY_POOL_SIZE = 8192;
+    private static final int ADDRESS_POOL_SIZE = 512;
+    private static final long START_MILLIS = 1_546_300_800_000L; // 2019-01-01T00:00:00Z
+
+    private static final String[] WORDS = {
+            "ok", "see", "you", "at", "home", "tomorrow", "call", "me", "when", "free", "thanks",
+            "reached", "office", "running", "late", "lunch", "meeting", "done", "where", "are",
+            "\"quoted\"", "नमस्ते", "ठीक", "है", "😀", "👍", "🙏",
+    };
+
+    private SyntheticInbox() {
+    }
+
+    /** Returns {@code count} independent rows in ascending {@code _id} and date order. */
+    static SmsRow[] rows(int count, long seed) {
+        Random random = new Random(seed);
+        String[] bodies = new String[BODY_POOL_SIZE];
+        for (int i = 0; i < bodies.length; i++) {
+            bodies[i] = body(random);
+        }
+        String[] addresses = new String[ADDRESS_POOL_SIZE];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = i % 3 == 0
+                    ? "VM-" + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26)) + "BANK"
+                    : "+9198" + (10_000_000 + random.nextInt(90_000_000));
+        }
+
+        SmsRow[] rows = new SmsRow[count];
+        long date = START_MILLIS;
+        for (int i = 0; i < count; i++) {
+            SmsRow row = new SmsRow();
+            int addressIndex = random.nextInt(ADDRESS_POOL_SIZE);
+            date += random.nextInt(30 * 60 * 1000);
+            row.id = i + 1;
+            row.threadId = addressIndex + 1;
+            row.address = addresses[addressIndex];
+            row.nullMask = (1 << SmsRow.PERSON) | (1 << SmsRow.SUBJECT);
+            row.date = date;
+            row.type = random.nextInt(4) == 0 ? 2 : 1;
+            if (row.type == 1) {
+                row.dateSent = date - random.nextInt(5000);
+                row.serviceCenter = "+919810051914";
+            } else {
+                row.nullMask |= (1 << SmsRow.PROTOCOL) | (1 << SmsRow.REPLY_PATH_PRESENT)
+                        | (1 << SmsRow.SERVICE_CENTER);
+            }
+            row.read = 1;
+            row.status = -1;
+            row.body = bodies[random.nextInt(BODY_POOL_SIZE)];
+            row.seen = 1;
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    private static String body(Random random) {
+        int kind = random.nextInt(100);
+        if (kind < 35) {
+            return (100_000 + random.nextInt(900_000)) + " is your OTP for login to your account. "
+                    + "It is valid for 10 minutes. Do not share it with anyone. -XYZBNK";
+        }
+        if (kind < 65) {
+            return "Rs." + random.nextInt(50_000) + "." + random.nextInt(100) + " debited from A/c XX"
+                    + (1000 + random.nextInt(9000)) + " on " + (1 + random.nextInt(28)) + "-0"
+                    + (1 + random.nextInt(9)) + "-24 to VPA merchant" + random.nextInt(1000)
+                    + "@upi. Avl Bal Rs." + random.nextInt(500_000) + ". Not you? Call 18001234567";
+        }
+        if (kind < 90) {
+            return words(random, 1 + random.nextInt(12));
+        }
+        return words(random, 60 + random.nextInt(120));
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(random.nextInt(40) == 0 ? '\n' : ' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.smsbackup.benchmarks;
+
+import com.example.smsbackup.core.SmsRow;
+import com.example.smsbackup.core.TimestampFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Formats DATE and DATE_SENT of every row in the inbox. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TimestampFormatBenchmark {
+
+    @Benchmark
+    public void simpleDateFormatPerRow(InboxState inbox, ExportRowCounter counter, Blackhole blackhole) {
+        for (SmsRow row : inbox.rows) {
+            blackhole.consume(LegacyCsvExport.formatDate(row.date));
+            blackhole.consume(LegacyCsvExport.formatDate(row.dateSent));
+        }
+        counter.rows += inbox.rows.length;
+    }
+
+    @Benchmark
+    public void timestampFormatter(InboxState inbox, ExportRowCounter counter, Blackhole blackhole) {
+        TimestampFormatter formatter = new TimestampFormatter();
+        char[] buffer = new char[TimestampFormatter.LENGTH];
+        for (SmsRow row : inbox.rows) {
+            blackhole.consume(formatter.format(row.date, buffer, 0));
+            blackhole.consume(formatter.format(row.dateSent, buffer, 0));
+        }
+        blackhole.consume(buffer);
+        counter.rows += inbox.rows.length;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.smsbackup.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/** Names of the files a backup run produces. */
+public final class BackupFileNames {
+
+    public static final String CSV_PREFIX = "sms_backup_";
+    public static final String CSV_EXTENSION = ".csv";
+    /** Appended to a backup's name while it is being written; renamed away once it is complete. */
+    public static final String PART_SUFFIX = ".part";
+    /** Directory of the {@link SegmentedBackupStore} that incremental backups append to. */
+    public static final String STORE_DIRECTORY = "sms_backup_store";
+    /** {@link DedupIndex} of every message in the incremental store and the stores archived before it. */
+    public static final String DEDUP_INDEX = "sms_backup_dedup.idx";
+    /** Directory of the {@link SmsSearchIndex} over every message the exports have backed up. */
+    public static final String SEARCH_INDEX_DIRECTORY = "sms_search_index";
+
+    private BackupFileNames() {
+    }
+
+    /** Returns {@code sms_backup_yyyyMMdd_HHmmss.csv} for {@code timeMillis} in {@code timeZone}. */
+    public static String csvFileName(long timeMillis, TimeZone timeZone) {
+        return csvFileName(timeMillis, timeZone, OutputCompression.NONE);
+    }
+
+    /** Returns the backup file name for {@code timeMillis}, ending in the extension of {@code compression}. */
+    public static String csvFileName(long timeMillis, TimeZone timeZone, OutputCompression compression) {
+        return fileName(timeMillis, timeZone, compression.getExtension());
+    }
+
+    /** Returns the CSV file name for a backup started now, in the device's time zone. */
+    public static String newCsvFileName() {
+        return newCsvFileName(OutputCompression.NONE);
+    }
+
+    /** Returns the file name for a backup started now, in the device's time zone. */
+    public static String newCsvFileName(OutputCompression compression) {
+        return csvFileName(System.currentTimeMillis(), TimeZone.getDefault(), compression);
+    }
+
+    /** Returns the file name for a columnar backup started now, in the device's time zone. */
+    public static String newColumnarFileName() {
+        return fileName(System.currentTimeMillis(), TimeZone.getDefault(), SmsColumnarFormat.FILE_EXTENSION);
+    }
+
+    private static String fileName(long timeMillis, TimeZone timeZone, String extension) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US);
+        format.setTimeZone(timeZone);
+        return CSV_PREFIX + format.format(new Date(timeMillis)) + extension;
+    }
+}
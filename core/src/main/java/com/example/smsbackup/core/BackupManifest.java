@@ -0,0 +1,202 @@
+package com.example.smsbackup.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * What a finished backup file should contain: how many messages, their {@code _id} range, its
+ * length, and the CRC32 of each {@link #blockSize}-byte block of it, the last block possibly
+ * shorter.
+ *
+ * The manifest lives next to its backup under {@link #fileFor(File)}, in the same "key value"
+ * text as an {@link ExportCheckpoint}, and is written before the backup is renamed into place.
+ * The checksums cover the bytes on disk, whatever the format or compression, so a
+ * {@link BackupVerifier} can check any backup block by block, in parallel, and report which byte
+ * ranges no longer match.
+ */
+public final class BackupManifest {
+
+    public static final String FILE_SUFFIX = ".manifest";
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private static final String VERSION = "1";
+
+    public final int rows;
+    public final long firstId;
+    public final long lastId;
+    public final long length;
+    public final int blockSize;
+    private final long[] checksums;
+
+    public BackupManifest(int rows, long firstId, long lastId, long length, int blockSize, long[] checksums) {
+        if (blockSize <= 0 || checksums.length != blockCount(length, blockSize)) {
+            throw new IllegalArgumentException(checksums.length + " checksums for " + length
+                    + " bytes in blocks of " + blockSize);
+        }
+        this.rows = rows;
+        this.firstId = firstId;
+        this.lastId = lastId;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.checksums = checksums.clone();
+    }
+
+    /** Returns the manifest file that belongs to {@code backup}. */
+    public static File fileFor(File backup) {
+        return new File(backup.getParentFile(), backup.getName() + FILE_SUFFIX);
+    }
+
+    public int getBlockCount() {
+        return checksums.length;
+    }
+
+    /** Returns the CRC32 of block {@code index}. */
+    public long getChecksum(int index) {
+        return checksums[index];
+    }
+
+    /** Byte offset in the backup of the start of block {@code index}. */
+    public long blockStart(int index) {
+        return (long) index * blockSize;
+    }
+
+    /** Number of bytes in block {@code index}; only the last one may be short. */
+    public int blockLength(int index) {
+        return (int) Math.min(blockSize, length - blockStart(index));
+    }
+
+    static int blockCount(long length, int blockSize) {
+        long count = (length + blockSize - 1) / blockSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(length + " bytes is too many blocks of " + blockSize);
+        }
+        return (int) count;
+    }
+
+    /**
+     * Checksums {@code file}, which has just been written and holds {@code rows} messages from
+     * {@code firstId} to {@code lastId}, in blocks of {@link #DEFAULT_BLOCK_SIZE}. The file is read
+     * once, front to back, while it is still in the page cache.
+     */
+    public static BackupManifest compute(File file, int rows, long firstId, long lastId) throws IOException {
+        int blockSize = DEFAULT_BLOCK_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            long[] checksums = new long[blockCount(length, blockSize)];
+            byte[] buffer = new byte[blockSize];
+            CRC32 crc = new CRC32();
+            for (int block = 0; block < checksums.length; block++) {
+                int blockLength = (int) Math.min(blockSize, length - (long) block * blockSize);
+                raf.readFully(buffer, 0, blockLength);
+                crc.reset();
+                crc.update(buffer, 0, blockLength);
+                checksums[block] = crc.getValue();
+            }
+            return new BackupManifest(rows, firstId, lastId, length, blockSize, checksums);
+        }
+    }
+
+    /** Reads the manifest of {@code backup}, or returns {@code null} if it has none or it is unreadable. */
+    public static BackupManifest read(File backup) {
+        File file = fileFor(backup);
+        if (!file.isFile()) {
+            return null;
+        }
+        int rows = -1;
+        long firstId = -1;
+        long lastId = -1;
+        long length = -1;
+        int blockSize = -1;
+        long[] checksums = new long[16];
+        int checksumCount = 0;
+        boolean versionMatches = false;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length != 2) {
+                    return null;
+                }
+                switch (parts[0]) {
+                    case "version":
+                        versionMatches = VERSION.equals(parts[1]);
+                        break;
+                    case "rows":
+                        rows = Integer.parseInt(parts[1]);
+                        break;
+                    case "first_id":
+                        firstId = Long.parseLong(parts[1]);
+                        break;
+                    case "last_id":
+                        lastId = Long.parseLong(parts[1]);
+                        break;
+                    case "length":
+                        length = Long.parseLong(parts[1]);
+                        break;
+                    case "block_size":
+                        blockSize = Integer.parseInt(parts[1]);
+                        break;
+                    case "crc32":
+                        // One per block, in order.
+                        if (checksumCount == checksums.length) {
+                            long[] grown = new long[checksums.length * 2];
+                            System.arraycopy(checksums, 0, grown, 0, checksumCount);
+                            checksums = grown;
+                        }
+                        checksums[checksumCount++] = Long.parseLong(parts[1]);
+                        break;
+                    default:
+                        // Unknown keys come from newer versions; ignore them.
+                        break;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+        if (!versionMatches || rows < 0 || firstId < 0 || lastId < 0 || length < 0 || blockSize <= 0
+                || checksumCount != blockCount(length, blockSize)) {
+            return null;
+        }
+        long[] exact = new long[checksumCount];
+        System.arraycopy(checksums, 0, exact, 0, checksumCount);
+        return new BackupManifest(rows, firstId, lastId, length, blockSize, exact);
+    }
+
+    /** Atomically replaces the manifest of {@code backup} with this one. */
+    public void write(File backup) throws IOException {
+        File target = fileFor(backup);
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            StringBuilder sb = new StringBuilder(128 + checksums.length * 18);
+            sb.append("version ").append(VERSION).append('\n');
+            sb.append("rows ").append(rows).append('\n');
+            sb.append("first_id ").append(firstId).append('\n');
+            sb.append("last_id ").append(lastId).append('\n');
+            sb.append("length ").append(length).append('\n');
+            sb.append("block_size ").append(blockSize).append('\n');
+            for (long checksum : checksums) {
+                sb.append("crc32 ").append(checksum).append('\n');
+            }
+            out.write(sb.toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Could not replace manifest " + target);
+        }
+    }
+
+    /** Deletes the manifest of {@code backup}, if any. */
+    public static void delete(File backup) {
+        File file = fileFor(backup);
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.smsbackup.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Checks backups against their {@link BackupManifest}s, the blocks of each file spread over a
+ * pool of threads.
+ *
+ * Every thread reads its share of the blocks with positional reads on one shared channel and
+ * compares their CRC32s with the manifest, so a backup is checked at the speed of the storage
+ * rather than of one core. Blocks that don't match, blocks cut off by a truncation and bytes
+ * appended after the end are all reported as damaged byte ranges. A backup whose blocks all match
+ * holds exactly the bytes the export wrote, so its row count and {@code _id} range are those of
+ * the manifest. One verifier can check any number of backups, one after the other.
+ */
+public final class BackupVerifier implements Closeable {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    /** Tasks per thread, so that a thread held up by a slow read doesn't hold up the whole file. */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /** A run of consecutive bytes of a backup that don't match its manifest. */
+    public static final class DamagedRange {
+
+        /** Offset of the first damaged byte. */
+        public final long start;
+        /** Offset after the last damaged byte. */
+        public final long end;
+
+        DamagedRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return "bytes " + start + "-" + end;
+        }
+    }
+
+    /** The outcome of checking one backup. */
+    public static final class Report {
+
+        public final File backup;
+        /** The manifest checked against, or {@code null} if the backup has none or it is unreadable. */
+        public final BackupManifest manifest;
+        /** The length of the backup as found. */
+        public final long length;
+        /** Damaged ranges in ascending order; empty when there is no manifest to compare with. */
+        public final List<DamagedRange> damaged;
+
+        Report(File backup, BackupManifest manifest, long length, List<DamagedRange> damaged) {
+            this.backup = backup;
+            this.manifest = manifest;
+            this.length = length;
+            this.damaged = Collections.unmodifiableList(damaged);
+        }
+
+        /** Returns {@code true} if the backup has a manifest and matches it everywhere. */
+        public boolean isIntact() {
+            return manifest != null && damaged.isEmpty();
+        }
+    }
+
+    private final ExecutorService workers;
+    private final int threads;
+
+    public BackupVerifier(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        final int pool = POOL_NUMBER.incrementAndGet();
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "backup-verifier-" + pool + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Checks {@code backup} against its manifest.
+     *
+     * @throws FileNotFoundException if {@code backup} doesn't exist
+     * @throws IOException if it can't be read
+     */
+    public Report verify(File backup) throws IOException {
+        if (!backup.isFile()) {
+            throw new FileNotFoundException(backup.toString());
+        }
+        BackupManifest manifest = BackupManifest.read(backup);
+        try (RandomAccessFile raf = new RandomAccessFile(backup, "r")) {
+            long length = raf.length();
+            if (manifest == null) {
+                return new Report(backup, null, length, new ArrayList<DamagedRange>());
+            }
+            boolean[] blockDamaged = checkBlocks(raf.getChannel(), manifest, length);
+            List<DamagedRange> damaged = new ArrayList<>();
+            int block = 0;
+            while (block < blockDamaged.length) {
+                if (!blockDamaged[block]) {
+                    block++;
+                    continue;
+                }
+                int first = block;
+                while (block < blockDamaged.length && blockDamaged[block]) {
+                    block++;
+                }
+                damaged.add(new DamagedRange(manifest.blockStart(first),
+                        manifest.blockStart(block - 1) + manifest.blockLength(block - 1)));
+            }
+            if (length > manifest.length) {
+                damaged.add(new DamagedRange(manifest.length, length));
+            }
+            return new Report(backup, manifest, length, damaged);
+        }
+    }
+
+    /** Stops the worker threads. */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private boolean[] checkBlocks(final FileChannel channel, final BackupManifest manifest, final long length)
+            throws IOException {
+        final boolean[] damaged = new boolean[manifest.getBlockCount()];
+        int tasks = Math.min(damaged.length, threads * TASKS_PER_THREAD);
+        List<Future<Void>> futures = new ArrayList<>(tasks);
+        for (int task = 0; task < tasks; task++) {
+            // Contiguous runs of blocks, so each task reads sequentially.
+            final int from = (int) ((long) damaged.length * task / tasks);
+            final int to = (int) ((long) damaged.length * (task + 1) / tasks);
+            futures.add(workers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    byte[] buffer = new byte[manifest.blockSize];
+                    CRC32 crc = new CRC32();
+                    for (int block = from; block < to; block++) {
+                        long start = manifest.blockStart(block);
+                        int blockLength = manifest.blockLength(block);
+                        if (start + blockLength > length) {
+                            // Truncated: part or all of the block is gone.
+                            damaged[block] = true;
+                            continue;
+                        }
+                        readFully(channel, buffer, blockLength, start);
+                        crc.reset();
+                        crc.update(buffer, 0, blockLength);
+                        damaged[block] = crc.getValue() != manifest.getChecksum(block);
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                // Also publishes the task's writes to damaged[].
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Block check failed", cause);
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return damaged;
+    }
+
+    private static void readFully(FileChannel channel, byte[] buffer, int length, long position) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new EOFException("Backup shrank while being verified");
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.smsbackup.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes its input as a series of complete gzip members, one per block.
+ *
+ * RFC 1952 allows a gzip file to be a concatenation of members, and every gzip reader (including
+ * {@link java.util.zip.GZIPInputStream}) decompresses them back to back, so the output is an
+ * ordinary {@code .gz} file. Each block is deflated from scratch at {@link Deflater#BEST_SPEED},
+ * which trades a little ratio for a much cheaper encoder and means a damaged block doesn't take the
+ * rest of the file with it. The same {@link Deflater} and buffers are reused for every block.
+ *
+ * Not thread-safe.
+ */
+public final class BlockGzipOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final byte[] MEMBER_HEADER = {
+            0x1f, (byte) 0x8b, // magic
+            Deflater.DEFLATED, // method
+            0,                 // flags
+            0, 0, 0, 0,        // mtime: not recorded
+            0,                 // extra flags
+            (byte) 0xff,       // OS: unknown
+    };
+
+    private final OutputStream out;
+    private final byte[] block;
+    private final byte[] deflated;
+    private final byte[] trailer = new byte[8];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final CRC32 crc = new CRC32();
+    private int position;
+    private boolean closed;
+
+    public BlockGzipOutputStream(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockGzipOutputStream(OutputStream out, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.out = out;
+        this.block = new byte[blockSize];
+        // Sized so that even incompressible input, which deflate stores with a few bytes of
+        // framing per 16K, usually comes out in a single deflate() call.
+        this.deflated = new byte[blockSize + blockSize / 1024 + 64];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == block.length) {
+            writeBlock();
+        }
+        block[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (position == block.length) {
+                writeBlock();
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(b, off, block, position, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Writes out the pending partial block as its own member, then flushes the stream below. */
+    @Override
+    public void flush() throws IOException {
+        if (position > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (position > 0) {
+                writeBlock();
+            }
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        crc.reset();
+        crc.update(block, 0, position);
+        deflater.reset();
+        deflater.setInput(block, 0, position);
+        deflater.finish();
+
+        out.write(MEMBER_HEADER);
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflated, 0, deflated.length);
+            out.write(deflated, 0, n);
+        }
+        putIntLE(trailer, 0, (int) crc.getValue());
+        putIntLE(trailer, 4, position);
+        out.write(trailer);
+        position = 0;
+    }
+
+    private static void putIntLE(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+}
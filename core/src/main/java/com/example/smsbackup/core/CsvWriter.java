@@ -0,0 +1,202 @@
+package com.example.smsbackup.core;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams CSV records through a large private char buffer.
+ *
+ * Text fields are always quoted. Quotes are doubled while the field is copied into the buffer,
+ * so escaping costs one pass and no intermediate strings; line breaks are kept inside the quotes
+ * as RFC 4180 allows. A {@code null} value is written as an empty unquoted field, which keeps it
+ * distinguishable from an empty string ({@code ""}). The underlying writer only ever sees whole
+ * buffer-sized blocks.
+ *
+ * Not thread-safe.
+ */
+public final class CsvWriter implements Closeable, Flushable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_LONG_CHARS = 20;
+
+    private final Writer out;
+    private final char[] buffer;
+    private int position;
+    private boolean firstField = true;
+
+    public CsvWriter(Writer out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvWriter(Writer out, int bufferSize) {
+        if (bufferSize < 64) {
+            throw new IllegalArgumentException("bufferSize too small: " + bufferSize);
+        }
+        this.out = out;
+        this.buffer = new char[bufferSize];
+    }
+
+    /** Writes a header line of unquoted column names. */
+    public void writeHeader(String[] names) throws IOException {
+        for (String name : names) {
+            separator();
+            appendRaw(name);
+        }
+        endRecord();
+    }
+
+    /** Writes a quoted, escaped text field, or an empty field for {@code null}. */
+    public void writeField(String value) throws IOException {
+        separator();
+        if (value == null) {
+            return;
+        }
+        appendChar('"');
+        appendEscaped(value);
+        appendChar('"');
+    }
+
+    /** Writes a quoted decimal field. */
+    public void writeField(long value) throws IOException {
+        separator();
+        ensureCapacity(MAX_LONG_CHARS + 2);
+        buffer[position++] = '"';
+        if (value == Long.MIN_VALUE) {
+            appendRaw(Long.toString(value));
+        } else {
+            position = writeDecimal(value, buffer, position);
+        }
+        buffer[position++] = '"';
+    }
+
+    /** Writes an empty field. */
+    public void writeNull() throws IOException {
+        separator();
+    }
+
+    /** Writes a quoted {@code yyyy-MM-dd HH:mm:ss} field. */
+    public void writeTimestamp(TimestampFormatter formatter, long epochMillis) throws IOException {
+        separator();
+        ensureCapacity(TimestampFormatter.LENGTH + 2);
+        buffer[position++] = '"';
+        position = formatter.format(epochMillis, buffer, position);
+        buffer[position++] = '"';
+    }
+
+    /** Terminates the current record. */
+    public void endRecord() throws IOException {
+        appendChar('\n');
+        firstField = true;
+    }
+
+    /** Number of chars currently held in the buffer. */
+    public int bufferedChars() {
+        return position;
+    }
+
+    /** Hands the buffered chars to the underlying writer without flushing it. */
+    public void drainBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drainBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drainBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (firstField) {
+            firstField = false;
+        } else {
+            appendChar(',');
+        }
+    }
+
+    private void appendChar(char c) throws IOException {
+        if (position == buffer.length) {
+            drainBuffer();
+        }
+        buffer[position++] = c;
+    }
+
+    private void appendRaw(String value) throws IOException {
+        int length = value.length();
+        int offset = 0;
+        while (offset < length) {
+            if (position == buffer.length) {
+                drainBuffer();
+            }
+            int chunk = Math.min(length - offset, buffer.length - position);
+            value.getChars(offset, offset + chunk, buffer, position);
+            position += chunk;
+            offset += chunk;
+        }
+    }
+
+    /** Copies {@code value} into the buffer, doubling every quote on the way. */
+    private void appendEscaped(String value) throws IOException {
+        int length = value.length();
+        int offset = 0;
+        while (offset < length) {
+            // Every source char takes at most two buffer slots, so this chunk can't overflow.
+            int chunk = Math.min(length - offset, (buffer.length - position) / 2);
+            if (chunk == 0) {
+                drainBuffer();
+                continue;
+            }
+            char[] buf = buffer;
+            int pos = position;
+            int end = offset + chunk;
+            for (int i = offset; i < end; i++) {
+                char c = value.charAt(i);
+                buf[pos++] = c;
+                if (c == '"') {
+                    buf[pos++] = '"';
+                }
+            }
+            position = pos;
+            offset = end;
+        }
+    }
+
+    private void ensureCapacity(int chars) throws IOException {
+        if (buffer.length - position < chars) {
+            drainBuffer();
+        }
+    }
+
+    /** Writes {@code value} (anything but {@link Long#MIN_VALUE}) and returns the new offset. */
+    static int writeDecimal(long value, char[] dest, int offset) {
+        if (value < 0) {
+            dest[offset++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = offset + digits;
+        int pos = end;
+        do {
+            dest[--pos] = (char) ('0' + (int) (value % 10));
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.smsbackup.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A persistent set of message ids, so "was this SMS backed up already?" is answered locally in
+ * constant time instead of by downloading every id from the destination.
+ *
+ * A message id is the SHA-256 of {@code sender + "-" + timestamp + "-" + body} in UTF-8, the same
+ * input SMSBackupToDrive hashes for its sheet's "SMS ID" column; this index keeps the first 128
+ * bits, so the hex ids already in a sheet can be loaded with {@link #addHexId(String)}.
+ *
+ * The file is memory-mapped and holds a Bloom filter followed by an open-addressing table of
+ * 16-byte keys with linear probing. Lookups for messages that were never added (the common case
+ * when syncing new mail) are almost always settled by the Bloom filter alone. The table doubles
+ * into a new file once it is half full. Writes go straight into the mapping; a header flag marks
+ * the file dirty until {@link #flush()} or {@link #close()}, and a dirty file has its count and
+ * Bloom filter rebuilt from the table when it is next opened.
+ *
+ * Thread-safe.
+ */
+public final class DedupIndex implements Closeable {
+
+    public static final int DEFAULT_INITIAL_CAPACITY = 1 << 14;
+
+    private static final int MAGIC = 0x534d5344; // "SMSD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_COUNT = 12;
+    private static final int OFFSET_DIRTY = 16;
+    private static final int ENTRY_SIZE = 16;
+    /** Bloom filter bits per table slot; at most half the slots are used, so 16+ bits per id. */
+    private static final int BLOOM_BITS_PER_SLOT = 8;
+    private static final int BLOOM_HASHES = 4;
+
+    private final File file;
+    private final MessageDigest sha256;
+    private RandomAccessFile raf;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int count;
+    private long bloomBits;
+    private int tableOffset;
+    private boolean dirty;
+
+    private DedupIndex(File file) {
+        this.file = file;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Opens the index at {@code file}, creating an empty one if it doesn't exist. */
+    public static DedupIndex open(File file) throws IOException {
+        return open(file, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public static DedupIndex open(File file, int initialCapacity) throws IOException {
+        if (initialCapacity < 16 || Integer.bitCount(initialCapacity) != 1) {
+            throw new IllegalArgumentException("initialCapacity must be a power of two >= 16: " + initialCapacity);
+        }
+        DedupIndex index = new DedupIndex(file);
+        if (file.length() == 0) {
+            createFile(file, initialCapacity);
+        }
+        index.map(file);
+        return index;
+    }
+
+    /** Returns the 128-bit key of a message as {high, low}. */
+    public synchronized long[] messageKey(String sender, long timestamp, String body) {
+        String input = sender + "-" + timestamp + "-" + body;
+        byte[] utf8 = new byte[Utf8.encodedLength(input)];
+        Utf8.encode(input, utf8, 0);
+        sha256.reset();
+        byte[] digest = sha256.digest(utf8);
+        return new long[]{readLong(digest, 0), readLong(digest, 8)};
+    }
+
+    public synchronized boolean containsMessage(String sender, long timestamp, String body) {
+        long[] key = messageKey(sender, timestamp, body);
+        return contains(key[0], key[1]);
+    }
+
+    /** Adds a message; returns {@code false} if it was already present. */
+    public synchronized boolean addMessage(String sender, long timestamp, String body) throws IOException {
+        long[] key = messageKey(sender, timestamp, body);
+        return add(key[0], key[1]);
+    }
+
+    /** Looks up a hex message id as stored in the sheet; only its first 32 digits are used. */
+    public synchronized boolean containsHexId(String id) {
+        return contains(parseHex(id, 0), parseHex(id, 16));
+    }
+
+    /** Adds a hex message id as stored in the sheet; returns {@code false} if it was already present. */
+    public synchronized boolean addHexId(String id) throws IOException {
+        return add(parseHex(id, 0), parseHex(id, 16));
+    }
+
+    public synchronized boolean contains(long high, long low) {
+        ensureOpen();
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+        if (!bloomMightContain(high, low)) {
+            return false;
+        }
+        return findSlot(high, low) >= 0;
+    }
+
+    /** Adds a key; returns {@code false} if it was already present. */
+    public synchronized boolean add(long high, long low) throws IOException {
+        ensureOpen();
+        if (high == 0 && low == 0) {
+            // All-zero marks an empty slot.
+            low = 1;
+        }
+        if (bloomMightContain(high, low) && findSlot(high, low) >= 0) {
+            return false;
+        }
+        if ((count + 1) * 2L > capacity) {
+            grow();
+        }
+        markDirty();
+        insert(high, low);
+        count++;
+        map.putInt(OFFSET_COUNT, count);
+        return true;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /** Removes every key, keeping the current capacity, e.g. when the destination was replaced. */
+    public synchronized void clear() {
+        ensureOpen();
+        markDirty();
+        int end = tableOffset + capacity * ENTRY_SIZE;
+        for (int i = HEADER_SIZE; i < end; i++) {
+            map.put(i, (byte) 0);
+        }
+        count = 0;
+        map.putInt(OFFSET_COUNT, 0);
+        flush();
+    }
+
+    /** Writes the mapping back to storage and marks the file clean. */
+    public synchronized void flush() {
+        ensureOpen();
+        if (dirty) {
+            map.force();
+            map.putInt(OFFSET_DIRTY, 0);
+            map.force();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            raf.close();
+            raf = null;
+            map = null;
+        }
+    }
+
+    private void map(File path) throws IOException {
+        raf = new RandomAccessFile(path, "rw");
+        try {
+            map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            if (map.capacity() < HEADER_SIZE || map.getInt(OFFSET_MAGIC) != MAGIC) {
+                throw new IOException("Not a dedup index: " + path);
+            }
+            if (map.getInt(OFFSET_VERSION) != VERSION) {
+                throw new IOException("Unsupported dedup index version " + map.getInt(OFFSET_VERSION));
+            }
+            capacity = map.getInt(OFFSET_CAPACITY);
+            bloomBits = (long) capacity * BLOOM_BITS_PER_SLOT;
+            tableOffset = HEADER_SIZE + (int) (bloomBits / 8);
+            if (Integer.bitCount(capacity) != 1 || map.capacity() != tableOffset + (long) capacity * ENTRY_SIZE) {
+                throw new IOException("Corrupt dedup index header: " + path);
+            }
+            count = map.getInt(OFFSET_COUNT);
+            dirty = map.getInt(OFFSET_DIRTY) != 0;
+            if (dirty) {
+                rebuildFromTable();
+            }
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            raf = null;
+            map = null;
+            throw e;
+        }
+    }
+
+    private static void createFile(File path, int capacity) throws IOException {
+        long bloomBytes = (long) capacity * BLOOM_BITS_PER_SLOT / 8;
+        long length = HEADER_SIZE + bloomBytes + (long) capacity * ENTRY_SIZE;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Dedup index too large: " + capacity + " slots");
+        }
+        try (RandomAccessFile out = new RandomAccessFile(path, "rw")) {
+            out.setLength(0);
+            // setLength zero-fills, which leaves every slot empty and every Bloom bit clear.
+            out.setLength(length);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(capacity);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.getFD().sync();
+        }
+    }
+
+    private void markDirty() {
+        if (!dirty) {
+            map.putInt(OFFSET_DIRTY, 1);
+            dirty = true;
+        }
+    }
+
+    /** Recounts the entries and refills the Bloom filter after an unclean shutdown. */
+    private void rebuildFromTable() {
+        for (int i = HEADER_SIZE; i < tableOffset; i++) {
+            map.put(i, (byte) 0);
+        }
+        int entries = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = tableOffset + slot * ENTRY_SIZE;
+            long high = map.getLong(offset);
+            long low = map.getLong(offset + 8);
+            if (high != 0 || low != 0) {
+                bloomAdd(high, low);
+                entries++;
+            }
+        }
+        count = entries;
+        map.putInt(OFFSET_COUNT, count);
+    }
+
+    private int findSlot(long high, long low) {
+        int mask = capacity - 1;
+        for (int slot = (int) mix(low) & mask; ; slot = (slot + 1) & mask) {
+            int offset = tableOffset + slot * ENTRY_SIZE;
+            long h = map.getLong(offset);
+            long l = map.getLong(offset + 8);
+            if (h == 0 && l == 0) {
+                return -1;
+            }
+            if (h == high && l == low) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(long high, long low) {
+        int mask = capacity - 1;
+        int slot = (int) mix(low) & mask;
+        while (true) {
+            int offset = tableOffset + slot * ENTRY_SIZE;
+            if (map.getLong(offset) == 0 && map.getLong(offset + 8) == 0) {
+                // Bloom bit first: a key the filter misses would never be looked up in the table.
+                bloomAdd(high, low);
+                map.putLong(offset, high);
+                map.putLong(offset + 8, low);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /** Rehashes every key into a file twice the size, then swaps it in. */
+    private void grow() throws IOException {
+        File next = new File(file.getPath() + ".grow");
+        createFile(next, capacity * 2);
+        DedupIndex bigger = new DedupIndex(next);
+        bigger.map(next);
+        try {
+            bigger.markDirty();
+            for (int slot = 0; slot < capacity; slot++) {
+                int offset = tableOffset + slot * ENTRY_SIZE;
+                long high = map.getLong(offset);
+                long low = map.getLong(offset + 8);
+                if (high != 0 || low != 0) {
+                    bigger.insert(high, low);
+                    bigger.count++;
+                }
+            }
+            bigger.map.putInt(OFFSET_COUNT, bigger.count);
+            bigger.flush();
+        } finally {
+            bigger.raf.close();
+        }
+        raf.close();
+        if (!next.renameTo(file)) {
+            // Keep serving from the old file rather than lose the index.
+            map(file);
+            throw new IOException("Could not replace " + file + " with " + next);
+        }
+        dirty = false;
+        map(file);
+    }
+
+    private boolean bloomMightContain(long high, long low) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = bloomBit(high, low, i);
+            if ((map.get(HEADER_SIZE + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void bloomAdd(long high, long low) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = bloomBit(high, low, i);
+            int offset = HEADER_SIZE + (int) (bit >>> 3);
+            map.put(offset, (byte) (map.get(offset) | (1 << (bit & 7))));
+        }
+    }
+
+    /** The keys are already uniformly random, so double hashing over their two halves is enough. */
+    private long bloomBit(long high, long low, int i) {
+        return (high + i * (low | 1)) & (bloomBits - 1);
+    }
+
+    private static long mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        return v;
+    }
+
+    private void ensureOpen() {
+        if (raf == null) {
+            throw new IllegalStateException("Dedup index closed");
+        }
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[offset + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private static long parseHex(String id, int start) {
+        if (id.length() < start + 16) {
+            throw new IllegalArgumentException("Message id too short: " + id);
+        }
+        long v = 0;
+        for (int i = start; i < start + 16; i++) {
+            int digit = Character.digit(id.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not a hex message id: " + id);
+            }
+            v = (v << 4) | digit;
+        }
+        return v;
+    }
+}
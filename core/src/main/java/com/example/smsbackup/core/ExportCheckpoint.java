@@ -0,0 +1,269 @@
+package com.example.smsbackup.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * How far a full CSV export got: every message from {@code firstId} up to {@code lastId} is in
+ * the first {@code byteOffset} bytes of the ".part" file, whose CRC32 is {@code checksum}.
+ *
+ * A checkpoint lives next to its ".part" file under {@link #fileFor(File)} and is replaced
+ * atomically, after the bytes it describes have been synced. If the process dies mid-export, a
+ * later run {@link #resume(File) resumes} from the last checkpoint: it re-reads the covered prefix,
+ * and only if its checksum still matches does it truncate the file there and carry on after
+ * {@code lastId}. {@code lastDate} lets the caller check, as with a {@link HighWaterMark}, that the
+ * provider still holds the same messages under those ids.
+ */
+public final class ExportCheckpoint {
+
+    public static final String FILE_SUFFIX = ".checkpoint";
+
+    private static final String VERSION = "1";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** {@code _id} of the first message written, or 0 if none has been. */
+    public final long firstId;
+    public final long lastId;
+    public final long lastDate;
+    public final long byteOffset;
+    public final int rowsWritten;
+    public final long checksum;
+
+    public ExportCheckpoint(long firstId, long lastId, long lastDate, long byteOffset, int rowsWritten,
+                            long checksum) {
+        this.firstId = firstId;
+        this.lastId = lastId;
+        this.lastDate = lastDate;
+        this.byteOffset = byteOffset;
+        this.rowsWritten = rowsWritten;
+        this.checksum = checksum;
+    }
+
+    /** Returns the checkpoint file that belongs to {@code partFile}. */
+    public static File fileFor(File partFile) {
+        return new File(partFile.getParentFile(), partFile.getName() + FILE_SUFFIX);
+    }
+
+    /** Returns the mark of the newest message covered, for a provider-reset check. */
+    public HighWaterMark toHighWaterMark(File partFile) {
+        return new HighWaterMark(lastId, lastDate, partFile.getAbsolutePath());
+    }
+
+    /** Reads the checkpoint of {@code partFile}, or returns {@code null} if it has none or it is unreadable. */
+    public static ExportCheckpoint read(File partFile) {
+        File file = fileFor(partFile);
+        if (!file.isFile()) {
+            return null;
+        }
+        long firstId = -1;
+        long lastId = -1;
+        long lastDate = -1;
+        long byteOffset = -1;
+        int rowsWritten = -1;
+        long checksum = -1;
+        boolean versionMatches = false;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length != 2) {
+                    return null;
+                }
+                switch (parts[0]) {
+                    case "version":
+                        versionMatches = VERSION.equals(parts[1]);
+                        break;
+                    case "first_id":
+                        firstId = Long.parseLong(parts[1]);
+                        break;
+                    case "last_id":
+                        lastId = Long.parseLong(parts[1]);
+                        break;
+                    case "last_date":
+                        lastDate = Long.parseLong(parts[1]);
+                        break;
+                    case "byte_offset":
+                        byteOffset = Long.parseLong(parts[1]);
+                        break;
+                    case "rows_written":
+                        rowsWritten = Integer.parseInt(parts[1]);
+                        break;
+                    case "crc32":
+                        checksum = Long.parseLong(parts[1]);
+                        break;
+                    default:
+                        // Unknown keys come from newer versions; ignore them.
+                        break;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+        if (!versionMatches || firstId < 0 || lastId < 0 || byteOffset < 0 || rowsWritten < 0 || checksum < 0) {
+            return null;
+        }
+        return new ExportCheckpoint(firstId, lastId, lastDate, byteOffset, rowsWritten, checksum);
+    }
+
+    /** Atomically replaces the checkpoint of {@code partFile} with this one. */
+    public void write(File partFile) throws IOException {
+        File target = fileFor(partFile);
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("version ").append(VERSION).append('\n');
+            sb.append("first_id ").append(firstId).append('\n');
+            sb.append("last_id ").append(lastId).append('\n');
+            sb.append("last_date ").append(lastDate).append('\n');
+            sb.append("byte_offset ").append(byteOffset).append('\n');
+            sb.append("rows_written ").append(rowsWritten).append('\n');
+            sb.append("crc32 ").append(checksum).append('\n');
+            out.write(sb.toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Could not replace checkpoint " + target);
+        }
+    }
+
+    /** Deletes the checkpoint of {@code partFile}, if any. */
+    public static void delete(File partFile) {
+        deleteQuietly(fileFor(partFile));
+    }
+
+    /**
+     * Deletes every "sms_backup_*.part" file in {@code directory} except {@code keep}, together
+     * with its checkpoint, and any checkpoint whose ".part" file is gone. An export that dies or
+     * is killed leaves its ".part" file behind, pre-extended by {@link MappedFileWriter} well past
+     * what it holds, and only the newest checkpointed one is ever resumed. {@code keep} may be
+     * {@code null} if no export is being resumed.
+     */
+    public static void deleteAbandoned(File directory, File keep) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(BackupFileNames.CSV_PREFIX) || file.equals(keep)) {
+                continue;
+            }
+            if (name.endsWith(BackupFileNames.PART_SUFFIX)) {
+                delete(file);
+                deleteQuietly(file);
+            } else if (name.endsWith(BackupFileNames.PART_SUFFIX + FILE_SUFFIX)) {
+                File partFile = new File(directory,
+                        name.substring(0, name.length() - FILE_SUFFIX.length()));
+                if (!partFile.equals(keep) && !partFile.exists()) {
+                    deleteQuietly(file);
+                }
+            }
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Prepares {@code partFile} to be continued from its checkpoint: checks that the file still
+     * holds the checkpointed prefix unchanged, truncates anything written after it, and returns a
+     * {@link Recorder} positioned at its end. Returns {@code null} if there is no usable checkpoint
+     * or the prefix doesn't match, in which case the export has to start over.
+     */
+    public static Recorder resume(File partFile) throws IOException {
+        ExportCheckpoint checkpoint = read(partFile);
+        if (checkpoint == null || !partFile.isFile() || partFile.length() < checkpoint.byteOffset) {
+            return null;
+        }
+        Recorder recorder = new Recorder(partFile);
+        recorder.checksumUpTo(checkpoint.byteOffset);
+        if (recorder.crc.getValue() != checkpoint.checksum) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(checkpoint.byteOffset);
+        }
+        recorder.last = checkpoint;
+        return recorder;
+    }
+
+    /** Starts recording checkpoints for a new, still empty export into {@code partFile}. */
+    public static Recorder start(File partFile) {
+        delete(partFile);
+        return new Recorder(partFile);
+    }
+
+    /**
+     * Records checkpoints of one export as its file grows. The running checksum is extended by
+     * reading back just the bytes written since the previous checkpoint, so the export's writers
+     * need no hook of their own. Not thread-safe.
+     */
+    public static final class Recorder {
+
+        private final File partFile;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private long checksummedBytes;
+        private ExportCheckpoint last = new ExportCheckpoint(0, 0, 0, 0, 0, 0);
+
+        Recorder(File partFile) {
+            this.partFile = partFile;
+        }
+
+        /** The latest checkpoint written, or one at the start of the file if there is none yet. */
+        public ExportCheckpoint getLast() {
+            return last;
+        }
+
+        /**
+         * Syncs the first {@code byteOffset} bytes of the file, which must hold every message from
+         * {@code firstId} up to {@code (lastId, lastDate)} and nothing after it, and records that as
+         * the new checkpoint. The caller flushes its writers down to the file first.
+         */
+        public void checkpoint(long firstId, long lastId, long lastDate, long byteOffset, int rowsWritten)
+                throws IOException {
+            if (byteOffset < checksummedBytes) {
+                throw new IllegalArgumentException("byteOffset " + byteOffset + " is before the last checkpoint");
+            }
+            checksumUpTo(byteOffset);
+            try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+                raf.getFD().sync();
+            }
+            ExportCheckpoint next = new ExportCheckpoint(firstId, lastId, lastDate, byteOffset, rowsWritten,
+                    crc.getValue());
+            next.write(partFile);
+            last = next;
+        }
+
+        /** Removes the checkpoint once the export has been finished or abandoned. */
+        public void discard() {
+            delete(partFile);
+        }
+
+        private void checksumUpTo(long byteOffset) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(partFile, "r")) {
+                raf.seek(checksummedBytes);
+                while (checksummedBytes < byteOffset) {
+                    int read = raf.read(buffer, 0, (int) Math.min(buffer.length, byteOffset - checksummedBytes));
+                    if (read < 0) {
+                        throw new IOException(partFile + " is shorter than its checkpoint");
+                    }
+                    crc.update(buffer, 0, read);
+                    checksummedBytes += read;
+                }
+            }
+        }
+    }
+}
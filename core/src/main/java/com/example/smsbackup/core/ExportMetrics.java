@@ -0,0 +1,198 @@
+package com.example.smsbackup.core;
+
+import java.util.Locale;
+
+/**
+ * Timings and totals of one export run, handed to a {@link Sink} when the run ends.
+ *
+ * Each {@link Stage} has a {@link LatencyHistogram}. Provider queries, writes and flushes happen
+ * a few times per thousand rows and are all timed. Decoding, formatting and indexing happen once
+ * per row and take around a microsecond, so only one row in {@link #SAMPLE_INTERVAL} is timed
+ * ({@link #sampleRow()}); the percentiles hold all the same, and the clock reads stay out of the
+ * hot loop's cost. Rows, bytes, elapsed time and the garbage collector's work during the run are
+ * totals.
+ *
+ * Histograms may be recorded into from any thread, such as a {@link PipelinedWriter}'s; the other
+ * fields belong to the export thread.
+ */
+public final class ExportMetrics {
+
+    /** Rows per timed row in the per-row stages; a power of two. */
+    public static final int SAMPLE_INTERVAL = 16;
+
+    /** Where an export spends its time. */
+    public enum Stage {
+        /** One provider query, fetching a page of rows. */
+        QUERY("query"),
+        /** Reading one row from the cursor into an {@link SmsRow}. */
+        DECODE("decode"),
+        /**
+         * Handing one row to the output: encoding it, text escaping included, or with a
+         * {@link ParallelCsvExport} queuing it for the encoder pool.
+         */
+        FORMAT("format"),
+        /**
+         * Looking one row up in the {@link DedupIndex}, for an incremental export, and adding it
+         * to the {@link SmsSearchIndex}.
+         */
+        INDEX("index"),
+        /**
+         * Writing one chunk of text to the file on the {@link PipelinedWriter} thread: charset
+         * encoding, compression and the write itself. The export thread's waits for a full queue
+         * show up in {@link #FORMAT} instead.
+         */
+        WRITE("write"),
+        /** Flushing or closing the file below the {@link PipelinedWriter}, down to the disk. */
+        FLUSH("flush");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    public enum Outcome {
+        COMPLETE, CANCELLED, FAILED
+    }
+
+    /** Receives the metrics of every export run, on the export thread, once it has ended. */
+    public interface Sink {
+        void onExportFinished(ExportMetrics metrics);
+    }
+
+    private final String kind;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final long startNanos;
+    private int sampleCounter;
+    private long elapsedNanos;
+    private Outcome outcome;
+    private int rows;
+    private long bytes;
+    private long gcCount;
+    private long gcTimeMillis;
+    private long blockingGcCount;
+    private long blockingGcTimeMillis;
+
+    /** Starts the clock of a run; {@code kind} names the output, e.g. "csv-gzip" or "incremental". */
+    public ExportMetrics(String kind) {
+        this.kind = kind;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /** Returns {@code true} for the one row in {@link #SAMPLE_INTERVAL} whose stages are timed. */
+    public boolean sampleRow() {
+        return (sampleCounter++ & (SAMPLE_INTERVAL - 1)) == 0;
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /** Stops the clock: the run ended with {@code outcome} after writing {@code rows} rows in {@code bytes} bytes. */
+    public void finish(Outcome outcome, int rows, long bytes) {
+        elapsedNanos = System.nanoTime() - startNanos;
+        this.outcome = outcome;
+        this.rows = rows;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Sets how many collections ran during the export and how long they took; the blocking ones
+     * are those that paused allocating threads until they were done.
+     */
+    public void setGcActivity(long gcCount, long gcTimeMillis, long blockingGcCount, long blockingGcTimeMillis) {
+        this.gcCount = gcCount;
+        this.gcTimeMillis = gcTimeMillis;
+        this.blockingGcCount = blockingGcCount;
+        this.blockingGcTimeMillis = blockingGcTimeMillis;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    /** How the run ended, or {@code null} while it is still going. */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+    }
+
+    public double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcTimeMillis() {
+        return gcTimeMillis;
+    }
+
+    public long getBlockingGcCount() {
+        return blockingGcCount;
+    }
+
+    public long getBlockingGcTimeMillis() {
+        return blockingGcTimeMillis;
+    }
+
+    /**
+     * A one-line summary, e.g. {@code csv-none complete: 120000 rows, 18.2 MB in 2.41 s (49793 rows/s,
+     * 7.6 MB/s); gc 4 in 61 ms, 1 blocking in 9 ms; query n=121 p50=9.8 ms p99=21.0 ms max=25.3 ms; ...}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(kind).append(' ').append(outcome == null ? "running" : outcome.name().toLowerCase(Locale.US))
+                .append(": ").append(rows).append(" rows, ")
+                .append(String.format(Locale.US, "%.1f MB in %.2f s (%.0f rows/s, %.1f MB/s)",
+                        bytes / 1e6, elapsedNanos / 1e9, getRowsPerSecond(), getBytesPerSecond() / 1e6))
+                .append("; gc ").append(gcCount).append(" in ").append(gcTimeMillis).append(" ms, ")
+                .append(blockingGcCount).append(" blocking in ").append(blockingGcTimeMillis).append(" ms");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            sb.append("; ").append(stage.label).append(" n=").append(histogram.getCount())
+                    .append(" p50=").append(formatNanos(histogram.getPercentileNanos(0.5)))
+                    .append(" p99=").append(formatNanos(histogram.getPercentileNanos(0.99)))
+                    .append(" max=").append(formatNanos(histogram.getMaxNanos()));
+        }
+        return sb.toString();
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1000) {
+            return nanos + " ns";
+        }
+        if (nanos < 1000000) {
+            return String.format(Locale.US, "%.1f us", nanos / 1e3);
+        }
+        return String.format(Locale.US, "%.1f ms", nanos / 1e6);
+    }
+}
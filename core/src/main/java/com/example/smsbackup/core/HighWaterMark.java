@@ -0,0 +1,31 @@
+package com.example.smsbackup.core;
+
+/**
+ * The newest message a backup is known to contain: its provider {@code _id} and {@code date},
+ * plus the path of the backup it describes, e.g. a {@link SegmentedBackupStore} or
+ * {@link SmsSearchIndex} directory or the ".part" file of a checkpointed export. A run that
+ * continues that backup only feeds it messages with a larger {@code _id}.
+ *
+ * The date is kept so a later run can tell whether {@code _id} still names the same message;
+ * when the provider's table has been wiped and refilled, ids are reused for other messages.
+ */
+public final class HighWaterMark {
+
+    public final long lastId;
+    public final long lastDate;
+    public final String filePath;
+
+    public HighWaterMark(long lastId, long lastDate, String filePath) {
+        if (filePath == null) {
+            throw new IllegalArgumentException("filePath == null");
+        }
+        this.lastId = lastId;
+        this.lastDate = lastDate;
+        this.filePath = filePath;
+    }
+
+    @Override
+    public String toString() {
+        return "HighWaterMark{lastId=" + lastId + ", lastDate=" + lastDate + ", filePath=" + filePath + "}";
+    }
+}
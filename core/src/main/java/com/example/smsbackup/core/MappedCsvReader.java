@@ -0,0 +1,460 @@
+package com.example.smsbackup.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads an uncompressed CSV in the {@link CsvWriter} dialect straight out of a memory-mapped
+ * file, for passes that look at every record but keep little of it, such as verifying a backup.
+ *
+ * Each {@link #next()} parses one record in place and exposes its fields through
+ * {@link #getField(int)} as {@link CharSequence} views of the mapped bytes. Nothing is copied
+ * for a field of plain ASCII without escaped quotes, which covers every number and timestamp;
+ * any other field is decoded from UTF-8 into a char array the view keeps and reuses, and only
+ * when it is first read. {@link #getLong(int)} parses numbers from the bytes directly. So a full
+ * pass allocates nothing per record unless the caller calls {@code toString()}.
+ *
+ * The views stay valid until the next call to {@link #next()}. The file is mapped one window at
+ * a time; a record cut off by the end of a window is parsed again from the start of the next
+ * one, so no record may be longer than the window. The header line is returned as an ordinary
+ * record; {@link #expectHeader} reads and checks it.
+ *
+ * Not thread-safe.
+ */
+public final class MappedCsvReader implements Closeable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /** {@link #parseRecord} results. */
+    private static final int END = 0;
+    private static final int RECORD = 1;
+    private static final int CUT_OFF = 2;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int limit;
+    private int position;
+    private int recordStart;
+    private Field[] fields = new Field[0];
+    private int fieldCount;
+    private long records;
+
+    private MappedCsvReader(File source, int windowSize) throws IOException {
+        if (windowSize < 64) {
+            throw new IllegalArgumentException("windowSize too small: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        file = new RandomAccessFile(source, "r");
+        channel = file.getChannel();
+        try {
+            fileSize = channel.size();
+            map(0);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public static MappedCsvReader open(File source) throws IOException {
+        return new MappedCsvReader(source, DEFAULT_WINDOW_SIZE);
+    }
+
+    public static MappedCsvReader open(File source, int windowSize) throws IOException {
+        return new MappedCsvReader(source, windowSize);
+    }
+
+    /**
+     * Reads the first record and checks that it is exactly {@code names}.
+     *
+     * @throws IOException if the file is empty or starts with a different header
+     */
+    public void expectHeader(String[] names) throws IOException {
+        if (records != 0) {
+            throw new IllegalStateException("Header already read");
+        }
+        if (!next()) {
+            throw new IOException("Empty file; expected a header");
+        }
+        boolean matches = fieldCount == names.length;
+        for (int i = 0; matches && i < names.length; i++) {
+            matches = contentEquals(fields[i], names[i]);
+        }
+        if (!matches) {
+            String[] found = new String[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                found[i] = fields[i].toString();
+            }
+            throw new IOException("Unexpected header " + Arrays.toString(found));
+        }
+    }
+
+    /**
+     * Advances to the next record. Returns {@code false} at the end of the file.
+     *
+     * @throws IOException if the record is malformed or longer than the window
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int result = parseRecord();
+            if (result != CUT_OFF) {
+                if (result == RECORD) {
+                    records++;
+                }
+                return result == RECORD;
+            }
+            if (recordStart == 0) {
+                throw new IOException("Record " + (records + 1) + " at byte " + windowStart
+                        + " is longer than the " + windowSize + "-byte window");
+            }
+            map(windowStart + recordStart);
+        }
+    }
+
+    /** Number of fields in the current record. */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /** Returns a view of field {@code index} of the current record, valid until {@link #next()}. */
+    public CharSequence getField(int index) {
+        return field(index);
+    }
+
+    /** Returns {@code true} if field {@code index} is an empty unquoted field, which stands for SQL NULL. */
+    public boolean isNull(int index) {
+        Field f = field(index);
+        return !f.quoted && f.start == f.end;
+    }
+
+    /**
+     * Parses field {@code index} as a decimal {@code long} without decoding it.
+     *
+     * @throws IOException if the field is not a decimal number
+     */
+    public long getLong(int index) throws IOException {
+        Field f = field(index);
+        int p = f.start;
+        boolean negative = p < f.end && window.get(p) == '-';
+        if (negative) {
+            p++;
+        }
+        int digits = f.end - p;
+        if (digits == 0 || digits > 19) {
+            throw malformed("field " + index + " is not a number");
+        }
+        long value = 0;
+        for (; p < f.end; p++) {
+            int d = window.get(p) - '0';
+            if (d < 0 || d > 9) {
+                throw malformed("field " + index + " is not a number");
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    /** Number of records read so far, including the header. */
+    public long getRecordCount() {
+        return records;
+    }
+
+    /** Byte offset in the file of the start of the current record. */
+    public long getRecordOffset() {
+        return windowStart + recordStart;
+    }
+
+    /** Byte offset in the file just past the current record and its line break. */
+    public long getOffset() {
+        return windowStart + position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        limit = (int) Math.min(windowSize, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+        position = 0;
+    }
+
+    private boolean atEndOfFile() {
+        return windowStart + limit == fileSize;
+    }
+
+    private int parseRecord() throws IOException {
+        int p = position;
+        recordStart = p;
+        fieldCount = 0;
+        if (p == limit) {
+            return atEndOfFile() ? END : CUT_OFF;
+        }
+        while (true) {
+            if (fieldCount == fields.length) {
+                growFields();
+            }
+            Field f = fields[fieldCount++];
+            boolean ascii = true;
+            if (p < limit && window.get(p) == '"') {
+                int start = ++p;
+                boolean escaped = false;
+                while (true) {
+                    if (p == limit) {
+                        if (atEndOfFile()) {
+                            position = p;
+                            throw malformed("unterminated quoted field");
+                        }
+                        return CUT_OFF;
+                    }
+                    byte b = window.get(p);
+                    if (b == '"') {
+                        if (p + 1 == limit && !atEndOfFile()) {
+                            return CUT_OFF;
+                        }
+                        if (p + 1 < limit && window.get(p + 1) == '"') {
+                            escaped = true;
+                            p += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    if (b < 0) {
+                        ascii = false;
+                    }
+                    p++;
+                }
+                f.set(start, p, true, escaped, ascii);
+                p++;
+            } else {
+                int start = p;
+                byte b;
+                while (p < limit && (b = window.get(p)) != ',' && b != '\n' && b != '\r') {
+                    if (b < 0) {
+                        ascii = false;
+                    }
+                    p++;
+                }
+                if (p == limit && !atEndOfFile()) {
+                    return CUT_OFF;
+                }
+                f.set(start, p, false, false, ascii);
+            }
+            if (p == limit) {
+                // The last record has no line break.
+                position = p;
+                return RECORD;
+            }
+            byte b = window.get(p);
+            if (b == ',') {
+                p++;
+                continue;
+            }
+            if (b == '\r') {
+                if (p + 1 == limit && !atEndOfFile()) {
+                    return CUT_OFF;
+                }
+                p++;
+                if (p < limit && window.get(p) == '\n') {
+                    p++;
+                }
+            } else if (b == '\n') {
+                p++;
+            } else {
+                position = p;
+                throw malformed("expected ',' or end of record after field " + (fieldCount - 1));
+            }
+            position = p;
+            return RECORD;
+        }
+    }
+
+    private void growFields() {
+        int length = fields.length;
+        fields = Arrays.copyOf(fields, Math.max(16, length * 2));
+        for (int i = length; i < fields.length; i++) {
+            fields[i] = new Field();
+        }
+    }
+
+    private Field field(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("field " + index + " of " + fieldCount);
+        }
+        return fields[index];
+    }
+
+    private static boolean contentEquals(CharSequence a, String b) {
+        int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException malformed(String detail) {
+        return new IOException("Malformed CSV at byte " + (windowStart + position)
+                + " (record " + (records + 1) + "): " + detail);
+    }
+
+    /**
+     * One field of the current record: a byte range of the window, without the enclosing quotes.
+     * A range that is plain ASCII is read byte for byte; any other is decoded once into
+     * {@link #chars}, which is kept for the next record's field in this position.
+     */
+    private final class Field implements CharSequence {
+
+        int start;
+        int end;
+        boolean quoted;
+        /** {@code true} if the bytes must be decoded: non-ASCII or containing doubled quotes. */
+        private boolean complex;
+        private boolean decoded;
+        private char[] chars = new char[0];
+        private int length;
+
+        void set(int start, int end, boolean quoted, boolean escaped, boolean ascii) {
+            this.start = start;
+            this.end = end;
+            this.quoted = quoted;
+            complex = escaped || !ascii;
+            decoded = false;
+        }
+
+        @Override
+        public int length() {
+            if (!complex) {
+                return end - start;
+            }
+            decode();
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (!complex) {
+                if (index < 0 || index >= end - start) {
+                    throw new IndexOutOfBoundsException("index " + index + " of " + (end - start));
+                }
+                return (char) window.get(start + index);
+            }
+            decode();
+            if (index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + " of " + length);
+            }
+            return chars[index];
+        }
+
+        /** Returns a copy of the range; unlike this view, it stays valid after the next record. */
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            int length = length();
+            if (from < 0 || from > to || to > length) {
+                throw new IndexOutOfBoundsException("range " + from + " to " + to + " of " + length);
+            }
+            if (complex) {
+                return new String(chars, from, to - from);
+            }
+            char[] ascii = new char[to - from];
+            for (int i = 0; i < ascii.length; i++) {
+                ascii[i] = (char) window.get(start + from + i);
+            }
+            return new String(ascii);
+        }
+
+        @Override
+        public String toString() {
+            if (complex) {
+                decode();
+                return new String(chars, 0, length);
+            }
+            char[] ascii = new char[end - start];
+            for (int i = 0; i < ascii.length; i++) {
+                ascii[i] = (char) window.get(start + i);
+            }
+            return new String(ascii);
+        }
+
+        /**
+         * Decodes the UTF-8 bytes, collapsing doubled quotes. Each malformed sequence becomes one
+         * U+FFFD.
+         */
+        private void decode() {
+            if (decoded) {
+                return;
+            }
+            // UTF-8 never yields more chars than bytes.
+            if (chars.length < end - start) {
+                chars = new char[Math.max(end - start, chars.length * 2)];
+            }
+            int n = 0;
+            int p = start;
+            while (p < end) {
+                int b = window.get(p++);
+                if (b >= 0) {
+                    chars[n++] = (char) b;
+                    if (b == '"' && quoted) {
+                        // The second of a doubled quote.
+                        p++;
+                    }
+                    continue;
+                }
+                int extra;
+                int codePoint;
+                if ((b & 0xE0) == 0xC0) {
+                    extra = 1;
+                    codePoint = b & 0x1F;
+                } else if ((b & 0xF0) == 0xE0) {
+                    extra = 2;
+                    codePoint = b & 0x0F;
+                } else if ((b & 0xF8) == 0xF0) {
+                    extra = 3;
+                    codePoint = b & 0x07;
+                } else {
+                    chars[n++] = REPLACEMENT;
+                    continue;
+                }
+                int i = 0;
+                for (; i < extra && p < end; i++, p++) {
+                    int c = window.get(p);
+                    if ((c & 0xC0) != 0x80) {
+                        break;
+                    }
+                    codePoint = (codePoint << 6) | (c & 0x3F);
+                }
+                if (i < extra || codePoint < MIN_CODE_POINT[extra]
+                        || (codePoint >= 0xD800 && codePoint <= 0xDFFF) || codePoint > Character.MAX_CODE_POINT) {
+                    chars[n++] = REPLACEMENT;
+                } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    chars[n++] = Character.highSurrogate(codePoint);
+                    chars[n++] = Character.lowSurrogate(codePoint);
+                } else {
+                    chars[n++] = (char) codePoint;
+                }
+            }
+            length = n;
+            decoded = true;
+        }
+    }
+
+    /** Smallest code point each sequence length may encode; anything below is an overlong form. */
+    private static final int[] MIN_CODE_POINT = {0, 0x80, 0x800, 0x10000};
+}
@@ -0,0 +1,195 @@
+package com.example.smsbackup.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes UTF-8 straight into a memory-mapped file.
+ *
+ * The file is mapped one large extent at a time; chars are encoded directly into the mapping, so
+ * there is no intermediate byte buffer and no syscall per write. When an extent fills, the next
+ * one is mapped after it, which grows the file. {@link #close()} truncates the file to the bytes
+ * actually written, dropping the unused tail of the last extent.
+ *
+ * Unpaired surrogates are written as {@code '?'}, as {@link java.io.OutputStreamWriter} does.
+ * Not thread-safe.
+ */
+public final class MappedFileWriter extends Writer {
+
+    public static final int DEFAULT_EXTENT_SIZE = 32 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int extentSize;
+    private MappedByteBuffer extent;
+    private long extentStart;
+    private char pendingHighSurrogate;
+    private boolean closed;
+
+    public MappedFileWriter(File target) throws IOException {
+        this(target, DEFAULT_EXTENT_SIZE);
+    }
+
+    /** Creates or empties {@code target} and maps its first extent. */
+    public MappedFileWriter(File target, int extentSize) throws IOException {
+        this(target, 0, extentSize);
+    }
+
+    /**
+     * Keeps the first {@code length} bytes of {@code target}, drops anything after them and
+     * continues writing at that offset, e.g. to resume an interrupted export.
+     */
+    public static MappedFileWriter resume(File target, long length) throws IOException {
+        return new MappedFileWriter(target, length, DEFAULT_EXTENT_SIZE);
+    }
+
+    private MappedFileWriter(File target, long startOffset, int extentSize) throws IOException {
+        if (extentSize < 4) {
+            throw new IllegalArgumentException("extentSize too small: " + extentSize);
+        }
+        this.extentSize = extentSize;
+        file = new RandomAccessFile(target, "rw");
+        channel = file.getChannel();
+        try {
+            if (channel.size() < startOffset) {
+                throw new IOException(target + " is shorter than " + startOffset + " bytes");
+            }
+            channel.truncate(startOffset);
+            extentStart = startOffset;
+            extent = channel.map(FileChannel.MapMode.READ_WRITE, startOffset, extentSize);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        int end = off + len;
+        while (off < end) {
+            // ASCII runs are by far the common case; copy them in a tight loop up to the extent's end.
+            int room = Math.min(end - off, extent.remaining());
+            if (pendingHighSurrogate == 0) {
+                int i = off;
+                int limit = off + room;
+                while (i < limit) {
+                    char c = cbuf[i];
+                    if (c >= 0x80) {
+                        break;
+                    }
+                    extent.put((byte) c);
+                    i++;
+                }
+                off = i;
+                if (off == end) {
+                    return;
+                }
+            }
+            encode(cbuf[off++]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80 && pendingHighSurrogate == 0 && extent.hasRemaining()) {
+                extent.put((byte) c);
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    /** Number of bytes written so far, including any kept by {@link #resume}. */
+    public long length() {
+        return extentStart + extent.position();
+    }
+
+    /** Nothing is buffered outside the mapping, so this only checks that the writer is open. */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+    }
+
+    /** Truncates the file to the bytes written. Like closing a stream, this does not fsync. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                putByte('?');
+            }
+            channel.truncate(length());
+        } finally {
+            extent = null;
+            file.close();
+        }
+    }
+
+    private void encode(char c) throws IOException {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                putByte(0xF0 | (cp >> 18));
+                putByte(0x80 | ((cp >> 12) & 0x3F));
+                putByte(0x80 | ((cp >> 6) & 0x3F));
+                putByte(0x80 | (cp & 0x3F));
+                return;
+            }
+            putByte('?');
+        }
+        if (c < 0x80) {
+            putByte(c);
+        } else if (c < 0x800) {
+            putByte(0xC0 | (c >> 6));
+            putByte(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            putByte('?');
+        } else {
+            putByte(0xE0 | (c >> 12));
+            putByte(0x80 | ((c >> 6) & 0x3F));
+            putByte(0x80 | (c & 0x3F));
+        }
+    }
+
+    private void putByte(int b) throws IOException {
+        if (!extent.hasRemaining()) {
+            nextExtent();
+        }
+        extent.put((byte) b);
+    }
+
+    private void nextExtent() throws IOException {
+        extentStart += extent.position();
+        // The old mapping stays valid until it is garbage collected; Java has no unmap.
+        extent = channel.map(FileChannel.MapMode.READ_WRITE, extentStart, extentSize);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.smsbackup.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How an exported CSV is compressed on its way to disk. Every variant streams: the encoder only
+ * holds one buffer of input, never the whole file.
+ */
+public enum OutputCompression {
+
+    /** Plain CSV. */
+    NONE(BackupFileNames.CSV_EXTENSION) {
+        @Override
+        public OutputStream wrap(OutputStream out) {
+            return out;
+        }
+    },
+
+    /** A single gzip stream at the default level; smallest output. */
+    GZIP(BackupFileNames.CSV_EXTENSION + ".gz") {
+        @Override
+        public OutputStream wrap(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, STREAM_BUFFER_SIZE);
+        }
+    },
+
+    /**
+     * Independent gzip members of {@link BlockGzipOutputStream#DEFAULT_BLOCK_SIZE} input bytes each
+     * at the fastest level. Still a valid {@code .gz} file for any gzip reader, but cheaper to
+     * write and readable block by block.
+     */
+    BLOCK_GZIP(BackupFileNames.CSV_EXTENSION + ".gz") {
+        @Override
+        public OutputStream wrap(OutputStream out) {
+            return new BlockGzipOutputStream(out);
+        }
+    };
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+
+    OutputCompression(String extension) {
+        this.extension = extension;
+    }
+
+    /** Returns the file name extension of this format, including the leading dot. */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Returns a stream that compresses into {@code out}. Closing the returned stream finishes the
+     * compressed data and closes {@code out}.
+     */
+    public abstract OutputStream wrap(OutputStream out) throws IOException;
+}
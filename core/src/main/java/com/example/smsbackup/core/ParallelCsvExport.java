@@ -0,0 +1,186 @@
+package com.example.smsbackup.core;
+
+import java.io.CharArrayWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes CSV on several threads while keeping the output in row order.
+ *
+ * The caller feeds rows in {@code _id} order. They are copied into fixed-size batches, so each
+ * batch covers a contiguous {@code _id} range, and every full batch is handed to a pool of encoder
+ * threads that format it into the batch's own char buffer. The calling thread merges: it writes
+ * finished batches to the output strictly in submission order, so the file is identical to what
+ * {@link SmsCsvFormat} produces on one thread. At most {@code 2 * threads} batches are in flight;
+ * when that many are pending, {@link #write(SmsRow)} blocks on the oldest one, which bounds memory
+ * and keeps the reader from running ahead of the encoders. Batches are recycled once written.
+ *
+ * Partitioning by {@code _id} range rather than by thread id keeps the merge a simple FIFO and the
+ * output in the same order as a single-threaded export.
+ *
+ * The methods of this class must be called from one thread.
+ */
+public final class ParallelCsvExport implements Closeable, Flushable {
+
+    public static final int DEFAULT_BATCH_SIZE = 2048;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    /** A run of rows and the chars they encode to. Owned by one thread at a time. */
+    private static final class Batch implements Callable<Batch> {
+
+        final SmsRow[] rows;
+        final CharArrayWriter chars = new CharArrayWriter(64 * 1024);
+        final CsvWriter csv = new CsvWriter(chars);
+        final TimestampFormatter timestampFormatter = new TimestampFormatter();
+        int size;
+
+        Batch(int batchSize) {
+            rows = new SmsRow[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                rows[i] = new SmsRow();
+            }
+        }
+
+        @Override
+        public Batch call() throws IOException {
+            for (int i = 0; i < size; i++) {
+                SmsCsvFormat.writeRow(csv, rows[i], timestampFormatter);
+            }
+            csv.flush();
+            return this;
+        }
+    }
+
+    private final Writer out;
+    private final ExecutorService encoders;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<Batch> freeBatches = new ArrayDeque<>();
+    private Batch current;
+    private boolean closed;
+
+    /** Writes the CSV header to {@code out}, then accepts rows. {@code out} is closed by {@link #close()}. */
+    public ParallelCsvExport(Writer out, int threads) throws IOException {
+        this(out, threads, DEFAULT_BATCH_SIZE, true);
+    }
+
+    public ParallelCsvExport(Writer out, int threads, int batchSize) throws IOException {
+        this(out, threads, batchSize, true);
+    }
+
+    /** Like the other constructors, but leaves the header out when {@code writeHeader} is not set, e.g. when resuming a file. */
+    public ParallelCsvExport(Writer out, int threads, int batchSize, boolean writeHeader) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.out = out;
+        this.batchSize = batchSize;
+        this.maxInFlight = 2 * threads;
+        final int pool = POOL_NUMBER.incrementAndGet();
+        this.encoders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "csv-encoder-" + pool + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        current = new Batch(batchSize);
+        if (writeHeader) {
+            // The header travels in the first batch, ahead of its rows.
+            current.csv.writeHeader(SmsCsvFormat.HEADER);
+        }
+    }
+
+    /** Queues a copy of {@code row}; the instance may be reused right away. */
+    public void write(SmsRow row) throws IOException {
+        current.rows[current.size++].copyFrom(row);
+        if (current.size == batchSize) {
+            submitCurrent();
+        }
+    }
+
+    /**
+     * Encodes every queued row, writes them all to the output in order and flushes it. Blocks
+     * until the encoders have caught up, so it is meant for occasional checkpoints.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (current.size > 0 || current.csv.bufferedChars() > 0) {
+            submitCurrent();
+        }
+        while (!inFlight.isEmpty()) {
+            writeOldest();
+        }
+        out.flush();
+    }
+
+    /**
+     * Encodes and writes every queued row, then closes the output and stops the encoder threads.
+     * If an encoder failed, its exception is rethrown here or from {@link #write(SmsRow)}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (current.size > 0 || current.csv.bufferedChars() > 0) {
+                submitCurrent();
+            }
+            while (!inFlight.isEmpty()) {
+                writeOldest();
+            }
+        } finally {
+            encoders.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submitCurrent() throws IOException {
+        while (inFlight.size() >= maxInFlight) {
+            writeOldest();
+        }
+        inFlight.addLast(encoders.submit(current));
+        current = freeBatches.isEmpty() ? new Batch(batchSize) : freeBatches.removeFirst();
+    }
+
+    private void writeOldest() throws IOException {
+        Batch batch;
+        try {
+            batch = inFlight.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an encoder");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("CSV encoder failed", cause);
+        }
+        batch.chars.writeTo(out);
+        batch.chars.reset();
+        batch.size = 0;
+        freeBatches.addLast(batch);
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.smsbackup.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link Writer} that hands its output to a dedicated thread, so the caller never waits on the
+ * disk unless it gets too far ahead.
+ *
+ * Chars are collected in fixed-size chunks. A full chunk goes onto a bounded queue and a background
+ * thread writes it to the wrapped writer, which also moves any charset encoding and compression
+ * below it off the caller's thread. Only {@code depth} chunks exist: once they are all queued or
+ * being written, the next hand-off blocks until the writer thread returns one. That back-pressure
+ * caps memory at {@code depth * chunkSize} chars however slow the storage is.
+ *
+ * A failure on the writer thread is rethrown by the next {@link #write}, {@link #flush()} or
+ * {@link #close()}. Must be used from a single producer thread.
+ */
+public final class PipelinedWriter extends Writer {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_DEPTH = 8;
+
+    private static final class Chunk {
+
+        final char[] chars;
+        int length;
+        boolean flush;
+
+        Chunk(int size) {
+            chars = new char[size];
+        }
+    }
+
+    /** Queued after the last chunk; tells the writer thread to stop. */
+    private static final Chunk END = new Chunk(0);
+
+    private final Writer out;
+    private final int depth;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+    private final Thread writerThread;
+    private volatile IOException failure;
+    private Chunk current;
+    private boolean closed;
+
+    public PipelinedWriter(Writer out) {
+        this(out, DEFAULT_CHUNK_SIZE, DEFAULT_DEPTH);
+    }
+
+    public PipelinedWriter(Writer out, int chunkSize, int depth) {
+        if (chunkSize <= 0 || depth < 2) {
+            throw new IllegalArgumentException("chunkSize must be positive and depth at least 2: "
+                    + chunkSize + ", " + depth);
+        }
+        this.out = out;
+        this.depth = depth;
+        free = new ArrayBlockingQueue<>(depth);
+        // One extra slot so END always fits.
+        filled = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 1; i < depth; i++) {
+            free.add(new Chunk(chunkSize));
+        }
+        current = new Chunk(chunkSize);
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "pipelined-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (current.length == current.chars.length) {
+                handOff(false);
+            }
+            int n = Math.min(len, current.chars.length - current.length);
+            System.arraycopy(cbuf, off, current.chars, current.length, n);
+            current.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        if (current.length == current.chars.length) {
+            handOff(false);
+        }
+        current.chars[current.length++] = (char) c;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (current.length == current.chars.length) {
+                handOff(false);
+            }
+            int n = Math.min(len, current.chars.length - current.length);
+            str.getChars(off, off + n, current.chars, current.length);
+            current.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Queues what has been written so far and asks the writer thread to flush after it. Does not wait. */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        handOff(true);
+    }
+
+    /**
+     * Like {@link #flush()}, but waits until the writer thread has written and flushed everything
+     * written so far, e.g. before recording how far the output got.
+     */
+    public void sync() throws IOException {
+        flush();
+        // Apart from current, every chunk is back on the free queue once the writer thread is idle.
+        List<Chunk> idle = new ArrayList<>(depth - 1);
+        try {
+            while (idle.size() < depth - 1) {
+                idle.add(free.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer thread");
+        } finally {
+            free.addAll(idle);
+        }
+        checkFailure();
+    }
+
+    /** Waits until every queued chunk has been written, then closes the wrapped writer. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (current.length > 0 && failure == null) {
+                filled.add(current);
+            }
+            filled.add(END);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    writerThread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    // The queued data has to reach the file before the writer below is closed.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            checkFailure();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void handOff(boolean flush) throws IOException {
+        checkFailure();
+        current.flush = flush;
+        filled.add(current);
+        try {
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer thread");
+        }
+        checkFailure();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Chunk chunk = filled.take();
+                if (chunk == END) {
+                    if (failure == null) {
+                        try {
+                            out.flush();
+                        } catch (Throwable t) {
+                            fail(t);
+                        }
+                    }
+                    return;
+                }
+                try {
+                    if (failure == null) {
+                        out.write(chunk.chars, 0, chunk.length);
+                        if (chunk.flush) {
+                            out.flush();
+                        }
+                    }
+                } catch (Throwable t) {
+                    // Errors too: a dead writer thread would leave the producer waiting for a chunk forever.
+                    fail(t);
+                } finally {
+                    // Keep recycling chunks so the producer wakes up and sees the failure.
+                    chunk.length = 0;
+                    chunk.flush = false;
+                    free.add(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Writer thread interrupted");
+        }
+    }
+
+    private void fail(Throwable t) {
+        failure = t instanceof IOException ? (IOException) t : new IOException(t);
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Background write failed", e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+}
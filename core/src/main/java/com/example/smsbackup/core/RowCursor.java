@@ -0,0 +1,20 @@
+package com.example.smsbackup.core;
+
+/**
+ * The slice of a database cursor the export needs. Method contracts follow
+ * {@code android.database.Cursor}, so the Android adapter is a straight delegation and tests or
+ * benchmarks can feed rows from memory.
+ */
+public interface RowCursor {
+
+    /** @throws IllegalArgumentException if the column does not exist. */
+    int getColumnIndexOrThrow(String columnName);
+
+    boolean isNull(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    String getString(int columnIndex);
+}
@@ -0,0 +1,55 @@
+package com.example.smsbackup.core;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Splits message text into search terms: maximal runs of letters and digits, lower-cased.
+ * Messages and queries go through the same rules, so a query term matches exactly the words it
+ * would have been indexed as.
+ */
+final class SearchTokenizer {
+
+    /** Longer runs (links, tokens, base64) are cut to this many chars. */
+    static final int MAX_TERM_LENGTH = 64;
+
+    private SearchTokenizer() {
+    }
+
+    /** Adds every term of {@code text} to {@code terms}; a {@code null} text adds nothing. */
+    static void tokenize(String text, Collection<String> terms) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int length = lower.length();
+        int start = -1;
+        int i = 0;
+        while (i < length) {
+            int cp = lower.codePointAt(i);
+            if (Character.isLetterOrDigit(cp)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                addTerm(lower, start, i, terms);
+                start = -1;
+            }
+            i += Character.charCount(cp);
+        }
+        if (start >= 0) {
+            addTerm(lower, start, length, terms);
+        }
+    }
+
+    private static void addTerm(String text, int start, int end, Collection<String> terms) {
+        if (end - start > MAX_TERM_LENGTH) {
+            end = start + MAX_TERM_LENGTH;
+            if (Character.isHighSurrogate(text.charAt(end - 1))) {
+                // Don't split a surrogate pair.
+                end--;
+            }
+        }
+        terms.add(text.substring(start, end));
+    }
+}
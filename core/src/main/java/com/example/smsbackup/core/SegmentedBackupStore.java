@@ -0,0 +1,381 @@
+package com.example.smsbackup.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An append-only backup made of rolling CSV segment files plus a small manifest.
+ *
+ * Each run appends only new messages to the active segment; once a segment grows past the seal
+ * threshold it is sealed and a new one is started. Sealed segments are never written again. Every
+ * segment is a self-contained CSV with its own header, and a run that adds no rows adds no
+ * segment.
+ *
+ * The manifest is the source of truth: it lists each segment with its committed length, row
+ * count and {@code _id} range, plus the store's {@link HighWaterMark}. It is replaced atomically
+ * on every commit. On open, bytes past a segment's committed length and files the manifest does
+ * not mention are left-overs of an interrupted run and are discarded.
+ *
+ * A store has a single writer: at most one {@link Appender} at a time.
+ */
+public final class SegmentedBackupStore {
+
+    public static final long DEFAULT_SEAL_THRESHOLD_BYTES = 16L * 1024 * 1024;
+
+    static final String MANIFEST_NAME = "manifest";
+    private static final String MANIFEST_VERSION = "1";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".csv";
+
+    /** Rows between two checks of the active segment's size. */
+    private static final int SIZE_CHECK_INTERVAL = 1024;
+
+    /** A segment file as recorded in the manifest. Immutable. */
+    public static final class Segment {
+        public final String name;
+        public final boolean sealed;
+        public final int rows;
+        public final long firstId;
+        public final long lastId;
+        public final long bytes;
+
+        Segment(String name, boolean sealed, int rows, long firstId, long lastId, long bytes) {
+            this.name = name;
+            this.sealed = sealed;
+            this.rows = rows;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.bytes = bytes;
+        }
+
+        Segment sealed() {
+            return new Segment(name, true, rows, firstId, lastId, bytes);
+        }
+    }
+
+    private final File directory;
+    private final long sealThresholdBytes;
+    private List<Segment> segments;
+    private long lastId;
+    private long lastDate;
+    private int nextSequence;
+    private boolean writerOpen;
+
+    private SegmentedBackupStore(File directory, long sealThresholdBytes) {
+        this.directory = directory;
+        this.sealThresholdBytes = sealThresholdBytes;
+    }
+
+    /** Opens the store in {@code directory}, creating it if needed, and repairs an interrupted run. */
+    public static SegmentedBackupStore open(File directory, long sealThresholdBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        SegmentedBackupStore store = new SegmentedBackupStore(directory, sealThresholdBytes);
+        store.readManifest();
+        store.recover();
+        return store;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** The newest message the store holds, with the store directory as its path. */
+    public synchronized HighWaterMark getHighWaterMark() {
+        return new HighWaterMark(lastId, lastDate, directory.getAbsolutePath());
+    }
+
+    public synchronized List<Segment> getSegments() {
+        return Collections.unmodifiableList(new ArrayList<>(segments));
+    }
+
+    public File fileOf(Segment segment) {
+        return new File(directory, segment.name);
+    }
+
+    /** Starts appending rows. Nothing becomes visible until {@link Appender#commit()}. */
+    public synchronized Appender openAppender(TimestampFormatter timestampFormatter) throws IOException {
+        if (writerOpen) {
+            throw new IllegalStateException("Store already has an open writer");
+        }
+        writerOpen = true;
+        try {
+            return new Appender(timestampFormatter);
+        } catch (IOException | RuntimeException e) {
+            writerOpen = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes rows into the active segment, rolling to a new one whenever it passes the seal
+     * threshold. Rows must arrive in ascending {@code _id} order. Call {@link #commit()} to
+     * publish them or {@link #abort()} to roll the store back to its last committed state.
+     */
+    public final class Appender implements AutoCloseable {
+
+        private final TimestampFormatter timestampFormatter;
+        private final List<Segment> pending = new ArrayList<>(segments);
+        private final List<File> created = new ArrayList<>();
+        private Segment active;
+        private FileOutputStream output;
+        private CsvWriter csv;
+        private long pendingLastId = lastId;
+        private long pendingLastDate = lastDate;
+        private int rowsSinceSizeCheck;
+        private boolean finished;
+
+        Appender(TimestampFormatter timestampFormatter) throws IOException {
+            this.timestampFormatter = timestampFormatter;
+            Segment last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+            if (last != null && !last.sealed) {
+                pending.remove(pending.size() - 1);
+                openSegment(last, true);
+            } else {
+                startNewSegment();
+            }
+        }
+
+        public void append(SmsRow row) throws IOException {
+            if (row.id <= pendingLastId) {
+                throw new IllegalArgumentException("Row _id " + row.id + " is not after " + pendingLastId);
+            }
+            SmsCsvFormat.writeRow(csv, row, timestampFormatter);
+            active = new Segment(active.name, false, active.rows + 1,
+                    active.rows == 0 ? row.id : active.firstId, row.id, active.bytes);
+            pendingLastId = row.id;
+            pendingLastDate = row.date;
+            if (++rowsSinceSizeCheck >= SIZE_CHECK_INTERVAL) {
+                rowsSinceSizeCheck = 0;
+                csv.flush();
+                if (output.getChannel().position() >= sealThresholdBytes) {
+                    closeActive();
+                    pending.add(active.sealed());
+                    startNewSegment();
+                }
+            }
+        }
+
+        /**
+         * Moves the high-water mark this appender will commit past a message that is not appended
+         * because it is already backed up, so later runs don't read it from the provider again.
+         */
+        public void skip(long id, long date) {
+            checkOpen();
+            if (id <= pendingLastId) {
+                throw new IllegalArgumentException("Row _id " + id + " is not after " + pendingLastId);
+            }
+            pendingLastId = id;
+            pendingLastDate = date;
+        }
+
+        /** Makes every appended row durable and publishes it in the manifest. */
+        public void commit() throws IOException {
+            checkOpen();
+            closeActive();
+            if (active.rows > 0 || !created.contains(fileOf(active))) {
+                pending.add(active);
+            } else {
+                // A header-only segment this run started; publishing it would only leave clutter.
+                deleteQuietly(fileOf(active));
+            }
+            synchronized (SegmentedBackupStore.this) {
+                writeManifest(pending, pendingLastId, pendingLastDate);
+                segments = new ArrayList<>(pending);
+                lastId = pendingLastId;
+                lastDate = pendingLastDate;
+            }
+            finish();
+        }
+
+        /** Discards everything appended since the appender was opened. */
+        public void abort() throws IOException {
+            checkOpen();
+            try {
+                closeQuietly();
+                synchronized (SegmentedBackupStore.this) {
+                    for (File file : created) {
+                        deleteQuietly(file);
+                    }
+                    recover();
+                }
+            } finally {
+                finish();
+            }
+        }
+
+        /** Aborts unless {@link #commit()} already ran. */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                abort();
+            }
+        }
+
+        private void startNewSegment() throws IOException {
+            Segment segment = new Segment(newSegmentName(), false, 0, 0, 0, 0);
+            created.add(fileOf(segment));
+            openSegment(segment, false);
+            csv.writeHeader(SmsCsvFormat.HEADER);
+        }
+
+        private void openSegment(Segment segment, boolean append) throws IOException {
+            active = segment;
+            output = new FileOutputStream(fileOf(segment), append);
+            csv = new CsvWriter(new Utf8Writer(output));
+            rowsSinceSizeCheck = 0;
+        }
+
+        private void closeActive() throws IOException {
+            csv.flush();
+            output.getFD().sync();
+            long bytes = output.getChannel().position();
+            csv.close();
+            csv = null;
+            active = new Segment(active.name, active.sealed, active.rows, active.firstId, active.lastId, bytes);
+        }
+
+        private void closeQuietly() {
+            if (csv != null) {
+                try {
+                    csv.close();
+                } catch (IOException ignored) {
+                    // Rolled back below anyway.
+                }
+                csv = null;
+            }
+        }
+
+        private void checkOpen() {
+            if (finished) {
+                throw new IllegalStateException("Appender already finished");
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            synchronized (SegmentedBackupStore.this) {
+                writerOpen = false;
+            }
+        }
+    }
+
+    private String newSegmentName() {
+        return String.format(Locale.US, "%s%06d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX);
+    }
+
+    private void readManifest() throws IOException {
+        segments = new ArrayList<>();
+        lastId = 0;
+        lastDate = 0;
+        nextSequence = 1;
+        File manifest = new File(directory, MANIFEST_NAME);
+        if (!manifest.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(manifest), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                try {
+                    switch (parts[0]) {
+                        case "version":
+                            if (!MANIFEST_VERSION.equals(parts[1])) {
+                                throw new IOException("Unsupported manifest version " + parts[1]);
+                            }
+                            break;
+                        case "last_id":
+                            lastId = Long.parseLong(parts[1]);
+                            break;
+                        case "last_date":
+                            lastDate = Long.parseLong(parts[1]);
+                            break;
+                        case "next_sequence":
+                            nextSequence = Integer.parseInt(parts[1]);
+                            break;
+                        case "segment":
+                            segments.add(new Segment(parts[1], "sealed".equals(parts[2]),
+                                    Integer.parseInt(parts[3]), Long.parseLong(parts[4]),
+                                    Long.parseLong(parts[5]), Long.parseLong(parts[6])));
+                            break;
+                        default:
+                            // Unknown keys come from newer versions; ignore them.
+                            break;
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Corrupt manifest line: " + line, e);
+                }
+            }
+        }
+    }
+
+    private void writeManifest(List<Segment> newSegments, long newLastId, long newLastDate) throws IOException {
+        File temp = new File(directory, MANIFEST_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("version ").append(MANIFEST_VERSION).append('\n');
+            sb.append("last_id ").append(newLastId).append('\n');
+            sb.append("last_date ").append(newLastDate).append('\n');
+            sb.append("next_sequence ").append(nextSequence).append('\n');
+            for (Segment segment : newSegments) {
+                sb.append("segment ").append(segment.name).append(' ')
+                        .append(segment.sealed ? "sealed" : "active").append(' ')
+                        .append(segment.rows).append(' ')
+                        .append(segment.firstId).append(' ')
+                        .append(segment.lastId).append(' ')
+                        .append(segment.bytes).append('\n');
+            }
+            out.write(sb.toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(new File(directory, MANIFEST_NAME))) {
+            throw new IOException("Could not replace manifest in " + directory);
+        }
+    }
+
+    /** Truncates segments back to their committed length and deletes files the manifest doesn't list. */
+    private void recover() throws IOException {
+        readManifest();
+        List<String> known = new ArrayList<>();
+        for (Segment segment : segments) {
+            known.add(segment.name);
+            File file = fileOf(segment);
+            if (file.length() > segment.bytes) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                     FileChannel channel = raf.getChannel()) {
+                    channel.truncate(segment.bytes);
+                }
+            } else if (file.length() < segment.bytes) {
+                throw new IOException(segment.name + " is shorter than its manifest entry");
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && !known.contains(name)) {
+                deleteQuietly(file);
+            }
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
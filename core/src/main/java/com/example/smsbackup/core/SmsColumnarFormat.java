@@ -0,0 +1,196 @@
+package com.example.smsbackup.core;
+
+import java.util.Arrays;
+
+/**
+ * Layout of the binary columnar backup ({@code .smsc}), shared by {@link SmsColumnarWriter} and
+ * {@link SmsColumnarReader}.
+ *
+ * <pre>
+ * file      := MAGIC row-group* footer footer-length:int32 MAGIC
+ * row-group := chunk{COLUMN_COUNT}                  one chunk per column, in column order
+ * chunk     := null-flag:byte [null-bitmap] values
+ * footer    := VERSION:byte row-group-count:int32 group-entry*
+ * group-entry := rows:int32 first-id last-id min-date max-date:int64
+ *                (chunk-offset:int64 chunk-length:int32){COLUMN_COUNT}
+ * </pre>
+ *
+ * Columns are numbered as in {@link SmsRow}, with the provider {@code _id} added as {@link #ID}.
+ * A chunk holds one column of one row group and is self-contained, so a scan of a column reads
+ * only that column's chunks. How the values of a chunk are encoded depends on the column's kind:
+ * <ul>
+ * <li>{@link #KIND_DELTA}: zigzag varint differences from the previous row ({@code _id}, dates).</li>
+ * <li>{@link #KIND_DICT_LONG}, {@link #KIND_DICT_STRING}: the chunk's distinct values, then one
+ *     varint index per row (thread ids, addresses, service centers).</li>
+ * <li>{@link #KIND_FLAG}: a {@link #FLAG_BITS} tag and one bit per row, or {@link #FLAG_VARINT}
+ *     and zigzag varints if any value is not 0 or 1 (read, seen, locked).</li>
+ * <li>{@link #KIND_VARINT}: zigzag varints (small enums and codes).</li>
+ * <li>{@link #KIND_STRING}: varint UTF-8 length, then the bytes (subject, body).</li>
+ * </ul>
+ * SQL NULLs are marked in the chunk's null bitmap and encoded as 0 or the empty string. Multi-byte
+ * fixed-width numbers are big-endian.
+ */
+public final class SmsColumnarFormat {
+
+    public static final String FILE_EXTENSION = ".smsc";
+
+    /** Column number of the provider {@code _id}, after the {@link SmsRow} columns. */
+    public static final int ID = SmsRow.COLUMN_COUNT;
+    public static final int COLUMN_COUNT = SmsRow.COLUMN_COUNT + 1;
+
+    public static final int DEFAULT_ROW_GROUP_SIZE = 16 * 1024;
+
+    static final byte[] MAGIC = {'S', 'M', 'S', 'C'};
+    static final int VERSION = 1;
+
+    static final int KIND_DELTA = 0;
+    static final int KIND_DICT_LONG = 1;
+    static final int KIND_DICT_STRING = 2;
+    static final int KIND_FLAG = 3;
+    static final int KIND_VARINT = 4;
+    static final int KIND_STRING = 5;
+
+    static final int NULLS_ABSENT = 0;
+    static final int NULLS_PRESENT = 1;
+
+    static final int FLAG_BITS = 0;
+    static final int FLAG_VARINT = 1;
+
+    private static final int[] KINDS = new int[COLUMN_COUNT];
+
+    static {
+        KINDS[SmsRow.THREAD_ID] = KIND_DICT_LONG;
+        KINDS[SmsRow.ADDRESS] = KIND_DICT_STRING;
+        KINDS[SmsRow.PERSON] = KIND_VARINT;
+        KINDS[SmsRow.DATE] = KIND_DELTA;
+        KINDS[SmsRow.DATE_SENT] = KIND_DELTA;
+        KINDS[SmsRow.PROTOCOL] = KIND_VARINT;
+        KINDS[SmsRow.READ] = KIND_FLAG;
+        KINDS[SmsRow.STATUS] = KIND_VARINT;
+        KINDS[SmsRow.TYPE] = KIND_VARINT;
+        KINDS[SmsRow.REPLY_PATH_PRESENT] = KIND_VARINT;
+        KINDS[SmsRow.SUBJECT] = KIND_STRING;
+        KINDS[SmsRow.BODY] = KIND_STRING;
+        KINDS[SmsRow.SERVICE_CENTER] = KIND_DICT_STRING;
+        KINDS[SmsRow.LOCKED] = KIND_FLAG;
+        KINDS[SmsRow.ERROR_CODE] = KIND_VARINT;
+        KINDS[SmsRow.SEEN] = KIND_FLAG;
+        KINDS[ID] = KIND_DELTA;
+    }
+
+    private SmsColumnarFormat() {
+    }
+
+    static int kindOf(int column) {
+        return KINDS[column];
+    }
+
+    /** Returns whether {@code column} holds text; every other column holds integers. */
+    public static boolean isStringColumn(int column) {
+        int kind = KINDS[column];
+        return kind == KIND_DICT_STRING || kind == KIND_STRING;
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** A growable byte array with the encoders the writer needs. Reused across chunks. */
+    static final class ByteSink {
+
+        byte[] bytes = new byte[64 * 1024];
+        int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            bytes[length++] = (byte) b;
+        }
+
+        void writeBytes(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+
+        void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+        }
+
+        void writeZigzag(long v) {
+            writeVarint(zigzag(v));
+        }
+
+        /** Writes the UTF-8 length as a varint, then the bytes, encoded in place. */
+        void writeUtf8(String s) {
+            int utf8Length = Utf8.encodedLength(s);
+            writeVarint(utf8Length);
+            ensure(utf8Length);
+            length = Utf8.encode(s, bytes, length);
+        }
+    }
+
+    /** Reads back what {@link ByteSink} wrote. Throws {@link IllegalStateException} past the end. */
+    static final class ByteSource {
+
+        final byte[] bytes;
+        int position;
+        private final int limit;
+
+        ByteSource(byte[] bytes, int position, int limit) {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        int readByte() {
+            if (position >= limit) {
+                throw new IllegalStateException("Truncated chunk");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IllegalStateException("Malformed varint");
+        }
+
+        long readZigzag() {
+            return unzigzag(readVarint());
+        }
+
+        int skip(int n) {
+            if (n < 0 || n > limit - position) {
+                throw new IllegalStateException("Truncated chunk");
+            }
+            int start = position;
+            position += n;
+            return start;
+        }
+    }
+}
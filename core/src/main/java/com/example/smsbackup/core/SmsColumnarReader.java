@@ -0,0 +1,347 @@
+package com.example.smsbackup.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Reads a {@link SmsColumnarFormat} file.
+ *
+ * Opening the file reads only its footer. {@link #readColumn(int, int)} then reads and decodes a
+ * single chunk, so scanning one or two columns touches only their bytes; the row group summaries
+ * ({@link RowGroup#minDate} and friends) let a scan skip whole groups without reading them.
+ *
+ * Not thread-safe.
+ */
+public final class SmsColumnarReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int TAIL_LENGTH = 4 + SmsColumnarFormat.MAGIC.length;
+
+    /** Footer summary of one row group. */
+    public static final class RowGroup {
+
+        public final int rows;
+        public final long firstId;
+        public final long lastId;
+        public final long minDate;
+        public final long maxDate;
+        final long[] chunkOffsets = new long[SmsColumnarFormat.COLUMN_COUNT];
+        final int[] chunkLengths = new int[SmsColumnarFormat.COLUMN_COUNT];
+
+        RowGroup(int rows, long firstId, long lastId, long minDate, long maxDate) {
+            this.rows = rows;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.minDate = minDate;
+            this.maxDate = maxDate;
+        }
+    }
+
+    /** The decoded values of one column in one row group. */
+    public static final class Column {
+
+        private final long[] longs;
+        private final String[] strings;
+        private final BitSet nulls;
+
+        Column(long[] longs, String[] strings, BitSet nulls) {
+            this.longs = longs;
+            this.strings = strings;
+            this.nulls = nulls;
+        }
+
+        public int size() {
+            return longs != null ? longs.length : strings.length;
+        }
+
+        public boolean isNull(int row) {
+            return nulls != null && nulls.get(row);
+        }
+
+        /** Returns the value of an integer column, or 0 where it is NULL. */
+        public long getLong(int row) {
+            if (longs == null) {
+                throw new IllegalStateException("Not an integer column");
+            }
+            return longs[row];
+        }
+
+        /** Returns the value of a text column, or {@code null} where it is NULL. */
+        public String getString(int row) {
+            if (strings == null) {
+                throw new IllegalStateException("Not a text column");
+            }
+            return isNull(row) ? null : strings[row];
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final RowGroup[] rowGroups;
+    private byte[] chunkBuffer = new byte[0];
+
+    public SmsColumnarReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            rowGroups = readFooter();
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getRowGroupCount() {
+        return rowGroups.length;
+    }
+
+    public RowGroup getRowGroup(int group) {
+        return rowGroups[group];
+    }
+
+    public long getRowCount() {
+        long rows = 0;
+        for (RowGroup group : rowGroups) {
+            rows += group.rows;
+        }
+        return rows;
+    }
+
+    /**
+     * Reads one column of one row group. {@code column} is an {@link SmsRow} column ordinal or
+     * {@link SmsColumnarFormat#ID}.
+     */
+    public Column readColumn(int group, int column) throws IOException {
+        RowGroup rowGroup = rowGroups[group];
+        int length = rowGroup.chunkLengths[column];
+        if (chunkBuffer.length < length) {
+            chunkBuffer = new byte[length];
+        }
+        file.seek(rowGroup.chunkOffsets[column]);
+        file.readFully(chunkBuffer, 0, length);
+        try {
+            return decodeChunk(new SmsColumnarFormat.ByteSource(chunkBuffer, 0, length), column, rowGroup.rows);
+        } catch (IllegalStateException e) {
+            throw new IOException("Corrupt chunk for column " + column + " in row group " + group, e);
+        }
+    }
+
+    /** Reads every column of a row group back into rows. */
+    public SmsRow[] readRows(int group) throws IOException {
+        SmsRow[] rows = new SmsRow[rowGroups[group].rows];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new SmsRow();
+        }
+        for (int column = 0; column < SmsColumnarFormat.COLUMN_COUNT; column++) {
+            Column values = readColumn(group, column);
+            for (int i = 0; i < rows.length; i++) {
+                SmsRow row = rows[i];
+                if (column != SmsColumnarFormat.ID && values.isNull(i)) {
+                    row.nullMask |= 1 << column;
+                }
+                if (SmsColumnarFormat.isStringColumn(column)) {
+                    setString(row, column, values.getString(i));
+                } else {
+                    setLong(row, column, values.getLong(i));
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private RowGroup[] readFooter() throws IOException {
+        long fileLength = file.length();
+        if (fileLength < SmsColumnarFormat.MAGIC.length + TAIL_LENGTH) {
+            throw new IOException("Not a columnar backup: too short");
+        }
+        byte[] magic = new byte[SmsColumnarFormat.MAGIC.length];
+        file.readFully(magic);
+        file.seek(fileLength - TAIL_LENGTH);
+        int footerLength = file.readInt();
+        byte[] tailMagic = new byte[SmsColumnarFormat.MAGIC.length];
+        file.readFully(tailMagic);
+        if (!Arrays.equals(magic, SmsColumnarFormat.MAGIC) || !Arrays.equals(tailMagic, SmsColumnarFormat.MAGIC)) {
+            throw new IOException("Not a columnar backup, or the export did not finish");
+        }
+        long footerStart = fileLength - TAIL_LENGTH - footerLength;
+        if (footerLength < 5 || footerStart < SmsColumnarFormat.MAGIC.length) {
+            throw new IOException("Corrupt footer length: " + footerLength);
+        }
+        byte[] footerBytes = new byte[footerLength];
+        file.seek(footerStart);
+        file.readFully(footerBytes);
+
+        DataInputStream footer = new DataInputStream(new ByteArrayInputStream(footerBytes));
+        int version = footer.readUnsignedByte();
+        if (version != SmsColumnarFormat.VERSION) {
+            throw new IOException("Unsupported columnar backup version " + version);
+        }
+        int count = footer.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt row group count: " + count);
+        }
+        RowGroup[] groups = new RowGroup[count];
+        for (int g = 0; g < count; g++) {
+            RowGroup group = new RowGroup(footer.readInt(), footer.readLong(), footer.readLong(),
+                    footer.readLong(), footer.readLong());
+            for (int column = 0; column < SmsColumnarFormat.COLUMN_COUNT; column++) {
+                long offset = footer.readLong();
+                int length = footer.readInt();
+                if (offset < SmsColumnarFormat.MAGIC.length || length < 0 || offset + length > footerStart) {
+                    throw new IOException("Corrupt chunk index in row group " + g);
+                }
+                group.chunkOffsets[column] = offset;
+                group.chunkLengths[column] = length;
+            }
+            groups[g] = group;
+        }
+        return groups;
+    }
+
+    private static Column decodeChunk(SmsColumnarFormat.ByteSource in, int column, int rows) {
+        BitSet nulls = null;
+        int nullsTag = in.readByte();
+        if (nullsTag == SmsColumnarFormat.NULLS_PRESENT) {
+            nulls = readBits(in, rows);
+        } else if (nullsTag != SmsColumnarFormat.NULLS_ABSENT) {
+            throw new IllegalStateException("Unknown null encoding " + nullsTag);
+        }
+        if (SmsColumnarFormat.isStringColumn(column)) {
+            String[] values = new String[rows];
+            if (SmsColumnarFormat.kindOf(column) == SmsColumnarFormat.KIND_DICT_STRING) {
+                String[] dictionary = new String[checkedCount(in.readVarint())];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString(in);
+                }
+                for (int i = 0; i < rows; i++) {
+                    values[i] = dictionary[dictionaryIndex(in, dictionary.length)];
+                }
+            } else {
+                for (int i = 0; i < rows; i++) {
+                    values[i] = readString(in);
+                }
+            }
+            return new Column(null, values, nulls);
+        }
+
+        long[] values = new long[rows];
+        switch (SmsColumnarFormat.kindOf(column)) {
+            case SmsColumnarFormat.KIND_DELTA: {
+                long previous = 0;
+                for (int i = 0; i < rows; i++) {
+                    previous += in.readZigzag();
+                    values[i] = previous;
+                }
+                break;
+            }
+            case SmsColumnarFormat.KIND_DICT_LONG: {
+                long[] dictionary = new long[checkedCount(in.readVarint())];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = in.readZigzag();
+                }
+                for (int i = 0; i < rows; i++) {
+                    values[i] = dictionary[dictionaryIndex(in, dictionary.length)];
+                }
+                break;
+            }
+            case SmsColumnarFormat.KIND_FLAG: {
+                int flagTag = in.readByte();
+                if (flagTag == SmsColumnarFormat.FLAG_BITS) {
+                    BitSet bits = readBits(in, rows);
+                    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                        values[i] = 1;
+                    }
+                } else if (flagTag == SmsColumnarFormat.FLAG_VARINT) {
+                    // Laid out like KIND_VARINT.
+                    readZigzags(in, values);
+                } else {
+                    throw new IllegalStateException("Unknown flag encoding " + flagTag);
+                }
+                break;
+            }
+            case SmsColumnarFormat.KIND_VARINT:
+                readZigzags(in, values);
+                break;
+            default:
+                throw new AssertionError(column);
+        }
+        return new Column(values, null, nulls);
+    }
+
+    private static void readZigzags(SmsColumnarFormat.ByteSource in, long[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readZigzag();
+        }
+    }
+
+    private static BitSet readBits(SmsColumnarFormat.ByteSource in, int rows) {
+        int start = in.skip((rows + 7) / 8);
+        BitSet bits = new BitSet(rows);
+        for (int i = 0; i < rows; i++) {
+            if ((in.bytes[start + (i >>> 3)] & (1 << (i & 7))) != 0) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    private static String readString(SmsColumnarFormat.ByteSource in) {
+        int length = checkedCount(in.readVarint());
+        int start = in.skip(length);
+        return new String(in.bytes, start, length, UTF_8);
+    }
+
+    private static int checkedCount(long count) {
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Corrupt length " + count);
+        }
+        return (int) count;
+    }
+
+    private static int dictionaryIndex(SmsColumnarFormat.ByteSource in, int size) {
+        long index = in.readVarint();
+        if (index < 0 || index >= size) {
+            throw new IllegalStateException("Dictionary index out of range: " + index);
+        }
+        return (int) index;
+    }
+
+    private static void setLong(SmsRow row, int column, long value) {
+        switch (column) {
+            case SmsColumnarFormat.ID: row.id = value; break;
+            case SmsRow.THREAD_ID: row.threadId = value; break;
+            case SmsRow.PERSON: row.person = value; break;
+            case SmsRow.DATE: row.date = value; break;
+            case SmsRow.DATE_SENT: row.dateSent = value; break;
+            case SmsRow.PROTOCOL: row.protocol = (int) value; break;
+            case SmsRow.READ: row.read = (int) value; break;
+            case SmsRow.STATUS: row.status = (int) value; break;
+            case SmsRow.TYPE: row.type = (int) value; break;
+            case SmsRow.REPLY_PATH_PRESENT: row.replyPathPresent = (int) value; break;
+            case SmsRow.LOCKED: row.locked = (int) value; break;
+            case SmsRow.ERROR_CODE: row.errorCode = (int) value; break;
+            case SmsRow.SEEN: row.seen = (int) value; break;
+            default: throw new AssertionError(column);
+        }
+    }
+
+    private static void setString(SmsRow row, int column, String value) {
+        switch (column) {
+            case SmsRow.ADDRESS: row.address = value; break;
+            case SmsRow.SUBJECT: row.subject = value; break;
+            case SmsRow.BODY: row.body = value; break;
+            case SmsRow.SERVICE_CENTER: row.serviceCenter = value; break;
+            default: throw new AssertionError(column);
+        }
+    }
+}
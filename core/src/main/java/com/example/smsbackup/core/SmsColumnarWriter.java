@@ -0,0 +1,257 @@
+package com.example.smsbackup.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes rows in the {@link SmsColumnarFormat} layout.
+ *
+ * Rows are copied into per-column arrays until a row group is full; the group is then encoded one
+ * column at a time and streamed out, so memory is bounded by the row group size rather than the
+ * export. The footer is written by {@link #close()}; a file without it is not readable.
+ *
+ * Not thread-safe.
+ */
+public final class SmsColumnarWriter implements Closeable {
+
+    private final OutputStream out;
+    private final int rowGroupSize;
+    private final SmsColumnarFormat.ByteSink chunk = new SmsColumnarFormat.ByteSink();
+    private final ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+    private final DataOutputStream footer = new DataOutputStream(footerBytes);
+    private final Map<Object, Integer> dictionary = new HashMap<>();
+
+    // One row group, column by column. Long columns are indexed by column number; unused slots
+    // stay null.
+    private final long[][] longs = new long[SmsColumnarFormat.COLUMN_COUNT][];
+    private final String[][] strings = new String[SmsColumnarFormat.COLUMN_COUNT][];
+    private final int[] nullMasks;
+    private int rows;
+
+    private long position;
+    private int rowGroups;
+    private boolean closed;
+
+    public SmsColumnarWriter(OutputStream out) throws IOException {
+        this(out, SmsColumnarFormat.DEFAULT_ROW_GROUP_SIZE);
+    }
+
+    public SmsColumnarWriter(OutputStream out, int rowGroupSize) throws IOException {
+        if (rowGroupSize <= 0) {
+            throw new IllegalArgumentException("rowGroupSize must be positive: " + rowGroupSize);
+        }
+        this.out = out;
+        this.rowGroupSize = rowGroupSize;
+        for (int column = 0; column < SmsColumnarFormat.COLUMN_COUNT; column++) {
+            if (SmsColumnarFormat.isStringColumn(column)) {
+                strings[column] = new String[rowGroupSize];
+            } else {
+                longs[column] = new long[rowGroupSize];
+            }
+        }
+        nullMasks = new int[rowGroupSize];
+        out.write(SmsColumnarFormat.MAGIC);
+        position = SmsColumnarFormat.MAGIC.length;
+    }
+
+    /** Buffers {@code row}; its values are copied, so the instance may be reused right away. */
+    public void write(SmsRow row) throws IOException {
+        int i = rows;
+        longs[SmsColumnarFormat.ID][i] = row.id;
+        longs[SmsRow.THREAD_ID][i] = row.threadId;
+        strings[SmsRow.ADDRESS][i] = row.address;
+        longs[SmsRow.PERSON][i] = row.person;
+        longs[SmsRow.DATE][i] = row.date;
+        longs[SmsRow.DATE_SENT][i] = row.dateSent;
+        longs[SmsRow.PROTOCOL][i] = row.protocol;
+        longs[SmsRow.READ][i] = row.read;
+        longs[SmsRow.STATUS][i] = row.status;
+        longs[SmsRow.TYPE][i] = row.type;
+        longs[SmsRow.REPLY_PATH_PRESENT][i] = row.replyPathPresent;
+        strings[SmsRow.SUBJECT][i] = row.subject;
+        strings[SmsRow.BODY][i] = row.body;
+        strings[SmsRow.SERVICE_CENTER][i] = row.serviceCenter;
+        longs[SmsRow.LOCKED][i] = row.locked;
+        longs[SmsRow.ERROR_CODE][i] = row.errorCode;
+        longs[SmsRow.SEEN][i] = row.seen;
+        nullMasks[i] = row.nullMask;
+        if (++rows == rowGroupSize) {
+            flushRowGroup();
+        }
+    }
+
+    /** Writes the pending row group and the footer, then closes the stream. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (rows > 0) {
+                flushRowGroup();
+            }
+            DataOutputStream tail = new DataOutputStream(out);
+            tail.writeByte(SmsColumnarFormat.VERSION);
+            tail.writeInt(rowGroups);
+            footerBytes.writeTo(tail);
+            tail.writeInt(1 + 4 + footerBytes.size());
+            tail.write(SmsColumnarFormat.MAGIC);
+            tail.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushRowGroup() throws IOException {
+        long[] ids = longs[SmsColumnarFormat.ID];
+        long[] dates = longs[SmsRow.DATE];
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (int i = 0; i < rows; i++) {
+            minDate = Math.min(minDate, dates[i]);
+            maxDate = Math.max(maxDate, dates[i]);
+        }
+        footer.writeInt(rows);
+        footer.writeLong(ids[0]);
+        footer.writeLong(ids[rows - 1]);
+        footer.writeLong(minDate);
+        footer.writeLong(maxDate);
+
+        for (int column = 0; column < SmsColumnarFormat.COLUMN_COUNT; column++) {
+            chunk.reset();
+            encodeChunk(column);
+            out.write(chunk.bytes, 0, chunk.length);
+            footer.writeLong(position);
+            footer.writeInt(chunk.length);
+            position += chunk.length;
+        }
+        rowGroups++;
+        rows = 0;
+        for (String[] column : strings) {
+            if (column != null) {
+                Arrays.fill(column, null);
+            }
+        }
+    }
+
+    private void encodeChunk(int column) {
+        int bit = column == SmsColumnarFormat.ID ? 0 : 1 << column;
+        boolean hasNulls = false;
+        for (int i = 0; i < rows && bit != 0; i++) {
+            if ((nullMasks[i] & bit) != 0) {
+                hasNulls = true;
+                break;
+            }
+        }
+        if (hasNulls) {
+            chunk.writeByte(SmsColumnarFormat.NULLS_PRESENT);
+            encodeBits(nullMasksAsBits(bit));
+        } else {
+            chunk.writeByte(SmsColumnarFormat.NULLS_ABSENT);
+        }
+
+        switch (SmsColumnarFormat.kindOf(column)) {
+            case SmsColumnarFormat.KIND_DELTA:
+                encodeDelta(longs[column]);
+                break;
+            case SmsColumnarFormat.KIND_DICT_LONG:
+                encodeDictionary(longs[column], null);
+                break;
+            case SmsColumnarFormat.KIND_DICT_STRING:
+                encodeDictionary(null, strings[column]);
+                break;
+            case SmsColumnarFormat.KIND_FLAG:
+                encodeFlags(longs[column]);
+                break;
+            case SmsColumnarFormat.KIND_VARINT:
+                for (int i = 0; i < rows; i++) {
+                    chunk.writeZigzag(longs[column][i]);
+                }
+                break;
+            case SmsColumnarFormat.KIND_STRING:
+                for (int i = 0; i < rows; i++) {
+                    chunk.writeUtf8(nonNull(strings[column][i]));
+                }
+                break;
+            default:
+                throw new AssertionError(column);
+        }
+    }
+
+    private long[] nullMasksAsBits(int bit) {
+        long[] values = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = (nullMasks[i] & bit) != 0 ? 1 : 0;
+        }
+        return values;
+    }
+
+    private void encodeDelta(long[] values) {
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+            chunk.writeZigzag(values[i] - previous);
+            previous = values[i];
+        }
+    }
+
+    private void encodeDictionary(long[] numbers, String[] texts) {
+        dictionary.clear();
+        int[] indices = new int[rows];
+        SmsColumnarFormat.ByteSink entries = new SmsColumnarFormat.ByteSink();
+        for (int i = 0; i < rows; i++) {
+            Object key = numbers != null ? (Object) numbers[i] : nonNull(texts[i]);
+            Integer index = dictionary.get(key);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(key, index);
+                if (numbers != null) {
+                    entries.writeZigzag(numbers[i]);
+                } else {
+                    entries.writeUtf8((String) key);
+                }
+            }
+            indices[i] = index;
+        }
+        chunk.writeVarint(dictionary.size());
+        chunk.writeBytes(entries.bytes, 0, entries.length);
+        for (int i = 0; i < rows; i++) {
+            chunk.writeVarint(indices[i]);
+        }
+    }
+
+    private void encodeFlags(long[] values) {
+        for (int i = 0; i < rows; i++) {
+            if (values[i] != 0 && values[i] != 1) {
+                chunk.writeByte(SmsColumnarFormat.FLAG_VARINT);
+                for (int j = 0; j < rows; j++) {
+                    chunk.writeZigzag(values[j]);
+                }
+                return;
+            }
+        }
+        chunk.writeByte(SmsColumnarFormat.FLAG_BITS);
+        encodeBits(values);
+    }
+
+    /** Packs the low bit of each value, eight rows per byte, least significant bit first. */
+    private void encodeBits(long[] values) {
+        for (int i = 0; i < rows; i += 8) {
+            int b = 0;
+            for (int j = 0; j < 8 && i + j < rows; j++) {
+                b |= (int) (values[i + j] & 1) << j;
+            }
+            chunk.writeByte(b);
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+}
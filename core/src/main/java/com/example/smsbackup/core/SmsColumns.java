@@ -0,0 +1,32 @@
+package com.example.smsbackup.core;
+
+/** Column names of the SMS provider table, as in {@code android.provider.Telephony.Sms}. */
+public final class SmsColumns {
+
+    public static final String ID = "_id";
+    public static final String THREAD_ID = "thread_id";
+    public static final String ADDRESS = "address";
+    public static final String PERSON = "person";
+    public static final String DATE = "date";
+    public static final String DATE_SENT = "date_sent";
+    public static final String PROTOCOL = "protocol";
+    public static final String READ = "read";
+    public static final String STATUS = "status";
+    public static final String TYPE = "type";
+    public static final String REPLY_PATH_PRESENT = "reply_path_present";
+    public static final String SUBJECT = "subject";
+    public static final String BODY = "body";
+    public static final String SERVICE_CENTER = "service_center";
+    public static final String LOCKED = "locked";
+    public static final String ERROR_CODE = "error_code";
+    public static final String SEEN = "seen";
+
+    /** {@link #ID} followed by the sixteen exported columns in CSV order. */
+    public static final String[] EXPORT_PROJECTION = {
+            ID, THREAD_ID, ADDRESS, PERSON, DATE, DATE_SENT, PROTOCOL, READ, STATUS, TYPE,
+            REPLY_PATH_PRESENT, SUBJECT, BODY, SERVICE_CENTER, LOCKED, ERROR_CODE, SEEN,
+    };
+
+    private SmsColumns() {
+    }
+}
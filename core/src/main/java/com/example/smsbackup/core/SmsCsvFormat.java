@@ -0,0 +1,54 @@
+package com.example.smsbackup.core;
+
+import java.io.IOException;
+
+/** Layout of the exported CSV: the header line and how an {@link SmsRow} maps onto a record. */
+public final class SmsCsvFormat {
+
+    public static final String[] HEADER = {
+            "Thread ID", "Address", "Person", "Date", "Date Sent", "Protocol", "Read", "Status",
+            "Type", "Reply Path Present", "Subject", "Body", "Service Center", "Locked",
+            "Error Code", "Seen",
+    };
+
+    private SmsCsvFormat() {
+    }
+
+    /** Writes {@code row} as one record. SQL NULLs become empty fields. */
+    public static void writeRow(CsvWriter csv, SmsRow row, TimestampFormatter timestampFormatter) throws IOException {
+        writeNumber(csv, row, SmsRow.THREAD_ID, row.threadId);
+        csv.writeField(row.address);
+        writeNumber(csv, row, SmsRow.PERSON, row.person);
+        writeTimestamp(csv, row, SmsRow.DATE, row.date, timestampFormatter);
+        writeTimestamp(csv, row, SmsRow.DATE_SENT, row.dateSent, timestampFormatter);
+        writeNumber(csv, row, SmsRow.PROTOCOL, row.protocol);
+        writeNumber(csv, row, SmsRow.READ, row.read);
+        writeNumber(csv, row, SmsRow.STATUS, row.status);
+        writeNumber(csv, row, SmsRow.TYPE, row.type);
+        writeNumber(csv, row, SmsRow.REPLY_PATH_PRESENT, row.replyPathPresent);
+        csv.writeField(row.subject);
+        csv.writeField(row.body);
+        csv.writeField(row.serviceCenter);
+        writeNumber(csv, row, SmsRow.LOCKED, row.locked);
+        writeNumber(csv, row, SmsRow.ERROR_CODE, row.errorCode);
+        writeNumber(csv, row, SmsRow.SEEN, row.seen);
+        csv.endRecord();
+    }
+
+    private static void writeTimestamp(CsvWriter csv, SmsRow row, int column, long epochMillis,
+            TimestampFormatter timestampFormatter) throws IOException {
+        if (row.isNull(column)) {
+            csv.writeNull();
+        } else {
+            csv.writeTimestamp(timestampFormatter, epochMillis);
+        }
+    }
+
+    private static void writeNumber(CsvWriter csv, SmsRow row, int column, long value) throws IOException {
+        if (row.isNull(column)) {
+            csv.writeNull();
+        } else {
+            csv.writeField(value);
+        }
+    }
+}
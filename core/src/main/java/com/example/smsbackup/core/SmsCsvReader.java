@@ -0,0 +1,274 @@
+package com.example.smsbackup.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Streams the records of an exported CSV back into {@link SmsRow}s, the inverse of
+ * {@link SmsCsvFormat#writeRow}.
+ *
+ * It reads exactly the dialect {@link CsvWriter} produces: a header line of unquoted names,
+ * quoted fields with doubled quotes and line breaks kept inside the quotes, and an empty unquoted
+ * field for SQL NULL. Input is read through one private char buffer and each field is unescaped
+ * into a reused builder, so only the text columns allocate a string per row. The {@code _id} of a
+ * row is not in the file; {@link SmsRow#id} is set to the record's 1-based position instead.
+ *
+ * Not thread-safe.
+ */
+public final class SmsCsvReader implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Reader in;
+    private final char[] buffer;
+    private final TimestampParser timestampParser;
+    private final StringBuilder field = new StringBuilder(256);
+    private int position;
+    private int limit;
+    private boolean headerRead;
+    private long line = 1;
+    private long records;
+
+    public SmsCsvReader(Reader in, TimestampParser timestampParser) {
+        this(in, timestampParser, DEFAULT_BUFFER_SIZE);
+    }
+
+    public SmsCsvReader(Reader in, TimestampParser timestampParser, int bufferSize) {
+        if (bufferSize < 64) {
+            throw new IllegalArgumentException("bufferSize too small: " + bufferSize);
+        }
+        this.in = in;
+        this.timestampParser = timestampParser;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Reads the next record into {@code row}. Returns {@code false} at the end of the input.
+     *
+     * @throws IOException if the input is not an SMS backup CSV or a record is malformed
+     */
+    public boolean read(SmsRow row) throws IOException {
+        if (!headerRead) {
+            readHeader();
+            headerRead = true;
+        }
+        if (peek() < 0) {
+            return false;
+        }
+        row.clear();
+        row.id = ++records;
+        for (int column = 0; column < SmsRow.COLUMN_COUNT; column++) {
+            if (column > 0) {
+                expect(',');
+            }
+            if (!readField()) {
+                row.nullMask |= 1 << column;
+                continue;
+            }
+            try {
+                setColumn(row, column);
+            } catch (IllegalArgumentException e) {
+                throw malformed("bad " + SmsCsvFormat.HEADER[column] + " value \"" + field + "\"");
+            }
+        }
+        endRecord();
+        return true;
+    }
+
+    /** Number of records read so far. */
+    public long getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readHeader() throws IOException {
+        if (peek() < 0) {
+            throw new IOException("Empty file; not an SMS backup");
+        }
+        String[] names = new String[SmsRow.COLUMN_COUNT];
+        for (int column = 0; column < names.length; column++) {
+            if (column > 0 && peek() != ',') {
+                throw new IOException("Not an SMS backup: expected " + names.length + " columns");
+            }
+            if (column > 0) {
+                position++;
+            }
+            readField();
+            names[column] = field.toString();
+        }
+        endRecord();
+        if (!Arrays.equals(names, SmsCsvFormat.HEADER)) {
+            throw new IOException("Not an SMS backup: unexpected header " + Arrays.toString(names));
+        }
+    }
+
+    private void setColumn(SmsRow row, int column) {
+        switch (column) {
+            case SmsRow.THREAD_ID:
+                row.threadId = parseLong();
+                break;
+            case SmsRow.ADDRESS:
+                row.address = field.toString();
+                break;
+            case SmsRow.PERSON:
+                row.person = parseLong();
+                break;
+            case SmsRow.DATE:
+                row.date = timestampParser.parse(field, 0);
+                break;
+            case SmsRow.DATE_SENT:
+                row.dateSent = timestampParser.parse(field, 0);
+                break;
+            case SmsRow.PROTOCOL:
+                row.protocol = (int) parseLong();
+                break;
+            case SmsRow.READ:
+                row.read = (int) parseLong();
+                break;
+            case SmsRow.STATUS:
+                row.status = (int) parseLong();
+                break;
+            case SmsRow.TYPE:
+                row.type = (int) parseLong();
+                break;
+            case SmsRow.REPLY_PATH_PRESENT:
+                row.replyPathPresent = (int) parseLong();
+                break;
+            case SmsRow.SUBJECT:
+                row.subject = field.toString();
+                break;
+            case SmsRow.BODY:
+                row.body = field.toString();
+                break;
+            case SmsRow.SERVICE_CENTER:
+                row.serviceCenter = field.toString();
+                break;
+            case SmsRow.LOCKED:
+                row.locked = (int) parseLong();
+                break;
+            case SmsRow.ERROR_CODE:
+                row.errorCode = (int) parseLong();
+                break;
+            case SmsRow.SEEN:
+                row.seen = (int) parseLong();
+                break;
+            default:
+                throw new AssertionError(column);
+        }
+    }
+
+    /**
+     * Reads one field into {@link #field}. Returns {@code false} for an empty unquoted field,
+     * which stands for SQL NULL.
+     */
+    private boolean readField() throws IOException {
+        field.setLength(0);
+        if (peek() != '"') {
+            // Unquoted: only header names and NULLs are written this way.
+            int c;
+            while ((c = peek()) >= 0 && c != ',' && c != '\n' && c != '\r') {
+                field.append((char) c);
+                position++;
+            }
+            return field.length() > 0;
+        }
+        position++;
+        while (true) {
+            if (position == limit && !fill()) {
+                throw malformed("unterminated quoted field");
+            }
+            // Copy the run up to the next quote in one go.
+            int start = position;
+            while (position < limit && buffer[position] != '"') {
+                if (buffer[position] == '\n') {
+                    line++;
+                }
+                position++;
+            }
+            field.append(buffer, start, position - start);
+            if (position == limit) {
+                continue;
+            }
+            position++;
+            if (peek() == '"') {
+                field.append('"');
+                position++;
+            } else {
+                return true;
+            }
+        }
+    }
+
+    private void endRecord() throws IOException {
+        int c = peek();
+        if (c == '\r') {
+            position++;
+            c = peek();
+        }
+        if (c == '\n') {
+            position++;
+            line++;
+        } else if (c >= 0) {
+            throw malformed("expected end of record");
+        }
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw malformed("expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private long parseLong() {
+        int length = field.length();
+        if (length == 0) {
+            throw new IllegalArgumentException();
+        }
+        boolean negative = field.charAt(0) == '-';
+        int i = negative ? 1 : 0;
+        if (i == length || length - i > 19) {
+            throw new IllegalArgumentException();
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            int d = field.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new IllegalArgumentException();
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    /** Returns the next char without consuming it, or -1 at the end of the input. */
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+
+    private IOException malformed(String detail) {
+        return new IOException("Malformed backup at line " + line + " (record " + records + "): " + detail);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.smsbackup.core;
+
+/**
+ * A 64-bit hash identifying a message for restores: its address, type, body and the date as the
+ * CSV shows it, to the second in the local time zone.
+ *
+ * Hashing the rendered date rather than the millis lets a message read back from a backup match
+ * the same message still in the provider, even though the backup dropped the milliseconds and a
+ * repeated DST hour parses to either of its two instants.
+ *
+ * Not thread-safe; use one instance per thread.
+ */
+public final class SmsRestoreKey {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final TimestampFormatter timestampFormatter;
+    private final char[] date = new char[TimestampFormatter.LENGTH];
+
+    /** @param timestampFormatter formats in the time zone the backups were written in */
+    public SmsRestoreKey(TimestampFormatter timestampFormatter) {
+        this.timestampFormatter = timestampFormatter;
+    }
+
+    public long of(SmsRow row) {
+        long h = FNV_OFFSET;
+        h = mix(h, row.address);
+        timestampFormatter.format(row.date, date, 0);
+        for (char c : date) {
+            h = (h ^ c) * FNV_PRIME;
+        }
+        h = (h ^ row.type) * FNV_PRIME;
+        h = mix(h, row.body);
+        // FNV leaves the high bits weakly mixed; finish with a murmur-style avalanche.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long mix(long h, String s) {
+        if (s == null) {
+            return (h ^ 0xFFFF) * FNV_PRIME;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        // A separator, so "ab" + "c" and "a" + "bc" differ.
+        return (h ^ 0x1F) * FNV_PRIME;
+    }
+}
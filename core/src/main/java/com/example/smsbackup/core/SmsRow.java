@@ -0,0 +1,98 @@
+package com.example.smsbackup.core;
+
+/**
+ * One exported SMS, decoded into primitives where the provider stores numbers.
+ * Instances are mutable and meant to be reused for every row of a cursor walk;
+ * copy the values out if they need to outlive the current row.
+ */
+public final class SmsRow {
+
+    // Column ordinals, in CSV output order.
+    public static final int THREAD_ID = 0;
+    public static final int ADDRESS = 1;
+    public static final int PERSON = 2;
+    public static final int DATE = 3;
+    public static final int DATE_SENT = 4;
+    public static final int PROTOCOL = 5;
+    public static final int READ = 6;
+    public static final int STATUS = 7;
+    public static final int TYPE = 8;
+    public static final int REPLY_PATH_PRESENT = 9;
+    public static final int SUBJECT = 10;
+    public static final int BODY = 11;
+    public static final int SERVICE_CENTER = 12;
+    public static final int LOCKED = 13;
+    public static final int ERROR_CODE = 14;
+    public static final int SEEN = 15;
+    public static final int COLUMN_COUNT = 16;
+
+    /** Provider {@code _id}; used for ordering and paging, not written to the CSV. */
+    public long id;
+    public long threadId;
+    public String address;
+    public long person;
+    public long date;
+    public long dateSent;
+    public int protocol;
+    public int read;
+    public int status;
+    public int type;
+    public int replyPathPresent;
+    public String subject;
+    public String body;
+    public String serviceCenter;
+    public int locked;
+    public int errorCode;
+    public int seen;
+
+    /** Bit {@code 1 << column} is set when that column was SQL NULL in the source row. */
+    public int nullMask;
+
+    public boolean isNull(int column) {
+        return (nullMask & (1 << column)) != 0;
+    }
+
+    /** Copies every field of {@code other} into this row. */
+    public void copyFrom(SmsRow other) {
+        id = other.id;
+        threadId = other.threadId;
+        address = other.address;
+        person = other.person;
+        date = other.date;
+        dateSent = other.dateSent;
+        protocol = other.protocol;
+        read = other.read;
+        status = other.status;
+        type = other.type;
+        replyPathPresent = other.replyPathPresent;
+        subject = other.subject;
+        body = other.body;
+        serviceCenter = other.serviceCenter;
+        locked = other.locked;
+        errorCode = other.errorCode;
+        seen = other.seen;
+        nullMask = other.nullMask;
+    }
+
+    /** Resets every field so the instance can be filled with the next row. */
+    public void clear() {
+        id = 0;
+        threadId = 0;
+        address = null;
+        person = 0;
+        date = 0;
+        dateSent = 0;
+        protocol = 0;
+        read = 0;
+        status = 0;
+        type = 0;
+        replyPathPresent = 0;
+        subject = null;
+        body = null;
+        serviceCenter = null;
+        locked = 0;
+        errorCode = 0;
+        seen = 0;
+        nullMask = 0;
+    }
+}
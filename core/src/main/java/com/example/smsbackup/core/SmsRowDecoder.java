@@ -0,0 +1,101 @@
+package com.example.smsbackup.core;
+
+/**
+ * Decodes SMS provider rows into a reusable {@link SmsRow}. Column indices are resolved once
+ * when the decoder is created, so the per-row work is just the typed cursor reads.
+ */
+public final class SmsRowDecoder {
+
+    private final RowCursor cursor;
+    private final int idIndex;
+    private final int threadIdIndex;
+    private final int addressIndex;
+    private final int personIndex;
+    private final int dateIndex;
+    private final int dateSentIndex;
+    private final int protocolIndex;
+    private final int readIndex;
+    private final int statusIndex;
+    private final int typeIndex;
+    private final int replyPathPresentIndex;
+    private final int subjectIndex;
+    private final int bodyIndex;
+    private final int serviceCenterIndex;
+    private final int lockedIndex;
+    private final int errorCodeIndex;
+    private final int seenIndex;
+
+    /**
+     * @throws IllegalArgumentException if the cursor is missing one of the exported columns.
+     */
+    public SmsRowDecoder(RowCursor cursor) {
+        this.cursor = cursor;
+        idIndex = cursor.getColumnIndexOrThrow(SmsColumns.ID);
+        threadIdIndex = cursor.getColumnIndexOrThrow(SmsColumns.THREAD_ID);
+        addressIndex = cursor.getColumnIndexOrThrow(SmsColumns.ADDRESS);
+        personIndex = cursor.getColumnIndexOrThrow(SmsColumns.PERSON);
+        dateIndex = cursor.getColumnIndexOrThrow(SmsColumns.DATE);
+        dateSentIndex = cursor.getColumnIndexOrThrow(SmsColumns.DATE_SENT);
+        protocolIndex = cursor.getColumnIndexOrThrow(SmsColumns.PROTOCOL);
+        readIndex = cursor.getColumnIndexOrThrow(SmsColumns.READ);
+        statusIndex = cursor.getColumnIndexOrThrow(SmsColumns.STATUS);
+        typeIndex = cursor.getColumnIndexOrThrow(SmsColumns.TYPE);
+        replyPathPresentIndex = cursor.getColumnIndexOrThrow(SmsColumns.REPLY_PATH_PRESENT);
+        subjectIndex = cursor.getColumnIndexOrThrow(SmsColumns.SUBJECT);
+        bodyIndex = cursor.getColumnIndexOrThrow(SmsColumns.BODY);
+        serviceCenterIndex = cursor.getColumnIndexOrThrow(SmsColumns.SERVICE_CENTER);
+        lockedIndex = cursor.getColumnIndexOrThrow(SmsColumns.LOCKED);
+        errorCodeIndex = cursor.getColumnIndexOrThrow(SmsColumns.ERROR_CODE);
+        seenIndex = cursor.getColumnIndexOrThrow(SmsColumns.SEEN);
+    }
+
+    /** Fills {@code row} from the cursor's current position. */
+    public void decode(SmsRow row) {
+        row.nullMask = 0;
+        row.id = cursor.getLong(idIndex);
+        row.threadId = readLong(threadIdIndex, SmsRow.THREAD_ID, row);
+        row.address = cursor.getString(addressIndex);
+        row.person = readLong(personIndex, SmsRow.PERSON, row);
+        row.date = readLong(dateIndex, SmsRow.DATE, row);
+        row.dateSent = readLong(dateSentIndex, SmsRow.DATE_SENT, row);
+        row.protocol = readInt(protocolIndex, SmsRow.PROTOCOL, row);
+        row.read = readInt(readIndex, SmsRow.READ, row);
+        row.status = readInt(statusIndex, SmsRow.STATUS, row);
+        row.type = readInt(typeIndex, SmsRow.TYPE, row);
+        row.replyPathPresent = readInt(replyPathPresentIndex, SmsRow.REPLY_PATH_PRESENT, row);
+        row.subject = cursor.getString(subjectIndex);
+        row.body = cursor.getString(bodyIndex);
+        row.serviceCenter = cursor.getString(serviceCenterIndex);
+        row.locked = readInt(lockedIndex, SmsRow.LOCKED, row);
+        row.errorCode = readInt(errorCodeIndex, SmsRow.ERROR_CODE, row);
+        row.seen = readInt(seenIndex, SmsRow.SEEN, row);
+        if (row.address == null) {
+            row.nullMask |= 1 << SmsRow.ADDRESS;
+        }
+        if (row.subject == null) {
+            row.nullMask |= 1 << SmsRow.SUBJECT;
+        }
+        if (row.body == null) {
+            row.nullMask |= 1 << SmsRow.BODY;
+        }
+        if (row.serviceCenter == null) {
+            row.nullMask |= 1 << SmsRow.SERVICE_CENTER;
+        }
+    }
+
+    private long readLong(int index, int column, SmsRow row) {
+        if (cursor.isNull(index)) {
+            row.nullMask |= 1 << column;
+            return 0;
+        }
+        return cursor.getLong(index);
+    }
+
+    private int readInt(int index, int column, SmsRow row) {
+        if (cursor.isNull(index)) {
+            row.nullMask |= 1 << column;
+            return 0;
+        }
+        return cursor.getInt(index);
+    }
+}
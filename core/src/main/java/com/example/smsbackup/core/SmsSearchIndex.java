@@ -0,0 +1,852 @@
+package com.example.smsbackup.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An on-device inverted index over the subject and body of backed-up messages, so a search
+ * returns matching {@code _id}s without rescanning any CSV.
+ *
+ * The index is a directory of immutable segment files, each covering a contiguous, disjoint
+ * {@code _id} range. A segment holds a sorted term dictionary and, per term, the ascending
+ * {@code _id}s of the messages containing it as delta-encoded varints. Segments are memory-mapped
+ * and looked up by binary search over their dictionary, so opening the index reads no postings.
+ *
+ * Exports feed it through an {@link Indexer}, which only takes messages newer than the index's
+ * {@link HighWaterMark}; a run therefore adds one segment for just the messages it backed up.
+ * Segments are written under a temporary name and only become part of the index on
+ * {@link Indexer#commit()}. Once there are more than {@link #MAX_SEGMENTS}, they are merged into
+ * one. A merge interrupted after writing its result leaves segments whose range lies inside the
+ * merged one; they are dropped when the index is next opened.
+ *
+ * Thread-safe; at most one {@link Indexer} at a time.
+ */
+public final class SmsSearchIndex {
+
+    /** Segments beyond which a commit merges them all into one. */
+    static final int MAX_SEGMENTS = 8;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x534d5349; // "SMSI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int ENTRY_SIZE = 12;
+    /** Postings bytes an indexer holds in memory before it spills them to a temporary segment. */
+    private static final int MAX_PENDING_BYTES = 8 * 1024 * 1024;
+    /** Rough heap cost of a pending term besides its chars and postings. */
+    private static final int TERM_OVERHEAD_BYTES = 64;
+
+    private static final Comparator<byte[]> UNSIGNED_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private final File directory;
+    /** Ordered by {@code minId}. */
+    private List<Segment> segments = new ArrayList<>();
+    private int nextSequence = 1;
+    private boolean writerOpen;
+
+    private SmsSearchIndex(File directory) {
+        this.directory = directory;
+    }
+
+    /** Opens the index in {@code directory}, creating it if needed, and cleans up an interrupted run. */
+    public static SmsSearchIndex open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        SmsSearchIndex index = new SmsSearchIndex(directory);
+        index.load();
+        return index;
+    }
+
+    /** The newest message in the index, with the index directory as its path. */
+    public synchronized HighWaterMark getHighWaterMark() {
+        if (segments.isEmpty()) {
+            return new HighWaterMark(0, 0, directory.getAbsolutePath());
+        }
+        Segment last = segments.get(segments.size() - 1);
+        return new HighWaterMark(last.maxId, last.maxDate, directory.getAbsolutePath());
+    }
+
+    /** Number of messages indexed. */
+    public synchronized int size() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.docCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the {@code _id}s of the messages whose subject or body contains every word of
+     * {@code query}, newest first, at most {@code limit} of them. A query without any word
+     * matches nothing.
+     */
+    public synchronized long[] search(String query, int limit) {
+        Set<String> terms = new HashSet<>();
+        SearchTokenizer.tokenize(query, terms);
+        if (terms.isEmpty() || limit <= 0) {
+            return new long[0];
+        }
+        List<byte[]> keys = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            keys.add(utf8(term));
+        }
+        long[] result = new long[Math.min(limit, size())];
+        int found = 0;
+        for (int s = segments.size() - 1; s >= 0 && found < result.length; s--) {
+            long[] matches = segments.get(s).matchAll(keys);
+            for (int i = matches.length - 1; i >= 0 && found < result.length; i--) {
+                result[found++] = matches[i];
+            }
+        }
+        return found == result.length ? result : Arrays.copyOf(result, found);
+    }
+
+    /** Starts adding messages newer than {@link #getHighWaterMark()}. */
+    public synchronized Indexer openIndexer() {
+        if (writerOpen) {
+            throw new IllegalStateException("Index already has an open indexer");
+        }
+        writerOpen = true;
+        return new Indexer(getHighWaterMark().lastId);
+    }
+
+    /** Deletes every segment, e.g. after the provider was reset and its ids now name other messages. */
+    public synchronized void clear() {
+        if (writerOpen) {
+            throw new IllegalStateException("Index has an open indexer");
+        }
+        for (Segment segment : segments) {
+            deleteQuietly(segment.file);
+        }
+        segments = new ArrayList<>();
+    }
+
+    /**
+     * Collects the terms of messages in ascending {@code _id} order. Rows at or below the index's
+     * high-water mark when the indexer was opened are ignored. Nothing is searchable until
+     * {@link #commit()}; {@link #abort()} or {@link #close()} drops everything added since the
+     * last commit.
+     */
+    public final class Indexer implements AutoCloseable {
+
+        private final Map<String, PendingPostings> pending = new HashMap<>();
+        private final List<Segment> spilled = new ArrayList<>();
+        private final Set<String> rowTerms = new HashSet<>();
+        private long lastId;
+        private long lastDate;
+        private long pendingMinId;
+        private int pendingDocs;
+        private int pendingBytes;
+        private boolean finished;
+
+        Indexer(long afterId) {
+            lastId = afterId;
+        }
+
+        /** The {@code _id} of the newest message indexed so far, committed or not, or 0. */
+        public long getLastId() {
+            return lastId;
+        }
+
+        /** Indexes the subject and body of {@code row} if it is newer than everything indexed so far. */
+        public void add(SmsRow row) throws IOException {
+            checkOpen();
+            if (row.id <= lastId) {
+                return;
+            }
+            lastId = row.id;
+            lastDate = row.date;
+            rowTerms.clear();
+            SearchTokenizer.tokenize(row.subject, rowTerms);
+            SearchTokenizer.tokenize(row.body, rowTerms);
+            if (rowTerms.isEmpty()) {
+                return;
+            }
+            if (pendingDocs == 0) {
+                pendingMinId = row.id;
+            }
+            for (String term : rowTerms) {
+                PendingPostings postings = pending.get(term);
+                if (postings == null) {
+                    postings = new PendingPostings();
+                    pending.put(term, postings);
+                    pendingBytes += TERM_OVERHEAD_BYTES + 2 * term.length();
+                }
+                pendingBytes += postings.add(row.id);
+            }
+            pendingDocs++;
+            if (pendingBytes >= MAX_PENDING_BYTES) {
+                spill();
+            }
+        }
+
+        /**
+         * Makes every message added so far searchable. The indexer stays open for more. If this
+         * throws, nothing of the commit is visible, now or after the index is reopened, and
+         * {@link #abort()} drops it.
+         */
+        public void commit() throws IOException {
+            checkOpen();
+            spill();
+            if (spilled.isEmpty()) {
+                return;
+            }
+            List<Segment> published = new ArrayList<>(spilled.size());
+            for (Segment segment : spilled) {
+                File file = new File(directory, segment.name);
+                if (!segment.file.renameTo(file)) {
+                    // Take back the segments already renamed, or the next load() would pick up
+                    // half of this commit; the rest are still temporary files for abort() to delete.
+                    for (Segment renamed : published) {
+                        deleteQuietly(renamed.file);
+                    }
+                    throw new IOException("Could not rename " + segment.file + " to " + file);
+                }
+                published.add(segment.withFile(file));
+            }
+            spilled.clear();
+            synchronized (SmsSearchIndex.this) {
+                List<Segment> next = new ArrayList<>(segments);
+                next.addAll(published);
+                segments = next;
+                if (segments.size() > MAX_SEGMENTS) {
+                    mergeAll();
+                }
+            }
+        }
+
+        /** Drops every message added since the last commit and closes the indexer. */
+        public void abort() {
+            checkOpen();
+            for (Segment segment : spilled) {
+                deleteQuietly(segment.file);
+            }
+            spilled.clear();
+            pending.clear();
+            finish();
+        }
+
+        /** Aborts unless {@link #abort()} already ran; everything committed stays. */
+        @Override
+        public void close() {
+            if (!finished) {
+                abort();
+            }
+        }
+
+        /** Writes the pending postings to a temporary segment and frees them. */
+        private void spill() throws IOException {
+            if (pendingDocs == 0) {
+                return;
+            }
+            String name;
+            synchronized (SmsSearchIndex.this) {
+                name = newSegmentName();
+            }
+            File temp = new File(directory, name + TEMP_SUFFIX);
+            spilled.add(writeSegment(temp, name, pending, pendingDocs, pendingMinId, lastId, lastDate));
+            pending.clear();
+            pendingDocs = 0;
+            pendingBytes = 0;
+        }
+
+        private void checkOpen() {
+            if (finished) {
+                throw new IllegalStateException("Indexer already finished");
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            synchronized (SmsSearchIndex.this) {
+                writerOpen = false;
+            }
+        }
+    }
+
+    /** The delta-varint postings of one term, growing as ids are added. */
+    private static final class PendingPostings {
+
+        byte[] bytes = new byte[8];
+        int length;
+        int count;
+        long lastId;
+
+        /** Appends {@code id}, which must be larger than the last one; returns the bytes it took. */
+        int add(long id) {
+            if (bytes.length - length < 10) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int start = length;
+            length = writeVarint(id - lastId, bytes, length);
+            lastId = id;
+            count++;
+            return length - start;
+        }
+    }
+
+    /** One memory-mapped segment file. Immutable. */
+    private static final class Segment {
+
+        final String name;
+        final File file;
+        final MappedByteBuffer map;
+        final int termCount;
+        final int docCount;
+        final long minId;
+        final long maxId;
+        final long maxDate;
+
+        Segment(String name, File file) throws IOException {
+            this.name = name;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            }
+            if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+                throw new IOException("Not a search index segment: " + file);
+            }
+            if (map.getInt(4) != VERSION) {
+                throw new IOException("Unsupported search index version " + map.getInt(4));
+            }
+            termCount = map.getInt(8);
+            docCount = map.getInt(12);
+            minId = map.getLong(16);
+            maxId = map.getLong(24);
+            maxDate = map.getLong(32);
+            if (termCount < 0 || HEADER_SIZE + (termCount + 1L) * ENTRY_SIZE > map.capacity()) {
+                throw new IOException("Corrupt search index segment: " + file);
+            }
+        }
+
+        private Segment(Segment other, File file) {
+            name = other.name;
+            this.file = file;
+            map = other.map;
+            termCount = other.termCount;
+            docCount = other.docCount;
+            minId = other.minId;
+            maxId = other.maxId;
+            maxDate = other.maxDate;
+        }
+
+        Segment withFile(File newFile) {
+            return new Segment(this, newFile);
+        }
+
+        /** Returns the ascending ids of the documents containing every term, or an empty array. */
+        long[] matchAll(List<byte[]> terms) {
+            int[] entries = new int[terms.size()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = find(terms.get(i));
+                if (entries[i] < 0) {
+                    return new long[0];
+                }
+            }
+            // Start from the rarest term; the result can only shrink.
+            int rarest = 0;
+            for (int i = 1; i < entries.length; i++) {
+                if (postingsCount(entries[i]) < postingsCount(entries[rarest])) {
+                    rarest = i;
+                }
+            }
+            long[] result = postings(entries[rarest]);
+            int size = result.length;
+            for (int i = 0; i < entries.length && size > 0; i++) {
+                if (i != rarest) {
+                    size = intersect(result, size, postings(entries[i]));
+                }
+            }
+            return size == result.length ? result : Arrays.copyOf(result, size);
+        }
+
+        /** Returns the entry of {@code term}, or -1. */
+        int find(byte[] term) {
+            int low = 0;
+            int high = termCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compareTerm(mid, term);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        byte[] term(int entry) {
+            int start = map.getInt(entryOffset(entry));
+            byte[] term = new byte[map.getInt(entryOffset(entry + 1)) - start];
+            for (int i = 0; i < term.length; i++) {
+                term[i] = map.get(start + i);
+            }
+            return term;
+        }
+
+        int postingsCount(int entry) {
+            return map.getInt(entryOffset(entry) + 8);
+        }
+
+        long[] postings(int entry) {
+            long[] ids = new long[postingsCount(entry)];
+            int position = map.getInt(entryOffset(entry) + 4);
+            long id = 0;
+            for (int i = 0; i < ids.length; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = map.get(position++);
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        /**
+         * Writes the postings of {@code entry} to {@code out} as deltas continuing from
+         * {@code previousId}, which must be below all of them; returns the last id written.
+         */
+        long copyPostings(int entry, long previousId, RegionWriter out) throws IOException {
+            int count = postingsCount(entry);
+            int position = map.getInt(entryOffset(entry) + 4);
+            long id = 0;
+            long last = previousId;
+            for (int i = 0; i < count; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = map.get(position++);
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                out.writeVarint(id - last);
+                last = id;
+            }
+            return last;
+        }
+
+        private int compareTerm(int entry, byte[] term) {
+            int start = map.getInt(entryOffset(entry));
+            int length = map.getInt(entryOffset(entry + 1)) - start;
+            int n = Math.min(length, term.length);
+            for (int i = 0; i < n; i++) {
+                int diff = (map.get(start + i) & 0xFF) - (term[i] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - term.length;
+        }
+
+        private static int entryOffset(int entry) {
+            return HEADER_SIZE + entry * ENTRY_SIZE;
+        }
+    }
+
+    /** Keeps the ids in {@code ids[0, size)} that also occur in {@code other}; returns the new size. */
+    private static int intersect(long[] ids, int size, long[] other) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < size && j < other.length; i++) {
+            long id = ids[i];
+            while (j < other.length && other[j] < id) {
+                j++;
+            }
+            if (j < other.length && other[j] == id) {
+                ids[kept++] = id;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Writes a segment of {@code postings} to {@code file} and maps it. Layout: a header, a table
+     * of {@code (termOffset, postingsOffset, postingsCount)} entries in unsigned UTF-8 term order
+     * followed by an end marker, the term bytes, then the postings.
+     */
+    private static Segment writeSegment(File file, String name, Map<String, PendingPostings> postings,
+                                        int docCount, long minId, long maxId, long maxDate) throws IOException {
+        List<Map.Entry<byte[], PendingPostings>> sorted = new ArrayList<>(postings.size());
+        for (Map.Entry<String, PendingPostings> entry : postings.entrySet()) {
+            sorted.add(new AbstractMap.SimpleImmutableEntry<>(utf8(entry.getKey()), entry.getValue()));
+        }
+        Collections.sort(sorted, new Comparator<Map.Entry<byte[], PendingPostings>>() {
+            @Override
+            public int compare(Map.Entry<byte[], PendingPostings> a, Map.Entry<byte[], PendingPostings> b) {
+                return UNSIGNED_ORDER.compare(a.getKey(), b.getKey());
+            }
+        });
+        byte[][] terms = new byte[sorted.size()][];
+        PendingPostings[] lists = new PendingPostings[terms.length];
+        long termBytes = 0;
+        long postingsBytes = 0;
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = sorted.get(i).getKey();
+            lists[i] = sorted.get(i).getValue();
+            termBytes += terms[i].length;
+            postingsBytes += lists[i].length;
+        }
+        long termStart = HEADER_SIZE + (terms.length + 1L) * ENTRY_SIZE;
+        long postingsStart = termStart + termBytes;
+        if (postingsStart + postingsBytes > Integer.MAX_VALUE) {
+            throw new IOException("Search index segment too large: " + (postingsStart + postingsBytes) + " bytes");
+        }
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(terms.length);
+            out.writeInt(docCount);
+            out.writeLong(minId);
+            out.writeLong(maxId);
+            out.writeLong(maxDate);
+            int termOffset = (int) termStart;
+            int postingsOffset = (int) postingsStart;
+            for (int i = 0; i < terms.length; i++) {
+                out.writeInt(termOffset);
+                out.writeInt(postingsOffset);
+                out.writeInt(lists[i].count);
+                termOffset += terms[i].length;
+                postingsOffset += lists[i].length;
+            }
+            out.writeInt(termOffset);
+            out.writeInt(postingsOffset);
+            out.writeInt(0);
+            for (byte[] term : terms) {
+                out.write(term);
+            }
+            for (PendingPostings list : lists) {
+                out.write(list.bytes, 0, list.length);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        return new Segment(name, file);
+    }
+
+    /**
+     * Replaces every segment with one holding all of their postings. The segments' dictionaries
+     * are merged term by term, and each merged postings list is copied straight from the mapped
+     * segments into the new file, so the merge holds no postings in memory however large the index
+     * has grown. Caller holds the lock.
+     */
+    private void mergeAll() throws IOException {
+        // First pass over the dictionaries only: the header and the entry table come before the
+        // terms and postings, so their sizes have to be known before anything is written.
+        int termCount = 0;
+        long termBytes = 0;
+        int docCount = 0;
+        TermMerge walk = new TermMerge(segments);
+        for (byte[] term = walk.next(); term != null; term = walk.next()) {
+            termCount++;
+            termBytes += term.length;
+        }
+        for (Segment segment : segments) {
+            docCount += segment.docCount;
+        }
+        long termStart = HEADER_SIZE + (termCount + 1L) * ENTRY_SIZE;
+        long postingsStart = termStart + termBytes;
+        if (postingsStart > Integer.MAX_VALUE) {
+            throw new IOException("Search index segment too large: " + postingsStart + " bytes");
+        }
+
+        Segment first = segments.get(0);
+        Segment last = segments.get(segments.size() - 1);
+        String name = newSegmentName();
+        File temp = new File(directory, name + TEMP_SUFFIX);
+        File file = new File(directory, name);
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            FileChannel channel = raf.getChannel();
+            // The header, then the entry table right after it.
+            RegionWriter entries = new RegionWriter(channel, 0);
+            entries.writeInt(MAGIC);
+            entries.writeInt(VERSION);
+            entries.writeInt(termCount);
+            entries.writeInt(docCount);
+            entries.writeLong(first.minId);
+            entries.writeLong(last.maxId);
+            entries.writeLong(last.maxDate);
+            RegionWriter terms = new RegionWriter(channel, termStart);
+            RegionWriter postings = new RegionWriter(channel, postingsStart);
+            walk = new TermMerge(segments);
+            for (byte[] term = walk.next(); term != null; term = walk.next()) {
+                entries.writeInt((int) terms.position());
+                entries.writeInt((int) postings.position());
+                int count = 0;
+                long previousId = 0;
+                // Segments are in ascending, disjoint id ranges, so concatenating keeps the list sorted.
+                for (int s = 0; s < segments.size(); s++) {
+                    int entry = walk.entryOf(s);
+                    if (entry >= 0) {
+                        Segment segment = segments.get(s);
+                        previousId = segment.copyPostings(entry, previousId, postings);
+                        count += segment.postingsCount(entry);
+                    }
+                }
+                entries.writeInt(count);
+                terms.write(term);
+                if (postings.position() > Integer.MAX_VALUE) {
+                    throw new IOException("Search index segment too large: " + postings.position() + " bytes");
+                }
+            }
+            entries.writeInt((int) terms.position());
+            entries.writeInt((int) postings.position());
+            entries.writeInt(0);
+            entries.flush();
+            terms.flush();
+            postings.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(temp);
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            deleteQuietly(temp);
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+        List<Segment> old = segments;
+        segments = new ArrayList<>(Collections.singletonList(new Segment(name, file)));
+        for (Segment segment : old) {
+            deleteQuietly(segment.file);
+        }
+    }
+
+    /**
+     * Walks the union of the term dictionaries of several segments in unsigned UTF-8 order,
+     * reading one term per segment at a time.
+     */
+    private static final class TermMerge {
+
+        private final List<Segment> segments;
+        /** Next entry to read per segment. */
+        private final int[] positions;
+        /** Current term per segment, or {@code null} once it is exhausted. */
+        private final byte[][] heads;
+        /** Entry of the term last returned per segment, or -1 if the segment lacks it. */
+        private final int[] current;
+
+        TermMerge(List<Segment> segments) {
+            this.segments = segments;
+            positions = new int[segments.size()];
+            heads = new byte[segments.size()][];
+            current = new int[segments.size()];
+            for (int s = 0; s < heads.length; s++) {
+                advance(s);
+            }
+        }
+
+        /** Returns the next term of the union, or {@code null} after the last one. */
+        byte[] next() {
+            byte[] smallest = null;
+            for (byte[] head : heads) {
+                if (head != null && (smallest == null || UNSIGNED_ORDER.compare(head, smallest) < 0)) {
+                    smallest = head;
+                }
+            }
+            for (int s = 0; s < heads.length; s++) {
+                if (heads[s] != null && UNSIGNED_ORDER.compare(heads[s], smallest) == 0) {
+                    current[s] = positions[s] - 1;
+                    advance(s);
+                } else {
+                    current[s] = -1;
+                }
+            }
+            return smallest;
+        }
+
+        /** Returns the entry of the last returned term in segment {@code s}, or -1. */
+        int entryOf(int s) {
+            return current[s];
+        }
+
+        private void advance(int s) {
+            Segment segment = segments.get(s);
+            heads[s] = positions[s] < segment.termCount ? segment.term(positions[s]++) : null;
+        }
+    }
+
+    /** Buffered big-endian writes to one region of a file, from a fixed start position on. */
+    private static final class RegionWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long flushed;
+
+        RegionWriter(FileChannel channel, long start) {
+            this.channel = channel;
+            this.flushed = start;
+        }
+
+        /** The file position the next byte goes to. */
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void writeInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void writeVarint(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void write(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer, flushed);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Maps every segment, deletes temporary and unreadable files, and drops segments whose range
+     * is covered by another one, i.e. the inputs of a merge that finished writing but not deleting.
+     */
+    private void load() {
+        List<Segment> found = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(SEGMENT_PREFIX)) {
+                    continue;
+                }
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    deleteQuietly(file);
+                } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                    nextSequence = Math.max(nextSequence, parseSequence(name) + 1);
+                    try {
+                        found.add(new Segment(name, file));
+                    } catch (IOException e) {
+                        // Derived data: a later export re-adds what it can rather than failing.
+                        deleteQuietly(file);
+                    }
+                }
+            }
+        }
+        Collections.sort(found, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                if (a.minId != b.minId) {
+                    return a.minId < b.minId ? -1 : 1;
+                }
+                // Widest first, so a merged segment comes before the inputs it covers.
+                return a.maxId == b.maxId ? 0 : (a.maxId > b.maxId ? -1 : 1);
+            }
+        });
+        List<Segment> kept = new ArrayList<>();
+        for (Segment segment : found) {
+            Segment previous = kept.isEmpty() ? null : kept.get(kept.size() - 1);
+            if (previous != null && segment.minId <= previous.maxId) {
+                deleteQuietly(segment.file);
+            } else {
+                kept.add(segment);
+            }
+        }
+        segments = kept;
+    }
+
+    private String newSegmentName() {
+        return String.format(Locale.US, "%s%06d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX);
+    }
+
+    private static int parseSequence(String name) {
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] bytes = new byte[Utf8.encodedLength(s)];
+        Utf8.encode(s, bytes, 0);
+        return bytes;
+    }
+
+    private static int writeVarint(long value, byte[] dst, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            dst[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.smsbackup.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats epoch millis as {@code yyyy-MM-dd HH:mm:ss} straight into a char buffer.
+ *
+ * Exports walk the inbox roughly in chronological order, so consecutive messages almost always
+ * fall on the same local day. The formatter remembers the UTC bounds of the last local day it
+ * saw, which bakes in that day's zone offset, along with its rendered date prefix; a hit only
+ * has to render the time of day. Days that contain an offset transition are never cached and take the slow
+ * path through {@link TimeZone#getOffset(long)} for every call.
+ *
+ * Not thread-safe; use one instance per writer.
+ */
+public final class TimestampFormatter {
+
+    /** Number of chars written by {@link #format(long, char[], int)}. */
+    public static final int LENGTH = 19;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final TimeZone timeZone;
+    private final char[] cachedPrefix = new char[11];
+    private long cachedDayStart = 1;
+    private long cachedDayEnd = 0;
+    private SimpleDateFormat fallbackFormat;
+
+    public TimestampFormatter(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+    }
+
+    public TimestampFormatter() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * Writes {@link #LENGTH} chars for {@code epochMillis} into {@code dest} at {@code offset}
+     * and returns the offset just past them.
+     */
+    public int format(long epochMillis, char[] dest, int offset) {
+        if (epochMillis < cachedDayStart || epochMillis >= cachedDayEnd) {
+            if (!cacheDayOf(epochMillis)) {
+                return formatSlow(epochMillis, dest, offset);
+            }
+        }
+        System.arraycopy(cachedPrefix, 0, dest, offset, cachedPrefix.length);
+        int secondOfDay = (int) ((epochMillis - cachedDayStart) / MILLIS_PER_SECOND);
+        int pos = offset + cachedPrefix.length;
+        pos = writeTwoDigits(secondOfDay / 3600, dest, pos);
+        dest[pos++] = ':';
+        pos = writeTwoDigits((secondOfDay / 60) % 60, dest, pos);
+        dest[pos++] = ':';
+        return writeTwoDigits(secondOfDay % 60, dest, pos);
+    }
+
+    /** Convenience for callers off the hot path. */
+    public String format(long epochMillis) {
+        char[] buffer = new char[LENGTH];
+        format(epochMillis, buffer, 0);
+        return new String(buffer);
+    }
+
+    /**
+     * Caches the local day containing {@code epochMillis}. Returns {@code false} if the offset
+     * changes during that day or the year doesn't fit in four digits.
+     */
+    private boolean cacheDayOf(long epochMillis) {
+        long offset = timeZone.getOffset(epochMillis);
+        long epochDay = Math.floorDiv(epochMillis + offset, MILLIS_PER_DAY);
+        long dayStart = epochDay * MILLIS_PER_DAY - offset;
+        long dayEnd = dayStart + MILLIS_PER_DAY;
+        if (timeZone.getOffset(dayStart) != offset || timeZone.getOffset(dayEnd - 1) != offset) {
+            return false;
+        }
+        if (!writeDate(epochDay, cachedPrefix, 0)) {
+            return false;
+        }
+        cachedPrefix[10] = ' ';
+        cachedDayStart = dayStart;
+        cachedDayEnd = dayEnd;
+        return true;
+    }
+
+    private int formatSlow(long epochMillis, char[] dest, int offset) {
+        long local = epochMillis + timeZone.getOffset(epochMillis);
+        long epochDay = Math.floorDiv(local, MILLIS_PER_DAY);
+        if (!writeDate(epochDay, dest, offset)) {
+            if (fallbackFormat == null) {
+                fallbackFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+                fallbackFormat.setTimeZone(timeZone);
+            }
+            String text = fallbackFormat.format(new Date(epochMillis));
+            // Years past 9999 render wider than LENGTH; keep the fixed width the callers rely on.
+            int length = Math.min(text.length(), LENGTH);
+            text.getChars(0, length, dest, offset);
+            for (int i = length; i < LENGTH; i++) {
+                dest[offset + i] = ' ';
+            }
+            return offset + LENGTH;
+        }
+        int secondOfDay = (int) (Math.floorMod(local, MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+        int pos = offset + 10;
+        dest[pos++] = ' ';
+        pos = writeTwoDigits(secondOfDay / 3600, dest, pos);
+        dest[pos++] = ':';
+        pos = writeTwoDigits((secondOfDay / 60) % 60, dest, pos);
+        dest[pos++] = ':';
+        return writeTwoDigits(secondOfDay % 60, dest, pos);
+    }
+
+    /**
+     * Writes {@code yyyy-MM-dd} for a day count since 1970-01-01 using the proleptic Gregorian
+     * civil-from-days conversion. Returns {@code false} for years outside 0..9999.
+     */
+    private static boolean writeDate(long epochDay, char[] dest, int offset) {
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return false;
+        }
+        int y = (int) year;
+        dest[offset] = (char) ('0' + y / 1000);
+        dest[offset + 1] = (char) ('0' + (y / 100) % 10);
+        dest[offset + 2] = (char) ('0' + (y / 10) % 10);
+        dest[offset + 3] = (char) ('0' + y % 10);
+        dest[offset + 4] = '-';
+        writeTwoDigits(month, dest, offset + 5);
+        dest[offset + 7] = '-';
+        writeTwoDigits(day, dest, offset + 8);
+        return true;
+    }
+
+    private static int writeTwoDigits(int value, char[] dest, int offset) {
+        dest[offset] = (char) ('0' + value / 10);
+        dest[offset + 1] = (char) ('0' + value % 10);
+        return offset + 2;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.smsbackup.core;
+
+import java.util.TimeZone;
+
+/**
+ * Parses the {@code yyyy-MM-dd HH:mm:ss} text written by {@link TimestampFormatter} back into
+ * epoch millis, in the same time zone. The text has whole seconds, so the millis of the original
+ * value are lost. A local time that occurs twice at a DST transition resolves to one of the two
+ * instants; either one formats back to the same text.
+ *
+ * Not thread-safe; use one instance per reader.
+ */
+public final class TimestampParser {
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final TimeZone timeZone;
+
+    public TimestampParser(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+    }
+
+    public TimestampParser() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * Parses the {@link TimestampFormatter#LENGTH} chars of {@code text} starting at {@code offset}.
+     *
+     * @throws IllegalArgumentException if they aren't a valid timestamp
+     */
+    public long parse(CharSequence text, int offset) {
+        if (text.length() - offset < TimestampFormatter.LENGTH
+                || text.charAt(offset + 4) != '-' || text.charAt(offset + 7) != '-'
+                || text.charAt(offset + 10) != ' ' || text.charAt(offset + 13) != ':'
+                || text.charAt(offset + 16) != ':') {
+            throw new IllegalArgumentException("Not a timestamp: " + text);
+        }
+        int year = digits(text, offset, 4);
+        int month = digits(text, offset + 5, 2);
+        int day = digits(text, offset + 8, 2);
+        int hour = digits(text, offset + 11, 2);
+        int minute = digits(text, offset + 14, 2);
+        int second = digits(text, offset + 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            throw new IllegalArgumentException("Not a timestamp: " + text);
+        }
+        long local = epochDay(year, month, day) * MILLIS_PER_DAY + ((hour * 60L + minute) * 60 + second) * 1000;
+        // Guess with the offset just before the instant, then correct once across a transition.
+        int offsetMillis = timeZone.getOffset(local - timeZone.getRawOffset());
+        long utc = local - offsetMillis;
+        int actual = timeZone.getOffset(utc);
+        return actual == offsetMillis ? utc : local - actual;
+    }
+
+    private static int digits(CharSequence text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int d = text.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new IllegalArgumentException("Not a timestamp: " + text);
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /** Days since 1970-01-01 of a proleptic Gregorian date. */
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
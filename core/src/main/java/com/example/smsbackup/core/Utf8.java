@@ -0,0 +1,85 @@
+package com.example.smsbackup.core;
+
+/**
+ * UTF-8 encoding of whole strings into caller-owned byte arrays, without the intermediate
+ * {@code byte[]} that {@link String#getBytes} allocates. Unpaired surrogates are encoded as
+ * {@code '?'}, matching the JDK encoders.
+ */
+public final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /** Returns the number of bytes {@link #encode} writes for {@code s}. */
+    public static int encodedLength(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // Two chars, four bytes.
+                bytes += 2;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired: one '?'.
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes {@code s} into {@code dst} at {@code offset}, which must have room for
+     * {@link #encodedLength(String)} bytes. Returns the offset after the last byte written.
+     */
+    public static int encode(String s, byte[] dst, int offset) {
+        int length = s.length();
+        int i = 0;
+        // ASCII prefix: one compare and one store per char.
+        while (i < length) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            dst[offset++] = (byte) c;
+            i++;
+        }
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[offset++] = (byte) (0xC0 | (c >> 6));
+                dst[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                offset = encodeSupplementary(Character.toCodePoint(c, s.charAt(++i)), dst, offset);
+            } else if (Character.isSurrogate(c)) {
+                dst[offset++] = '?';
+            } else {
+                offset = encodeThreeBytes(c, dst, offset);
+            }
+        }
+        return offset;
+    }
+
+    static int encodeThreeBytes(char c, byte[] dst, int offset) {
+        dst[offset] = (byte) (0xE0 | (c >> 12));
+        dst[offset + 1] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        dst[offset + 2] = (byte) (0x80 | (c & 0x3F));
+        return offset + 3;
+    }
+
+    static int encodeSupplementary(int codePoint, byte[] dst, int offset) {
+        dst[offset] = (byte) (0xF0 | (codePoint >> 18));
+        dst[offset + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        dst[offset + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        dst[offset + 3] = (byte) (0x80 | (codePoint & 0x3F));
+        return offset + 4;
+    }
+}
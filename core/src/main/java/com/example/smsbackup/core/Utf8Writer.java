@@ -0,0 +1,168 @@
+package com.example.smsbackup.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A buffered {@link Writer} that always writes UTF-8, whatever the platform default charset.
+ *
+ * Chars are encoded straight into one reusable byte buffer, which is handed to the stream only
+ * when full. Runs of ASCII, the bulk of OTP and alert traffic, are copied with a single compare
+ * per char; everything else is encoded inline without a {@link java.nio.charset.CharsetEncoder}
+ * or temporary arrays. A surrogate pair split across two writes is still encoded as one code
+ * point; unpaired surrogates become {@code '?'}, as with {@link java.io.OutputStreamWriter}.
+ *
+ * Not thread-safe.
+ */
+public final class Utf8Writer extends Writer {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+    private long drainedBytes;
+    private char pendingHighSurrogate;
+    private boolean closed;
+
+    public Utf8Writer(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Utf8Writer(OutputStream out, int bufferSize) {
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("bufferSize too small: " + bufferSize);
+        }
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        int end = off + len;
+        while (off < end) {
+            if (pendingHighSurrogate == 0) {
+                int limit = off + Math.min(end - off, buffer.length - position);
+                int p = position;
+                while (off < limit) {
+                    char c = cbuf[off];
+                    if (c >= 0x80) {
+                        break;
+                    }
+                    buffer[p++] = (byte) c;
+                    off++;
+                }
+                position = p;
+                if (off == end) {
+                    return;
+                }
+                if (position == buffer.length) {
+                    drain();
+                    continue;
+                }
+            }
+            encode(cbuf[off++]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80 && pendingHighSurrogate == 0 && position < buffer.length) {
+                buffer[position++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    /**
+     * Number of bytes encoded so far, including those still buffered. A high surrogate waiting
+     * for its pair is not counted yet.
+     */
+    public long length() {
+        return drainedBytes + position;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                ensureRoom(1);
+                buffer[position++] = '?';
+            }
+            drain();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void encode(char c) throws IOException {
+        ensureRoom(4);
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                position = Utf8.encodeSupplementary(Character.toCodePoint(high, c), buffer, position);
+                return;
+            }
+            buffer[position++] = '?';
+            ensureRoom(3);
+        }
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[position++] = '?';
+        } else {
+            position = Utf8.encodeThreeBytes(c, buffer, position);
+        }
+    }
+
+    private void ensureRoom(int bytes) throws IOException {
+        if (buffer.length - position < bytes) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            drainedBytes += position;
+            position = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BackupManifestTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void computesTheChecksumOfEveryBlock() throws IOException {
+        int blockSize = BackupManifest.DEFAULT_BLOCK_SIZE;
+        byte[] bytes = new byte[4 * blockSize + 1000];
+        new Random(5).nextBytes(bytes);
+        File backup = folder.newFile("sms.csv");
+        Files.write(backup.toPath(), bytes);
+
+        BackupManifest manifest = BackupManifest.compute(backup, 120, 7, 300);
+
+        assertEquals(120, manifest.rows);
+        assertEquals(7, manifest.firstId);
+        assertEquals(300, manifest.lastId);
+        assertEquals(bytes.length, manifest.length);
+        assertEquals(5, manifest.getBlockCount());
+        for (int block = 0; block < 5; block++) {
+            assertEquals(block * (long) blockSize, manifest.blockStart(block));
+            assertEquals(block < 4 ? blockSize : 1000, manifest.blockLength(block));
+            CRC32 crc = new CRC32();
+            crc.update(bytes, block * blockSize, manifest.blockLength(block));
+            assertEquals(crc.getValue(), manifest.getChecksum(block));
+        }
+    }
+
+    @Test
+    public void anEmptyBackupHasNoBlocks() throws IOException {
+        BackupManifest manifest = BackupManifest.compute(folder.newFile("empty.csv"), 0, 0, 0);
+        assertEquals(0, manifest.length);
+        assertEquals(0, manifest.getBlockCount());
+    }
+
+    @Test
+    public void writesAndReadsBack() throws IOException {
+        File backup = folder.newFile("sms.csv");
+        BackupManifest written = new BackupManifest(3, 10, 12, 250, 100, new long[]{1, 4_294_967_295L, 0});
+        written.write(backup);
+
+        assertEquals(new File(folder.getRoot(), "sms.csv" + BackupManifest.FILE_SUFFIX), BackupManifest.fileFor(backup));
+        assertFalse(new File(folder.getRoot(), "sms.csv.manifest.tmp").exists());
+        BackupManifest read = BackupManifest.read(backup);
+        assertNotNull(read);
+        assertEquals(3, read.rows);
+        assertEquals(10, read.firstId);
+        assertEquals(12, read.lastId);
+        assertEquals(250, read.length);
+        assertEquals(100, read.blockSize);
+        assertEquals(3, read.getBlockCount());
+        assertEquals(4_294_967_295L, read.getChecksum(1));
+        assertEquals(50, read.blockLength(2));
+
+        BackupManifest.delete(backup);
+        assertFalse(BackupManifest.fileFor(backup).exists());
+        assertNull(BackupManifest.read(backup));
+    }
+
+    @Test
+    public void readsManyBlocksAndIgnoresUnknownKeys() throws IOException {
+        File backup = folder.newFile("sms.csv");
+        StringBuilder text = new StringBuilder("version 1\nrows 5\nfirst_id 1\nlast_id 5\nlength 4000\nblock_size 100\n");
+        text.append("compression gzip\n");
+        for (int block = 0; block < 40; block++) {
+            text.append("crc32 ").append(block).append('\n');
+        }
+        writeManifest(backup, text.toString());
+
+        BackupManifest read = BackupManifest.read(backup);
+        assertNotNull(read);
+        assertEquals(40, read.getBlockCount());
+        assertEquals(39, read.getChecksum(39));
+    }
+
+    @Test
+    public void unreadableManifestsReadAsNone() throws IOException {
+        File backup = folder.newFile("sms.csv");
+        String valid = "version 1\nrows 1\nfirst_id 1\nlast_id 1\nlength 150\nblock_size 100\ncrc32 1\ncrc32 2\n";
+        writeManifest(backup, valid);
+        assertNotNull(BackupManifest.read(backup));
+
+        String[] invalid = {
+                "",
+                valid.replace("version 1", "version 2"),
+                valid.replace("rows 1\n", ""),
+                valid.replace("crc32 2\n", ""),
+                valid + "crc32 3\n",
+                valid.replace("length 150", "length lots"),
+                valid.replace("block_size 100", "block_size 0"),
+                valid.replace("rows 1", "rows 1 2"),
+        };
+        for (String text : invalid) {
+            writeManifest(backup, text);
+            assertNull(text, BackupManifest.read(backup));
+        }
+    }
+
+    @Test
+    public void rejectsAChecksumCountThatDoesNotFitTheLength() {
+        try {
+            new BackupManifest(1, 1, 1, 201, 100, new long[2]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void writeManifest(File backup, String text) throws IOException {
+        Files.write(BackupManifest.fileFor(backup).toPath(), text.getBytes(UTF_8));
+    }
+}
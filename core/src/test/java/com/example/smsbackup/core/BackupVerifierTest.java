@@ -0,0 +1,167 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BackupVerifierTest {
+
+    private static final int BLOCK_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BackupVerifier verifier = new BackupVerifier(3);
+
+    @After
+    public void closeVerifier() {
+        verifier.close();
+    }
+
+    @Test
+    public void anUntouchedBackupIsIntact() throws IOException {
+        File backup = backup("sms.csv", 50_500);
+        BackupVerifier.Report report = verifier.verify(backup);
+        assertTrue(report.isIntact());
+        assertEquals(50_500, report.length);
+        assertEquals(51, report.manifest.getBlockCount());
+    }
+
+    @Test
+    public void reportsEachRunOfDamagedBlocks() throws IOException {
+        File backup = backup("sms.csv", 50_500);
+        flipByte(backup, 3 * BLOCK_SIZE + 17);
+        flipByte(backup, 10 * BLOCK_SIZE);
+        flipByte(backup, 11 * BLOCK_SIZE + 999);
+        flipByte(backup, 12 * BLOCK_SIZE + 500);
+        flipByte(backup, 50_499);
+
+        List<BackupVerifier.DamagedRange> damaged = verifier.verify(backup).damaged;
+
+        assertRanges(damaged, 3_000, 4_000, 10_000, 13_000, 50_000, 50_500);
+    }
+
+    @Test
+    public void reportsATruncationFromTheFirstIncompleteBlock() throws IOException {
+        File backup = backup("sms.csv", 50_500);
+        truncate(backup, 42_300);
+
+        BackupVerifier.Report report = verifier.verify(backup);
+
+        assertFalse(report.isIntact());
+        assertEquals(42_300, report.length);
+        assertRanges(report.damaged, 42_000, 50_500);
+    }
+
+    @Test
+    public void reportsBytesAppendedAfterTheEnd() throws IOException {
+        File backup = backup("sms.csv", 5_000);
+        try (RandomAccessFile raf = new RandomAccessFile(backup, "rw")) {
+            raf.seek(5_000);
+            raf.write(new byte[123]);
+        }
+        assertRanges(verifier.verify(backup).damaged, 5_000, 5_123);
+    }
+
+    @Test
+    public void aBackupWithoutAManifestIsNotIntact() throws IOException {
+        File backup = folder.newFile("old.csv");
+        Files.write(backup.toPath(), new byte[100]);
+
+        BackupVerifier.Report report = verifier.verify(backup);
+
+        assertNull(report.manifest);
+        assertFalse(report.isIntact());
+        assertTrue(report.damaged.isEmpty());
+        assertEquals(100, report.length);
+    }
+
+    @Test
+    public void checksSeveralBackupsOfAnySize() throws IOException {
+        // Fewer blocks than threads, one block, none, and many more blocks than tasks.
+        int[] lengths = {2_500, 999, 0, 200_000};
+        for (int i = 0; i < lengths.length; i++) {
+            File backup = backup("sms-" + i + ".csv", lengths[i]);
+            assertTrue(backup.getName(), verifier.verify(backup).isIntact());
+            if (lengths[i] > 0) {
+                flipByte(backup, lengths[i] - 1);
+                long lastBlock = (lengths[i] - 1) / BLOCK_SIZE * BLOCK_SIZE;
+                assertRanges(verifier.verify(backup).damaged, lastBlock, lengths[i]);
+            }
+        }
+    }
+
+    @Test
+    public void aMissingBackupIsAnError() throws IOException {
+        try {
+            verifier.verify(new File(folder.getRoot(), "missing.csv"));
+            fail();
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsAnEmptyPool() {
+        try {
+            new BackupVerifier(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /** Writes {@code length} random bytes and a manifest for them in {@link #BLOCK_SIZE}-byte blocks. */
+    private File backup(String name, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        File backup = folder.newFile(name);
+        Files.write(backup.toPath(), bytes);
+        long[] checksums = new long[(length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        for (int block = 0; block < checksums.length; block++) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, block * BLOCK_SIZE, Math.min(BLOCK_SIZE, length - block * BLOCK_SIZE));
+            checksums[block] = crc.getValue();
+        }
+        new BackupManifest(length / 100, 1, length / 100, length, BLOCK_SIZE, checksums).write(backup);
+        return backup;
+    }
+
+    private static void flipByte(File file, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0x40);
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    /** Asserts {@code damaged} is exactly the ranges given as start, end pairs. */
+    private static void assertRanges(List<BackupVerifier.DamagedRange> damaged, long... bounds) {
+        assertEquals(damaged.toString(), bounds.length / 2, damaged.size());
+        for (int i = 0; i < damaged.size(); i++) {
+            assertEquals(damaged.toString(), bounds[2 * i], damaged.get(i).start);
+            assertEquals(damaged.toString(), bounds[2 * i + 1], damaged.get(i).end);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+public class BlockGzipOutputStreamTest {
+
+    @Test
+    public void anyGzipReaderReadsTheMembersBackToBack() throws IOException {
+        byte[] input = sample(300_000);
+        for (int blockSize : new int[]{1, 1000, 65_536, 1_000_000}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (BlockGzipOutputStream gzip = new BlockGzipOutputStream(out, blockSize)) {
+                // Odd-sized writes, so blocks fill across calls.
+                for (int off = 0; off < input.length; off += 7_777) {
+                    gzip.write(input, off, Math.min(7_777, input.length - off));
+                }
+            }
+            assertArrayEquals("blockSize " + blockSize, input, gunzip(out.toByteArray()));
+        }
+    }
+
+    @Test
+    public void eachBlockIsACompleteMember() throws IOException, DataFormatException {
+        byte[] input = sample(10_500);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BlockGzipOutputStream gzip = new BlockGzipOutputStream(out, 1000)) {
+            for (byte b : input) {
+                gzip.write(b);
+            }
+        }
+        List<byte[]> members = members(out.toByteArray());
+        assertEquals(11, members.size());
+        for (int i = 0; i < members.size(); i++) {
+            int length = Math.min(1000, input.length - i * 1000);
+            assertArrayEquals("member " + i, Arrays.copyOfRange(input, i * 1000, i * 1000 + length), members.get(i));
+        }
+    }
+
+    @Test
+    public void flushEndsTheCurrentMember() throws IOException, DataFormatException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BlockGzipOutputStream gzip = new BlockGzipOutputStream(out, 1000);
+        gzip.write(new byte[]{1, 2, 3});
+        gzip.flush();
+        assertEquals(1, members(out.toByteArray()).size());
+        gzip.flush();
+        gzip.write(new byte[]{4});
+        gzip.close();
+        gzip.close();
+
+        List<byte[]> members = members(out.toByteArray());
+        assertEquals(2, members.size());
+        assertArrayEquals(new byte[]{4}, members.get(1));
+    }
+
+    @Test
+    public void noInputWritesNothing() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BlockGzipOutputStream(out).close();
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    public void everyCompressionRoundTrips() throws IOException {
+        byte[] input = sample(200_000);
+        for (OutputCompression compression : OutputCompression.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (OutputStream compressed = compression.wrap(out)) {
+                compressed.write(input);
+            }
+            byte[] written = out.toByteArray();
+            if (compression == OutputCompression.NONE) {
+                assertArrayEquals(input, written);
+                assertEquals(".csv", compression.getExtension());
+            } else {
+                assertTrue(compression + " " + written.length, written.length < input.length / 2);
+                assertArrayEquals(compression.name(), input, gunzip(written));
+                assertEquals(".csv.gz", compression.getExtension());
+            }
+        }
+    }
+
+    /** CSV-like text: compressible, but not trivially. */
+    private static byte[] sample(int length) {
+        Random random = new Random(length);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("\"").append(random.nextInt(50)).append("\",\"+1555").append(random.nextInt(10_000_000))
+                    .append("\",\"Message ").append(Long.toHexString(random.nextLong())).append("\"\n");
+        }
+        return sb.substring(0, length).getBytes(Charset.forName("UTF-8"));
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Splits a gzip file into its members and inflates each on its own, checking its trailer. */
+    private static List<byte[]> members(byte[] gzip) throws DataFormatException {
+        List<byte[]> members = new ArrayList<>();
+        int p = 0;
+        while (p < gzip.length) {
+            assertEquals(0x1f, gzip[p] & 0xff);
+            assertEquals(0x8b, gzip[p + 1] & 0xff);
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(gzip, p + 10, gzip.length - p - 10);
+            ByteArrayOutputStream member = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                assertTrue("member cut short", n > 0 || !inflater.needsInput());
+                member.write(buffer, 0, n);
+            }
+            int trailer = gzip.length - inflater.getRemaining();
+            inflater.end();
+            byte[] bytes = member.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            assertEquals((int) crc.getValue(), intLE(gzip, trailer));
+            assertEquals(bytes.length, intLE(gzip, trailer + 4));
+            members.add(bytes);
+            p = trailer + 8;
+        }
+        return members;
+    }
+
+    private static int intLE(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
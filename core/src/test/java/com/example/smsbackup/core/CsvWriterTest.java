@@ -0,0 +1,155 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class CsvWriterTest {
+
+    @Test
+    public void quotesTextAndDoublesQuotes() throws IOException {
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            csv.writeHeader(new String[]{"A", "B", "C"});
+            csv.writeField("plain");
+            csv.writeField("say \"hi\", then\nleave");
+            csv.writeField("\"");
+            csv.endRecord();
+        }
+        assertEquals("A,B,C\n\"plain\",\"say \"\"hi\"\", then\nleave\",\"\"\"\"\n", out.toString());
+    }
+
+    @Test
+    public void nullIsAnEmptyFieldAndEmptyStringIsQuoted() throws IOException {
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            csv.writeField((String) null);
+            csv.writeField("");
+            csv.writeNull();
+            csv.writeField(0);
+            csv.endRecord();
+        }
+        assertEquals(",\"\",,\"0\"\n", out.toString());
+    }
+
+    @Test
+    public void writesEveryLongInDecimal() throws IOException {
+        long[] values = {0, 7, -7, 10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE,
+                Long.MIN_VALUE, Long.MIN_VALUE + 1, 1_234_567_890_123L};
+        StringWriter out = new StringWriter();
+        StringBuilder expected = new StringBuilder();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            for (long value : values) {
+                csv.writeField(value);
+                expected.append(expected.length() == 0 ? "" : ",").append('"').append(value).append('"');
+            }
+            csv.endRecord();
+        }
+        assertEquals(expected.append('\n').toString(), out.toString());
+    }
+
+    @Test
+    public void writesTimestamps() throws IOException {
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            csv.writeTimestamp(new TimestampFormatter(TimeZone.getTimeZone("UTC")), 1_000_000_000_000L);
+            csv.endRecord();
+        }
+        assertEquals("\"2001-09-09 01:46:40\"\n", out.toString());
+    }
+
+    @Test
+    public void smallBufferProducesTheSameTextInBufferSizedBlocks() throws IOException {
+        SmsRow[] rows = TestRows.generate(500, 1_600_000_000_000L, 7);
+        rows[3].body = repeat("long \"quoted\" text ", 400);
+        TimestampFormatter formatter = new TimestampFormatter(TimeZone.getTimeZone("UTC"));
+        StringWriter reference = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(reference)) {
+            writeAll(csv, rows, formatter);
+        }
+
+        RecordingWriter small = new RecordingWriter();
+        try (CsvWriter csv = new CsvWriter(small, 64)) {
+            writeAll(csv, rows, formatter);
+        }
+
+        assertEquals(reference.toString(), small.text.toString());
+        for (int i = 0; i < small.writeLengths.size() - 1; i++) {
+            int length = small.writeLengths.get(i);
+            assertTrue("write " + i + " of " + length + " chars", length > 0 && length <= 64);
+        }
+    }
+
+    @Test
+    public void flushDrainsTheBufferAndFlushesTheWriter() throws IOException {
+        RecordingWriter out = new RecordingWriter();
+        CsvWriter csv = new CsvWriter(out);
+        csv.writeField("x");
+        assertEquals(3, csv.bufferedChars());
+        assertEquals("", out.text.toString());
+        csv.flush();
+        assertEquals("\"x\"", out.text.toString());
+        assertEquals(0, csv.bufferedChars());
+        assertEquals(1, out.flushes);
+        csv.close();
+        assertTrue(out.closed);
+    }
+
+    @Test
+    public void rejectsTinyBuffers() {
+        try {
+            new CsvWriter(new StringWriter(), 63);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // The largest fixed-width field has to fit.
+        }
+    }
+
+    private static void writeAll(CsvWriter csv, SmsRow[] rows, TimestampFormatter formatter) throws IOException {
+        csv.writeHeader(SmsCsvFormat.HEADER);
+        for (SmsRow row : rows) {
+            SmsCsvFormat.writeRow(csv, row, formatter);
+        }
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static final class RecordingWriter extends Writer {
+
+        final StringBuilder text = new StringBuilder();
+        final List<Integer> writeLengths = new ArrayList<>();
+        int flushes;
+        boolean closed;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            text.append(cbuf, off, len);
+            writeLengths.add(len);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DedupIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addsEachKeyOnce() throws IOException {
+        try (DedupIndex index = DedupIndex.open(new File(folder.getRoot(), "dedup"), 16)) {
+            assertTrue(index.add(1, 2));
+            assertFalse(index.add(1, 2));
+            assertTrue(index.contains(1, 2));
+            assertFalse(index.contains(2, 1));
+            // All-zero marks an empty slot, so it is stored under another key; it must still work.
+            assertTrue(index.add(0, 0));
+            assertTrue(index.contains(0, 0));
+            assertFalse(index.add(0, 0));
+            assertEquals(2, index.size());
+        }
+    }
+
+    @Test
+    public void growsAndKeepsEveryKeyAcrossReopen() throws IOException {
+        File file = new File(folder.getRoot(), "dedup");
+        Random random = new Random(31);
+        long[][] keys = new long[20_000][];
+        try (DedupIndex index = DedupIndex.open(file, 16)) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = new long[]{random.nextLong(), random.nextLong()};
+                assertTrue(index.add(keys[i][0], keys[i][1]));
+            }
+            assertEquals(keys.length, index.size());
+        }
+        assertFalse(new File(file.getPath() + ".grow").exists());
+
+        try (DedupIndex index = DedupIndex.open(file, 16)) {
+            assertEquals(keys.length, index.size());
+            for (long[] key : keys) {
+                assertTrue(index.contains(key[0], key[1]));
+            }
+            for (int i = 0; i < 20_000; i++) {
+                assertFalse(index.contains(random.nextLong(), random.nextLong()));
+            }
+        }
+    }
+
+    @Test
+    public void messageKeysMatchTheSheetsHexIds() throws IOException, NoSuchAlgorithmException {
+        String body = "caf\u00e9 \ud83d\ude00";
+        String hex = sha256Hex("+15551234567-1600000000000-" + body);
+        try (DedupIndex index = DedupIndex.open(new File(folder.getRoot(), "dedup"))) {
+            assertTrue(index.addHexId(hex));
+            assertTrue(index.containsMessage("+15551234567", 1_600_000_000_000L, body));
+            assertFalse(index.addMessage("+15551234567", 1_600_000_000_000L, body));
+            assertFalse(index.containsMessage("+15551234567", 1_600_000_000_001L, body));
+            assertTrue(index.containsHexId(hex.toUpperCase(Locale.US)));
+        }
+    }
+
+    @Test
+    public void rejectsMalformedHexIds() throws IOException {
+        try (DedupIndex index = DedupIndex.open(new File(folder.getRoot(), "dedup"))) {
+            try {
+                index.addHexId("abc");
+                fail();
+            } catch (IllegalArgumentException expected) {
+                // Shorter than 32 digits.
+            }
+            try {
+                index.containsHexId("zz" + repeat('0', 30));
+                fail();
+            } catch (IllegalArgumentException expected) {
+                // Not hex.
+            }
+        }
+    }
+
+    @Test
+    public void dirtyFileIsRebuiltOnOpen() throws IOException {
+        File file = new File(folder.getRoot(), "dedup");
+        try (DedupIndex writer = DedupIndex.open(file, 1024)) {
+            for (int i = 1; i <= 100; i++) {
+                writer.add(i, i);
+            }
+            // Not flushed: a second instance sees what a restart after a crash would see.
+            corruptCountAndBloom(file);
+            try (DedupIndex reader = DedupIndex.open(file, 1024)) {
+                assertEquals(100, reader.size());
+                for (int i = 1; i <= 100; i++) {
+                    assertTrue(reader.contains(i, i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void clearEmptiesTheIndex() throws IOException {
+        File file = new File(folder.getRoot(), "dedup");
+        try (DedupIndex index = DedupIndex.open(file, 16)) {
+            index.add(5, 6);
+            index.clear();
+            assertEquals(0, index.size());
+            assertFalse(index.contains(5, 6));
+            assertTrue(index.add(5, 6));
+        }
+    }
+
+    @Test
+    public void rejectsAFileThatIsNotAnIndex() throws IOException {
+        File file = folder.newFile("dedup");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[128]);
+        }
+        try {
+            DedupIndex.open(file).close();
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Not a dedup index"));
+        }
+    }
+
+    /** Zeroes the stored count and the Bloom filter, which a dirty open must not trust. */
+    private static void corruptCountAndBloom(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(12);
+            raf.writeInt(0);
+            raf.seek(64);
+            raf.write(new byte[1024]);
+        }
+    }
+
+    private static String sha256Hex(String input) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    private static String repeat(char c, int times) {
+        StringBuilder sb = new StringBuilder(times);
+        for (int i = 0; i < times; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesAndReadsBackEveryField() throws IOException {
+        File part = folder.newFile("sms.csv.part");
+        new ExportCheckpoint(3, 99, 1_600_000_000_000L, 4096, 97, 0xFFFFFFFFL).write(part);
+
+        ExportCheckpoint read = ExportCheckpoint.read(part);
+        assertNotNull(read);
+        assertEquals(3, read.firstId);
+        assertEquals(99, read.lastId);
+        assertEquals(1_600_000_000_000L, read.lastDate);
+        assertEquals(4096, read.byteOffset);
+        assertEquals(97, read.rowsWritten);
+        assertEquals(0xFFFFFFFFL, read.checksum);
+        assertFalse(new File(folder.getRoot(), "sms.csv.part.checkpoint.tmp").exists());
+    }
+
+    @Test
+    public void unreadableCheckpointsReadAsNull() throws IOException {
+        File part = folder.newFile("sms.csv.part");
+        assertNull(ExportCheckpoint.read(part));
+
+        writeCheckpointFile(part, "version 1\nfirst_id 1\nlast_id 2\nlast_date 3\nbyte_offset 4\nrows_written 2\n");
+        assertNull("no crc32", ExportCheckpoint.read(part));
+        writeCheckpointFile(part, "version 2\nfirst_id 1\nlast_id 2\nlast_date 3\nbyte_offset 4\nrows_written 2\ncrc32 5\n");
+        assertNull("newer version", ExportCheckpoint.read(part));
+        writeCheckpointFile(part, "version 1\nfirst_id 1\nlast_id x\nlast_date 3\nbyte_offset 4\nrows_written 2\ncrc32 5\n");
+        assertNull("not a number", ExportCheckpoint.read(part));
+        writeCheckpointFile(part, "version 1\nfirst_id 1\nlast_id 2\nlast_date 3\nbyte_offset 4\nrows_written 2\ncrc32 5\n"
+                + "compression none\n");
+        assertNotNull("unknown keys are ignored", ExportCheckpoint.read(part));
+    }
+
+    @Test
+    public void resumeTruncatesToTheCheckpointAndContinuesTheChecksum() throws IOException {
+        File part = folder.newFile("sms.csv.part");
+        ExportCheckpoint.Recorder recorder = ExportCheckpoint.start(part);
+        byte[] first = "header\nrow 1\nrow 2\n".getBytes(StandardCharsets.UTF_8);
+        append(part, first);
+        recorder.checkpoint(1, 2, 200, first.length, 2);
+        // Written after the checkpoint when the process died; resume must drop it.
+        append(part, "row 3\nro".getBytes(StandardCharsets.UTF_8));
+
+        ExportCheckpoint.Recorder resumed = ExportCheckpoint.resume(part);
+        assertNotNull(resumed);
+        assertEquals(first.length, part.length());
+        ExportCheckpoint last = resumed.getLast();
+        assertEquals(1, last.firstId);
+        assertEquals(2, last.lastId);
+        assertEquals(2, last.rowsWritten);
+
+        // The next checkpoint must describe the whole file, as if nothing had been interrupted.
+        byte[] rest = "row 3\nrow 4\n".getBytes(StandardCharsets.UTF_8);
+        append(part, rest);
+        resumed.checkpoint(1, 4, 400, part.length(), 4);
+
+        File reference = folder.newFile("reference.part");
+        ExportCheckpoint.Recorder uninterrupted = ExportCheckpoint.start(reference);
+        append(reference, first);
+        append(reference, rest);
+        uninterrupted.checkpoint(1, 4, 400, reference.length(), 4);
+        assertEquals(ExportCheckpoint.read(reference).checksum, ExportCheckpoint.read(part).checksum);
+        assertArrayEquals(Files.readAllBytes(reference.toPath()), Files.readAllBytes(part.toPath()));
+    }
+
+    @Test
+    public void resumeRefusesAPrefixThatChanged() throws IOException {
+        File part = folder.newFile("sms.csv.part");
+        ExportCheckpoint.Recorder recorder = ExportCheckpoint.start(part);
+        append(part, "header\nrow 1\n".getBytes(StandardCharsets.UTF_8));
+        recorder.checkpoint(1, 1, 100, part.length(), 1);
+        long length = part.length();
+
+        try (RandomAccessFile raf = new RandomAccessFile(part, "rw")) {
+            raf.seek(8);
+            raf.write('X');
+        }
+        assertNull(ExportCheckpoint.resume(part));
+        assertEquals("a refused resume must not truncate", length, part.length());
+    }
+
+    @Test
+    public void resumeRefusesAFileShorterThanItsCheckpoint() throws IOException {
+        File part = folder.newFile("sms.csv.part");
+        ExportCheckpoint.Recorder recorder = ExportCheckpoint.start(part);
+        append(part, "header\nrow 1\n".getBytes(StandardCharsets.UTF_8));
+        recorder.checkpoint(1, 1, 100, part.length(), 1);
+        try (RandomAccessFile raf = new RandomAccessFile(part, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertNull(ExportCheckpoint.resume(part));
+    }
+
+    @Test
+    public void startAndDiscardRemoveTheCheckpoint() throws IOException {
+        File part = folder.newFile("sms.csv.part");
+        new ExportCheckpoint(1, 1, 1, 0, 0, 0).write(part);
+        ExportCheckpoint.Recorder recorder = ExportCheckpoint.start(part);
+        assertFalse(ExportCheckpoint.fileFor(part).exists());
+        assertEquals(0, recorder.getLast().byteOffset);
+
+        recorder.checkpoint(0, 0, 0, 0, 0);
+        assertTrue(ExportCheckpoint.fileFor(part).exists());
+        recorder.discard();
+        assertFalse(ExportCheckpoint.fileFor(part).exists());
+    }
+
+    @Test
+    public void checkpointsOnlyMoveForward() throws IOException {
+        File part = folder.newFile("sms.csv.part");
+        ExportCheckpoint.Recorder recorder = ExportCheckpoint.start(part);
+        append(part, new byte[100]);
+        recorder.checkpoint(1, 1, 1, 100, 1);
+        try {
+            recorder.checkpoint(1, 1, 1, 50, 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Already checksummed past 50.
+        }
+    }
+
+    @Test
+    public void deleteAbandonedKeepsOnlyTheResumedExport() throws IOException {
+        File resumed = folder.newFile("sms_backup_20240102_000000.csv.part");
+        new ExportCheckpoint(1, 1, 1, 0, 0, 0).write(resumed);
+        File older = folder.newFile("sms_backup_20240101_000000.csv.part");
+        new ExportCheckpoint(1, 1, 1, 0, 0, 0).write(older);
+        File compressed = folder.newFile("sms_backup_20240101_000000.csv.gz.part");
+        File deletedPart = new File(folder.getRoot(), "sms_backup_20231231_000000.csv.part");
+        writeCheckpointFile(deletedPart, "version 1\n");
+        File orphanCheckpoint = ExportCheckpoint.fileFor(deletedPart);
+        File finished = folder.newFile("sms_backup_20231230_000000.csv");
+        File unrelated = folder.newFile("notes.part");
+        File store = folder.newFolder(BackupFileNames.STORE_DIRECTORY);
+
+        ExportCheckpoint.deleteAbandoned(folder.getRoot(), resumed);
+
+        assertTrue(resumed.exists());
+        assertTrue(ExportCheckpoint.fileFor(resumed).exists());
+        assertFalse(older.exists());
+        assertFalse(ExportCheckpoint.fileFor(older).exists());
+        assertFalse(compressed.exists());
+        assertFalse(orphanCheckpoint.exists());
+        assertTrue(finished.exists());
+        assertTrue(unrelated.exists());
+        assertTrue(store.isDirectory());
+
+        ExportCheckpoint.deleteAbandoned(folder.getRoot(), null);
+        assertFalse(resumed.exists());
+        assertFalse(ExportCheckpoint.fileFor(resumed).exists());
+    }
+
+    private static void append(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(bytes);
+        }
+    }
+
+    private static void writeCheckpointFile(File part, String text) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(ExportCheckpoint.fileFor(part))) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ExportMetricsTest {
+
+    @Test
+    public void percentilesAreWithinABucketOfTheTruth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-uniform from 1 ns to about 10 s.
+            values[i] = (long) Math.pow(10, random.nextDouble() * 10);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double quantile : new double[]{0.01, 0.5, 0.9, 0.99, 1.0}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long reported = histogram.getPercentileNanos(quantile);
+            assertTrue(quantile + ": " + reported + " vs " + exact, reported >= exact && reported <= exact * 1.25 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getMaxNanos());
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void bucketsCoverEveryValueExactlyOnce() {
+        for (long nanos = 0; nanos < 100_000; nanos++) {
+            int bucket = LatencyHistogram.bucketOf(nanos);
+            assertTrue(nanos + " above its bucket", nanos <= LatencyHistogram.bucketUpperBound(bucket));
+            assertTrue(nanos + " below its bucket", bucket == 0 || nanos > LatencyHistogram.bucketUpperBound(bucket - 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void recordsFromSeveralThreads() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 25_000; i++) {
+                        histogram.record(i * 4 + offset);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(99_999, histogram.getMaxNanos());
+        assertEquals(99_999L * 100_000 / 2, histogram.getTotalNanos());
+    }
+
+    @Test
+    public void samplesOneRowInEveryInterval() {
+        ExportMetrics metrics = new ExportMetrics("csv-none");
+        int sampled = 0;
+        for (int i = 0; i < ExportMetrics.SAMPLE_INTERVAL * 100; i++) {
+            if (metrics.sampleRow()) {
+                assertEquals(0, i % ExportMetrics.SAMPLE_INTERVAL);
+                sampled++;
+            }
+        }
+        assertEquals(100, sampled);
+    }
+
+    @Test
+    public void meteredWriterTimesWritesAndFlushes() throws IOException {
+        ExportMetrics metrics = new ExportMetrics("csv-none");
+        StringWriter out = new StringWriter();
+        try (MeteredWriter writer = new MeteredWriter(out, metrics)) {
+            writer.write("abc");
+            writer.write(new char[]{'d', 'e'}, 0, 2);
+            writer.flush();
+        }
+        assertEquals("abcde", out.toString());
+        assertEquals(2, metrics.getHistogram(ExportMetrics.Stage.WRITE).getCount());
+        assertEquals(2, metrics.getHistogram(ExportMetrics.Stage.FLUSH).getCount());
+    }
+
+    @Test
+    public void summarizesOnlyTheStagesThatRan() {
+        ExportMetrics metrics = new ExportMetrics("incremental");
+        metrics.record(ExportMetrics.Stage.QUERY, 9_800_000);
+        metrics.record(ExportMetrics.Stage.INDEX, 1_500);
+        metrics.finish(ExportMetrics.Outcome.COMPLETE, 120, 18_000);
+        metrics.setGcActivity(4, 61, 1, 9);
+
+        String summary = metrics.toString();
+
+        assertTrue(summary, summary.startsWith("incremental complete: 120 rows, 0.0 MB in "));
+        assertTrue(summary, summary.contains("; gc 4 in 61 ms, 1 blocking in 9 ms; query n=1 "));
+        assertTrue(summary, summary.contains("; index n=1 p50=1.5 us p99=1.5 us max=1.5 us"));
+        assertFalse(summary, summary.contains("format"));
+        assertFalse(summary, summary.contains("write"));
+    }
+}
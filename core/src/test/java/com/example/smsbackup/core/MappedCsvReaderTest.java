@@ -0,0 +1,252 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.TimeZone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedCsvReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Each record is one array of fields; {@code null} is a NULL. Quoting is worked out below. */
+    private static final String[][] RECORDS = {
+            {"a", "b", "c"},
+            {"1", null, "-42"},
+            {"He said \"no\"", "\"\"", "\""},
+            {"caf\u00e9", "\u4f60\u597d", "emoji \ud83d\ude00"},
+            {"two\nlines", "cr\r\nlf", ""},
+            {null, null, null},
+            {"9223372036854775807", "-9223372036854775808", "0"},
+            {"\"quoted\" at both ends\"", "x", "\u00fc\"\"\u00fc"},
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsEveryRecordAtEveryWindowSize() throws IOException {
+        for (String lineBreak : new String[]{"\n", "\r\n"}) {
+            byte[] bytes = encode(RECORDS, lineBreak, true);
+            File file = write(bytes);
+            int longest = longestRecord(RECORDS, lineBreak);
+            // Slides every window boundary across every byte: quotes, doubled quotes, CR LF and multi-byte chars.
+            for (int windowSize = Math.max(64, longest + 1); windowSize <= bytes.length + 1; windowSize++) {
+                assertReads("window " + windowSize + " " + lineBreak.length(), file, windowSize, RECORDS, lineBreak);
+            }
+        }
+    }
+
+    @Test
+    public void lastRecordMayLackALineBreak() throws IOException {
+        byte[] bytes = encode(RECORDS, "\n", false);
+        File file = write(bytes);
+        for (int windowSize : new int[]{100, 101, 128, MappedCsvReader.DEFAULT_WINDOW_SIZE}) {
+            assertReads("window " + windowSize, file, windowSize, RECORDS, "\n");
+        }
+    }
+
+    @Test
+    public void readsAnExportedBackup() throws IOException {
+        SmsRow[] rows = TestRows.generate(3_000, 1_600_000_000_000L, 31);
+        TimestampFormatter formatter = new TimestampFormatter(TimeZone.getTimeZone("UTC"));
+        File file = folder.newFile("backup.csv");
+        try (CsvWriter csv = new CsvWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8))) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            for (SmsRow row : rows) {
+                SmsCsvFormat.writeRow(csv, row, formatter);
+            }
+        }
+        for (int windowSize : new int[]{512, 4093, 65_536, MappedCsvReader.DEFAULT_WINDOW_SIZE}) {
+            try (MappedCsvReader reader = MappedCsvReader.open(file, windowSize)) {
+                reader.expectHeader(SmsCsvFormat.HEADER);
+                for (SmsRow row : rows) {
+                    assertTrue(reader.next());
+                    String message = "window " + windowSize + " row " + row.id;
+                    assertEquals(message, SmsRow.COLUMN_COUNT, reader.getFieldCount());
+                    assertEquals(message, isNull(row, SmsRow.THREAD_ID), reader.isNull(SmsRow.THREAD_ID));
+                    if (!isNull(row, SmsRow.THREAD_ID)) {
+                        assertEquals(message, row.threadId, reader.getLong(SmsRow.THREAD_ID));
+                    }
+                    if (!isNull(row, SmsRow.DATE)) {
+                        assertEquals(message, formatter.format(row.date), reader.getField(SmsRow.DATE).toString());
+                    }
+                    assertEquals(message, row.body, isNull(row, SmsRow.BODY) ? null : reader.getField(SmsRow.BODY).toString());
+                }
+                assertFalse(reader.next());
+                assertEquals(file.length(), reader.getOffset());
+                assertEquals(rows.length + 1, reader.getRecordCount());
+            }
+        }
+    }
+
+    @Test
+    public void reportsRecordOffsets() throws IOException {
+        File file = write("ab,c\r\nd\n\"e\nf\",g\n".getBytes(UTF_8));
+        try (MappedCsvReader reader = MappedCsvReader.open(file, 64)) {
+            long[][] expected = {{0, 6}, {6, 8}, {8, 16}};
+            for (long[] offsets : expected) {
+                assertTrue(reader.next());
+                assertEquals(offsets[0], reader.getRecordOffset());
+                assertEquals(offsets[1], reader.getOffset());
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void decodesMalformedUtf8AsReplacementChars() throws IOException {
+        byte[] bytes = {'"', 'a', (byte) 0xC3, '"', ',', '"', (byte) 0xC0, (byte) 0xAF, '"', ',',
+                '"', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '"', ',', '"', (byte) 0x80, 'b', '"', '\n'};
+        try (MappedCsvReader reader = MappedCsvReader.open(write(bytes), 64)) {
+            assertTrue(reader.next());
+            assertEquals("a\ufffd", reader.getField(0).toString());
+            // An overlong form is one malformed sequence, as is an encoded surrogate.
+            assertEquals("\ufffd", reader.getField(1).toString());
+            assertEquals("\ufffd", reader.getField(2).toString());
+            assertEquals("\ufffdb", reader.getField(3).toString());
+        }
+    }
+
+    @Test
+    public void fieldsAreViewsOfTheCurrentRecord() throws IOException {
+        File file = write("\"caf\u00e9\",12,x\n\"na\u00efve\",-3,yz\n".getBytes(UTF_8));
+        try (MappedCsvReader reader = MappedCsvReader.open(file, 64)) {
+            assertTrue(reader.next());
+            CharSequence first = reader.getField(0);
+            assertEquals(4, first.length());
+            assertEquals('\u00e9', first.charAt(3));
+            assertEquals("af", first.subSequence(1, 3).toString());
+            assertEquals(12, reader.getLong(1));
+            try {
+                reader.getLong(2);
+                fail();
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains("field 2 is not a number"));
+            }
+            try {
+                reader.getField(3);
+                fail();
+            } catch (IndexOutOfBoundsException expected) {
+            }
+            assertTrue(reader.next());
+            assertEquals("na\u00efve", first.toString());
+            assertEquals(-3, reader.getLong(1));
+        }
+    }
+
+    @Test
+    public void checksTheHeader() throws IOException {
+        try (MappedCsvReader reader = MappedCsvReader.open(write("a,b\n1,2\n".getBytes(UTF_8)))) {
+            reader.expectHeader(new String[]{"a", "b"});
+            assertTrue(reader.next());
+        }
+        assertHeaderFails("a,c\n", "Unexpected header [a, c]");
+        assertHeaderFails("a,b,c\n", "Unexpected header");
+        assertHeaderFails("", "Empty file");
+    }
+
+    @Test
+    public void rejectsMalformedRecords() throws IOException {
+        assertFails("a,\"b\nc", 64, "unterminated quoted field");
+        assertFails("a,\"b\"c\n", 64, "expected ',' or end of record after field 1");
+        StringBuilder longRecord = new StringBuilder("short\n");
+        for (int i = 0; i < 100; i++) {
+            longRecord.append('x');
+        }
+        longRecord.append('\n');
+        assertFails(longRecord.toString(), 64, "Record 2 at byte 6 is longer than the 64-byte window");
+    }
+
+    private void assertReads(String message, File file, int windowSize, String[][] records, String lineBreak)
+            throws IOException {
+        try (MappedCsvReader reader = MappedCsvReader.open(file, windowSize)) {
+            long offset = 0;
+            for (int r = 0; r < records.length; r++) {
+                String[] record = records[r];
+                assertTrue(message, reader.next());
+                assertEquals(message + " record " + r, offset, reader.getRecordOffset());
+                assertEquals(message + " record " + r, record.length, reader.getFieldCount());
+                for (int i = 0; i < record.length; i++) {
+                    String at = message + " record " + r + " field " + i;
+                    assertEquals(at, record[i] == null, reader.isNull(i));
+                    assertEquals(at, record[i] == null ? "" : record[i], reader.getField(i).toString());
+                }
+                offset += encode(new String[][]{record}, lineBreak, true).length;
+            }
+            assertFalse(message, reader.next());
+            assertFalse(message, reader.next());
+            assertEquals(message, records.length, reader.getRecordCount());
+        }
+    }
+
+    private void assertHeaderFails(String content, String detail) throws IOException {
+        try (MappedCsvReader reader = MappedCsvReader.open(write(content.getBytes(UTF_8)))) {
+            reader.expectHeader(new String[]{"a", "b"});
+            fail(detail);
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(detail));
+        }
+    }
+
+    private void assertFails(String content, int windowSize, String detail) throws IOException {
+        try (MappedCsvReader reader = MappedCsvReader.open(write(content.getBytes(UTF_8)), windowSize)) {
+            while (reader.next()) {
+            }
+            fail(detail);
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(detail));
+        }
+    }
+
+    private File write(byte[] bytes) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    /** Encodes {@code records} the way {@link CsvWriter} does: every non-NULL field quoted. */
+    private static byte[] encode(String[][] records, String lineBreak, boolean finalLineBreak) {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < records.length; r++) {
+            String[] record = records[r];
+            for (int i = 0; i < record.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                if (record[i] != null) {
+                    sb.append('"').append(record[i].replace("\"", "\"\"")).append('"');
+                }
+            }
+            if (finalLineBreak || r < records.length - 1) {
+                sb.append(lineBreak);
+            }
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    private static int longestRecord(String[][] records, String lineBreak) {
+        int longest = 0;
+        for (String[] record : records) {
+            longest = Math.max(longest, encode(new String[][]{record}, lineBreak, true).length);
+        }
+        return longest;
+    }
+
+    private static boolean isNull(SmsRow row, int column) {
+        return (row.nullMask & (1 << column)) != 0;
+    }
+}
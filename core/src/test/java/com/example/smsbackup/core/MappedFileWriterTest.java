@@ -0,0 +1,127 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFileWriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** ASCII, two- and three-byte chars, a surrogate pair and two unpaired surrogates. */
+    private static final String TEXT = "plain, caf\u00e9 \u4f60\u597d \ud83d\ude00 lone \ud83d and \ude00.\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void encodesLikeTheJdkAcrossExtentBoundaries() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append(i).append(' ').append(TEXT);
+        }
+        byte[] expected = text.toString().getBytes(UTF_8);
+        // Tiny extents put a boundary inside every multi-byte sequence sooner or later.
+        for (int extentSize : new int[]{4, 5, 7, 64, 4096, MappedFileWriter.DEFAULT_EXTENT_SIZE}) {
+            File file = folder.newFile();
+            try (MappedFileWriter writer = new MappedFileWriter(file, extentSize)) {
+                writeInPieces(writer, text.toString());
+                assertEquals(expected.length, writer.length());
+            }
+            assertArrayEquals("extentSize " + extentSize, expected, Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Test
+    public void aPairSplitAcrossWritesIsOneCodePoint() throws IOException {
+        File file = folder.newFile();
+        try (MappedFileWriter writer = new MappedFileWriter(file, 64)) {
+            writer.write("a\ud83d");
+            writer.write(new char[]{'\ude00', 'b'});
+            writer.write('\ud83d');
+            writer.write('\ude00');
+            // A high surrogate left at the end becomes '?' on close.
+            writer.write("c\ud83d");
+        }
+        assertEquals("a\ud83d\ude00b\ud83d\ude00c?", new String(Files.readAllBytes(file.toPath()), UTF_8));
+    }
+
+    @Test
+    public void resumeKeepsThePrefixAndDropsTheRest() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), "header\nrow 1\nrow 2 torn".getBytes(UTF_8));
+        try (MappedFileWriter writer = MappedFileWriter.resume(file, 13)) {
+            assertEquals(13, writer.length());
+            writer.write("row 2\n");
+            assertEquals(19, writer.length());
+        }
+        assertEquals("header\nrow 1\nrow 2\n", new String(Files.readAllBytes(file.toPath()), UTF_8));
+
+        try {
+            MappedFileWriter.resume(file, 100);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void createReplacesAnExistingFile() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), new byte[10_000]);
+        try (MappedFileWriter writer = new MappedFileWriter(file, 64)) {
+            writer.write("new");
+        }
+        assertEquals("new", new String(Files.readAllBytes(file.toPath()), UTF_8));
+    }
+
+    @Test
+    public void rejectsWritesAfterClose() throws IOException {
+        MappedFileWriter writer = new MappedFileWriter(folder.newFile(), 64);
+        writer.close();
+        writer.close();
+        try {
+            writer.write("x");
+            fail();
+        } catch (IOException expected) {
+        }
+        try {
+            writer.flush();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    /** Writes {@code text} through all three write overloads in turn, in uneven pieces. */
+    static void writeInPieces(Writer writer, String text) throws IOException {
+        int off = 0;
+        int piece = 0;
+        while (off < text.length()) {
+            int len = Math.min(1 + piece % 13, text.length() - off);
+            switch (piece % 3) {
+                case 0:
+                    writer.write(text, off, len);
+                    break;
+                case 1:
+                    writer.write(text.toCharArray(), off, len);
+                    break;
+                default:
+                    for (int i = off; i < off + len; i++) {
+                        writer.write(text.charAt(i));
+                    }
+                    break;
+            }
+            off += len;
+            piece++;
+        }
+    }
+}
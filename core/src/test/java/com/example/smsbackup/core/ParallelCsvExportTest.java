@@ -0,0 +1,118 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+
+public class ParallelCsvExportTest {
+
+    private static final SmsRow[] ROWS = TestRows.generate(5_000, 1_600_000_000_000L, 12);
+
+    @Test
+    public void writesExactlyWhatOneThreadWrites() throws IOException {
+        String expected = singleThreaded(ROWS, true);
+        int[][] configurations = {{1, 1}, {1, 5_000}, {2, 7}, {3, 100}, {4, ParallelCsvExport.DEFAULT_BATCH_SIZE}, {8, 10_000}};
+        for (int[] configuration : configurations) {
+            StringWriter out = new StringWriter();
+            try (ParallelCsvExport export = new ParallelCsvExport(out, configuration[0], configuration[1])) {
+                SmsRow row = new SmsRow();
+                for (SmsRow source : ROWS) {
+                    // Rows are copied on write, so the caller may reuse one instance.
+                    row.copyFrom(source);
+                    export.write(row);
+                }
+            }
+            assertEquals(configuration[0] + " threads, batches of " + configuration[1], expected, out.toString());
+        }
+    }
+
+    @Test
+    public void leavesTheHeaderOutWhenResuming() throws IOException {
+        StringWriter out = new StringWriter();
+        try (ParallelCsvExport export = new ParallelCsvExport(out, 2, 64, false)) {
+            for (SmsRow row : ROWS) {
+                export.write(row);
+            }
+        }
+        assertEquals(singleThreaded(ROWS, false), out.toString());
+    }
+
+    @Test
+    public void flushWritesEveryRowQueuedSoFar() throws IOException {
+        StringWriter out = new StringWriter();
+        ParallelCsvExport export = new ParallelCsvExport(out, 3, 100);
+        for (int i = 0; i < 1_234; i++) {
+            export.write(ROWS[i]);
+        }
+        export.flush();
+        SmsRow[] firstRows = new SmsRow[1_234];
+        System.arraycopy(ROWS, 0, firstRows, 0, firstRows.length);
+        assertEquals(singleThreaded(firstRows, true), out.toString());
+
+        export.flush();
+        for (int i = 1_234; i < ROWS.length; i++) {
+            export.write(ROWS[i]);
+        }
+        export.close();
+        export.close();
+        assertEquals(singleThreaded(ROWS, true), out.toString());
+    }
+
+    @Test
+    public void anEmptyExportIsJustTheHeader() throws IOException {
+        StringWriter out = new StringWriter();
+        new ParallelCsvExport(out, 2).close();
+        assertEquals(singleThreaded(new SmsRow[0], true), out.toString());
+    }
+
+    @Test
+    public void closeReportsAFailingOutputAndStillClosesIt() throws IOException {
+        final boolean[] closed = new boolean[1];
+        Writer failing = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        ParallelCsvExport export = new ParallelCsvExport(failing, 2, 10);
+        for (int i = 0; i < 5; i++) {
+            export.write(ROWS[i]);
+        }
+        try {
+            export.close();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("disk full", expected.getMessage());
+        }
+        assertTrue(closed[0]);
+    }
+
+    private static String singleThreaded(SmsRow[] rows, boolean writeHeader) throws IOException {
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            if (writeHeader) {
+                csv.writeHeader(SmsCsvFormat.HEADER);
+            }
+            TimestampFormatter formatter = new TimestampFormatter();
+            for (SmsRow row : rows) {
+                SmsCsvFormat.writeRow(csv, row, formatter);
+            }
+        }
+        return out.toString();
+    }
+}
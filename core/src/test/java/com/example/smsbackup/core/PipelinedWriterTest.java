@@ -0,0 +1,202 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class PipelinedWriterTest {
+
+    @Test
+    public void writesEverythingInOrderOnItsOwnThread() throws IOException {
+        RecordingWriter target = new RecordingWriter();
+        StringBuilder expected = new StringBuilder();
+        try (PipelinedWriter writer = new PipelinedWriter(target, 16, 2)) {
+            for (int i = 0; i < 2_000; i++) {
+                String text = "row " + i + ",";
+                expected.append(text);
+                switch (i % 3) {
+                    case 0:
+                        writer.write(text);
+                        break;
+                    case 1:
+                        writer.write(text.toCharArray(), 0, text.length());
+                        break;
+                    default:
+                        for (int j = 0; j < text.length(); j++) {
+                            writer.write(text.charAt(j));
+                        }
+                        break;
+                }
+            }
+        }
+        assertEquals(expected.toString(), target.text());
+        assertTrue(target.closed);
+        assertTrue(target.calledFrom(), target.calledFrom().startsWith("pipelined-writer:write\n"));
+        assertTrue(target.calledFrom(), target.calledFrom().indexOf(Thread.currentThread().getName() + ":") < 0);
+    }
+
+    @Test
+    public void syncWaitsUntilEverythingIsWrittenAndFlushed() throws IOException {
+        RecordingWriter target = new RecordingWriter();
+        PipelinedWriter writer = new PipelinedWriter(target, 8, 4);
+        StringBuilder expected = new StringBuilder();
+        for (int round = 0; round < 50; round++) {
+            String text = "checkpoint " + round + "\n";
+            expected.append(text);
+            writer.write(text);
+            writer.sync();
+            assertEquals(expected.toString(), target.text());
+            assertEquals(round + 1, target.flushes);
+        }
+        writer.close();
+        writer.close();
+        try {
+            writer.write("late");
+            fail();
+        } catch (IOException closed) {
+            assertEquals("Writer closed", closed.getMessage());
+        }
+    }
+
+    @Test
+    public void blocksOnceEveryChunkIsInUse() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingWriter target = new RecordingWriter() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.write(cbuf, off, len);
+            }
+        };
+        final PipelinedWriter writer = new PipelinedWriter(target, 4, 3);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.write("0123456789abcdefghijklmnopqrstuvwxyz");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        producer.join(300);
+        // Three chunks of four chars can't hold 36 chars while the writer thread is stuck.
+        assertTrue(producer.isAlive());
+        release.countDown();
+        producer.join(10_000);
+        assertFalse(producer.isAlive());
+        writer.close();
+        assertEquals("0123456789abcdefghijklmnopqrstuvwxyz", target.text());
+    }
+
+    @Test
+    public void aFailedWriteIsRethrownAndTheTargetStillClosed() throws IOException {
+        RecordingWriter target = new RecordingWriter() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        PipelinedWriter writer = new PipelinedWriter(target, 4, 2);
+        writer.write("abcd");
+        try {
+            writer.sync();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("disk full", expected.getCause().getMessage());
+        }
+        try {
+            writer.write("efgh");
+            writer.close();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("disk full", expected.getCause().getMessage());
+        }
+        writer.close();
+        assertTrue(target.closed);
+    }
+
+    @Test(timeout = 10_000)
+    public void anErrorOnTheWriterThreadIsRethrownToo() throws IOException {
+        RecordingWriter target = new RecordingWriter() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                throw new StackOverflowError();
+            }
+        };
+        PipelinedWriter writer = new PipelinedWriter(target, 4, 2);
+        try {
+            // More chunks than exist: the producer must not wait forever for one to come back.
+            writer.write("0123456789abcdefghij");
+            writer.sync();
+            fail();
+        } catch (IOException expected) {
+            assertTrue(String.valueOf(expected.getCause()), expected.getCause().getCause() instanceof StackOverflowError);
+        }
+        try {
+            writer.close();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertTrue(target.closed);
+    }
+
+    @Test
+    public void rejectsBadSizes() {
+        try {
+            new PipelinedWriter(new RecordingWriter(), 0, 2);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new PipelinedWriter(new RecordingWriter(), 16, 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /** Keeps what it is given and which threads called it. */
+    private static class RecordingWriter extends Writer {
+
+        private final StringBuilder chars = new StringBuilder();
+        private final StringBuilder calledFrom = new StringBuilder();
+        volatile int flushes;
+        volatile boolean closed;
+
+        @Override
+        public synchronized void write(char[] cbuf, int off, int len) throws IOException {
+            chars.append(cbuf, off, len);
+            calledFrom.append(Thread.currentThread().getName()).append(":write\n");
+        }
+
+        @Override
+        public synchronized void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        synchronized String text() {
+            return chars.toString();
+        }
+
+        synchronized String calledFrom() {
+            return calledFrom.toString();
+        }
+    }
+}
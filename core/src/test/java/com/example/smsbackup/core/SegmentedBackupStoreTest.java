@@ -0,0 +1,229 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentedBackupStoreTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void runsAppendToTheActiveSegmentAndSealAtTheThreshold() throws IOException {
+        File directory = folder.newFolder("store");
+        SmsRow[] rows = TestRows.generate(5000, 1_600_000_000_000L, 9);
+        SegmentedBackupStore store = SegmentedBackupStore.open(directory, 256 * 1024);
+        append(store, rows, 0, 1500);
+        append(store, rows, 1500, 5000);
+
+        List<SegmentedBackupStore.Segment> segments = store.getSegments();
+        assertTrue(segments.size() > 1);
+        for (int i = 0; i < segments.size(); i++) {
+            SegmentedBackupStore.Segment segment = segments.get(i);
+            assertEquals(segment.name, i < segments.size() - 1, segment.sealed);
+            assertEquals(segment.name, store.fileOf(segment).length(), segment.bytes);
+            if (segment.sealed) {
+                assertTrue(segment.name, segment.bytes >= 256 * 1024);
+            }
+        }
+        assertEquals(5000, store.getHighWaterMark().lastId);
+        assertEquals(rows[4999].date, store.getHighWaterMark().lastDate);
+
+        // A fresh open sees the same store, and every row reads back in order.
+        SegmentedBackupStore reopened = SegmentedBackupStore.open(directory, 256 * 1024);
+        assertEquals(segments.size(), reopened.getSegments().size());
+        assertEquals(5000, reopened.getHighWaterMark().lastId);
+        assertRows(reopened, Arrays.copyOfRange(rows, 0, 5000));
+    }
+
+    @Test
+    public void runWithoutRowsCommitsNoSegment() throws IOException {
+        File directory = folder.newFolder("store");
+        SegmentedBackupStore store = SegmentedBackupStore.open(directory, 64 * 1024);
+        append(store, new SmsRow[0], 0, 0);
+        assertTrue(store.getSegments().isEmpty());
+        assertEquals(Arrays.asList(SegmentedBackupStore.MANIFEST_NAME), Arrays.asList(directory.list()));
+
+        SmsRow[] rows = TestRows.generate(2000, 1_600_000_000_000L, 10);
+        append(store, rows, 0, 2000);
+        List<SegmentedBackupStore.Segment> before = store.getSegments();
+        assertTrue(before.get(before.size() - 1).rows > 0);
+
+        append(store, rows, 2000, 2000);
+        List<SegmentedBackupStore.Segment> after = store.getSegments();
+        assertEquals(before.size(), after.size());
+        for (SegmentedBackupStore.Segment segment : after) {
+            assertTrue(segment.name, segment.rows > 0);
+        }
+        assertEquals(after.size() + 1, directory.list().length);
+    }
+
+    @Test
+    public void abortRollsBackToTheLastCommit() throws IOException {
+        File directory = folder.newFolder("store");
+        SmsRow[] rows = TestRows.generate(3000, 1_600_000_000_000L, 11);
+        SegmentedBackupStore store = SegmentedBackupStore.open(directory, 64 * 1024);
+        append(store, rows, 0, 1000);
+        List<String> filesBefore = sorted(directory.list());
+
+        try (SegmentedBackupStore.Appender appender = store.openAppender(new TimestampFormatter(UTC))) {
+            for (int i = 1000; i < 3000; i++) {
+                appender.append(rows[i]);
+            }
+            appender.abort();
+        }
+
+        assertEquals(1000, store.getHighWaterMark().lastId);
+        assertEquals(filesBefore, sorted(directory.list()));
+        assertRows(store, Arrays.copyOfRange(rows, 0, 1000));
+    }
+
+    @Test
+    public void openDiscardsWhatAnInterruptedRunLeftBehind() throws IOException {
+        File directory = folder.newFolder("store");
+        SmsRow[] rows = TestRows.generate(1000, 1_600_000_000_000L, 12);
+        SegmentedBackupStore store = SegmentedBackupStore.open(directory, 1024 * 1024);
+        append(store, rows, 0, 500);
+        SegmentedBackupStore.Segment active = store.getSegments().get(0);
+
+        // As if the process died mid-run: rows flushed past the committed length, plus a new segment.
+        try (FileOutputStream out = new FileOutputStream(store.fileOf(active), true)) {
+            out.write("\"1\",\"torn".getBytes(StandardCharsets.UTF_8));
+        }
+        File stray = new File(directory, "segment-999999.csv");
+        assertTrue(stray.createNewFile());
+
+        SegmentedBackupStore reopened = SegmentedBackupStore.open(directory, 1024 * 1024);
+        assertEquals(active.bytes, reopened.fileOf(active).length());
+        assertFalse(stray.exists());
+        append(reopened, rows, 500, 1000);
+        assertRows(reopened, rows);
+    }
+
+    @Test
+    public void rejectsRowsAtOrBelowTheHighWaterMark() throws IOException {
+        SmsRow[] rows = TestRows.generate(10, 1_600_000_000_000L, 13);
+        SegmentedBackupStore store = SegmentedBackupStore.open(folder.newFolder("store"), 64 * 1024);
+        append(store, rows, 0, 10);
+        try (SegmentedBackupStore.Appender appender = store.openAppender(new TimestampFormatter(UTC))) {
+            try {
+                appender.append(rows[9]);
+                fail();
+            } catch (IllegalArgumentException expected) {
+                // _id 10 is already stored.
+            }
+        }
+        assertEquals(10, store.getHighWaterMark().lastId);
+    }
+
+    @Test
+    public void skippedRowsMoveTheHighWaterMark() throws IOException {
+        File directory = folder.newFolder("store");
+        SmsRow[] rows = TestRows.generate(25, 1_600_000_000_000L, 15);
+        SegmentedBackupStore store = SegmentedBackupStore.open(directory, 64 * 1024);
+        append(store, rows, 0, 10);
+
+        try (SegmentedBackupStore.Appender appender = store.openAppender(new TimestampFormatter(UTC))) {
+            appender.append(rows[10]);
+            for (int i = 11; i < 20; i++) {
+                appender.skip(rows[i].id, rows[i].date);
+            }
+            try {
+                appender.skip(rows[15].id, rows[15].date);
+                fail();
+            } catch (IllegalArgumentException expected) {
+                // Already past _id 16.
+            }
+            appender.commit();
+        }
+
+        assertEquals(20, store.getHighWaterMark().lastId);
+        assertEquals(rows[19].date, store.getHighWaterMark().lastDate);
+        SegmentedBackupStore reopened = SegmentedBackupStore.open(directory, 64 * 1024);
+        assertEquals(20, reopened.getHighWaterMark().lastId);
+        assertRows(reopened, Arrays.copyOfRange(rows, 0, 11));
+
+        // A run that only skips still commits the mark, without leaving an empty segment behind.
+        List<String> filesBefore = sorted(directory.list());
+        try (SegmentedBackupStore.Appender appender = reopened.openAppender(new TimestampFormatter(UTC))) {
+            for (int i = 20; i < 25; i++) {
+                appender.skip(rows[i].id, rows[i].date);
+            }
+            appender.commit();
+        }
+        assertEquals(25, SegmentedBackupStore.open(directory, 64 * 1024).getHighWaterMark().lastId);
+        assertEquals(filesBefore, sorted(directory.list()));
+    }
+
+    @Test
+    public void allowsOneWriterAtATime() throws IOException {
+        SegmentedBackupStore store = SegmentedBackupStore.open(folder.newFolder("store"), 64 * 1024);
+        SegmentedBackupStore.Appender first = store.openAppender(new TimestampFormatter(UTC));
+        try {
+            store.openAppender(new TimestampFormatter(UTC));
+            fail();
+        } catch (IllegalStateException expected) {
+            // The first appender is still open.
+        } finally {
+            first.close();
+        }
+        store.openAppender(new TimestampFormatter(UTC)).close();
+    }
+
+    private static void append(SegmentedBackupStore store, SmsRow[] rows, int from, int to) throws IOException {
+        try (SegmentedBackupStore.Appender appender = store.openAppender(new TimestampFormatter(UTC))) {
+            for (int i = from; i < to; i++) {
+                appender.append(rows[i]);
+            }
+            appender.commit();
+        }
+    }
+
+    /** Reads every committed segment back and compares it with {@code expected}, ids aside. */
+    private static void assertRows(SegmentedBackupStore store, SmsRow[] expected) throws IOException {
+        int index = 0;
+        SmsRow row = new SmsRow();
+        for (SegmentedBackupStore.Segment segment : store.getSegments()) {
+            int segmentRows = 0;
+            try (Reader in = new InputStreamReader(new FileInputStream(store.fileOf(segment)), StandardCharsets.UTF_8);
+                 SmsCsvReader reader = new SmsCsvReader(in, new TimestampParser(UTC))) {
+                while (reader.read(row)) {
+                    TestRows.assertRowEquals("row " + index, expected[index], row, false);
+                    index++;
+                    segmentRows++;
+                }
+            }
+            assertEquals(segment.name, segment.rows, segmentRows);
+            assertEquals(segment.name, expected[index - segmentRows].id, segment.firstId);
+            assertEquals(segment.name, expected[index - 1].id, segment.lastId);
+        }
+        assertEquals(expected.length, index);
+    }
+
+    private static List<String> sorted(String[] names) {
+        List<String> list = new ArrayList<>(Arrays.asList(names));
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SmsColumnarTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsEveryColumnAcrossRowGroups() throws IOException {
+        SmsRow[] rows = TestRows.generate(2500, 1_600_000_000_000L, 21);
+        // Non-flag values in flag columns take the FLAG_VARINT path; extremes test the varints.
+        rows[10].read = 2;
+        rows[1700].seen = -1;
+        rows[11].person = Long.MAX_VALUE;
+        rows[12].threadId = Long.MIN_VALUE;
+        File file = write(rows, 1000);
+
+        try (SmsColumnarReader reader = new SmsColumnarReader(file)) {
+            assertEquals(3, reader.getRowGroupCount());
+            assertEquals(2500, reader.getRowCount());
+            int index = 0;
+            for (int g = 0; g < reader.getRowGroupCount(); g++) {
+                SmsColumnarReader.RowGroup group = reader.getRowGroup(g);
+                long minDate = Long.MAX_VALUE;
+                long maxDate = Long.MIN_VALUE;
+                for (int i = index; i < index + group.rows; i++) {
+                    minDate = Math.min(minDate, rows[i].date);
+                    maxDate = Math.max(maxDate, rows[i].date);
+                }
+                assertEquals(rows[index].id, group.firstId);
+                assertEquals(rows[index + group.rows - 1].id, group.lastId);
+                assertEquals(minDate, group.minDate);
+                assertEquals(maxDate, group.maxDate);
+                for (SmsRow row : reader.readRows(g)) {
+                    TestRows.assertRowEquals("row " + index, rows[index], row, true);
+                    index++;
+                }
+            }
+            assertEquals(rows.length, index);
+        }
+    }
+
+    @Test
+    public void readsASingleColumnOnItsOwn() throws IOException {
+        SmsRow[] rows = TestRows.generate(300, 1_600_000_000_000L, 22);
+        try (SmsColumnarReader reader = new SmsColumnarReader(write(rows, 128))) {
+            SmsColumnarReader.Column bodies = reader.readColumn(2, SmsRow.BODY);
+            assertEquals(300 - 256, bodies.size());
+            for (int i = 0; i < bodies.size(); i++) {
+                assertEquals(rows[256 + i].isNull(SmsRow.BODY), bodies.isNull(i));
+                assertEquals(rows[256 + i].body, bodies.getString(i));
+            }
+            SmsColumnarReader.Column ids = reader.readColumn(1, SmsColumnarFormat.ID);
+            assertEquals(129, ids.getLong(0));
+            try {
+                ids.getString(0);
+                fail();
+            } catch (IllegalStateException expected) {
+                // _id is an integer column.
+            }
+        }
+    }
+
+    @Test
+    public void emptyExportHasNoRowGroups() throws IOException {
+        try (SmsColumnarReader reader = new SmsColumnarReader(write(new SmsRow[0], 16))) {
+            assertEquals(0, reader.getRowGroupCount());
+            assertEquals(0, reader.getRowCount());
+        }
+    }
+
+    @Test
+    public void rejectsAFileWithoutItsFooter() throws IOException {
+        File file = write(TestRows.generate(100, 1_600_000_000_000L, 23), 64);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertOpenFails(file, "did not finish");
+    }
+
+    @Test
+    public void rejectsAChunkIndexPointingPastTheData() throws IOException {
+        File file = write(TestRows.generate(100, 1_600_000_000_000L, 24), 64);
+        // The first chunk offset follows the footer's version, group count and group summary.
+        long footerStart;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 8);
+            footerStart = raf.length() - 8 - raf.readInt();
+            raf.seek(footerStart + 1 + 4 + 4 + 4 * 8);
+            raf.writeLong(footerStart);
+        }
+        assertOpenFails(file, "Corrupt chunk index");
+    }
+
+    @Test
+    public void corruptChunkFailsWithAnIOException() throws IOException {
+        File file = write(TestRows.generate(100, 1_600_000_000_000L, 25), 64);
+        long offset;
+        int length;
+        try (SmsColumnarReader reader = new SmsColumnarReader(file)) {
+            SmsColumnarReader.RowGroup group = reader.getRowGroup(0);
+            offset = group.chunkOffsets[SmsRow.BODY];
+            length = group.chunkLengths[SmsRow.BODY];
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Varint continuation bits all the way: a length that never ends.
+            raf.seek(offset + 1);
+            byte[] garbage = new byte[length - 1];
+            Arrays.fill(garbage, (byte) 0xFF);
+            raf.write(garbage);
+        }
+        try (SmsColumnarReader reader = new SmsColumnarReader(file)) {
+            reader.readColumn(0, SmsRow.ADDRESS);
+            try {
+                reader.readRows(0);
+                fail();
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains("column " + SmsRow.BODY));
+            }
+        }
+    }
+
+    @Test
+    public void unknownEncodingTagsFailWithAnIOException() throws IOException {
+        SmsRow[] rows = TestRows.generate(100, 1_600_000_000_000L, 26);
+        for (SmsRow row : rows) {
+            // No NULLs, so the flag tag directly follows the null tag.
+            row.nullMask &= ~(1 << SmsRow.SEEN);
+            row.seen = 1;
+        }
+        File file = write(rows, 64);
+        long seenOffset;
+        long bodyOffset;
+        try (SmsColumnarReader reader = new SmsColumnarReader(file)) {
+            seenOffset = reader.getRowGroup(0).chunkOffsets[SmsRow.SEEN];
+            bodyOffset = reader.getRowGroup(1).chunkOffsets[SmsRow.BODY];
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(seenOffset + 1);
+            raf.write(SmsColumnarFormat.FLAG_VARINT + 1);
+            raf.seek(bodyOffset);
+            raf.write(SmsColumnarFormat.NULLS_PRESENT + 1);
+        }
+        try (SmsColumnarReader reader = new SmsColumnarReader(file)) {
+            assertReadFails(reader, 0, SmsRow.SEEN, "Unknown flag encoding 2");
+            assertReadFails(reader, 1, SmsRow.BODY, "Unknown null encoding 2");
+            assertEquals(64, reader.readColumn(0, SmsRow.BODY).size());
+        }
+    }
+
+    private static void assertReadFails(SmsColumnarReader reader, int group, int column, String cause)
+            throws IOException {
+        try {
+            reader.readColumn(group, column);
+            fail();
+        } catch (IOException expected) {
+            assertEquals(cause, expected.getCause().getMessage());
+        }
+    }
+
+    private File write(SmsRow[] rows, int rowGroupSize) throws IOException {
+        File file = folder.newFile();
+        try (SmsColumnarWriter writer = new SmsColumnarWriter(new FileOutputStream(file), rowGroupSize)) {
+            for (SmsRow row : rows) {
+                writer.write(row);
+            }
+        }
+        return file;
+    }
+
+    private static void assertOpenFails(File file, String message) throws IOException {
+        try {
+            new SmsColumnarReader(file).close();
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(message));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class SmsCsvFormatTest {
+
+    private final TimestampFormatter formatter = new TimestampFormatter(TimeZone.getTimeZone("UTC"));
+
+    @Test
+    public void writesTheSixteenColumnsInHeaderOrder() throws IOException {
+        SmsRow row = new SmsRow();
+        row.id = 99;
+        row.threadId = 3;
+        row.address = "+15551234567";
+        row.person = 12;
+        row.date = 1_000_000_000_000L;
+        row.dateSent = 999_999_999_000L;
+        row.protocol = 0;
+        row.read = 1;
+        row.status = -1;
+        row.type = 2;
+        row.replyPathPresent = 0;
+        row.subject = "Re";
+        row.body = "Hi, \"you\"";
+        row.serviceCenter = "+15550000000";
+        row.locked = 0;
+        row.errorCode = 0;
+        row.seen = 1;
+
+        assertEquals("\"3\",\"+15551234567\",\"12\",\"2001-09-09 01:46:40\",\"2001-09-09 01:46:39\","
+                + "\"0\",\"1\",\"-1\",\"2\",\"0\",\"Re\",\"Hi, \"\"you\"\"\",\"+15550000000\",\"0\",\"0\",\"1\"\n",
+                write(row));
+    }
+
+    @Test
+    public void nullColumnsAreEmptyFieldsDatesIncluded() throws IOException {
+        SmsRow row = new SmsRow();
+        for (int column = 0; column < SmsRow.COLUMN_COUNT; column++) {
+            TestRows.setNull(row, column);
+        }
+        assertEquals(",,,,,,,,,,,,,,,\n", write(row));
+
+        row.nullMask = 1 << SmsRow.DATE_SENT;
+        row.date = 0;
+        assertEquals("\"0\",,\"0\",\"1970-01-01 00:00:00\",,", write(row).substring(0, 32));
+    }
+
+    private String write(SmsRow row) throws IOException {
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            SmsCsvFormat.writeRow(csv, row, formatter);
+        }
+        return out.toString();
+    }
+}
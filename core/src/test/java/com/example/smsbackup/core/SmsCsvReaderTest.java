@@ -0,0 +1,142 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class SmsCsvReaderTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone ZONE = TimeZone.getTimeZone("America/New_York");
+
+    @Test
+    public void readsBackWhatTheExportWrote() throws IOException {
+        SmsRow[] rows = TestRows.generate(2_000, 1_600_000_000_000L, 21);
+        String csv = export(rows, UTC);
+        for (int bufferSize : new int[]{64, 65, 1000, SmsCsvReader.DEFAULT_BUFFER_SIZE}) {
+            assertReadsBack("bufferSize " + bufferSize, rows, new StringReader(csv), bufferSize);
+        }
+    }
+
+    @Test
+    public void toleratesShortReads() throws IOException {
+        SmsRow[] rows = TestRows.generate(300, 1_600_000_000_000L, 22);
+        assertReadsBack("short reads", rows, new TrickleReader(new StringReader(export(rows, UTC))), 64);
+    }
+
+    @Test
+    public void readsRowsThatSpanTheDstSwitch() throws IOException {
+        SmsRow[] rows = TestRows.generate(500, 1_636_250_000_000L, 23);
+        SmsCsvReader reader = new SmsCsvReader(new StringReader(export(rows, ZONE)), new TimestampParser(ZONE));
+        TimestampFormatter formatter = new TimestampFormatter(ZONE);
+        SmsRow row = new SmsRow();
+        for (SmsRow expected : rows) {
+            assertTrue(reader.read(row));
+            // The repeated hour may come back as its other instant, which still writes the same text.
+            assertEquals(formatter.format(expected.date), formatter.format(row.date));
+            assertEquals(formatter.format(expected.dateSent), formatter.format(row.dateSent));
+        }
+        assertFalse(reader.read(row));
+    }
+
+    @Test
+    public void headerOnlyHasNoRecords() throws IOException {
+        SmsCsvReader reader = reader(export(new SmsRow[0], UTC));
+        assertFalse(reader.read(new SmsRow()));
+        assertEquals(0, reader.getRecordCount());
+    }
+
+    @Test
+    public void rejectsFilesThatAreNotBackups() throws IOException {
+        assertFails("", "Empty file");
+        assertFails("a,b,c\n", "expected 16 columns");
+        assertFails(String.join(",", SmsCsvFormat.HEADER).replace("Body", "Text") + "\n", "unexpected header");
+    }
+
+    @Test
+    public void reportsWhereARecordIsMalformed() throws IOException {
+        String header = String.join(",", SmsCsvFormat.HEADER) + "\n";
+        String good = "\"3\",\"+1555\",\"12\",\"2001-09-09 01:46:40\",,\"0\",\"1\",\"-1\",\"2\",\"0\",,"
+                + "\"two\nlines\",,\"0\",\"0\",\"1\"\n";
+        SmsCsvReader reader = reader(header + good + good.replace("\"1\"\n", "\"1\"\r\n"));
+        SmsRow row = new SmsRow();
+        assertTrue(reader.read(row));
+        assertEquals("two\nlines", row.body);
+        assertTrue(reader.read(row));
+        assertFalse(reader.read(row));
+
+        assertFails(header + good + good.replace("\"12\"", "\"1x\""), "line 4 (record 2): bad Person");
+        assertFails(header + good.replace("\"2001-09-09 01:46:40\"", "\"yesterday\""), "bad Date");
+        assertFails(header + good.replace(",\"1\"\n", "\n"), "expected ','");
+        assertFails(header + good.replace("\"1\"\n", "\"1\",\"extra\"\n"), "expected end of record");
+        assertFails(header + good.substring(0, good.indexOf("lines")), "unterminated quoted field");
+    }
+
+    private static void assertReadsBack(String message, SmsRow[] rows, Reader in, int bufferSize) throws IOException {
+        try (SmsCsvReader reader = new SmsCsvReader(in, new TimestampParser(UTC), bufferSize)) {
+            SmsRow row = new SmsRow();
+            for (int i = 0; i < rows.length; i++) {
+                assertTrue(message, reader.read(row));
+                TestRows.assertRowEquals(message + " row " + i, rows[i], row, true);
+            }
+            assertFalse(message, reader.read(row));
+            assertEquals(message, rows.length, reader.getRecordCount());
+        }
+    }
+
+    private static void assertFails(String csv, String detail) {
+        try {
+            SmsCsvReader reader = reader(csv);
+            SmsRow row = new SmsRow();
+            while (reader.read(row)) {
+            }
+            fail(detail);
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(detail));
+        }
+    }
+
+    private static SmsCsvReader reader(String csv) {
+        return new SmsCsvReader(new StringReader(csv), new TimestampParser(ZONE), 64);
+    }
+
+    private static String export(SmsRow[] rows, TimeZone zone) throws IOException {
+        TimestampFormatter formatter = new TimestampFormatter(zone);
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out, 100)) {
+            csv.writeHeader(SmsCsvFormat.HEADER);
+            for (SmsRow row : rows) {
+                SmsCsvFormat.writeRow(csv, row, formatter);
+            }
+        }
+        return out.toString();
+    }
+
+    /** Hands out at most three chars per read, with the odd empty read in between. */
+    private static final class TrickleReader extends FilterReader {
+
+        private int calls;
+
+        TrickleReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (++calls % 5 == 0) {
+                return 0;
+            }
+            return super.read(cbuf, off, Math.min(len, 3));
+        }
+    }
+}
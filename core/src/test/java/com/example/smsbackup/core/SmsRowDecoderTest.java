@@ -0,0 +1,151 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SmsRowDecoderTest {
+
+    @Test
+    public void decodesEveryColumnWhateverTheCursorOrder() {
+        // Reversed, with an extra column, so a decoder that assumed projection order would misread.
+        List<String> names = new ArrayList<>(Arrays.asList(SmsColumns.EXPORT_PROJECTION));
+        names.add("creator");
+        Collections.reverse(names);
+        SmsRow expected = TestRows.generate(1, 1_600_000_000_000L, 1)[0];
+        expected.nullMask = 0;
+        expected.subject = "Hello";
+        MapCursor cursor = new MapCursor(names);
+        cursor.set(SmsColumns.ID, 42L);
+        cursor.set(SmsColumns.THREAD_ID, expected.threadId);
+        cursor.set(SmsColumns.ADDRESS, expected.address);
+        cursor.set(SmsColumns.PERSON, expected.person);
+        cursor.set(SmsColumns.DATE, expected.date);
+        cursor.set(SmsColumns.DATE_SENT, expected.dateSent);
+        cursor.set(SmsColumns.PROTOCOL, (long) expected.protocol);
+        cursor.set(SmsColumns.READ, (long) expected.read);
+        cursor.set(SmsColumns.STATUS, (long) expected.status);
+        cursor.set(SmsColumns.TYPE, (long) expected.type);
+        cursor.set(SmsColumns.REPLY_PATH_PRESENT, (long) expected.replyPathPresent);
+        cursor.set(SmsColumns.SUBJECT, expected.subject);
+        cursor.set(SmsColumns.BODY, expected.body);
+        cursor.set(SmsColumns.SERVICE_CENTER, expected.serviceCenter);
+        cursor.set(SmsColumns.LOCKED, (long) expected.locked);
+        cursor.set(SmsColumns.ERROR_CODE, (long) expected.errorCode);
+        cursor.set(SmsColumns.SEEN, (long) expected.seen);
+        cursor.set("creator", "com.example.other");
+
+        SmsRow row = new SmsRow();
+        new SmsRowDecoder(cursor).decode(row);
+
+        assertEquals(42L, row.id);
+        TestRows.assertRowEquals("row", expected, row, false);
+    }
+
+    @Test
+    public void nullCellsSetTheMaskAndReadAsZero() {
+        MapCursor cursor = new MapCursor(Arrays.asList(SmsColumns.EXPORT_PROJECTION));
+        cursor.set(SmsColumns.ID, 7L);
+        cursor.set(SmsColumns.BODY, "");
+        SmsRowDecoder decoder = new SmsRowDecoder(cursor);
+        SmsRow row = new SmsRow();
+        row.person = 99;
+        row.address = "stale";
+
+        decoder.decode(row);
+
+        assertEquals(7L, row.id);
+        for (int column = 0; column < SmsRow.COLUMN_COUNT; column++) {
+            assertEquals("column " + column, column != SmsRow.BODY, row.isNull(column));
+        }
+        assertEquals(0, row.person);
+        assertNull(row.address);
+        assertEquals("", row.body);
+    }
+
+    @Test
+    public void reusedRowDropsTheNullsOfThePreviousRow() {
+        MapCursor cursor = new MapCursor(Arrays.asList(SmsColumns.EXPORT_PROJECTION));
+        SmsRowDecoder decoder = new SmsRowDecoder(cursor);
+        SmsRow row = new SmsRow();
+        decoder.decode(row);
+        assertTrue(row.isNull(SmsRow.DATE));
+
+        cursor.set(SmsColumns.DATE, 1_500_000_000_000L);
+        cursor.set(SmsColumns.ADDRESS, "+15550000000");
+        decoder.decode(row);
+
+        assertFalse(row.isNull(SmsRow.DATE));
+        assertFalse(row.isNull(SmsRow.ADDRESS));
+        assertTrue(row.isNull(SmsRow.DATE_SENT));
+        assertEquals(1_500_000_000_000L, row.date);
+    }
+
+    @Test
+    public void missingColumnFailsWhenTheDecoderIsCreated() {
+        List<String> names = new ArrayList<>(Arrays.asList(SmsColumns.EXPORT_PROJECTION));
+        names.remove(SmsColumns.DATE_SENT);
+        try {
+            new SmsRowDecoder(new MapCursor(names));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(SmsColumns.DATE_SENT));
+        }
+    }
+
+    /** A one-row cursor whose cells start out NULL. */
+    private static final class MapCursor implements RowCursor {
+
+        private final List<String> names;
+        private final Object[] cells;
+
+        MapCursor(List<String> names) {
+            this.names = names;
+            this.cells = new Object[names.size()];
+        }
+
+        void set(String name, Object value) {
+            cells[getColumnIndexOrThrow(name)] = value;
+        }
+
+        @Override
+        public int getColumnIndexOrThrow(String columnName) {
+            int index = names.indexOf(columnName);
+            if (index < 0) {
+                throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+            }
+            return index;
+        }
+
+        @Override
+        public boolean isNull(int columnIndex) {
+            return cells[columnIndex] == null;
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            Object value = cells[columnIndex];
+            return value == null ? 0 : (Long) value;
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            return (int) getLong(columnIndex);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            Object value = cells[columnIndex];
+            return value == null ? null : value.toString();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SmsSearchIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsMessagesContainingEveryWordNewestFirst() throws IOException {
+        SmsSearchIndex index = SmsSearchIndex.open(folder.newFolder("index"));
+        try (SmsSearchIndex.Indexer indexer = index.openIndexer()) {
+            indexer.add(row(1, "Dinner", "Dinner at 7?"));
+            indexer.add(row(2, null, "Running late, dinner at 8"));
+            indexer.add(row(3, null, "Your code is 123456"));
+            indexer.add(row(4, null, "DINNER tomorrow instead"));
+            assertEquals("nothing is visible before commit", 0, index.search("dinner", 10).length);
+            indexer.commit();
+        }
+
+        assertArrayEquals(new long[]{4, 2, 1}, index.search("dinner", 10));
+        assertArrayEquals(new long[]{2, 1}, index.search("Dinner AT", 10));
+        assertArrayEquals(new long[]{4}, index.search("dinner", 1));
+        assertArrayEquals(new long[]{3}, index.search("123456", 10));
+        assertEquals(0, index.search("dinner lunch", 10).length);
+        assertEquals(0, index.search("  ,. ", 10).length);
+        assertEquals(4, index.size());
+        assertEquals(4, index.getHighWaterMark().lastId);
+    }
+
+    @Test
+    public void ignoresRowsAtOrBelowTheHighWaterMark() throws IOException {
+        File directory = folder.newFolder("index");
+        SmsSearchIndex index = SmsSearchIndex.open(directory);
+        addAndCommit(index, 1, 10);
+
+        try (SmsSearchIndex.Indexer indexer = index.openIndexer()) {
+            // A resumed or repeated export feeds the same rows again; only the new ones count.
+            for (int id = 1; id <= 15; id++) {
+                indexer.add(row(id, null, "word" + id + " common"));
+            }
+            indexer.commit();
+        }
+        assertEquals(15, index.size());
+        assertEquals(15, index.search("common", 100).length);
+        assertArrayEquals(new long[]{7}, index.search("word7", 100));
+    }
+
+    @Test
+    public void mergesOnceThereAreTooManySegments() throws IOException {
+        File directory = folder.newFolder("index");
+        SmsSearchIndex index = SmsSearchIndex.open(directory);
+        List<long[]> before = new ArrayList<>();
+        for (int run = 0; run < SmsSearchIndex.MAX_SEGMENTS; run++) {
+            addAndCommit(index, run * 10 + 1, run * 10 + 10);
+        }
+        assertEquals(SmsSearchIndex.MAX_SEGMENTS, segmentFiles(directory).length);
+        before.add(index.search("common", 1000));
+        before.add(index.search("word35", 1000));
+
+        addAndCommit(index, 81, 90);
+
+        assertEquals(1, segmentFiles(directory).length);
+        assertEquals(90, index.size());
+        long[] common = index.search("common", 1000);
+        assertEquals(90, common.length);
+        assertEquals(90, common[0]);
+        assertEquals(1, common[89]);
+        assertArrayEquals(Arrays.copyOfRange(common, 10, 90), before.get(0));
+        assertArrayEquals(before.get(1), index.search("word35", 1000));
+
+        SmsSearchIndex reopened = SmsSearchIndex.open(directory);
+        assertArrayEquals(common, reopened.search("common", 1000));
+    }
+
+    @Test
+    public void mergeKeepsEveryPostingOfTermsSpreadOverSomeSegments() throws IOException {
+        File directory = folder.newFolder("index");
+        SmsSearchIndex index = SmsSearchIndex.open(directory);
+        String[] words = {"alpha", "beta", "gamma", "\u00e9t\u00e9", "\u65e5\u672c", "zulu"};
+        Random random = new Random(21);
+        long id = 0;
+        for (int run = 0; run < SmsSearchIndex.MAX_SEGMENTS; run++) {
+            try (SmsSearchIndex.Indexer indexer = index.openIndexer()) {
+                for (int i = 0; i < 300; i++) {
+                    // Gaps of every varint width, so the merge has to re-encode the first deltas.
+                    id += 1 + random.nextInt(1 << random.nextInt(24));
+                    StringBuilder body = new StringBuilder();
+                    for (int w = run % 3; w < words.length; w += 1 + random.nextInt(3)) {
+                        body.append(words[w]).append(' ');
+                    }
+                    indexer.add(row(id, null, body.toString()));
+                }
+                indexer.commit();
+            }
+        }
+        assertEquals(SmsSearchIndex.MAX_SEGMENTS, segmentFiles(directory).length);
+        List<long[]> before = new ArrayList<>();
+        for (String word : words) {
+            before.add(index.search(word, Integer.MAX_VALUE));
+        }
+
+        try (SmsSearchIndex.Indexer indexer = index.openIndexer()) {
+            indexer.add(row(id + 1, null, "omega"));
+            indexer.commit();
+        }
+
+        assertEquals(1, segmentFiles(directory).length);
+        assertEquals(SmsSearchIndex.MAX_SEGMENTS * 300 + 1, index.size());
+        assertEquals(id + 1, index.getHighWaterMark().lastId);
+        SmsSearchIndex reopened = SmsSearchIndex.open(directory);
+        for (int w = 0; w < words.length; w++) {
+            assertArrayEquals(words[w], before.get(w), reopened.search(words[w], Integer.MAX_VALUE));
+        }
+        assertArrayEquals(new long[]{id + 1}, reopened.search("omega", 10));
+    }
+
+    @Test
+    public void indexerReportsTheNewestIdAdded() throws IOException {
+        SmsSearchIndex index = SmsSearchIndex.open(folder.newFolder("index"));
+        addAndCommit(index, 1, 10);
+        try (SmsSearchIndex.Indexer indexer = index.openIndexer()) {
+            assertEquals(10, indexer.getLastId());
+            indexer.add(row(5, null, "already indexed"));
+            assertEquals(10, indexer.getLastId());
+            indexer.add(row(12, null, "new"));
+            assertEquals(12, indexer.getLastId());
+        }
+    }
+
+    @Test
+    public void openDropsMergeInputsLeftBehindAndTemporaryFiles() throws IOException {
+        File directory = folder.newFolder("index");
+        File saved = folder.newFolder("saved");
+        SmsSearchIndex index = SmsSearchIndex.open(directory);
+        for (int run = 0; run <= SmsSearchIndex.MAX_SEGMENTS; run++) {
+            if (run == SmsSearchIndex.MAX_SEGMENTS) {
+                for (File file : segmentFiles(directory)) {
+                    Files.copy(file.toPath(), new File(saved, file.getName()).toPath());
+                }
+            }
+            addAndCommit(index, run * 10 + 1, run * 10 + 10);
+        }
+        long[] expected = index.search("common", 1000);
+        // A merge that wrote its result but died before deleting its inputs, plus a torn spill.
+        for (File file : saved.listFiles()) {
+            Files.copy(file.toPath(), new File(directory, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        File temp = new File(directory, "segment-000999.idx.tmp");
+        assertTrue(temp.createNewFile());
+
+        SmsSearchIndex reopened = SmsSearchIndex.open(directory);
+
+        assertArrayEquals(expected, reopened.search("common", 1000));
+        assertEquals(90, reopened.size());
+        assertEquals(1, segmentFiles(directory).length);
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    public void openDeletesUnreadableSegments() throws IOException {
+        File directory = folder.newFolder("index");
+        addAndCommit(SmsSearchIndex.open(directory), 1, 5);
+        File garbage = new File(directory, "segment-000050.idx");
+        Files.write(garbage.toPath(), new byte[]{1, 2, 3});
+
+        SmsSearchIndex reopened = SmsSearchIndex.open(directory);
+        assertEquals(5, reopened.size());
+        assertFalse(garbage.exists());
+    }
+
+    @Test
+    public void abortDropsEverythingSinceTheLastCommit() throws IOException {
+        File directory = folder.newFolder("index");
+        SmsSearchIndex index = SmsSearchIndex.open(directory);
+        try (SmsSearchIndex.Indexer indexer = index.openIndexer()) {
+            indexer.add(row(1, null, "kept"));
+            indexer.commit();
+            indexer.add(row(2, null, "dropped"));
+        }
+        assertEquals(0, index.search("dropped", 10).length);
+        assertEquals(1, SmsSearchIndex.open(directory).size());
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void failedCommitLeavesNothingBehind() throws IOException {
+        File directory = folder.newFolder("index");
+        SmsSearchIndex index = SmsSearchIndex.open(directory);
+        SmsSearchIndex.Indexer indexer = index.openIndexer();
+        // Enough distinct words to spill more than once, so the commit renames several segments.
+        for (int id = 1; id <= 250_000; id++) {
+            indexer.add(row(id, null, "unique" + id + " common"));
+        }
+        // The second segment can't take its final name: a directory is in the way.
+        File blocker = new File(directory, "segment-000002.idx");
+        assertTrue(blocker.mkdir());
+        try {
+            indexer.commit();
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("segment-000002.idx"));
+        }
+        assertEquals(0, index.search("common", 10).length);
+        assertFalse(new File(directory, "segment-000001.idx").exists());
+
+        indexer.abort();
+        assertTrue(blocker.delete());
+        assertEquals(0, directory.list().length);
+        SmsSearchIndex reopened = SmsSearchIndex.open(directory);
+        assertEquals(0, reopened.size());
+        assertEquals(0, reopened.getHighWaterMark().lastId);
+    }
+
+    @Test
+    public void clearEmptiesTheIndex() throws IOException {
+        File directory = folder.newFolder("index");
+        SmsSearchIndex index = SmsSearchIndex.open(directory);
+        addAndCommit(index, 1, 5);
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(0, segmentFiles(directory).length);
+        addAndCommit(index, 1, 3);
+        assertEquals(3, index.search("common", 10).length);
+    }
+
+    private static void addAndCommit(SmsSearchIndex index, int fromId, int toId) throws IOException {
+        try (SmsSearchIndex.Indexer indexer = index.openIndexer()) {
+            for (int id = fromId; id <= toId; id++) {
+                indexer.add(row(id, null, "word" + id + " common"));
+            }
+            indexer.commit();
+        }
+    }
+
+    private static File[] segmentFiles(File directory) {
+        File[] files = directory.listFiles();
+        List<File> segments = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".idx")) {
+                segments.add(file);
+            }
+        }
+        return segments.toArray(new File[0]);
+    }
+
+    private static SmsRow row(long id, String subject, String body) {
+        SmsRow row = new SmsRow();
+        row.id = id;
+        row.date = 1_600_000_000_000L + id * 1000;
+        row.subject = subject;
+        row.body = body;
+        return row;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+/** Random but reproducible {@link SmsRow}s for the format tests, and a field-by-field comparison. */
+final class TestRows {
+
+    private static final String[] BODIES = {
+            "", "ok", "See you at 7", "He said \"no\", then left", "line one\nline two\r\nline three",
+            "comma, separated, text", "caf\u00e9 \u00fcber na\u00efve", "\u4f60\u597d\uff0c\u4e16\u754c",
+            "emoji \ud83d\ude00\ud83d\udc4d", "tab\there", "\"\"", ",", "\n",
+    };
+
+    private TestRows() {
+    }
+
+    /**
+     * Returns {@code count} rows with ascending ids from 1 and dates a few minutes apart from
+     * {@code startMillis}. About one row in ten has each nullable column NULL.
+     */
+    static SmsRow[] generate(int count, long startMillis, long seed) {
+        Random random = new Random(seed);
+        SmsRow[] rows = new SmsRow[count];
+        long date = startMillis;
+        for (int i = 0; i < count; i++) {
+            SmsRow row = new SmsRow();
+            row.id = i + 1;
+            date += 1000L * random.nextInt(600);
+            row.threadId = 1 + random.nextInt(50);
+            row.address = "+1555" + (1000000 + random.nextInt(9000000));
+            row.person = random.nextInt(200);
+            row.date = date;
+            row.dateSent = date - 1000L * random.nextInt(30);
+            row.protocol = 0;
+            row.read = random.nextInt(2);
+            row.status = -1;
+            row.type = 1 + random.nextInt(2);
+            row.replyPathPresent = random.nextInt(2);
+            row.subject = "Re: " + i;
+            if (random.nextInt(4) != 0) {
+                setNull(row, SmsRow.SUBJECT);
+            }
+            row.body = BODIES[random.nextInt(BODIES.length)] + " #" + i;
+            row.serviceCenter = "+1555000" + random.nextInt(10);
+            row.locked = 0;
+            row.errorCode = random.nextInt(20) == 0 ? 65 : 0;
+            row.seen = 1;
+            for (int column = 0; column < SmsRow.COLUMN_COUNT; column++) {
+                if (random.nextInt(10) == 0) {
+                    setNull(row, column);
+                }
+            }
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    /** Makes {@code column} NULL the way {@link SmsRowDecoder} would: mask bit set, value cleared. */
+    static void setNull(SmsRow row, int column) {
+        row.nullMask |= 1 << column;
+        switch (column) {
+            case SmsRow.THREAD_ID: row.threadId = 0; break;
+            case SmsRow.ADDRESS: row.address = null; break;
+            case SmsRow.PERSON: row.person = 0; break;
+            case SmsRow.DATE: row.date = 0; break;
+            case SmsRow.DATE_SENT: row.dateSent = 0; break;
+            case SmsRow.PROTOCOL: row.protocol = 0; break;
+            case SmsRow.READ: row.read = 0; break;
+            case SmsRow.STATUS: row.status = 0; break;
+            case SmsRow.TYPE: row.type = 0; break;
+            case SmsRow.REPLY_PATH_PRESENT: row.replyPathPresent = 0; break;
+            case SmsRow.SUBJECT: row.subject = null; break;
+            case SmsRow.BODY: row.body = null; break;
+            case SmsRow.SERVICE_CENTER: row.serviceCenter = null; break;
+            case SmsRow.LOCKED: row.locked = 0; break;
+            case SmsRow.ERROR_CODE: row.errorCode = 0; break;
+            case SmsRow.SEEN: row.seen = 0; break;
+            default: throw new AssertionError(column);
+        }
+    }
+
+    /** Asserts every exported column and the null mask match; the id only if {@code withId}. */
+    static void assertRowEquals(String message, SmsRow expected, SmsRow actual, boolean withId) {
+        if (withId) {
+            assertEquals(message + " id", expected.id, actual.id);
+        }
+        assertEquals(message + " nullMask", expected.nullMask, actual.nullMask);
+        assertEquals(message + " threadId", expected.threadId, actual.threadId);
+        assertEquals(message + " address", expected.address, actual.address);
+        assertEquals(message + " person", expected.person, actual.person);
+        assertEquals(message + " date", expected.date, actual.date);
+        assertEquals(message + " dateSent", expected.dateSent, actual.dateSent);
+        assertEquals(message + " protocol", expected.protocol, actual.protocol);
+        assertEquals(message + " read", expected.read, actual.read);
+        assertEquals(message + " status", expected.status, actual.status);
+        assertEquals(message + " type", expected.type, actual.type);
+        assertEquals(message + " replyPathPresent", expected.replyPathPresent, actual.replyPathPresent);
+        assertEquals(message + " subject", expected.subject, actual.subject);
+        assertEquals(message + " body", expected.body, actual.body);
+        assertEquals(message + " serviceCenter", expected.serviceCenter, actual.serviceCenter);
+        assertEquals(message + " locked", expected.locked, actual.locked);
+        assertEquals(message + " errorCode", expected.errorCode, actual.errorCode);
+        assertEquals(message + " seen", expected.seen, actual.seen);
+    }
+}
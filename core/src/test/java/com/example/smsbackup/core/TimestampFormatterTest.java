@@ -0,0 +1,72 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimestampFormatterTest {
+
+    private static final String[] ZONES = {
+            "UTC", "America/New_York", "Europe/London", "Asia/Kolkata", "Australia/Lord_Howe",
+            "Pacific/Apia", "America/St_Johns",
+    };
+
+    @Test
+    public void matchesSimpleDateFormatAcrossZonesAndYears() {
+        Random random = new Random(4);
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            TimestampFormatter formatter = new TimestampFormatter(zone);
+            SimpleDateFormat reference = reference(zone);
+            for (int i = 0; i < 20_000; i++) {
+                // 1900 to 2100, including instants before the epoch.
+                long millis = -2_208_988_800_000L + (long) (random.nextDouble() * 6_311_390_400_000L);
+                assertEquals(id + " " + millis, reference.format(new Date(millis)), formatter.format(millis));
+            }
+        }
+    }
+
+    @Test
+    public void sequentialInstantsThroughTransitionDaysUseTheRightOffset() {
+        // Walks 2021 in 17-minute steps, so every cached day and every DST switch is crossed in order.
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            TimestampFormatter formatter = new TimestampFormatter(zone);
+            SimpleDateFormat reference = reference(zone);
+            for (long millis = 1_609_459_200_000L; millis < 1_640_995_200_000L; millis += 17 * 60_000L + 999) {
+                assertEquals(id + " " + millis, reference.format(new Date(millis)), formatter.format(millis));
+            }
+        }
+    }
+
+    @Test
+    public void writesIntoTheBufferAtTheOffset() {
+        TimestampFormatter formatter = new TimestampFormatter(TimeZone.getTimeZone("UTC"));
+        char[] buffer = new char[TimestampFormatter.LENGTH + 4];
+        int end = formatter.format(0L, buffer, 2);
+        assertEquals(2 + TimestampFormatter.LENGTH, end);
+        assertEquals("1970-01-01 00:00:00", new String(buffer, 2, TimestampFormatter.LENGTH));
+        assertEquals('\0', buffer[1]);
+        assertEquals('\0', buffer[end]);
+    }
+
+    @Test
+    public void yearsPastFourDigitsKeepTheFixedWidth() {
+        TimestampFormatter formatter = new TimestampFormatter(TimeZone.getTimeZone("UTC"));
+        char[] buffer = new char[TimestampFormatter.LENGTH];
+        assertEquals(TimestampFormatter.LENGTH, formatter.format(Long.MAX_VALUE / 2, buffer, 0));
+        assertEquals(TimestampFormatter.LENGTH, formatter.format(-100_000_000_000_000L, buffer, 0));
+    }
+
+    private static SimpleDateFormat reference(TimeZone zone) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        format.setTimeZone(zone);
+        return format;
+    }
+}
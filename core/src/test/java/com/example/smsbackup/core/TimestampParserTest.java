@@ -0,0 +1,95 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimestampParserTest {
+
+    private static final String[] ZONES = {
+            "UTC", "America/New_York", "Europe/London", "Asia/Kolkata", "Australia/Lord_Howe",
+            "Pacific/Apia", "America/St_Johns",
+    };
+
+    @Test
+    public void parsesWhatTheFormatterWritesAcrossZonesAndYears() {
+        Random random = new Random(9);
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            TimestampFormatter formatter = new TimestampFormatter(zone);
+            TimestampParser parser = new TimestampParser(zone);
+            for (int i = 0; i < 20_000; i++) {
+                // 1900 to 2100 in whole seconds, including instants before the epoch.
+                long millis = (-2_208_988_800L + (long) (random.nextDouble() * 6_311_390_400L)) * 1000;
+                assertRoundTrip(id, zone, formatter, parser, millis);
+            }
+        }
+    }
+
+    @Test
+    public void resolvesEveryLocalTimeAroundDstTransitions() {
+        // Walks 2021 in 17-minute steps, so every DST switch is crossed in both directions.
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            TimestampFormatter formatter = new TimestampFormatter(zone);
+            TimestampParser parser = new TimestampParser(zone);
+            for (long millis = 1_609_459_200_000L; millis < 1_640_995_200_000L; millis += 17 * 60_000L + 1000) {
+                assertRoundTrip(id, zone, formatter, parser, millis);
+            }
+        }
+    }
+
+    @Test
+    public void repeatedLocalTimeResolvesToOneOfItsTwoInstants() {
+        TimeZone zone = TimeZone.getTimeZone("America/New_York");
+        TimestampParser parser = new TimestampParser(zone);
+        // 2021-11-07 01:30 happens at 05:30 UTC (EDT) and again at 06:30 UTC (EST).
+        long parsed = parser.parse("2021-11-07 01:30:00", 0);
+        assertTrue(String.valueOf(parsed), parsed == 1_636_263_000_000L || parsed == 1_636_266_600_000L);
+        assertEquals("2021-11-07 01:30:00", new TimestampFormatter(zone).format(parsed));
+        // Either side of the repeated hour is unambiguous.
+        assertEquals(1_636_259_400_000L, parser.parse("2021-11-07 00:30:00", 0));
+        assertEquals(1_636_270_200_000L, parser.parse("2021-11-07 02:30:00", 0));
+    }
+
+    @Test
+    public void readsAtTheOffset() {
+        TimestampParser parser = new TimestampParser(TimeZone.getTimeZone("UTC"));
+        assertEquals(1_000_000_000_000L, parser.parse("x,2001-09-09 01:46:40,y", 2));
+        assertEquals(0L, parser.parse(new StringBuilder("1970-01-01 00:00:00"), 0));
+    }
+
+    @Test
+    public void rejectsAnythingElse() {
+        TimestampParser parser = new TimestampParser(TimeZone.getTimeZone("UTC"));
+        String[] invalid = {
+                "", "2021-01-01", "2021-01-01 00:00", "2021/01/01 00:00:00", "2021-01-01T00:00:00",
+                "2021-13-01 00:00:00", "2021-00-01 00:00:00", "2021-01-32 00:00:00", "2021-01-01 24:00:00",
+                "2021-01-01 00:60:00", "2021-01-01 00:00:60", "20x1-01-01 00:00:00", "2021-01-01 0a:00:00",
+        };
+        for (String text : invalid) {
+            try {
+                parser.parse(text, 0);
+                fail(text);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private static void assertRoundTrip(String id, TimeZone zone, TimestampFormatter formatter,
+            TimestampParser parser, long millis) {
+        String text = formatter.format(millis);
+        long parsed = parser.parse(text, 0);
+        if (parsed != millis) {
+            // Only a local time that repeats may come back as the other of its two instants.
+            assertEquals(id + " " + millis, text, formatter.format(parsed));
+            assertNotEquals(id + " " + millis, zone.getOffset(millis), zone.getOffset(parsed));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.smsbackup.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class Utf8WriterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] SAMPLES = {
+            "", "ascii only", "caf\u00e9", "\u4f60\u597d\uff0c\u4e16\u754c", "emoji \ud83d\ude00\ud83d\udc4d", "lone \ud83d high", "lone \ude00 low",
+            "\ud83d", "\ude00\ud83d", "\ud83d\ud83d\ude00", "ends high \ud83d",
+    };
+
+    @Test
+    public void encodesLikeTheJdk() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append(SAMPLES[i % SAMPLES.length]).append(',');
+        }
+        byte[] expected = text.toString().getBytes(UTF_8);
+        // Small buffers drain in the middle of multi-byte sequences and surrogate pairs.
+        for (int bufferSize : new int[]{16, 17, 19, 1000, Utf8Writer.DEFAULT_BUFFER_SIZE}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Utf8Writer writer = new Utf8Writer(out, bufferSize);
+            MappedFileWriterTest.writeInPieces(writer, text.toString());
+            assertEquals(expected.length, writer.length());
+            writer.close();
+            assertArrayEquals("bufferSize " + bufferSize, expected, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void aPairSplitAcrossWritesIsOneCodePoint() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Utf8Writer writer = new Utf8Writer(out)) {
+            writer.write("a\ud83d");
+            // The pending high surrogate isn't counted until its pair arrives.
+            assertEquals(1, writer.length());
+            writer.write(new char[]{'\ude00', 'b'});
+            assertEquals(6, writer.length());
+            writer.write("c\ud83d");
+        }
+        assertEquals("a\ud83d\ude00bc?", new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void buffersUntilFlush() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8Writer writer = new Utf8Writer(out, 16);
+        writer.write("0123456789");
+        assertEquals(0, out.size());
+        writer.flush();
+        assertEquals("0123456789", new String(out.toByteArray(), UTF_8));
+        writer.write("abcdefghij");
+        assertEquals(10, out.size());
+        writer.close();
+        writer.close();
+        assertEquals("0123456789abcdefghij", new String(out.toByteArray(), UTF_8));
+        try {
+            writer.write("x");
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void encodesStringsIntoArrays() {
+        for (String sample : SAMPLES) {
+            byte[] expected = sample.getBytes(UTF_8);
+            assertEquals(sample, expected.length, Utf8.encodedLength(sample));
+            byte[] bytes = new byte[expected.length + 4];
+            assertEquals(sample, expected.length + 2, Utf8.encode(sample, bytes, 2));
+            assertArrayEquals(sample, expected, Arrays.copyOfRange(bytes, 2, 2 + expected.length));
+        }
+    }
+}